@@ -1,6 +1,7 @@
 package org.rcsb.strucmotif.align;
 
 import org.rcsb.strucmotif.domain.align.AlignmentResult;
+import org.rcsb.strucmotif.domain.align.AlignmentTemplate;
 import org.rcsb.strucmotif.domain.align.AtomPairingScheme;
 import org.rcsb.strucmotif.domain.structure.LabelAtomId;
 
@@ -19,4 +20,30 @@ public interface AlignmentService {
      * @return an Alignment instance which provides the aligned instances, transformation operations and scores
      */
     AlignmentResult align(List<Map<LabelAtomId, float[]>> reference, List<Map<LabelAtomId, float[]>> candidate, AtomPairingScheme atomPairingScheme);
+
+    /**
+     * Aligns a set of residues to a precompiled reference. Implementations can skip all work that only depends on the
+     * reference, by default this falls back to {@link #align(List, List, AtomPairingScheme)}.
+     * @param template the compiled reference set of residues
+     * @param candidate the candidate set of residues to evaluate
+     * @return an Alignment instance which provides the aligned instances, transformation operations and scores
+     */
+    default AlignmentResult align(AlignmentTemplate template, List<Map<LabelAtomId, float[]>> candidate) {
+        return align(template.getReferenceResidues(), candidate, template.getAtomPairingScheme());
+    }
+
+    /**
+     * Aligns many sets of residues to the same precompiled reference. By default, each candidate is aligned by
+     * {@link #align(AlignmentTemplate, List)}, implementations can process them in batches instead.
+     * @param template the compiled reference set of residues
+     * @param candidates all candidate sets of residues to evaluate
+     * @return an array with the alignment of each candidate, in the same order
+     */
+    default AlignmentResult[] alignAll(AlignmentTemplate template, List<List<Map<LabelAtomId, float[]>>> candidates) {
+        AlignmentResult[] out = new AlignmentResult[candidates.size()];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = align(template, candidates.get(i));
+        }
+        return out;
+    }
 }
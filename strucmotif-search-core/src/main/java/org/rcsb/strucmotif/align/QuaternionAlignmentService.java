@@ -1,6 +1,7 @@
 package org.rcsb.strucmotif.align;
 
 import org.rcsb.strucmotif.domain.align.AlignmentResult;
+import org.rcsb.strucmotif.domain.align.AlignmentTemplate;
 import org.rcsb.strucmotif.domain.align.AtomCorrespondence;
 import org.rcsb.strucmotif.domain.align.AtomPairingScheme;
 import org.rcsb.strucmotif.domain.Pair;
@@ -8,6 +9,7 @@ import org.rcsb.strucmotif.domain.structure.LabelAtomId;
 import org.rcsb.strucmotif.math.Algebra;
 import org.springframework.stereotype.Service;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -19,6 +21,9 @@ import java.util.Objects;
 @Service
 public class QuaternionAlignmentService implements AlignmentService {
     private static final float[] IDENTITY_MATRIX_3D = new float[] { 1, 0, 0, 0, 1, 0, 0, 0, 1 };
+    private static final ThreadLocal<Workspace> WORKSPACE = ThreadLocal.withInitial(Workspace::new);
+    private static final int BATCH_SIZE = 64;
+    private static final ThreadLocal<BatchWorkspace> BATCH_WORKSPACE = ThreadLocal.withInitial(BatchWorkspace::new);
 
     /**
      * Default constructor.
@@ -36,68 +41,208 @@ public class QuaternionAlignmentService implements AlignmentService {
         Objects.requireNonNull(atomPairingScheme, "alignment scheme cannot be null");
 
         // find compatible combinations between reference and candidate atoms
-        AtomCorrespondence atomCorrespondence = new AtomCorrespondence(reference, candidate, atomPairingScheme);
-        return align(atomCorrespondence);
+        Workspace workspace = WORKSPACE.get();
+        int atomCount = pairAtomsByName(reference, candidate, atomPairingScheme, workspace);
+        return align(workspace.reference, workspace.candidate, atomCount, workspace);
+    }
+
+    @Override
+    public AlignmentResult align(AlignmentTemplate template, List<Map<LabelAtomId, float[]>> candidate) {
+        List<Map<LabelAtomId, float[]>> reference = template.getReferenceResidues();
+        if (reference.size() != candidate.size()) {
+            return align(reference, candidate, template.getAtomPairingScheme());
+        }
+
+        // only gather candidate coordinates, everything on the reference side is precomputed
+        Workspace workspace = WORKSPACE.get();
+        int atomCount = template.getAtomCount();
+        workspace.ensureCapacity(atomCount);
+        int[] residueIndices = template.getResidueIndices();
+        LabelAtomId[] labelAtomIds = template.getLabelAtomIds();
+        for (int i = 0; i < atomCount; i++) {
+            Map<LabelAtomId, float[]> candidateGroup = candidate.get(residueIndices[i]);
+            float[] candidateAtom = labelAtomIds[i] != null ? candidateGroup.get(labelAtomIds[i]) : getVirtualCB(candidateGroup);
+            if (candidateAtom == null) {
+                // candidate lacks some atoms (e.g. exchanged residues): pairing and reference centroid depend on it
+                return align(reference, candidate, template.getAtomPairingScheme());
+            }
+            System.arraycopy(candidateAtom, 0, workspace.candidate, 3 * i, 3);
+        }
+
+        float[] referenceCentroid = template.getReferenceCentroid();
+        return superimpose(template.getCenteredReference(), referenceCentroid[0], referenceCentroid[1], referenceCentroid[2],
+                template.getReferenceSquaredNorm(), workspace.candidate, atomCount, workspace);
+    }
+
+    @Override
+    public AlignmentResult[] alignAll(AlignmentTemplate template, List<List<Map<LabelAtomId, float[]>>> candidates) {
+        AlignmentResult[] out = new AlignmentResult[candidates.size()];
+        BatchWorkspace workspace = BATCH_WORKSPACE.get();
+        workspace.ensureCapacity(template.getAtomCount());
+        for (int offset = 0; offset < candidates.size(); offset += BATCH_SIZE) {
+            alignBatch(template, candidates, offset, Math.min(BATCH_SIZE, candidates.size() - offset), out, workspace);
+        }
+        return out;
     }
 
     /**
-     * Aligns 2 lists of 3D vectors by quaternion-based characteristic polynomial. Both lists of reference and candidate
-     * points are expected to be equal of size. Furthermore, centroids have to be computed externally and points must be
-     * centered.
-     *
-     * <p>base on code from: <a href="https://theobald.brandeis.edu/qcp/qcprot.c">https://theobald.brandeis.edu/qcp/qcprot.c</a>
-     *
-     * <p>Douglas L. Theobald (2005)
-     * "Rapid calculation of RMSD using a quaternion-based characteristic
-     * polynomial."
-     * Acta Crystallographica A 61(4):478-480.
-     *
-     * <p>Pu Liu, Dmitris K. Agrafiotis, and Douglas L. Theobald (2009)
-     * "Fast determination of the optimal rotational matrix for macromolecular
-     * superpositions."
-     * Journal of Computational Chemistry 31(7):1561-1563.
-     *
-     * <p>Copyright (c) 2009-2016 Pu Liu and Douglas L. Theobald
-     * All rights reserved.
-     *
-     * <p>Redistribution and use in source and binary forms, with or without modification, are permitted
-     * provided that the following conditions are met:
-     * <ul>
-     * <li>Redistributions of source code must retain the above copyright notice, this list of
-     *   conditions and the following disclaimer.</li>
-     * <li>Redistributions in binary form must reproduce the above copyright notice, this list
-     *   of conditions and the following disclaimer in the documentation and/or other materials
-     *   provided with the distribution.</li>
-     * <li>Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to
-     *   endorse or promote products derived from this software without specific prior written
-     *   permission.</li>
-     * </ul>
-     *
-     * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
-     * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
-     * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
-     * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
-     * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
-     * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
-     * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
-     * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
-     * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
-     * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
-     * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
-     *
-     * @param atomCorrespondence the paired/mapped atoms
-     * @return an object describing the transformation
+     * Aligns a batch of candidates to a template. Candidate coordinates are stored as structure of arrays (all x
+     * values of the 1st slot, all y values of the 1st slot, ...), so that the innermost loops run over candidates
+     * without dependencies between iterations and can be vectorized by the JIT. Each candidate sees the same sequence
+     * of operations as in {@link #align(AlignmentTemplate, List)}, results are identical.
+     */
+    private void alignBatch(AlignmentTemplate template, List<List<Map<LabelAtomId, float[]>>> candidates, int offset, int batchSize, AlignmentResult[] out, BatchWorkspace workspace) {
+        int atomCount = template.getAtomCount();
+        List<Map<LabelAtomId, float[]>> reference = template.getReferenceResidues();
+        int[] residueIndices = template.getResidueIndices();
+        LabelAtomId[] labelAtomIds = template.getLabelAtomIds();
+        float[] coordinates = workspace.coordinates;
+
+        // gather, candidates that can't fill all slots take the regular path and are excluded from the batch
+        int[] lanes = workspace.lanes;
+        int laneCount = 0;
+        c:
+        for (int c = 0; c < batchSize; c++) {
+            List<Map<LabelAtomId, float[]>> candidate = candidates.get(offset + c);
+            if (reference.size() != candidate.size()) {
+                out[offset + c] = align(reference, candidate, template.getAtomPairingScheme());
+                continue;
+            }
+
+            for (int i = 0; i < atomCount; i++) {
+                Map<LabelAtomId, float[]> candidateGroup = candidate.get(residueIndices[i]);
+                float[] candidateAtom = labelAtomIds[i] != null ? candidateGroup.get(labelAtomIds[i]) : getVirtualCB(candidateGroup);
+                if (candidateAtom == null) {
+                    out[offset + c] = align(reference, candidate, template.getAtomPairingScheme());
+                    continue c;
+                }
+                coordinates[3 * i * BATCH_SIZE + laneCount] = candidateAtom[0];
+                coordinates[(3 * i + 1) * BATCH_SIZE + laneCount] = candidateAtom[1];
+                coordinates[(3 * i + 2) * BATCH_SIZE + laneCount] = candidateAtom[2];
+            }
+            lanes[laneCount++] = c;
+        }
+
+        // candidate centroids
+        float[] ccx = workspace.ccx;
+        float[] ccy = workspace.ccy;
+        float[] ccz = workspace.ccz;
+        Arrays.fill(ccx, 0);
+        Arrays.fill(ccy, 0);
+        Arrays.fill(ccz, 0);
+        for (int i = 0; i < atomCount; i++) {
+            int ox = 3 * i * BATCH_SIZE;
+            int oy = ox + BATCH_SIZE;
+            int oz = oy + BATCH_SIZE;
+            for (int l = 0; l < laneCount; l++) {
+                ccx[l] += coordinates[ox + l];
+                ccy[l] += coordinates[oy + l];
+                ccz[l] += coordinates[oz + l];
+            }
+        }
+        for (int l = 0; l < laneCount; l++) {
+            ccx[l] /= atomCount;
+            ccy[l] /= atomCount;
+            ccz[l] /= atomCount;
+        }
+
+        // inner products of centered coordinates, reference side is shared by all lanes
+        double[] g2 = workspace.g2;
+        double[] matA = workspace.innerProducts;
+        Arrays.fill(g2, 0);
+        Arrays.fill(matA, 0);
+        float[] centeredReference = template.getCenteredReference();
+        for (int i = 0; i < atomCount; i++) {
+            double x1 = centeredReference[3 * i];
+            double y1 = centeredReference[3 * i + 1];
+            double z1 = centeredReference[3 * i + 2];
+            int ox = 3 * i * BATCH_SIZE;
+            int oy = ox + BATCH_SIZE;
+            int oz = oy + BATCH_SIZE;
+            for (int l = 0; l < laneCount; l++) {
+                double x2 = coordinates[ox + l] - ccx[l];
+                double y2 = coordinates[oy + l] - ccy[l];
+                double z2 = coordinates[oz + l] - ccz[l];
+                g2[l] += (x2 * x2 + y2 * y2 + z2 * z2);
+
+                matA[l] += (x1 * x2);
+                matA[BATCH_SIZE + l] += (x1 * y2);
+                matA[2 * BATCH_SIZE + l] += (x1 * z2);
+
+                matA[3 * BATCH_SIZE + l] += (y1 * x2);
+                matA[4 * BATCH_SIZE + l] += (y1 * y2);
+                matA[5 * BATCH_SIZE + l] += (y1 * z2);
+
+                matA[6 * BATCH_SIZE + l] += (z1 * x2);
+                matA[7 * BATCH_SIZE + l] += (z1 * y2);
+                matA[8 * BATCH_SIZE + l] += (z1 * z2);
+            }
+        }
+
+        // the characteristic polynomial is solved per lane
+        float[] referenceCentroid = template.getReferenceCentroid();
+        double[] innerProduct = workspace.innerProduct;
+        for (int l = 0; l < laneCount; l++) {
+            for (int k = 0; k < 9; k++) {
+                innerProduct[k] = matA[k * BATCH_SIZE + l];
+            }
+            out[offset + lanes[l]] = solve(innerProduct, template.getReferenceSquaredNorm(), g2[l], atomCount,
+                    referenceCentroid[0], referenceCentroid[1], referenceCentroid[2], ccx[l], ccy[l], ccz[l], workspace.rotation);
+        }
+    }
+
+    /**
+     * Pairs reference and candidate atoms like {@link AtomCorrespondence} does, but writes their coordinates to the
+     * packed arrays of a workspace.
+     * @param reference the reference container
+     * @param candidate the candidate container
+     * @param atomPairingScheme how to pair atoms
+     * @param workspace where to write coordinates to
+     * @throws IllegalStateException when no atoms were paired - this should not happen
+     * @return the number of paired atoms
      */
-    private AlignmentResult align(AtomCorrespondence atomCorrespondence) {
-        List<float[]> referencePoints = atomCorrespondence.getCenteredReferenceVectors();
-        float[] referenceCentroid = atomCorrespondence.getReferenceCentroid();
-        List<float[]> candidatePoints = atomCorrespondence.getCenteredCandidateVectors();
-        float[] candidateCentroid = atomCorrespondence.getCandidateCentroid();
+    private static int pairAtomsByName(List<Map<LabelAtomId, float[]>> reference,
+                                       List<Map<LabelAtomId, float[]>> candidate,
+                                       AtomPairingScheme atomPairingScheme,
+                                       Workspace workspace) {
+        int atomCount = 0;
+        boolean schemeRequiresSubset = atomPairingScheme != AtomPairingScheme.ALL;
+
+        for (int i = 0; i < reference.size(); i++) {
+            boolean added = false;
+            Map<LabelAtomId, float[]> referenceGroup = reference.get(i);
+            Map<LabelAtomId, float[]> candidateGroup = candidate.get(i);
+
+            for (Map.Entry<LabelAtomId, float[]> referenceAtom : referenceGroup.entrySet()) {
+                LabelAtomId referenceLabel = referenceAtom.getKey();
+
+                // if using a subset and if this is not an allowed name: continue
+                if (schemeRequiresSubset && !atomPairingScheme.test(referenceLabel)) {
+                    continue;
+                }
+
+                float[] candidateAtom = candidateGroup.get(referenceLabel);
+                if (candidateAtom != null) {
+                    workspace.put(atomCount++, referenceAtom.getValue(), candidateAtom);
+                    added = true;
+                }
+            }
 
-        Pair<float[], Float> alignment = align(referencePoints, referenceCentroid, candidatePoints, candidateCentroid);
+            // handle glycines somewhat gracefully -- ideally, this would only apply to real glycines and not anything without CB
+            if (!added && atomPairingScheme == AtomPairingScheme.SIDE_CHAIN) {
+                float[] virtualRef = getVirtualCB(referenceGroup);
+                float[] virtualCand = getVirtualCB(candidateGroup);
+                if (virtualRef != null && virtualCand != null) {
+                    workspace.put(atomCount++, virtualRef, virtualCand);
+                }
+            }
+        }
 
-        float rmsd = alignment.second();
-        return new AlignmentResult(alignment.first(), Float.isNaN(rmsd) ? Float.MAX_VALUE : rmsd);
+        if (atomCount == 0) {
+            throw new IllegalStateException("Found empty pairing of atoms");
+        }
+
+        return atomCount;
     }
 
     /**
@@ -108,7 +253,6 @@ public class QuaternionAlignmentService implements AlignmentService {
      * @param candidateCentroid the centroid of candidate points
      * @return pair of transformation and RMSD
      */
-    @SuppressWarnings("Duplicates")
     public static Pair<float[], Float> align(List<float[]> referencePoints, float[] referenceCentroid, List<float[]> candidatePoints, float[] candidateCentroid) {
         float[] rot = new float[9];
 
@@ -143,9 +287,183 @@ public class QuaternionAlignmentService implements AlignmentService {
             matA[7] +=  (z1 * y2);
             matA[8] +=  (z1 * z2);
         }
-        double e0 = (g1 + g2) * 0.5;
+        double rms = solve(matA, (g1 + g2) * 0.5, referencePoints.size(), rot);
+
+        Algebra.multiply3d(candidateCentroid, Algebra.transpose3d(rot), candidateCentroid);
+        float[] translation = new float[3];
+        Algebra.subtract3d(translation, referenceCentroid, candidateCentroid);
+        float[] transformation = Algebra.composeTransformationMatrix(rot, translation);
+        return new Pair<>(transformation, (float) rms);
+    }
+
+    /**
+     * Aligns 2 packed arrays of 3D coordinates (x, y, z of the 1st atom, x, y, z of the 2nd atom, ...). Coordinates
+     * don't have to be centered. Apart from the transformation of the result, this doesn't allocate: intermediate
+     * values are kept on the stack or in a workspace of the calling thread.
+     * @param reference the reference coordinates
+     * @param candidate the candidate coordinates, paired with the reference by position
+     * @param atomCount the number of atoms to consider
+     * @return an object describing the transformation
+     */
+    public static AlignmentResult align(float[] reference, float[] candidate, int atomCount) {
+        return align(reference, candidate, atomCount, WORKSPACE.get());
+    }
+
+    private static AlignmentResult align(float[] reference, float[] candidate, int atomCount, Workspace workspace) {
+        // reference centroid
+        float rcx = 0;
+        float rcy = 0;
+        float rcz = 0;
+        for (int i = 0; i < 3 * atomCount; i = i + 3) {
+            rcx += reference[i];
+            rcy += reference[i + 1];
+            rcz += reference[i + 2];
+        }
+        rcx /= atomCount;
+        rcy /= atomCount;
+        rcz /= atomCount;
+
+        // centered reference
+        workspace.ensureCapacity(atomCount);
+        float[] centeredReference = workspace.centeredReference;
+        double g1 = 0.0;
+        for (int i = 0; i < 3 * atomCount; i = i + 3) {
+            centeredReference[i] = reference[i] - rcx;
+            centeredReference[i + 1] = reference[i + 1] - rcy;
+            centeredReference[i + 2] = reference[i + 2] - rcz;
+            double x1 = centeredReference[i];
+            double y1 = centeredReference[i + 1];
+            double z1 = centeredReference[i + 2];
+            g1 += x1 * x1 + y1 * y1 + z1 * z1;
+        }
+
+        return superimpose(centeredReference, rcx, rcy, rcz, g1, candidate, atomCount, workspace);
+    }
+
+    /**
+     * Superimposes candidate coordinates onto a centered reference.
+     * @param centeredReference the packed, centered reference coordinates
+     * @param rcx x of the reference centroid
+     * @param rcy y of the reference centroid
+     * @param rcz z of the reference centroid
+     * @param g1 the sum of squared norms of the centered reference coordinates
+     * @param candidate the packed candidate coordinates, not centered
+     * @param atomCount the number of atoms to consider
+     * @param workspace the workspace of the calling thread
+     * @return an object describing the transformation
+     */
+    private static AlignmentResult superimpose(float[] centeredReference, float rcx, float rcy, float rcz, double g1, float[] candidate, int atomCount, Workspace workspace) {
+        // candidate centroid
+        float ccx = 0;
+        float ccy = 0;
+        float ccz = 0;
+        for (int i = 0; i < 3 * atomCount; i = i + 3) {
+            ccx += candidate[i];
+            ccy += candidate[i + 1];
+            ccz += candidate[i + 2];
+        }
+        ccx /= atomCount;
+        ccy /= atomCount;
+        ccz /= atomCount;
+
+        // inner product of centered coordinates
+        double g2 = 0.0;
+        double[] matA = workspace.innerProduct;
+        Arrays.fill(matA, 0);
+        for (int i = 0; i < 3 * atomCount; i = i + 3) {
+            double x1 = centeredReference[i];
+            double y1 = centeredReference[i + 1];
+            double z1 = centeredReference[i + 2];
+
+            double x2 = candidate[i] - ccx;
+            double y2 = candidate[i + 1] - ccy;
+            double z2 = candidate[i + 2] - ccz;
+            g2 += (x2 * x2 + y2 * y2 + z2 * z2);
+
+            matA[0] +=  (x1 * x2);
+            matA[1] +=  (x1 * y2);
+            matA[2] +=  (x1 * z2);
+
+            matA[3] +=  (y1 * x2);
+            matA[4] +=  (y1 * y2);
+            matA[5] +=  (y1 * z2);
+
+            matA[6] +=  (z1 * x2);
+            matA[7] +=  (z1 * y2);
+            matA[8] +=  (z1 * z2);
+        }
+
+        return solve(matA, g1, g2, atomCount, rcx, rcy, rcz, ccx, ccy, ccz, workspace.rotation);
+    }
+
+    private static AlignmentResult solve(double[] matA, double g1, double g2, int atomCount, float rcx, float rcy, float rcz, float ccx, float ccy, float ccz, float[] rot) {
+        float rmsd = (float) solve(matA, (g1 + g2) * 0.5, atomCount, rot);
+
+        // rotated candidate centroid, moved onto the reference centroid
+        float tx = rcx - (rot[0] * ccx + rot[1] * ccy + rot[2] * ccz);
+        float ty = rcy - (rot[3] * ccx + rot[4] * ccy + rot[5] * ccz);
+        float tz = rcz - (rot[6] * ccx + rot[7] * ccy + rot[8] * ccz);
+        float[] transformation = new float[] {
+                rot[0], rot[1], rot[2], tx,
+                rot[3], rot[4], rot[5], ty,
+                rot[6], rot[7], rot[8], tz,
+                0, 0, 0, 1
+        };
+        return new AlignmentResult(transformation, Float.isNaN(rmsd) ? Float.MAX_VALUE : rmsd);
+    }
 
-        // fast calc RMSD and rotation
+    /**
+     * Solves the quaternion-based characteristic polynomial: determines the RMSD and rotation of the optimal
+     * superposition from the inner product of centered coordinates.
+     *
+     * <p>base on code from: <a href="https://theobald.brandeis.edu/qcp/qcprot.c">https://theobald.brandeis.edu/qcp/qcprot.c</a>
+     *
+     * <p>Douglas L. Theobald (2005)
+     * "Rapid calculation of RMSD using a quaternion-based characteristic
+     * polynomial."
+     * Acta Crystallographica A 61(4):478-480.
+     *
+     * <p>Pu Liu, Dmitris K. Agrafiotis, and Douglas L. Theobald (2009)
+     * "Fast determination of the optimal rotational matrix for macromolecular
+     * superpositions."
+     * Journal of Computational Chemistry 31(7):1561-1563.
+     *
+     * <p>Copyright (c) 2009-2016 Pu Liu and Douglas L. Theobald
+     * All rights reserved.
+     *
+     * <p>Redistribution and use in source and binary forms, with or without modification, are permitted
+     * provided that the following conditions are met:
+     * <ul>
+     * <li>Redistributions of source code must retain the above copyright notice, this list of
+     *   conditions and the following disclaimer.</li>
+     * <li>Redistributions in binary form must reproduce the above copyright notice, this list
+     *   of conditions and the following disclaimer in the documentation and/or other materials
+     *   provided with the distribution.</li>
+     * <li>Neither the name of the <ORGANIZATION> nor the names of its contributors may be used to
+     *   endorse or promote products derived from this software without specific prior written
+     *   permission.</li>
+     * </ul>
+     *
+     * <p>THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+     * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+     * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+     * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+     * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+     * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+     * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+     * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+     * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+     * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+     * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+     *
+     * @param innerProduct the 3x3 inner product matrix of reference and candidate coordinates
+     * @param e0 half of the sum of squared norms of all coordinates
+     * @param atomCount the number of atoms
+     * @param rot will hold the rotation matrix
+     * @return the RMSD
+     */
+    @SuppressWarnings("Duplicates")
+    private static double solve(double[] innerProduct, double e0, int atomCount, float[] rot) {
         double sxx;
         double sxy;
         double sxz;
@@ -175,7 +493,9 @@ public class QuaternionAlignmentService implements AlignmentService {
         double sxymsyx;
         double sxxpsyy;
         double sxxmsyy;
-        double[] c = new double[4];
+        double c0;
+        double c1;
+        double c2;
         int i;
         double mxEigenV;
         double oldg;
@@ -224,9 +544,9 @@ public class QuaternionAlignmentService implements AlignmentService {
         double evecprec = 1e-6;
         double evalprec = 1e-11;
 
-        sxx = matA[0]; sxy = matA[1]; sxz = matA[2];
-        syx = matA[3]; syy = matA[4]; syz = matA[5];
-        szx = matA[6]; szy = matA[7]; szz = matA[8];
+        sxx = innerProduct[0]; sxy = innerProduct[1]; sxz = innerProduct[2];
+        syx = innerProduct[3]; syy = innerProduct[4]; syz = innerProduct[5];
+        szx = innerProduct[6]; szy = innerProduct[7]; szz = innerProduct[8];
 
         sxx2 = sxx * sxx;
         syy2 = syy * syy;
@@ -243,8 +563,8 @@ public class QuaternionAlignmentService implements AlignmentService {
         syzszymsyyszz2 = 2.0 * (syz * szy - syy * szz);
         sxx2syy2szz2syz2szy2 = syy2 + szz2 - sxx2 + syz2 + szy2;
 
-        c[2] = -2.0 * (sxx2 + syy2 + szz2 + sxy2 + syx2 + sxz2 + szx2 + syz2 + szy2);
-        c[1] = 8.0 * (sxx * syz * szy + syy * szx * sxz + szz * sxy * syx - sxx * syy * szz - syz * szx * sxy - szy * syx * sxz);
+        c2 = -2.0 * (sxx2 + syy2 + szz2 + sxy2 + syx2 + sxz2 + szx2 + syz2 + szy2);
+        c1 = 8.0 * (sxx * syz * szy + syy * szx * sxz + szz * sxy * syx - sxx * syy * szz - syz * szx * sxy - szy * syx * sxz);
 
         sxzpszx = sxz + szx;
         syzpszy = syz + szy;
@@ -256,7 +576,7 @@ public class QuaternionAlignmentService implements AlignmentService {
         sxxmsyy = sxx - syy;
         sxy2sxz2syx2szx2 = sxy2 + sxz2 - syx2 - szx2;
 
-        c[0] = sxy2sxz2syx2szx2 * sxy2sxz2syx2szx2
+        c0 = sxy2sxz2syx2szx2 * sxy2sxz2syx2szx2
                 + (sxx2syy2szz2syz2szy2 + syzszymsyyszz2) * (sxx2syy2szz2syz2szy2 - syzszymsyyszz2)
                 + (-(sxzpszx) * (syzmszy) + (sxymsyx) * (sxxmsyy - szz)) * (-(sxzmszx) * (syzpszy) + (sxymsyx) * (sxxmsyy + szz))
                 + (-(sxzpszx) * (syzpszy) - (sxypsyx) * (sxxpsyy - szz)) * (-(sxzmszx) * (syzmszy) - (sxypsyx) * (sxxpsyy + szz))
@@ -268,9 +588,9 @@ public class QuaternionAlignmentService implements AlignmentService {
         for (i = 0; i < 50; ++i) {
             oldg = mxEigenV;
             x2 = mxEigenV * mxEigenV;
-            b = (x2 + c[2]) * mxEigenV;
-            a = b + c[1];
-            delta = ((a * mxEigenV + c[0]) / (2.0 * x2 * mxEigenV + b + a));
+            b = (x2 + c2) * mxEigenV;
+            a = b + c1;
+            delta = ((a * mxEigenV + c0) / (2.0 * x2 * mxEigenV + b + a));
             mxEigenV -= delta;
             if (Math.abs(mxEigenV - oldg) < Math.abs(evalprec * mxEigenV)) {
                 break;
@@ -278,7 +598,7 @@ public class QuaternionAlignmentService implements AlignmentService {
         }
 
         /* the abs() is to guard against tiny, but *negative* numbers due to floating point error */
-        rms = Math.sqrt(Math.abs(2.0 * (e0 - mxEigenV) / referencePoints.size()));
+        rms = Math.sqrt(Math.abs(2.0 * (e0 - mxEigenV) / atomCount));
 
         a11 = sxxpsyy + szz - mxEigenV;
         a12 = syzmszy;
@@ -344,7 +664,7 @@ public class QuaternionAlignmentService implements AlignmentService {
 
                     if (qsqr < evecprec) {
                         /* if qsqr is still too small, return the identity matrix. */
-                        rot = IDENTITY_MATRIX_3D;
+                        System.arraycopy(IDENTITY_MATRIX_3D, 0, rot, 0, IDENTITY_MATRIX_3D.length);
                     }
                 }
             }
@@ -378,11 +698,7 @@ public class QuaternionAlignmentService implements AlignmentService {
             rot[8] = (float) (a2 - x2 - y2 + z2);
         }
 
-        Algebra.multiply3d(candidateCentroid, Algebra.transpose3d(rot), candidateCentroid);
-        float[] translation = new float[3];
-        Algebra.subtract3d(translation, referenceCentroid, candidateCentroid);
-        float[] transformation = Algebra.composeTransformationMatrix(rot, translation);
-        return new Pair<>(transformation, (float) rms);
+        return rms;
     }
 
     // already centered coordinates to save operations
@@ -407,4 +723,51 @@ public class QuaternionAlignmentService implements AlignmentService {
         Algebra.multiply4d(v, transformation, REFERENCE_CB);
         return v;
     }
+
+    /**
+     * Reusable buffers of a thread: packed coordinates of paired atoms and intermediates of the superposition.
+     */
+    private static class Workspace {
+        private float[] reference = new float[3 * 32];
+        private float[] candidate = new float[3 * 32];
+        private float[] centeredReference = new float[3 * 32];
+        private final double[] innerProduct = new double[9];
+        private final float[] rotation = new float[9];
+
+        private void ensureCapacity(int atomCount) {
+            if (3 * atomCount > reference.length) {
+                int length = Math.max(3 * atomCount, 2 * reference.length);
+                reference = Arrays.copyOf(reference, length);
+                candidate = Arrays.copyOf(candidate, length);
+                centeredReference = new float[length];
+            }
+        }
+
+        private void put(int index, float[] referenceAtom, float[] candidateAtom) {
+            ensureCapacity(index + 1);
+            System.arraycopy(referenceAtom, 0, reference, 3 * index, 3);
+            System.arraycopy(candidateAtom, 0, candidate, 3 * index, 3);
+        }
+    }
+
+    /**
+     * Reusable buffers of a thread for batches of candidates, arrays hold {@link #BATCH_SIZE} lanes per value.
+     */
+    private static class BatchWorkspace {
+        private float[] coordinates = new float[0];
+        private final int[] lanes = new int[BATCH_SIZE];
+        private final float[] ccx = new float[BATCH_SIZE];
+        private final float[] ccy = new float[BATCH_SIZE];
+        private final float[] ccz = new float[BATCH_SIZE];
+        private final double[] g2 = new double[BATCH_SIZE];
+        private final double[] innerProducts = new double[9 * BATCH_SIZE];
+        private final double[] innerProduct = new double[9];
+        private final float[] rotation = new float[9];
+
+        private void ensureCapacity(int atomCount) {
+            if (3 * atomCount * BATCH_SIZE > coordinates.length) {
+                coordinates = new float[3 * atomCount * BATCH_SIZE];
+            }
+        }
+    }
 }
@@ -3,6 +3,7 @@ package org.rcsb.strucmotif.config;
 import org.rcsb.strucmotif.io.codec.BucketCodec;
 import org.rcsb.strucmotif.io.codec.ColferCodec;
 import org.rcsb.strucmotif.io.codec.JsonCodec;
+import org.rcsb.strucmotif.io.codec.PackedCodec;
 
 /**
  * How to persist inverted index data?
@@ -12,6 +13,10 @@ public enum InvertedIndexBackend {
      * Smaller files that are faster to read/write in a less standard format.
      */
     COLFER(new ColferCodec(), ".colf"),
+    /**
+     * Delta-encoded, bit-packed blocks: smallest files and fastest decoding.
+     */
+    PACKED(new PackedCodec(), ".pack"),
     /**
      * Useful for debugging.
      */
@@ -90,6 +90,37 @@ public class StrucmotifConfig {
      * pairs into temporary files and compacting these temporary files and actually adding them to the real index file.
      */
     private int commitInterval = 200_000;
+    /**
+     * Size (in bytes) of the heap that may be used to merge temporary files into the inverted index during commit.
+     * Prefixes are merged concurrently as long as their data fits, data exceeding this budget is sorted in chunks that
+     * are spilled to disk.
+     */
+    private long commitMemoryBudget = 1024L * 1024 * 1024;
+    /**
+     * Deleted structures are only marked as such and filtered when the index is read. During compaction, all buckets
+     * where the fraction of residue pairs of deleted structures exceeds this value are rewritten.
+     */
+    private double compactionThreshold = 0.2;
+    /**
+     * Number of shards the inverted index is partitioned into. Each shard holds all data of a subset of structure
+     * indices in its own directory below the root path ('shard-0', 'shard-1', ...), which may be a link to a different
+     * disk. Queries are evaluated for each shard in parallel. A value of 1 keeps all data directly in the root path.
+     * Changing this value requires rebuilding the index.
+     */
+    private int indexShards = 1;
+    /**
+     * Maximum number of candidate structures whose paths are assembled at once. When positive, candidates are split
+     * into chunks of this size, and each chunk is scored while the next one is assembled. This bounds the number of
+     * target structures held in memory and emits the first hits earlier. A value of 0 assembles all candidates at once.
+     */
+    private int assemblyChunkSize = 0;
+    /**
+     * Maximum number of bytes of target structures and residue pairs a single query may hold during target assembly &
+     * scoring, shared by all shards of the query. Queries exceeding it are terminated with a
+     * QueryMemoryExceededException, so that they can't exhaust the heap shared with other queries. With
+     * 'assembly-chunk-size', the budget only has to accommodate the chunks in flight. A value of 0 disables the budget.
+     */
+    private long queryMemoryBudget = 0;
     /**
      * URL of the Chemical Component Dictionary.
      */
@@ -123,6 +154,11 @@ public class StrucmotifConfig {
      * Timeout queries after this many milliseconds. Set to Integer.MAX_VALUE to not enforce any timeout.
      */
     private int queryTimeout = Integer.MAX_VALUE;
+    /**
+     * Size (in bytes) of decoded inverted index buckets that are kept in memory and shared by all queries. 0 disables
+     * the cache.
+     */
+    private long bucketCacheSize = 0;
     /**
      * List of all identifiers ever registered.
      */
@@ -155,6 +191,26 @@ public class StrucmotifConfig {
      * Extension of temporary inverted index files while updating.
      */
     public static final String PARTIAL_EXT = ".partial";
+    /**
+     * Extension of the statistics file that accompanies the inverted index.
+     */
+    public static final String STATISTICS_EXT = ".stats";
+    /**
+     * Extension of sorted chunks of temporary files that are spilled to disk during commit.
+     */
+    public static final String SPILL_EXT = ".spill";
+    /**
+     * Extension of the file that holds the structure indices which were deleted from the inverted index.
+     */
+    public static final String TOMBSTONES_EXT = ".tombstones";
+    /**
+     * Prefix of the directories that hold the shards of the inverted index.
+     */
+    public static final String SHARD = "shard-";
+    /**
+     * Extension of the file that holds the structure indices referenced by each descriptor of the inverted index.
+     */
+    public static final String BITMAPS_EXT = ".bitmaps";
 
     /**
      * Default constructor.
@@ -577,4 +633,100 @@ public class StrucmotifConfig {
     public void setReadErrorStrategy(ReadErrorStrategy readErrorStrategy) {
         this.readErrorStrategy = readErrorStrategy;
     }
+
+    /**
+     * Reports the size of the bucket cache.
+     * @return size in bytes, 0 if disabled
+     */
+    public long getBucketCacheSize() {
+        return bucketCacheSize;
+    }
+
+    /**
+     * Configure the size of the bucket cache.
+     * @param bucketCacheSize size in bytes, 0 to disable
+     */
+    public void setBucketCacheSize(long bucketCacheSize) {
+        this.bucketCacheSize = bucketCacheSize;
+    }
+
+    /**
+     * Reports the memory budget of commit operations.
+     * @return size in bytes
+     */
+    public long getCommitMemoryBudget() {
+        return commitMemoryBudget;
+    }
+
+    /**
+     * Configure the memory budget of commit operations.
+     * @param commitMemoryBudget size in bytes
+     */
+    public void setCommitMemoryBudget(long commitMemoryBudget) {
+        this.commitMemoryBudget = commitMemoryBudget;
+    }
+
+    /**
+     * Reports the fraction of deleted residue pairs above which buckets are rewritten during compaction.
+     * @return a double between 0 and 1
+     */
+    public double getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    /**
+     * Configure the fraction of deleted residue pairs above which buckets are rewritten during compaction.
+     * @param compactionThreshold a double between 0 and 1
+     */
+    public void setCompactionThreshold(double compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Reports the number of shards of the inverted index.
+     * @return an int
+     */
+    public int getIndexShards() {
+        return indexShards;
+    }
+
+    /**
+     * Configure the number of shards of the inverted index.
+     * @param indexShards an int, at least 1
+     */
+    public void setIndexShards(int indexShards) {
+        this.indexShards = indexShards;
+    }
+
+    /**
+     * Reports the maximum number of candidate structures whose paths are assembled at once.
+     * @return an int, 0 if candidates aren't split into chunks
+     */
+    public int getAssemblyChunkSize() {
+        return assemblyChunkSize;
+    }
+
+    /**
+     * Configure the maximum number of candidate structures whose paths are assembled at once.
+     * @param assemblyChunkSize an int, 0 to disable chunked assembly
+     */
+    public void setAssemblyChunkSize(int assemblyChunkSize) {
+        this.assemblyChunkSize = assemblyChunkSize;
+    }
+
+    /**
+     * Reports the maximum number of bytes a single query may hold.
+     * @return a long, 0 if memory isn't limited
+     */
+    public long getQueryMemoryBudget() {
+        return queryMemoryBudget;
+    }
+
+    /**
+     * Configure the maximum number of bytes a single query may hold.
+     * @param queryMemoryBudget a long, 0 to disable the budget
+     */
+    public void setQueryMemoryBudget(long queryMemoryBudget) {
+        this.queryMemoryBudget = queryMemoryBudget;
+    }
 }
@@ -0,0 +1,69 @@
+package org.rcsb.strucmotif.core;
+
+import org.rcsb.strucmotif.domain.result.StructureHit;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Retains the hits with the lowest RMSD in a bounded heap. Once the heap is full, the RMSD of its worst hit becomes the
+ * effective cutoff: any hit at or above it can't make it into the result anymore, so scoring can skip it.
+ */
+public class BestHits {
+    private static final Comparator<StructureHit> BY_RMSD = Comparator.comparingDouble(StructureHit::rmsd);
+    private final int capacity;
+    // worst hit at the head
+    private final PriorityQueue<StructureHit> heap;
+    private volatile float rmsdCutoff;
+
+    /**
+     * Construct an empty collection of best hits.
+     * @param capacity the number of hits to retain
+     * @param rmsdCutoff the RMSD cutoff of the query, hits at or above it are never retained
+     */
+    public BestHits(int capacity, float rmsdCutoff) {
+        this.capacity = capacity;
+        this.heap = new PriorityQueue<>(BY_RMSD.reversed());
+        this.rmsdCutoff = capacity > 0 ? rmsdCutoff : 0;
+    }
+
+    /**
+     * The current RMSD cutoff: starts at the cutoff of the query and decreases as better hits are found. Can be read
+     * without locking, a stale value only means that a hit is scored that will be rejected by {@link #offer(StructureHit)}.
+     * @return a float
+     */
+    public float getRmsdCutoff() {
+        return rmsdCutoff;
+    }
+
+    /**
+     * Offer a hit. Thread-safe.
+     * @param hit the hit
+     * @return true if the hit is among the best hits seen so far
+     */
+    public synchronized boolean offer(StructureHit hit) {
+        if (hit.rmsd() >= rmsdCutoff) {
+            return false;
+        }
+
+        heap.add(hit);
+        if (heap.size() > capacity) {
+            heap.poll();
+        }
+        if (heap.size() == capacity) {
+            rmsdCutoff = heap.peek().rmsd();
+        }
+        return true;
+    }
+
+    /**
+     * All retained hits.
+     * @return a new list, ordered by increasing RMSD
+     */
+    public synchronized List<StructureHit> toList() {
+        return heap.stream()
+                .sorted(BY_RMSD)
+                .toList();
+    }
+}
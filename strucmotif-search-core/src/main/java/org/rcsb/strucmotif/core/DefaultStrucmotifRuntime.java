@@ -2,7 +2,9 @@ package org.rcsb.strucmotif.core;
 
 import org.rcsb.strucmotif.align.AlignmentService;
 import org.rcsb.strucmotif.config.StrucmotifConfig;
+import org.rcsb.strucmotif.domain.QueryMemory;
 import org.rcsb.strucmotif.domain.SearchContext;
+import org.rcsb.strucmotif.domain.StructureIndexMap;
 import org.rcsb.strucmotif.domain.StructureSearchContext;
 import org.rcsb.strucmotif.domain.MotifSearchContext;
 import org.rcsb.strucmotif.domain.motif.EnrichedMotifDefinition;
@@ -13,7 +15,9 @@ import org.rcsb.strucmotif.domain.result.StructureHit;
 import org.rcsb.strucmotif.domain.result.StructureSearchResult;
 import org.rcsb.strucmotif.domain.result.MotifHit;
 import org.rcsb.strucmotif.domain.result.MotifSearchResult;
+import org.rcsb.strucmotif.domain.result.TargetStructure;
 import org.rcsb.strucmotif.domain.structure.Structure;
+import org.rcsb.strucmotif.io.InvertedIndex;
 import org.rcsb.strucmotif.io.StructureDataProvider;
 import org.rcsb.strucmotif.io.StructureIndexProvider;
 import org.slf4j.Logger;
@@ -21,14 +25,19 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
 
 /**
@@ -61,17 +70,9 @@ public class DefaultStrucmotifRuntime implements StrucmotifRuntime {
 
     private void performSearchInternal(StructureSearchContext context) {
         StructureSearchResult result = context.getResult();
-
-        // get all valid targets
-        targetAssembler.assemble(context);
-
         List<StructureHit> hits = scoreHits(context);
         logHitTimings(context.getId(), hits.size(), result.getTimings().getScoreHitsTime());
 
-        // dereference target structure map
-        result.getTargetStructures().clear();
-        result.setTargetStructures(null);
-
         result.setHits(hits);
         result.getTimings().queryStop();
     }
@@ -87,70 +88,262 @@ public class DefaultStrucmotifRuntime implements StrucmotifRuntime {
 
     private void performSearchInternal(StructureSearchContext context, Consumer<StructureHit> consumer) {
         StructureSearchResult result = context.getResult();
-
-        // get all valid targets
-        targetAssembler.assemble(context);
-
         int hits = consumeHits(context, consumer);
         logHitTimings(context.getId(), hits, result.getTimings().getScoreHitsTime());
     }
 
     private List<StructureHit> scoreHits(StructureSearchContext context) {
-        StructureQuery query = context.getQuery();
-        StructureParameters parameters = query.getParameters();
-        StructureSearchResult result = context.getResult();
-
-        result.getTimings().scoreHitsStart();
+        StructureParameters parameters = context.getQuery().getParameters();
         int limit = Math.min(parameters.getLimit(), strucmotifConfig.getMaxResults());
-        HitScorer hitScorer = new HitScorer(query.getQueryStructure().getResidues(),
-                parameters.getAtomPairingScheme(),
-                alignmentService);
+        if (parameters.hasBestResults()) {
+            return selectBestHits(context, limit);
+        }
 
-        List<StructureHit> hits = hits(context, hitScorer)
-                .limit(limit)
+        HitLimit hitLimit = new HitLimit(limit);
+        return search(context, hitLimit, parameters::getRmsdCutoff, Stream::toList)
+                .stream()
+                .flatMap(List::stream)
                 .toList();
-
-        result.getTimings().scoreHitsStop();
-        return hits;
     }
 
     private int consumeHits(StructureSearchContext context, Consumer<StructureHit> consumer) {
+        StructureParameters parameters = context.getQuery().getParameters();
+        if (parameters.hasBestResults()) {
+            // ranking is only known once all hits are scored
+            List<StructureHit> hits = selectBestHits(context, parameters.getLimit());
+            hits.forEach(consumer);
+            return hits.size();
+        }
+
+        HitLimit hitLimit = new HitLimit(parameters.getLimit());
+        return search(context, hitLimit, parameters::getRmsdCutoff, hits -> count(hits, consumer))
+                .stream()
+                .mapToInt(Integer::intValue)
+                .sum();
+    }
+
+    /**
+     * Score all target structures but only retain the hits with the lowest RMSD. The RMSD cutoff used during scoring
+     * is tightened as soon as enough hits have been found, so that worse hits are discarded right after alignment.
+     * @param context the context
+     * @param limit the maximum number of hits
+     * @return the best hits, ordered by RMSD
+     */
+    private List<StructureHit> selectBestHits(StructureSearchContext context, int limit) {
+        StructureParameters parameters = context.getQuery().getParameters();
+        BestHits bestHits = new BestHits(Math.min(parameters.getBestResults(), limit), parameters.getRmsdCutoff());
+        // any structure may contain better hits, so the search can't stop early
+        HitLimit hitLimit = new HitLimit(Integer.MAX_VALUE);
+        search(context, hitLimit, bestHits::getRmsdCutoff, hits -> count(hits, bestHits::offer));
+        return bestHits.toList();
+    }
+
+    private static int count(Stream<StructureHit> hits, Consumer<StructureHit> consumer) {
+        AtomicInteger count = new AtomicInteger();
+        hits.forEach(hit -> {
+            count.incrementAndGet();
+            consumer.accept(hit);
+        });
+        return count.get();
+    }
+
+    /**
+     * Assemble and score all target structures of a query, either shard by shard or for the whole index.
+     * @param context the context
+     * @param hitLimit the number of hits to accept
+     * @param rmsdCutoff supplies the current RMSD cutoff
+     * @param collector processes the accepted hits of a single shard or chunk
+     * @param <R> the type of the per-chunk result
+     * @return the result of each chunk
+     */
+    private <R> List<R> search(StructureSearchContext context, HitLimit hitLimit, DoubleSupplier rmsdCutoff, Function<Stream<StructureHit>, R> collector) {
+        if (context.getInvertedIndex().getShards().size() > 1) {
+            return searchShards(context, hitLimit, rmsdCutoff, collector);
+        }
+
+        StructureQuery query = context.getQuery();
+        HitScorer hitScorer = new HitScorer(query.getQueryStructure().getResidues(),
+                query.getParameters().getAtomPairingScheme(),
+                query.getParameters().getSymmetryMode(),
+                alignmentService);
+        return searchPartition(context, hitScorer, hitLimit, rmsdCutoff, collector, () -> {});
+    }
+
+    /**
+     * Run assembly and scoring for each shard of the inverted index in parallel. Shards hold disjoint sets of
+     * structures, so each of them only has to keep track of its own target structures, which are released as soon as
+     * the shard is scored.
+     * @param context the context of the whole query
+     * @param hitLimit the number of hits to accept, shared by all shards
+     * @param rmsdCutoff supplies the current RMSD cutoff
+     * @param collector processes the hits of a single shard or chunk
+     * @param <R> the type of the per-chunk result
+     * @return the result of each chunk of each shard
+     */
+    private <R> List<R> searchShards(StructureSearchContext context, HitLimit hitLimit, DoubleSupplier rmsdCutoff, Function<Stream<StructureHit>, R> collector) {
         StructureQuery query = context.getQuery();
         StructureParameters parameters = query.getParameters();
         StructureSearchResult result = context.getResult();
+        List<InvertedIndex> shards = context.getInvertedIndex().getShards();
+        logger.info("[{}] Searching {} index shards", context.getId(), shards.size());
 
+        result.getTimings().pathsStart();
         result.getTimings().scoreHitsStart();
-        AtomicInteger hits = new AtomicInteger();
         HitScorer hitScorer = new HitScorer(query.getQueryStructure().getResidues(),
                 parameters.getAtomPairingScheme(),
+                parameters.getSymmetryMode(),
                 alignmentService);
+        AtomicInteger pathCount = new AtomicInteger();
+        AtomicInteger structureCount = new AtomicInteger();
+        AtomicInteger pendingAssemblies = new AtomicInteger(shards.size());
+
+        List<R> out = context.tryExecute(() -> shards.parallelStream()
+                .flatMap(shard -> {
+                    StructureSearchContext shardContext = context.createShardContext(shard);
+                    StructureSearchResult shardResult = shardContext.getResult();
+                    return searchPartition(shardContext, hitScorer, hitLimit, rmsdCutoff, collector, () -> {
+                        pathCount.addAndGet(shardResult.getNumberOfPaths());
+                        structureCount.addAndGet(shardResult.getNumberOfTargetStructures());
+                        // paths are done once the last shard is assembled
+                        if (pendingAssemblies.decrementAndGet() == 0) {
+                            result.getTimings().pathsStop();
+                        }
+                    }).stream();
+                })
+                .toList());
 
-        hits(context, hitScorer)
-                .forEach(hit -> {
-                    hits.incrementAndGet();
-                    consumer.accept(hit);
-                });
+        result.setNumberOfPaths(pathCount.get());
+        result.setNumberOfTargetStructures(structureCount.get());
+        result.getTimings().scoreHitsStop();
+        return out;
+    }
 
+    /**
+     * Assemble and score the target structures of a context. If the config defines an assembly chunk size, candidate
+     * structures are assembled in chunks and each chunk is scored while the next one is assembled, so that at most
+     * two chunks of target structures are held in memory at any time and hits are emitted before assembly of all
+     * candidates is done. Once the hit limit is reached, no further structures are loaded and remaining chunks aren't
+     * assembled.
+     * @param context the context of the query or one of its shards
+     * @param hitScorer the hit scorer
+     * @param hitLimit the number of hits to accept
+     * @param rmsdCutoff supplies the current RMSD cutoff
+     * @param collector processes the accepted hits of a single chunk
+     * @param assembled called once all target structures of this context are assembled
+     * @param <R> the type of the per-chunk result
+     * @return the result of each chunk, in the order of assembly
+     */
+    private <R> List<R> searchPartition(StructureSearchContext context, HitScorer hitScorer, HitLimit hitLimit, DoubleSupplier rmsdCutoff, Function<Stream<StructureHit>, R> collector, Runnable assembled) {
+        StructureSearchResult result = context.getResult();
+        if (hitLimit.isReached()) {
+            // other shards already found enough hits
+            assembled.run();
+            return List.of();
+        }
+
+        int chunkSize = strucmotifConfig.getAssemblyChunkSize();
+        if (chunkSize <= 0) {
+            // get all valid targets
+            targetAssembler.assemble(context);
+            assembled.run();
+
+            result.getTimings().scoreHitsStart();
+            R hits = collector.apply(hits(context, result.getTargetStructures(), hitScorer, hitLimit, rmsdCutoff));
+            result.getTimings().scoreHitsStop();
+
+            // dereference target structure map
+            release(context, result.getTargetStructures());
+            result.setTargetStructures(null);
+            return List.of(hits);
+        }
+
+        result.getTimings().scoreHitsStart();
+        ChunkPipeline<R> pipeline = new ChunkPipeline<>(targetStructures -> collector.apply(hits(context, targetStructures, hitScorer, hitLimit, rmsdCutoff)),
+                targetStructures -> release(context, targetStructures),
+                hitLimit,
+                context.getExecutorService());
+        targetAssembler.assemble(context, chunkSize, pipeline);
+        assembled.run();
+        List<R> out = pipeline.finish();
         result.getTimings().scoreHitsStop();
-        return hits.get();
+        return out;
     }
 
-    private Stream<StructureHit> hits(StructureSearchContext context, HitScorer hitScorer) {
+    private static void release(StructureSearchContext context, StructureIndexMap<TargetStructure> targetStructures) {
+        context.getQueryMemory().release(QueryMemory.sizeOf(targetStructures));
+        targetStructures.clear();
+    }
+
+    /**
+     * Scores chunks of target structures asynchronously. Only a single chunk is scored at a time: handing over the
+     * next chunk blocks until the previous one is done, which keeps assembly at most one chunk ahead of scoring. Asks
+     * for no further chunks once the hit limit is reached. Each chunk is released once it's scored or rejected.
+     * @param <R> the type of the per-chunk result
+     */
+    private static class ChunkPipeline<R> implements Predicate<StructureIndexMap<TargetStructure>> {
+        private final Function<StructureIndexMap<TargetStructure>, R> scorer;
+        private final Consumer<StructureIndexMap<TargetStructure>> releaser;
+        private final HitLimit hitLimit;
+        private final ExecutorService executorService;
+        private final List<R> results;
+        private CompletableFuture<R> pending;
+
+        ChunkPipeline(Function<StructureIndexMap<TargetStructure>, R> scorer, Consumer<StructureIndexMap<TargetStructure>> releaser, HitLimit hitLimit, ExecutorService executorService) {
+            this.scorer = scorer;
+            this.releaser = releaser;
+            this.hitLimit = hitLimit;
+            this.executorService = executorService;
+            this.results = new ArrayList<>();
+        }
+
+        @Override
+        public boolean test(StructureIndexMap<TargetStructure> targetStructures) {
+            awaitPending();
+            if (hitLimit.isReached()) {
+                releaser.accept(targetStructures);
+                return false;
+            }
+
+            pending = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return scorer.apply(targetStructures);
+                } finally {
+                    releaser.accept(targetStructures);
+                }
+            }, executorService);
+            return !hitLimit.isReached();
+        }
+
+        private void awaitPending() {
+            if (pending != null) {
+                results.add(pending.join());
+                pending = null;
+            }
+        }
+
+        List<R> finish() {
+            awaitPending();
+            return results;
+        }
+    }
+
+    private Stream<StructureHit> hits(StructureSearchContext context, StructureIndexMap<TargetStructure> targetStructures, HitScorer hitScorer, HitLimit hitLimit, DoubleSupplier rmsdCutoff) {
         StructureQuery query = context.getQuery();
         int[] residueIndexSwaps = query.getQueryStructure().getResidueIndexSwaps().stream().mapToInt(Integer::intValue).toArray();
-        StructureParameters parameters = query.getParameters();
         StructureIndexProvider structureIndexProvider = context.getStructureIndexProvider();
         StructureDataProvider structureDataProvider = context.getStructureDataProvider();
 
-        return context.tryExecute(() -> context.getResult()
-                .getTargetStructures()
-                .values()
+        return context.tryExecute(() -> targetStructures.values()
                 .parallelStream()
+                // don't load any more structures once enough hits are accepted
+                .filter(targetStructure -> !hitLimit.isReached())
                 .flatMap(targetStructure -> {
                     String structureIdentifier = structureIndexProvider.selectStructureIdentifier(targetStructure.getStructureIndex());
                     Structure structure = structureDataProvider.readRenumbered(structureIdentifier);
-                    return targetStructure.paths(residueIndexSwaps, structure, structureIdentifier, hitScorer, parameters.getRmsdCutoff());
-                }));
+                    // stop aligning paths of loaded structures as well
+                    return targetStructure.paths(residueIndexSwaps, structure, structureIdentifier, hitScorer, rmsdCutoff, hitLimit::isReached);
+                })
+                .filter(hit -> hitLimit.tryAccept()));
     }
 
     @Override
@@ -268,6 +461,10 @@ public class DefaultStrucmotifRuntime implements StrucmotifRuntime {
             if (t instanceof IllegalQueryDefinitionException i) {
                 throw i;
             }
+            if (t instanceof QueryMemoryExceededException q) {
+                logger.error("[{}] {}", context.getId(), q.getMessage());
+                throw q;
+            }
             throw new QueryExecutionException("The query failed unexpectedly", e);
         } finally {
             if (!executorService.isShutdown()) {
@@ -1,10 +1,14 @@
 package org.rcsb.strucmotif.core;
 
+import org.rcsb.strucmotif.domain.QueryMemory;
+import org.rcsb.strucmotif.domain.StructureIndexMap;
 import org.rcsb.strucmotif.domain.StructureSearchContext;
-import org.rcsb.strucmotif.domain.Pair;
 import org.rcsb.strucmotif.domain.bucket.ArrayBucket;
+import org.rcsb.strucmotif.domain.bucket.Bucket;
+import org.rcsb.strucmotif.domain.bucket.StructureIndexBitmap;
 import org.rcsb.strucmotif.domain.motif.Overlap;
 import org.rcsb.strucmotif.domain.motif.ResiduePairDescriptor;
+import org.rcsb.strucmotif.domain.motif.ResiduePairIdentifier;
 import org.rcsb.strucmotif.domain.motif.ResiduePairOccurrence;
 import org.rcsb.strucmotif.domain.query.StructureQuery;
 import org.rcsb.strucmotif.domain.query.StructureParameters;
@@ -13,6 +17,7 @@ import org.rcsb.strucmotif.domain.result.StructureSearchResult;
 import org.rcsb.strucmotif.domain.result.TargetStructure;
 import org.rcsb.strucmotif.domain.structure.LabelSelection;
 import org.rcsb.strucmotif.domain.structure.ResidueType;
+import org.rcsb.strucmotif.io.DescriptorStatistics;
 import org.rcsb.strucmotif.io.InvertedIndex;
 import org.rcsb.strucmotif.io.StructureIndexProvider;
 import org.slf4j.Logger;
@@ -21,11 +26,16 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
-import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.stream.IntStream;
 
 /**
  * The default strucmotif-search target assembler.
@@ -46,6 +56,14 @@ public class DefaultTargetAssembler implements TargetAssembler {
 
     @Override
     public void assemble(StructureSearchContext context) {
+        assemble(context, 0, targetStructures -> {
+            context.getResult().setTargetStructures(targetStructures);
+            return true;
+        });
+    }
+
+    @Override
+    public void assemble(StructureSearchContext context, int chunkSize, Predicate<StructureIndexMap<TargetStructure>> consumer) {
         StructureQuery query = context.getQuery();
         StructureQueryStructure queryStructure = query.getQueryStructure();
         StructureParameters parameters = query.getParameters();
@@ -63,64 +81,318 @@ public class DefaultTargetAssembler implements TargetAssembler {
                     return queryStructure.getStructure().getResidueIndex(labelSelection);
                 }, Map.Entry::getValue));
 
-        Set<Integer> searchSpace = structureIndexProvider.selectByResultsContentType(query.getResultsContentType());
-        Set<Integer> allowed = query.getAllowedStructures()
+        StructureIndexBitmap searchSpace = structureIndexProvider.selectByResultsContentType(query.getResultsContentType());
+        StructureIndexBitmap allowed = query.getAllowedStructures().isEmpty() ? null : StructureIndexBitmap.of(query.getAllowedStructures()
                 .stream()
-                .map(structureIndexProvider::selectStructureIndex)
-                .collect(Collectors.toSet());
-        Set<Integer> ignored = query.getExcludedStructures()
+                .mapToInt(structureIndexProvider::selectStructureIndex)
+                .toArray());
+        StructureIndexBitmap ignored = StructureIndexBitmap.of(query.getExcludedStructures()
                 .stream()
-                .map(structureIndexProvider::selectStructureIndex)
-                .collect(Collectors.toSet());
+                .mapToInt(structureIndexProvider::selectStructureIndex)
+                .toArray());
+
+        // tolerance-expanded descriptors of each step
+        int steps = queryStructure.getResiduePairOccurrences().size();
+        int[][] descriptorsByStep = new int[steps][];
+        for (int i = 0; i < steps; i++) {
+            descriptorsByStep[i] = queryStructure.getResiduePairOccurrences().get(i).residuePairDescriptorsByTolerance(backboneDistanceTolerance, sideChainDistanceTolerance, angleTolerance, exchanges).toArray();
+        }
+
+        // expected number of structures & residue pairs of each step
+        DescriptorStatistics descriptorStatistics = invertedIndex.getDescriptorStatistics();
+        long[] structureCounts = new long[steps];
+        long[] residuePairCounts = new long[steps];
+        for (int i = 0; i < steps; i++) {
+            for (int descriptor : descriptorsByStep[i]) {
+                int actualDescriptor = ResiduePairDescriptor.stripFlipBit(descriptor);
+                structureCounts[i] += descriptorStatistics.getStructureCount(actualDescriptor);
+                residuePairCounts[i] += descriptorStatistics.getResiduePairCount(actualDescriptor);
+            }
+        }
+
+        // restrictions imposed by the query
+        IntPredicate queryFilter = structureIndex -> {
+            // if there is a whitelist, this entry has to occur therein
+            if (allowed != null && !allowed.contains(structureIndex)) {
+                return false;
+            }
+            // cannot occur in blacklist
+            if (ignored.contains(structureIndex)) {
+                return false;
+            }
+            // check 'global' search space - might be null if it's desired to skip this step, might be empty if legitimately no structures match
+            return searchSpace == null || searchSpace.contains(structureIndex);
+        };
+
+        // semi-join: only structures that contain residue pairs for every step of the query can have valid paths
+        StructureIndexBitmap[] bitmapsByStep = new StructureIndexBitmap[steps];
+        StructureIndexBitmap indexCandidates = selectCandidates(context, invertedIndex, descriptorsByStep, bitmapsByStep);
+        StructureIndexBitmap candidates = indexCandidates != null ? indexCandidates : scanCandidates(context, invertedIndex, descriptorsByStep, structureCounts, queryFilter);
+        for (int i = 0; i < steps; i++) {
+            // exact number of distinct structures
+            if (bitmapsByStep[i] != null) {
+                structureCounts[i] = bitmapsByStep[i].getCardinality();
+            }
+        }
 
         result.getTimings().pathsStart();
+        int pathCount = 0;
+        int structureCount = 0;
+        if (chunkSize <= 0) {
+            // evaluated while decoding, so that data of irrelevant structures can be skipped
+            IntPredicate structureFilter = structureIndex -> candidates.contains(structureIndex) && queryFilter.test(structureIndex);
+            StructureIndexMap<TargetStructure> targetStructures = buildPaths(context, invertedIndex, descriptorsByStep, structureCounts, residuePairCounts, structureFilter);
+            pathCount = countPaths(targetStructures);
+            structureCount = targetStructures.size();
+            result.getTimings().pathsStop();
+            consumer.test(targetStructures);
+        } else {
+            // each chunk only holds target structures of a subset of candidates
+            int[] structureIndices = Arrays.stream(candidates.toArray()).filter(queryFilter).toArray();
+            int chunkCount = (structureIndices.length + chunkSize - 1) / chunkSize;
+            logger.info("[{}] Assembling {} candidate structures in {} chunks", context.getId(), structureIndices.length, chunkCount);
+            for (int offset = 0; offset < structureIndices.length; offset += chunkSize) {
+                StructureIndexBitmap chunk = StructureIndexBitmap.of(Arrays.copyOfRange(structureIndices, offset, Math.min(offset + chunkSize, structureIndices.length)));
+                StructureIndexMap<TargetStructure> targetStructures = buildPaths(context, invertedIndex, descriptorsByStep, structureCounts, residuePairCounts, chunk::contains);
+                pathCount += countPaths(targetStructures);
+                structureCount += targetStructures.size();
+                if (!consumer.test(targetStructures) && offset + chunkSize < structureIndices.length) {
+                    logger.info("[{}] No further chunks requested - skipping {} candidate structures", context.getId(), structureIndices.length - offset - chunkSize);
+                    break;
+                }
+            }
+            result.getTimings().pathsStop();
+        }
+
+        logger.info("[{}] Found {} valid paths ({} target structures) in {} ms",
+                context.getId(),
+                pathCount,
+                structureCount,
+                result.getTimings().getPathsTime());
+        result.setNumberOfPaths(pathCount);
+        result.setNumberOfTargetStructures(structureCount);
+    }
+
+    private static int countPaths(StructureIndexMap<TargetStructure> targetStructures) {
+        return targetStructures.values().stream().mapToInt(TargetStructure::getNumberOfValidPaths).sum();
+    }
+
+    /**
+     * Build all paths through the target structures that pass a filter. The returned target structures remain
+     * accounted for in the memory of the query until they are released by the caller.
+     * @param context the context
+     * @param invertedIndex the index
+     * @param descriptorsByStep tolerance-expanded descriptors of each step, may have the flip bit set
+     * @param structureCounts the expected number of structures of each step
+     * @param residuePairCounts the expected number of residue pairs of each step
+     * @param structureFilter the structures to consider
+     * @return all target structures with valid paths
+     */
+    private StructureIndexMap<TargetStructure> buildPaths(StructureSearchContext context, InvertedIndex invertedIndex, int[][] descriptorsByStep, long[] structureCounts, long[] residuePairCounts, IntPredicate structureFilter) {
+        StructureQueryStructure queryStructure = context.getQuery().getQueryStructure();
+        int steps = descriptorsByStep.length;
+        StructureIndexMap<TargetStructure> targetStructures = null;
+        QueryMemory queryMemory = context.getQueryMemory();
+        long targetStructureSize = 0;
+        // structures with valid paths after the previous step, subsequent steps only have to consider these
+        StructureIndexBitmap remaining = null;
+        // the planned order is only a guess, the next step is chosen based on the structures that remain
+        int[] executionOrder = new int[steps];
+        boolean[] executed = new boolean[steps];
+        BitSet coveredResidues = new BitSet();
         // retrieve target identifiers per query motif descriptor
-        int steps = queryStructure.getResiduePairOccurrences().size();
         for (int i = 0; i < steps; i++) {
             long s = System.nanoTime();
-            ResiduePairOccurrence residuePairOccurrence = queryStructure.getResiduePairOccurrences().get(i);
+            int step = i == 0 ? 0 : selectNextStep(queryStructure, executed, coveredResidues, targetStructures == null ? 0 : targetStructures.size(), structureCounts, residuePairCounts);
+            executionOrder[i] = step;
+            executed[step] = true;
+            ResiduePairOccurrence residuePairOccurrence = queryStructure.getResiduePairOccurrences().get(step);
+            coveredResidues.set(residuePairOccurrence.getResidueIndex1());
+            coveredResidues.set(residuePairOccurrence.getResidueIndex2());
             int residuePairDescriptor = residuePairOccurrence.getResiduePairDescriptor();
+            IntPredicate stepFilter = remaining == null ? structureFilter : remaining::contains;
+            // charged while residue pairs are decoded and paths are extended, so that the budget stops the step early
+            QueryMemory stepMemory = queryMemory.scope();
 
             // sort into target structures
-            Map<Integer, int[]> residuePairIdentifiers = context.tryExecute(() -> residuePairOccurrence.residuePairDescriptorsByTolerance(backboneDistanceTolerance, sideChainDistanceTolerance, angleTolerance, exchanges)
-                    .mapToObj(descriptor -> select(invertedIndex, descriptor, searchSpace, allowed, ignored))
-                    .flatMap(Function.identity())
-                    .collect(Collectors.toConcurrentMap(Pair::first, Pair::second, DefaultTargetAssembler::concat)));
+            StructureIndexMap<int[]> residuePairIdentifiers = context.tryExecute(() -> {
+                int[] descriptors = descriptorsByStep[step];
+                // fetch all buckets of this step at once so that reads can be combined
+                int[] actualDescriptors = Arrays.stream(descriptors).map(ResiduePairDescriptor::stripFlipBit).toArray();
+                Bucket[] buckets = invertedIndex.selectAll(actualDescriptors, stepFilter);
+                return IntStream.range(0, descriptors.length)
+                        .parallel()
+                        .collect(StructureIndexMap::new,
+                                (map, j) -> select(buckets[j], descriptors[j], map, stepMemory),
+                                (map1, map2) -> map1.mergeAll(map2, DefaultTargetAssembler::concat));
+            });
 
-            consume(context, residuePairIdentifiers);
+            targetStructures = consume(context, targetStructures, residuePairIdentifiers, executionOrder, i, stepMemory);
+            // residue pairs of this step are either discarded or owned by the target structures now, only account for
+            // what's kept
+            long updatedSize = QueryMemory.sizeOf(targetStructures);
+            long charged = stepMemory.getUsed() + targetStructureSize;
+            if (updatedSize > charged) {
+                queryMemory.reserve(updatedSize - charged);
+            } else {
+                queryMemory.release(charged - updatedSize);
+            }
+            targetStructureSize = updatedSize;
 
-            // update allowed set for next iteration
+            // only structures with valid paths are relevant for the next iteration
             if (i + 1 < steps) {
-                Set<Integer> keys = result.getTargetStructures().keySet();
-                if (i == 0 && allowed.isEmpty()) {
-                    allowed.addAll(keys);
-                } else {
-                    allowed.removeIf(v -> !keys.contains(v));
-                }
+                remaining = StructureIndexBitmap.of(targetStructures.keys());
             }
 
             logger.info("[{}] Consumed {} in {} ms - {} valid target structures remaining",
                     context.getId(),
                     ResiduePairDescriptor.toString(residuePairDescriptor),
                     (System.nanoTime() - s) / 1000 / 1000,
-                    result.getTargetStructures().size());
+                    targetStructures.size());
 
-            if (i > 0 && i + 1 < steps && allowed.isEmpty()) {
+            if (i > 0 && i + 1 < steps && remaining.isEmpty()) {
                 logger.info("[{}] No more valid extensions - terminating early", context.getId());
                 break;
             }
         }
-        result.getTimings().pathsStop();
+        restoreStepOrder(context, targetStructures, executionOrder);
+        return targetStructures;
+    }
 
-        int pathCount = result.getTargetStructures().values().stream().mapToInt(TargetStructure::getNumberOfValidPaths).sum();
-        int structureCount = result.getTargetStructures().size();
-        logger.info("[{}] Found {} valid paths ({} target structures) in {} ms",
+    /**
+     * Determine the structures that contain compatible residue pairs for each step of the query by combining the
+     * bitmaps of the inverted index: all descriptors of a step are OR-ed, steps are AND-ed.
+     * @param context the context
+     * @param invertedIndex the index
+     * @param descriptorsByStep tolerance-expanded descriptors of each step, may have the flip bit set
+     * @param bitmapsByStep will hold the structures of each step, left empty if the index doesn't provide bitmaps
+     * @return the candidate structures, null if the index doesn't provide bitmaps
+     */
+    private StructureIndexBitmap selectCandidates(StructureSearchContext context, InvertedIndex invertedIndex, int[][] descriptorsByStep, StructureIndexBitmap[] bitmapsByStep) {
+        long s = System.nanoTime();
+        StructureIndexBitmap candidates = null;
+        for (int i = 0; i < descriptorsByStep.length; i++) {
+            int[] actualDescriptors = Arrays.stream(descriptorsByStep[i]).map(ResiduePairDescriptor::stripFlipBit).toArray();
+            Optional<StructureIndexBitmap> structureIndices = invertedIndex.selectStructureIndices(actualDescriptors);
+            if (structureIndices.isEmpty()) {
+                Arrays.fill(bitmapsByStep, null);
+                return null;
+            }
+
+            bitmapsByStep[i] = structureIndices.get();
+            candidates = candidates == null ? structureIndices.get() : candidates.and(structureIndices.get());
+            if (candidates.isEmpty()) {
+                break;
+            }
+        }
+
+        if (candidates != null) {
+            logger.info("[{}] {} structures contain residue pairs for all steps of the query - determined in {} ms",
+                    context.getId(),
+                    candidates.getCardinality(),
+                    (System.nanoTime() - s) / 1000 / 1000);
+        }
+        return candidates;
+    }
+
+    /**
+     * Determine the candidate structures if the index doesn't provide bitmaps. Only the structure indices of each
+     * step's buckets are read, no residue pairs are decoded and the bucket cache is bypassed. Steps are visited by
+     * increasing number of structures and each step only reports structures that were present in all previous steps.
+     * @param context the context
+     * @param invertedIndex the index
+     * @param descriptorsByStep tolerance-expanded descriptors of each step, may have the flip bit set
+     * @param structureCounts the expected number of structures of each step
+     * @param queryFilter restrictions imposed by the query
+     * @return the structures that contain residue pairs for every step
+     */
+    private StructureIndexBitmap scanCandidates(StructureSearchContext context, InvertedIndex invertedIndex, int[][] descriptorsByStep, long[] structureCounts, IntPredicate queryFilter) {
+        long s = System.nanoTime();
+        int[] order = IntStream.range(0, descriptorsByStep.length)
+                .boxed()
+                .sorted(Comparator.comparingLong(i -> structureCounts[i]))
+                .mapToInt(Integer::intValue)
+                .toArray();
+
+        StructureIndexBitmap candidates = StructureIndexBitmap.EMPTY;
+        for (int i = 0; i < order.length; i++) {
+            int[] actualDescriptors = Arrays.stream(descriptorsByStep[order[i]]).map(ResiduePairDescriptor::stripFlipBit).distinct().toArray();
+            StructureIndexBitmap previous = candidates;
+            IntPredicate filter = i == 0 ? queryFilter : previous::contains;
+            candidates = context.tryExecute(() -> invertedIndex.scanStructureIndices(actualDescriptors, filter));
+            if (candidates.isEmpty()) {
+                break;
+            }
+        }
+
+        logger.info("[{}] {} structures contain residue pairs for all steps of the query - determined by scanning buckets in {} ms",
                 context.getId(),
-                pathCount,
-                structureCount,
-                result.getTimings().getPathsTime());
-        result.setNumberOfPaths(pathCount);
-        result.setNumberOfTargetStructures(structureCount);
+                candidates.getCardinality(),
+                (System.nanoTime() - s) / 1000 / 1000);
+        return candidates;
+    }
+
+    /**
+     * Choose the step to evaluate next. Only steps that share a residue with an evaluated step are eligible, so that
+     * each step can extend existing paths. Among these, the step with the fewest expected residue pairs in the
+     * remaining structures is picked: a step can't report more structures than remain, and its residue pairs are
+     * assumed to be evenly distributed across the structures that contain it. Ties are resolved in favor of the
+     * planned order, which is therefore kept if no statistics are available.
+     * @param queryStructure the query structure
+     * @param executed the steps that were already evaluated
+     * @param coveredResidues the residues of evaluated steps
+     * @param remainingCount the number of structures with valid paths
+     * @param structureCounts the number of structures of each step
+     * @param residuePairCounts the number of residue pairs of each step
+     * @return the index of the next step
+     */
+    private static int selectNextStep(StructureQueryStructure queryStructure, boolean[] executed, BitSet coveredResidues, int remainingCount, long[] structureCounts, long[] residuePairCounts) {
+        int next = -1;
+        double minCost = Double.MAX_VALUE;
+        for (int i = 0; i < executed.length; i++) {
+            ResiduePairOccurrence residuePairOccurrence = queryStructure.getResiduePairOccurrences().get(i);
+            if (executed[i] || !(coveredResidues.get(residuePairOccurrence.getResidueIndex1()) || coveredResidues.get(residuePairOccurrence.getResidueIndex2()))) {
+                continue;
+            }
+
+            double cost = structureCounts[i] == 0 ? 0 : (double) Math.min(remainingCount, structureCounts[i]) * residuePairCounts[i] / structureCounts[i];
+            if (cost < minCost) {
+                next = i;
+                minCost = cost;
+            }
+        }
+
+        if (next == -1) {
+            throw new IllegalStateException("Residue pairs of query aren't connected");
+        }
+        return next;
+    }
+
+    /**
+     * Paths list residue pairs in the order in which steps were evaluated. Rearrange them to match the order of the
+     * query structure, which determines how residues are mapped to the query during alignment.
+     * @param context the context
+     * @param executionOrder the step evaluated in each generation
+     */
+    private void restoreStepOrder(StructureSearchContext context, StructureIndexMap<TargetStructure> targetStructures, int[] executionOrder) {
+        boolean reordered = false;
+        for (int i = 0; i < executionOrder.length; i++) {
+            if (executionOrder[i] != i) {
+                reordered = true;
+                break;
+            }
+        }
+        if (!reordered || targetStructures.isEmpty()) {
+            return;
+        }
+
+        logger.info("[{}] Evaluated steps in order {}", context.getId(), Arrays.toString(executionOrder));
+        context.tryExecute(() -> {
+            targetStructures.values()
+                    .parallelStream()
+                    .forEach(targetStructure -> targetStructure.reorderResiduePairs(executionOrder));
+            return null;
+        });
     }
 
     private static int[] concat(int[] first, int[] second) {
@@ -129,48 +401,31 @@ public class DefaultTargetAssembler implements TargetAssembler {
         return result;
     }
 
-    private Stream<Pair<Integer, int[]>> select(InvertedIndex invertedIndex, int descriptor, Set<Integer> searchSpace, Set<Integer> allowed, Set<Integer> ignored) {
-        int actualDescriptor = ResiduePairDescriptor.stripFlipBit(descriptor);
-        ArrayBucket bucket = invertedIndex.select(actualDescriptor);
+    private void select(Bucket bucket, int descriptor, StructureIndexMap<int[]> out, QueryMemory queryMemory) {
         if (bucket == ArrayBucket.EMPTY_BUCKET) {
-            return Stream.empty();
+            return;
         }
 
         boolean flipped = ResiduePairDescriptor.isFlipped(descriptor);
         // the ugly case which requires the creation of both residuePairs
         boolean ambiguous = ResiduePairDescriptor.isAmbiguous(descriptor);
 
-        @SuppressWarnings("unchecked")
-        Pair<Integer, int[]>[] out = new Pair[bucket.getStructureCount()];
-
-        int i = 0;
         while (bucket.hasNextStructure()) {
             bucket.moveStructure();
             int structureIndex = bucket.getStructureIndex();
-
-            // if there is a whitelist, this entry has to occur therein
-            if (!allowed.isEmpty() && !allowed.contains(structureIndex)) {
-                continue;
-            }
-            // cannot occur in blacklist
-            if (ignored.contains(structureIndex)) {
-                continue;
-            }
-            // check 'global' search space - might be null if it's desired to skip this step, might be empty if legitimately no structures match
-            if (searchSpace != null && !searchSpace.contains(structureIndex)) {
-                continue;
-            }
-
             int start = bucket.getStartPosition();
             int end = bucket.getEndPosition();
             int n = end - start;
+            queryMemory.reserve(QueryMemory.sizeOfResiduePairs(ambiguous ? n * 2 : n));
             int[] identifiers;
             if (ambiguous) {
                 identifiers = new int[n * 2];
 
                 for (int j = 0; j < n - 1; j = j + 2) {
-                    int index1 = bucket.getResidueIndex(start + j);
-                    int index2 = bucket.getResidueIndex(start + j + 1);
+                    bucket.moveOccurrence();
+                    long residuePairIdentifier = bucket.getResiduePairIdentifier();
+                    int index1 = ResiduePairIdentifier.getResidueIndex1(residuePairIdentifier);
+                    int index2 = ResiduePairIdentifier.getResidueIndex2(residuePairIdentifier);
                     identifiers[2 * j] = index1;
                     identifiers[2 * j + 1] = index2;
                     identifiers[2 * j + 2] = index2;
@@ -180,8 +435,10 @@ public class DefaultTargetAssembler implements TargetAssembler {
                 identifiers = new int[n];
 
                 for (int j = 0; j < n - 1; j = j + 2) {
-                    int index1 = bucket.getResidueIndex(start + j);
-                    int index2 = bucket.getResidueIndex(start + j + 1);
+                    bucket.moveOccurrence();
+                    long residuePairIdentifier = bucket.getResiduePairIdentifier();
+                    int index1 = ResiduePairIdentifier.getResidueIndex1(residuePairIdentifier);
+                    int index2 = ResiduePairIdentifier.getResidueIndex2(residuePairIdentifier);
                     if (flipped) {
                         identifiers[j] = index2;
                         identifiers[j + 1] = index1;
@@ -192,52 +449,53 @@ public class DefaultTargetAssembler implements TargetAssembler {
                 }
             }
 
-            out[i++] = new Pair<>(structureIndex, identifiers);
+            out.merge(structureIndex, identifiers, DefaultTargetAssembler::concat);
         }
-
-        if (i == 0) {
-            return Stream.empty();
-        }
-        return Arrays.stream(out).limit(i);
     }
 
-    private void consume(StructureSearchContext context, Map<Integer, int[]> data) {
-        StructureQuery query = context.getQuery();
-        StructureSearchResult result = context.getResult();
-        Map<Integer, TargetStructure> targetStructures = result.getTargetStructures();
-        StructureQueryStructure queryStructure = query.getQueryStructure();
+    private StructureIndexMap<TargetStructure> consume(StructureSearchContext context, StructureIndexMap<TargetStructure> targetStructures, StructureIndexMap<int[]> data, int[] executionOrder, int pathGeneration, QueryMemory queryMemory) {
+        StructureQueryStructure queryStructure = context.getQuery().getQueryStructure();
 
         if (targetStructures == null) {
             // first generation: all the paths are valid
-            result.setTargetStructures(data.entrySet()
-                    .stream()
-                    .collect(Collectors.toMap(Map.Entry::getKey, v -> new TargetStructure(v.getKey(), v.getValue()))));
+            int[] structureIndices = data.keys();
+            List<int[]> residuePairIdentifiers = data.values();
+            StructureIndexMap<TargetStructure> initial = new StructureIndexMap<>(structureIndices.length);
+            for (int i = 0; i < structureIndices.length; i++) {
+                initial.put(structureIndices[i], new TargetStructure(structureIndices[i], residuePairIdentifiers.get(i)));
+            }
+            return initial;
         } else {
             // subsequent generations
-            int pathGeneration = result.incrementAndGetPathGeneration();
-
             // generate overlap profile
             Overlap[] overlapProfile = new Overlap[pathGeneration];
             for (int i = 0; i < pathGeneration; i++) {
-                overlapProfile[i] = Overlap.ofResiduePairIdentifiers(queryStructure.getResiduePairIdentifiers().get(i),
-                        queryStructure.getResiduePairIdentifiers().get(pathGeneration));
+                overlapProfile[i] = Overlap.ofResiduePairIdentifiers(queryStructure.getResiduePairIdentifiers().get(executionOrder[i]),
+                        queryStructure.getResiduePairIdentifiers().get(executionOrder[pathGeneration]));
             }
 
             // focus on valid target structures as this set should be smaller
-            Map<Integer, TargetStructure> updated = context.tryExecute(() -> targetStructures.entrySet()
-                    .parallelStream()
-                    .filter(entry -> {
-                        int[] residuePairIdentifiers = data.get(entry.getKey());
+            int[] structureIndices = targetStructures.keys();
+            List<TargetStructure> values = targetStructures.values();
+            int[] valid = context.tryExecute(() -> IntStream.range(0, structureIndices.length)
+                    .parallel()
+                    .filter(i -> {
+                        int[] residuePairIdentifiers = data.get(structureIndices[i]);
                         // candidate must have valid path to extend from previous generation
                         if (residuePairIdentifiers == null) {
                             return false;
                         }
 
                         // append target structure by whatever the new target identifiers for this structure have to offer
-                        return entry.getValue().consume(residuePairIdentifiers, overlapProfile);
+                        return values.get(i).consume(residuePairIdentifiers, overlapProfile, queryMemory);
                     })
-                    .collect(Collectors.toConcurrentMap(Map.Entry::getKey, Map.Entry::getValue)));
-            result.setTargetStructures(updated);
+                    .toArray());
+
+            StructureIndexMap<TargetStructure> updated = new StructureIndexMap<>(valid.length);
+            for (int i : valid) {
+                updated.put(structureIndices[i], values.get(i));
+            }
+            return updated;
         }
     }
 }
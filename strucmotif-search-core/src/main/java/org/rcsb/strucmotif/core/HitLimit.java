@@ -0,0 +1,41 @@
+package org.rcsb.strucmotif.core;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps track of the hits accepted by a query across all shards and chunks, so that remaining work can be skipped as
+ * soon as the requested number of hits is reached.
+ */
+public class HitLimit {
+    private final int limit;
+    private final AtomicInteger accepted;
+
+    /**
+     * Construct a hit limit.
+     * @param limit the maximum number of hits
+     */
+    public HitLimit(int limit) {
+        this.limit = limit;
+        this.accepted = new AtomicInteger();
+    }
+
+    /**
+     * Claim a slot for a hit. Thread-safe.
+     * @return true if the hit should be reported, false if the limit has been reached before
+     */
+    public boolean tryAccept() {
+        // check first, so that the counter can't overflow for unlimited queries
+        if (accepted.get() >= limit) {
+            return false;
+        }
+        return accepted.incrementAndGet() <= limit;
+    }
+
+    /**
+     * Report whether all slots have been claimed. Once this is true, no further hits will be accepted.
+     * @return true if the limit has been reached
+     */
+    public boolean isReached() {
+        return accepted.get() >= limit;
+    }
+}
@@ -2,30 +2,51 @@ package org.rcsb.strucmotif.core;
 
 import org.rcsb.strucmotif.align.AlignmentService;
 import org.rcsb.strucmotif.domain.align.AlignmentResult;
+import org.rcsb.strucmotif.domain.align.AlignmentTemplate;
 import org.rcsb.strucmotif.domain.align.AtomPairingScheme;
+import org.rcsb.strucmotif.domain.query.SymmetryMode;
 import org.rcsb.strucmotif.domain.structure.LabelAtomId;
+import org.rcsb.strucmotif.domain.structure.Structure;
 
 import java.util.List;
 import java.util.Map;
 
 /**
- * Scores hits by computing the RMSD with respect to the reference motif.
+ * Scores hits by computing the RMSD with respect to the reference motif. The reference side of the alignment is
+ * compiled once into an {@link AlignmentTemplate}, so that each candidate only contributes its own coordinates.
  */
 public class HitScorer {
+    // absorbs rounding of distances and of the superposition, so that the lower bound never rejects a valid hit
+    private static final double RMSD_LOWER_BOUND_TOLERANCE = 1e-3;
     private final List<Map<LabelAtomId, float[]>> queryResidues;
     private final AtomPairingScheme atomPairingScheme;
     private final AlignmentService alignmentService;
+    private final AlignmentTemplate alignmentTemplate;
+    private final SymmetryMode symmetryMode;
 
     /**
-     * Construct a query-specific hit scorer.
+     * Construct a query-specific hit scorer that scores every symmetry copy.
      * @param queryResidues the reference structure
      * @param atomPairingScheme how to pair atoms?
      * @param alignmentService alignment service
      */
     public HitScorer(List<Map<LabelAtomId, float[]>> queryResidues, AtomPairingScheme atomPairingScheme, AlignmentService alignmentService) {
+        this(queryResidues, atomPairingScheme, SymmetryMode.OFF, alignmentService);
+    }
+
+    /**
+     * Construct a query-specific hit scorer.
+     * @param queryResidues the reference structure
+     * @param atomPairingScheme how to pair atoms?
+     * @param symmetryMode how to handle symmetry copies of hits
+     * @param alignmentService alignment service
+     */
+    public HitScorer(List<Map<LabelAtomId, float[]>> queryResidues, AtomPairingScheme atomPairingScheme, SymmetryMode symmetryMode, AlignmentService alignmentService) {
         this.queryResidues = queryResidues;
         this.atomPairingScheme = atomPairingScheme;
+        this.symmetryMode = symmetryMode;
         this.alignmentService = alignmentService;
+        this.alignmentTemplate = new AlignmentTemplate(queryResidues, atomPairingScheme);
     }
 
     /**
@@ -36,6 +57,14 @@ public class HitScorer {
         return atomPairingScheme;
     }
 
+    /**
+     * How hits are handled that are exact symmetry copies of each other.
+     * @return a {@link SymmetryMode} value
+     */
+    public SymmetryMode getSymmetryMode() {
+        return symmetryMode;
+    }
+
     /**
      * The collection of residues that potential hits are aligned to.
      * @return all manifested residues of the query motif
@@ -50,6 +79,44 @@ public class HitScorer {
      * @return an {@link AlignmentResult}
      */
     public AlignmentResult alignToReference(List<Map<LabelAtomId, float[]>> targetResidues) {
-        return alignmentService.align(queryResidues, targetResidues, atomPairingScheme);
+        return alignmentService.align(alignmentTemplate, targetResidues);
+    }
+
+    /**
+     * Align many sets of residues to the reference in one batch.
+     * @param targetResidues all candidates, each a collection of residues
+     * @return an {@link AlignmentResult} for each candidate, in the same order
+     */
+    public AlignmentResult[] alignAllToReference(List<List<Map<LabelAtomId, float[]>>> targetResidues) {
+        return alignmentService.alignAll(alignmentTemplate, targetResidues);
+    }
+
+    /**
+     * Checks whether a candidate can be rejected before its residues are manifested and aligned, based on a lower bound
+     * of the RMSD derived from distances between its CA/CB atoms (see {@link AlignmentTemplate#getRmsdLowerBound(float[])}).
+     * @param structure the structure of the candidate
+     * @param residueIndices the residues of the candidate, in the same order as the query residues
+     * @param rmsdCutoff hits at or above this RMSD are not of interest
+     * @return true if the candidate can't fall below the cutoff
+     */
+    public boolean exceedsRmsdCutoff(Structure structure, int[] residueIndices, double rmsdCutoff) {
+        int[] anchorSlots = alignmentTemplate.getAnchorSlots();
+        if (rmsdCutoff >= Float.MAX_VALUE || anchorSlots.length < 2) {
+            return false;
+        }
+
+        int[] slotResidueIndices = alignmentTemplate.getResidueIndices();
+        LabelAtomId[] slotLabelAtomIds = alignmentTemplate.getLabelAtomIds();
+        float[] anchorCoordinates = new float[3 * anchorSlots.length];
+        float[] v = new float[3];
+        for (int i = 0; i < anchorSlots.length; i++) {
+            int slot = anchorSlots[i];
+            if (structure.manifestAtom(residueIndices[slotResidueIndices[slot]], slotLabelAtomIds[slot], v)) {
+                System.arraycopy(v, 0, anchorCoordinates, 3 * i, 3);
+            } else {
+                anchorCoordinates[3 * i] = Float.NaN;
+            }
+        }
+        return alignmentTemplate.getRmsdLowerBound(anchorCoordinates) > rmsdCutoff + RMSD_LOWER_BOUND_TOLERANCE;
     }
 }
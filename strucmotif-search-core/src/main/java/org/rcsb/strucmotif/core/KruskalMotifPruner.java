@@ -5,6 +5,7 @@ import org.rcsb.strucmotif.domain.structure.ResidueGraph;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
 
 /**
@@ -21,8 +22,13 @@ public class KruskalMotifPruner implements MotifPruner {
 
     @Override
     public List<ResiduePairOccurrence> prune(ResidueGraph residueGraph) {
+        return prune(residueGraph, ResiduePairOccurrence.STATIC_COST);
+    }
+
+    @Override
+    public List<ResiduePairOccurrence> prune(ResidueGraph residueGraph, ToLongFunction<ResiduePairOccurrence> costFunction) {
         List<ResiduePairOccurrence> original = residueGraph.residuePairOccurrencesSequential().collect(Collectors.toList());
-        List<ResiduePairOccurrence> sorted = ResiduePairOccurrence.sort(original);
+        List<ResiduePairOccurrence> sorted = ResiduePairOccurrence.sort(original, costFunction);
 
         // ignore motifs with <4 identifiers
         if (residueGraph.getResidueCount() < 4) {
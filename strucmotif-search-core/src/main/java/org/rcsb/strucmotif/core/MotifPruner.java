@@ -4,6 +4,7 @@ import org.rcsb.strucmotif.domain.motif.ResiduePairOccurrence;
 import org.rcsb.strucmotif.domain.structure.ResidueGraph;
 
 import java.util.List;
+import java.util.function.ToLongFunction;
 
 /**
  * Pruning motifs is advantageous as it saves time (fewer lookups) and avoids too rigid criteria enforced during search.
@@ -16,4 +17,15 @@ public interface MotifPruner {
      * @return the list of occurrences which describe this structure
      */
     List<ResiduePairOccurrence> prune(ResidueGraph residueGraph);
+
+    /**
+     * Perform pruning operation and favor cheap residue pairs (e.g. those that are rare in the inverted index) when
+     * there's a choice. Implementations that don't support costs ignore them.
+     * @param residueGraph the graph to operate on
+     * @param costFunction reports the costs of an occurrence, lower is better
+     * @return the list of occurrences which describe this structure
+     */
+    default List<ResiduePairOccurrence> prune(ResidueGraph residueGraph, ToLongFunction<ResiduePairOccurrence> costFunction) {
+        return prune(residueGraph);
+    }
 }
@@ -5,6 +5,7 @@ import org.rcsb.strucmotif.domain.structure.ResidueGraph;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
 
 /**
@@ -20,7 +21,12 @@ public class NoOperationMotifPruner implements MotifPruner {
 
     @Override
     public List<ResiduePairOccurrence> prune(ResidueGraph residueGraph) {
+        return prune(residueGraph, ResiduePairOccurrence.STATIC_COST);
+    }
+
+    @Override
+    public List<ResiduePairOccurrence> prune(ResidueGraph residueGraph, ToLongFunction<ResiduePairOccurrence> costFunction) {
         List<ResiduePairOccurrence> original = residueGraph.residuePairOccurrencesSequential().collect(Collectors.toList());
-        return ResiduePairOccurrence.sort(original);
+        return ResiduePairOccurrence.sort(original, costFunction);
     }
 }
@@ -0,0 +1,20 @@
+package org.rcsb.strucmotif.core;
+
+/**
+ * Reports that a query was terminated because the data it holds exceeded the memory budget of a single query.
+ */
+public class QueryMemoryExceededException extends RuntimeException {
+    /**
+     * Default constructor.
+     */
+    public QueryMemoryExceededException() {
+    }
+
+    /**
+     * Construct with a detailed message.
+     * @param message msg
+     */
+    public QueryMemoryExceededException(String message) {
+        super(message);
+    }
+}
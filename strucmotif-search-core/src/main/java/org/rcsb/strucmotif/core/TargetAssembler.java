@@ -1,6 +1,10 @@
 package org.rcsb.strucmotif.core;
 
+import org.rcsb.strucmotif.domain.StructureIndexMap;
 import org.rcsb.strucmotif.domain.StructureSearchContext;
+import org.rcsb.strucmotif.domain.result.TargetStructure;
+
+import java.util.function.Predicate;
 
 /**
  * Where the magic happens. Lookup all word occurrences which need to be fulfilled and combine them in the most
@@ -16,4 +20,16 @@ public interface TargetAssembler {
      * @param context the container to work on
      */
     void assemble(StructureSearchContext context);
+
+    /**
+     * Search in chunks: candidate structures are split into chunks of a fixed size, paths through the structures of
+     * each chunk are built independently and handed to the consumer as soon as the chunk is done. The consumer takes
+     * ownership of these target structures, they aren't stored in the result of the context. Assembly stops early if
+     * the consumer doesn't ask for further chunks.
+     * @param context the container to work on
+     * @param chunkSize the maximum number of candidate structures per chunk, non-positive values process all
+     *                  structures in a single chunk
+     * @param consumer receives the target structures of each chunk, returns false if no further chunks are needed
+     */
+    void assemble(StructureSearchContext context, int chunkSize, Predicate<StructureIndexMap<TargetStructure>> consumer);
 }
@@ -1,6 +1,7 @@
 package org.rcsb.strucmotif.domain;
 
 import org.rcsb.strucmotif.core.QueryExecutionException;
+import org.rcsb.strucmotif.core.QueryMemoryExceededException;
 import org.rcsb.strucmotif.domain.query.Parameters;
 import org.rcsb.strucmotif.domain.query.QueryStructure;
 import org.rcsb.strucmotif.domain.result.Hit;
@@ -101,6 +102,10 @@ public abstract class AbstractSearchContext<P extends Parameters, S extends Quer
             logger.warn("Async task was interrupted", e);
             throw new QueryExecutionException("Async task was interrupted");
         } catch (ExecutionException e) {
+            // reservations happen while tasks allocate memory, the query must still be reported as too large
+            if (e.getCause() instanceof QueryMemoryExceededException queryMemoryExceededException) {
+                throw queryMemoryExceededException;
+            }
             logger.warn("Async task failed to execute", e);
             throw new QueryExecutionException("Async task failed to execute");
         }
@@ -10,6 +10,7 @@ import org.rcsb.strucmotif.domain.query.PositionSpecificExchange;
 import org.rcsb.strucmotif.domain.query.MotifParameters;
 import org.rcsb.strucmotif.domain.query.MotifQueryStructure;
 import org.rcsb.strucmotif.domain.query.MotifQuery;
+import org.rcsb.strucmotif.domain.query.SymmetryMode;
 import org.rcsb.strucmotif.domain.result.MotifHit;
 import org.rcsb.strucmotif.domain.result.MotifSearchResult;
 import org.rcsb.strucmotif.domain.structure.LabelSelection;
@@ -166,6 +167,8 @@ public class MotifSearchContext extends AbstractSearchContext<MotifParameters, M
                 parentParameters.getAtomPairingScheme(),
                 parentParameters.getMotifPruner(),
                 Integer.MAX_VALUE,
+                Integer.MAX_VALUE,
+                SymmetryMode.OFF,
                 Integer.MAX_VALUE);
 
         Map<LabelSelection, Set<ResidueType>> exchanges = motifDefinition.getPositionSpecificExchanges()
@@ -180,7 +183,8 @@ public class MotifSearchContext extends AbstractSearchContext<MotifParameters, M
                 Collections.emptySet(),
                 Collections.emptySet(),
                 DEFAULT_CONTENT_TYPES,
-                config);
+                config,
+                invertedIndex.getDescriptorStatistics());
 
         return new StructureSearchContext(runtime,
                 config,
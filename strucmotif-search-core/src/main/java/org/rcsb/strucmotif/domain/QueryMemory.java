@@ -0,0 +1,113 @@
+package org.rcsb.strucmotif.domain;
+
+import org.rcsb.strucmotif.core.QueryMemoryExceededException;
+import org.rcsb.strucmotif.domain.result.TargetStructure;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Accounts for the memory held by a query, i.e. target structures and the residue pairs of the current step of
+ * target assembly. Shared by all shards of a query. The numbers are estimates, but they grow with the actual usage, so
+ * that a single broad query fails before it can exhaust the heap shared with other queries.
+ */
+public class QueryMemory {
+    // approximate heap usage of a map entry with an array value
+    private static final int ENTRY_SIZE = 32;
+    private final long budget;
+    private final AtomicLong used;
+    // charged as well, null for the account of the query itself
+    private final QueryMemory parent;
+
+    /**
+     * Construct a memory account.
+     * @param budget the maximum number of bytes, non-positive values disable the budget
+     */
+    public QueryMemory(long budget) {
+        this(budget, null);
+    }
+
+    private QueryMemory(long budget, QueryMemory parent) {
+        this.budget = budget;
+        this.used = new AtomicLong();
+        this.parent = parent;
+    }
+
+    /**
+     * Create an account that charges this one and tracks its own share, e.g. the memory allocated during a single step
+     * of target assembly.
+     * @return a new account without a budget of its own
+     */
+    public QueryMemory scope() {
+        return new QueryMemory(0, this);
+    }
+
+    /**
+     * Account for additional memory. Should be called before the memory is allocated.
+     * @param bytes the number of bytes
+     * @throws QueryMemoryExceededException if this exceeds the budget of the query
+     */
+    public void reserve(long bytes) {
+        if (parent != null) {
+            parent.reserve(bytes);
+        }
+        long total = used.addAndGet(bytes);
+        if (budget > 0 && total > budget) {
+            used.addAndGet(-bytes);
+            throw new QueryMemoryExceededException("Query was terminated because it exceeded the memory budget of " + budget + " bytes, try narrowing it down e.g. by removing exchanges or reducing tolerances");
+        }
+    }
+
+    /**
+     * Release memory that was accounted for before.
+     * @param bytes the number of bytes
+     */
+    public void release(long bytes) {
+        if (parent != null) {
+            parent.release(bytes);
+        }
+        used.addAndGet(-bytes);
+    }
+
+    /**
+     * The memory currently accounted for.
+     * @return the number of bytes
+     */
+    public long getUsed() {
+        return used.get();
+    }
+
+    /**
+     * Estimate the heap used by a collection of target structures.
+     * @param targetStructures the target structures
+     * @return the number of bytes
+     */
+    public static long sizeOf(StructureIndexMap<TargetStructure> targetStructures) {
+        long size = 0;
+        for (TargetStructure targetStructure : targetStructures.values()) {
+            size += ENTRY_SIZE + targetStructure.getMemoryFootprint();
+        }
+        return size;
+    }
+
+    /**
+     * Estimate the heap used by the residue pairs of a step.
+     * @param residuePairIdentifiers the residue pairs of each structure
+     * @return the number of bytes
+     */
+    public static long sizeOfResiduePairs(StructureIndexMap<int[]> residuePairIdentifiers) {
+        long size = 0;
+        for (int[] identifiers : residuePairIdentifiers.values()) {
+            size += sizeOfResiduePairs(identifiers.length);
+        }
+        return size;
+    }
+
+    /**
+     * Estimate the heap used by the residue pairs of a step in a single structure.
+     * @param identifierCount the number of residue indices
+     * @return the number of bytes
+     */
+    public static long sizeOfResiduePairs(int identifierCount) {
+        return ENTRY_SIZE + (long) identifierCount * Integer.BYTES;
+    }
+}
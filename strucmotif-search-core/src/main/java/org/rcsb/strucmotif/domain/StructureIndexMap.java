@@ -0,0 +1,197 @@
+package org.rcsb.strucmotif.domain;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.function.BinaryOperator;
+
+/**
+ * A hash map with structure indices as keys, realized by open addressing over primitive keys so that neither keys nor
+ * entries are boxed. Values must not be null. Not thread-safe: concurrent producers should fill separate instances and
+ * combine them via {@link #mergeAll(StructureIndexMap, BinaryOperator)}.
+ * @param <V> the value type
+ */
+public class StructureIndexMap<V> {
+    private static final int MIN_CAPACITY = 16;
+    private int[] keys;
+    // null marks free slots
+    private Object[] values;
+    private int size;
+    private int mask;
+
+    /**
+     * Construct an empty map.
+     */
+    public StructureIndexMap() {
+        this(MIN_CAPACITY / 2);
+    }
+
+    /**
+     * Construct an empty map that can hold a number of entries without resizing.
+     * @param expectedSize the anticipated number of entries
+     */
+    public StructureIndexMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    private static int capacityFor(int expectedSize) {
+        // keep load factor at or below 0.5
+        return Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, 2 * expectedSize - 1)) << 1);
+    }
+
+    private void allocate(int capacity) {
+        this.keys = new int[capacity];
+        this.values = new Object[capacity];
+        this.mask = capacity - 1;
+    }
+
+    private int slot(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private int find(int key) {
+        int i = slot(key);
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        // the free slot where this key would go
+        return -1 - i;
+    }
+
+    /**
+     * Retrieve the value associated to a structure index.
+     * @param key the structure index
+     * @return the value, null if this key isn't present
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int i = find(key);
+        return i < 0 ? null : (V) values[i];
+    }
+
+    /**
+     * Check whether a structure index is present.
+     * @param key the structure index
+     * @return true if there's a value for this key
+     */
+    public boolean containsKey(int key) {
+        return find(key) >= 0;
+    }
+
+    /**
+     * Associate a value to a structure index, replacing any previous value.
+     * @param key the structure index
+     * @param value the value
+     */
+    public void put(int key, V value) {
+        merge(key, value, (previous, current) -> current);
+    }
+
+    /**
+     * Associate a value to a structure index. If there's already a value for this key, both are combined.
+     * @param key the structure index
+     * @param value the value
+     * @param remappingFunction combines the previous and the new value
+     */
+    @SuppressWarnings("unchecked")
+    public void merge(int key, V value, BinaryOperator<V> remappingFunction) {
+        Objects.requireNonNull(value);
+        int i = find(key);
+        if (i >= 0) {
+            values[i] = Objects.requireNonNull(remappingFunction.apply((V) values[i], value));
+            return;
+        }
+
+        i = -1 - i;
+        keys[i] = key;
+        values[i] = value;
+        if (++size > keys.length / 2) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    /**
+     * Add all entries of another map to this one.
+     * @param other the source
+     * @param remappingFunction combines the values of keys present in both maps
+     */
+    @SuppressWarnings("unchecked")
+    public void mergeAll(StructureIndexMap<V> other, BinaryOperator<V> remappingFunction) {
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.values[i] != null) {
+                merge(other.keys[i], (V) other.values[i], remappingFunction);
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int j = -1 - find(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Number of entries.
+     * @return an int
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Check whether there are no entries.
+     * @return true if empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Remove all entries and release the table.
+     */
+    public void clear() {
+        allocate(MIN_CAPACITY);
+        size = 0;
+    }
+
+    /**
+     * All structure indices of this map, in the same order as {@link #values()}.
+     * @return a new array
+     */
+    public int[] keys() {
+        int[] out = new int[size];
+        int j = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != null) {
+                out[j++] = keys[i];
+            }
+        }
+        return out;
+    }
+
+    /**
+     * All values of this map, in the same order as {@link #keys()}.
+     * @return a new, unmodifiable list
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values() {
+        Object[] out = new Object[size];
+        int j = 0;
+        for (Object value : values) {
+            if (value != null) {
+                out[j++] = value;
+            }
+        }
+        return (List<V>) List.of(out);
+    }
+}
@@ -15,6 +15,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
 
@@ -30,6 +31,7 @@ public class StructureSearchContext extends AbstractSearchContext<StructureParam
     private final StructureDataProvider structureDataProvider;
     private final StructureQuery query;
     private final StructureSearchResult result;
+    private final QueryMemory queryMemory;
 
     /**
      * Create a context.
@@ -41,16 +43,31 @@ public class StructureSearchContext extends AbstractSearchContext<StructureParam
      * @param query the actual query
      */
     public StructureSearchContext(StrucmotifRuntime strucmotifRuntime, StrucmotifConfig strucmotifConfig, InvertedIndex invertedIndex, StructureIndexProvider structureIndexProvider, StructureDataProvider structureDataProvider, StructureQuery query) {
-        super(new ForkJoinPool(strucmotifConfig.getPerQueryThreads()));
+        this(new ForkJoinPool(strucmotifConfig.getPerQueryThreads()), new QueryMemory(strucmotifConfig.getQueryMemoryBudget()), strucmotifRuntime, strucmotifConfig, invertedIndex, structureIndexProvider, structureDataProvider, query);
+    }
+
+    private StructureSearchContext(ExecutorService executorService, QueryMemory queryMemory, StrucmotifRuntime strucmotifRuntime, StrucmotifConfig strucmotifConfig, InvertedIndex invertedIndex, StructureIndexProvider structureIndexProvider, StructureDataProvider structureDataProvider, StructureQuery query) {
+        super(executorService);
         this.runtime = strucmotifRuntime;
         this.config = strucmotifConfig;
         this.invertedIndex = invertedIndex;
         this.structureIndexProvider = structureIndexProvider;
         this.structureDataProvider = structureDataProvider;
         this.query = query;
+        this.queryMemory = queryMemory;
         this.result = initializeResultContainer();
     }
 
+    /**
+     * Create a context that evaluates this query on a single shard of the inverted index. It shares the worker threads
+     * and the memory budget of this context but keeps track of its own results.
+     * @param shard the shard to search
+     * @return a new context
+     */
+    public StructureSearchContext createShardContext(InvertedIndex shard) {
+        return new StructureSearchContext(getExecutorService(), queryMemory, runtime, config, shard, structureIndexProvider, structureDataProvider, query);
+    }
+
     private StructureSearchResult initializeResultContainer() {
         StructureQueryStructure queryStructure = query.getQueryStructure();
         StructureParameters parameters = query.getParameters();
@@ -58,7 +75,7 @@ public class StructureSearchContext extends AbstractSearchContext<StructureParam
                 id,
                 queryStructure.getStructureIdentifier(),
                 queryStructure.getResiduePairOccurrences());
-        logger.info("[{}] Exchanges: {}, Tolerances: [{}, {}, {}], Atom Pairing Scheme: {}, RMSD Cutoff: {}, Limit: {}",
+        logger.info("[{}] Exchanges: {}, Tolerances: [{}, {}, {}], Atom Pairing Scheme: {}, RMSD Cutoff: {}, Limit: {}, Best Results: {}",
                 id,
                 query.getExchanges(),
                 parameters.getBackboneDistanceTolerance(),
@@ -66,11 +83,20 @@ public class StructureSearchContext extends AbstractSearchContext<StructureParam
                 parameters.getAngleTolerance(),
                 parameters.getAtomPairingScheme(),
                 parameters.getRmsdCutoff(),
-                parameters.getLimit());
+                parameters.getLimit(),
+                parameters.getBestResults());
 
         return new StructureSearchResult();
     }
 
+    /**
+     * The memory held by this query, shared by all of its shards.
+     * @return the memory account
+     */
+    public QueryMemory getQueryMemory() {
+        return queryMemory;
+    }
+
     @Override
     public StrucmotifRuntime getRuntime() {
         return runtime;
@@ -0,0 +1,238 @@
+package org.rcsb.strucmotif.domain.align;
+
+import org.rcsb.strucmotif.align.QuaternionAlignmentService;
+import org.rcsb.strucmotif.domain.structure.LabelAtomId;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * The reference side of an alignment, compiled once so that it can be reused for any number of candidates. Determines
+ * the atom slots that are paired by an {@link AtomPairingScheme} (the same atoms and in the same order as
+ * {@link AtomCorrespondence}) as well as centered coordinates, centroid, and squared norm of the reference. Candidates
+ * then only have to provide coordinates for each slot.
+ * <p>
+ * Slots of CA/CB (or C4'/C1') atoms are anchors: the distances between them in the reference are kept, so that the
+ * RMSD of a candidate can be bounded from below by its anchor coordinates alone, before any alignment.
+ */
+public class AlignmentTemplate {
+    private final List<Map<LabelAtomId, float[]>> referenceResidues;
+    private final AtomPairingScheme atomPairingScheme;
+    private final int[] residueIndices;
+    private final LabelAtomId[] labelAtomIds;
+    private final float[] centeredReference;
+    private final float[] referenceCentroid;
+    private final double referenceSquaredNorm;
+    private final int[] anchorSlots;
+    private final float[] anchorDistances;
+
+    /**
+     * Compiles the reference side of an alignment.
+     * @param referenceResidues the reference container
+     * @param atomPairingScheme how to pair atoms?
+     * @throws IllegalStateException when no atoms can be paired
+     */
+    public AlignmentTemplate(List<Map<LabelAtomId, float[]>> referenceResidues, AtomPairingScheme atomPairingScheme) {
+        this.referenceResidues = referenceResidues;
+        this.atomPairingScheme = atomPairingScheme;
+
+        int capacity = referenceResidues.stream().mapToInt(Map::size).sum() + referenceResidues.size();
+        int[] residueIndices = new int[capacity];
+        LabelAtomId[] labelAtomIds = new LabelAtomId[capacity];
+        float[] coordinates = new float[3 * capacity];
+        boolean schemeRequiresSubset = atomPairingScheme != AtomPairingScheme.ALL;
+        int atomCount = 0;
+        for (int i = 0; i < referenceResidues.size(); i++) {
+            boolean added = false;
+            for (Map.Entry<LabelAtomId, float[]> referenceAtom : referenceResidues.get(i).entrySet()) {
+                if (schemeRequiresSubset && !atomPairingScheme.test(referenceAtom.getKey())) {
+                    continue;
+                }
+
+                residueIndices[atomCount] = i;
+                labelAtomIds[atomCount] = referenceAtom.getKey();
+                System.arraycopy(referenceAtom.getValue(), 0, coordinates, 3 * atomCount++, 3);
+                added = true;
+            }
+
+            // glycines: slot without label, candidates have to provide their virtual CB as well
+            if (!added && atomPairingScheme == AtomPairingScheme.SIDE_CHAIN) {
+                float[] virtualRef = QuaternionAlignmentService.getVirtualCB(referenceResidues.get(i));
+                if (virtualRef != null) {
+                    residueIndices[atomCount] = i;
+                    System.arraycopy(virtualRef, 0, coordinates, 3 * atomCount++, 3);
+                }
+            }
+        }
+
+        if (atomCount == 0) {
+            throw new IllegalStateException("Found empty pairing of atoms");
+        }
+
+        this.residueIndices = Arrays.copyOf(residueIndices, atomCount);
+        this.labelAtomIds = Arrays.copyOf(labelAtomIds, atomCount);
+
+        // same float arithmetic as Algebra#centroid3d and AtomCorrespondence
+        float x = 0;
+        float y = 0;
+        float z = 0;
+        for (int i = 0; i < 3 * atomCount; i = i + 3) {
+            x += coordinates[i];
+            y += coordinates[i + 1];
+            z += coordinates[i + 2];
+        }
+        this.referenceCentroid = new float[] { x / atomCount, y / atomCount, z / atomCount };
+
+        this.centeredReference = new float[3 * atomCount];
+        double squaredNorm = 0.0;
+        for (int i = 0; i < 3 * atomCount; i = i + 3) {
+            centeredReference[i] = coordinates[i] - referenceCentroid[0];
+            centeredReference[i + 1] = coordinates[i + 1] - referenceCentroid[1];
+            centeredReference[i + 2] = coordinates[i + 2] - referenceCentroid[2];
+            double x1 = centeredReference[i];
+            double y1 = centeredReference[i + 1];
+            double z1 = centeredReference[i + 2];
+            squaredNorm += x1 * x1 + y1 * y1 + z1 * z1;
+        }
+        this.referenceSquaredNorm = squaredNorm;
+
+        this.anchorSlots = IntStream.range(0, atomCount)
+                .filter(i -> this.labelAtomIds[i] != null && AtomPairingScheme.PSEUDO_ATOMS.test(this.labelAtomIds[i]))
+                .toArray();
+        this.anchorDistances = distances(coordinates, anchorSlots);
+    }
+
+    private static float[] distances(float[] coordinates, int[] slots) {
+        float[] out = new float[slots.length * slots.length];
+        for (int i = 0; i < slots.length; i++) {
+            for (int j = i + 1; j < slots.length; j++) {
+                float distance = distance(coordinates, 3 * slots[i], coordinates, 3 * slots[j]);
+                out[i * slots.length + j] = distance;
+                out[j * slots.length + i] = distance;
+            }
+        }
+        return out;
+    }
+
+    private static float distance(float[] v1, int offset1, float[] v2, int offset2) {
+        float dx = v1[offset1] - v2[offset2];
+        float dy = v1[offset1 + 1] - v2[offset2 + 1];
+        float dz = v1[offset1 + 2] - v2[offset2 + 2];
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    /**
+     * The residues this template was compiled from.
+     * @return the reference container
+     */
+    public List<Map<LabelAtomId, float[]>> getReferenceResidues() {
+        return referenceResidues;
+    }
+
+    /**
+     * The atom pairing scheme this template was compiled for.
+     * @return an {@link AtomPairingScheme} value
+     */
+    public AtomPairingScheme getAtomPairingScheme() {
+        return atomPairingScheme;
+    }
+
+    /**
+     * Number of paired atom slots.
+     * @return an int
+     */
+    public int getAtomCount() {
+        return residueIndices.length;
+    }
+
+    /**
+     * The residue each slot belongs to.
+     * @return an array with one residue index per slot
+     */
+    public int[] getResidueIndices() {
+        return residueIndices;
+    }
+
+    /**
+     * The atom name of each slot.
+     * @return an array with one atom name per slot, null for the virtual CB of residues without side-chain atoms
+     */
+    public LabelAtomId[] getLabelAtomIds() {
+        return labelAtomIds;
+    }
+
+    /**
+     * The centered reference coordinates of all slots.
+     * @return a packed array of 3D vectors
+     */
+    public float[] getCenteredReference() {
+        return centeredReference;
+    }
+
+    /**
+     * The centroid of the original reference coordinates.
+     * @return a 3D vector
+     */
+    public float[] getReferenceCentroid() {
+        return referenceCentroid;
+    }
+
+    /**
+     * The sum of squared norms of the centered reference coordinates.
+     * @return a double
+     */
+    public double getReferenceSquaredNorm() {
+        return referenceSquaredNorm;
+    }
+
+    /**
+     * The anchor slots, i.e. slots of CA/CB (or C4'/C1') atoms.
+     * @return indices into {@link #getResidueIndices()} and {@link #getLabelAtomIds()}
+     */
+    public int[] getAnchorSlots() {
+        return anchorSlots;
+    }
+
+    /**
+     * Bounds the RMSD of a candidate from below by comparing distances between its anchor atoms to the same distances
+     * in the reference. Rigid transformations preserve distances, so for anchors i and j with deviations e<sub>i</sub>
+     * and e<sub>j</sub> after superposition, e<sub>i</sub> + e<sub>j</sub> is at least the difference d<sub>ij</sub>
+     * of both distances. Summed over all anchor pairs (or for the largest difference alone), this bounds the sum of
+     * squared deviations of the anchors, which is a part of the sum of squared deviations of all paired atoms.
+     * @param anchorCoordinates packed candidate coordinates of all anchor slots, NaN for atoms the candidate lacks
+     * @return a value the RMSD of an alignment to this template can't fall below, 0 if fewer than 2 anchors are present
+     */
+    public double getRmsdLowerBound(float[] anchorCoordinates) {
+        int anchorCount = anchorSlots.length;
+        int presentCount = 0;
+        double sum = 0;
+        double max = 0;
+        for (int i = 0; i < anchorCount; i++) {
+            if (Float.isNaN(anchorCoordinates[3 * i])) {
+                continue;
+            }
+
+            presentCount++;
+            for (int j = i + 1; j < anchorCount; j++) {
+                if (Float.isNaN(anchorCoordinates[3 * j])) {
+                    continue;
+                }
+
+                double d = distance(anchorCoordinates, 3 * i, anchorCoordinates, 3 * j) - anchorDistances[i * anchorCount + j];
+                sum += d * d;
+                max = Math.max(max, d * d);
+            }
+        }
+
+        if (presentCount < 2) {
+            return 0;
+        }
+
+        // sum of (e_i + e_j)^2 over all pairs is at most 2 (k - 1) times the sum of e_i^2, a single pair contributes at most 2 times
+        double squaredDeviations = Math.max(sum / (2.0 * (presentCount - 1)), max / 2.0);
+        // candidates without some atoms pair fewer atoms, which only increases their RMSD
+        return Math.sqrt(squaredDeviations / getAtomCount());
+    }
+}
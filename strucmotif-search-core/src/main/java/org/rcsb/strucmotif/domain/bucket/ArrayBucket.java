@@ -5,7 +5,9 @@ import org.rcsb.strucmotif.domain.motif.ResiduePairIdentifier;
 import java.util.Arrays;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.function.IntPredicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Represents a single file of the inverted index (e.g., AL-4-5-4). This file keeps track of all structures that contain
@@ -32,8 +34,10 @@ public class ArrayBucket implements Bucket {
     private final int[] structureIndices; // just structure indices
     private final int[] positionOffsets; // points to the start index in the positionData array
     private final int[] identifierData; // length is equal to 2 * the number of residue pairs in this whole bin
+    private final IntPredicate structureFilter; // optional, skip structures that don't pass
 
     private int structurePointer; // the current position in the structureIndices/positionOffsets arrays
+    private int nextStructurePointer; // the next position that passes the filter
 
     private int positionPointer; // the current position in the positionData array
     private int lastPosition; // the last valid position in the positionData array that references the first position of a residue pair (after that the array will reference the next structure or end)
@@ -45,11 +49,34 @@ public class ArrayBucket implements Bucket {
      * @param identifierData identifiers data as encoded (int, int) tuples
      */
     public ArrayBucket(int[] structureIndices, int[] positionOffsets, int[] identifierData) {
+        this(structureIndices, positionOffsets, identifierData, null);
+    }
+
+    /**
+     * Construct an inverted index bucket from source array that only reports structures that pass a filter.
+     * @param structureIndices structure identifiers
+     * @param positionOffsets positional offsets, same length as structureIndices
+     * @param identifierData identifiers data as encoded (int, int) tuples
+     * @param structureFilter determines which structure indices to report, null to report all
+     */
+    public ArrayBucket(int[] structureIndices, int[] positionOffsets, int[] identifierData, IntPredicate structureFilter) {
         this.structureIndices = structureIndices;
         this.positionOffsets = positionOffsets;
         this.identifierData = identifierData;
+        this.structureFilter = structureFilter;
 
         this.structurePointer = -1;
+        this.nextStructurePointer = findNextStructure(0);
+    }
+
+    private int findNextStructure(int from) {
+        int pointer = from;
+        if (structureFilter != null) {
+            while (pointer < structureIndices.length && !structureFilter.test(structureIndices[pointer])) {
+                pointer++;
+            }
+        }
+        return pointer;
     }
 
     /**
@@ -81,19 +108,22 @@ public class ArrayBucket implements Bucket {
             throw new NoSuchElementException("No next structure");
         }
         this.positionPointer = positionOffsets[structurePointer] - 2;
-        this.lastPosition = hasNextStructure() ? positionOffsets[structurePointer + 1] : identifierData.length;
+        this.lastPosition = structurePointer + 1 < positionOffsets.length ? positionOffsets[structurePointer + 1] : identifierData.length;
     }
 
     @Override
     public Set<Integer> getStructureIndices() {
-        return Arrays.stream(structureIndices)
-                .boxed()
+        IntStream stream = Arrays.stream(structureIndices);
+        if (structureFilter != null) {
+            stream = stream.filter(structureFilter);
+        }
+        return stream.boxed()
                 .collect(Collectors.toSet());
     }
 
     @Override
     public boolean hasNextStructure() {
-        return structurePointer + 1 < positionOffsets.length;
+        return nextStructurePointer < positionOffsets.length;
     }
 
     @Override
@@ -103,8 +133,9 @@ public class ArrayBucket implements Bucket {
 
     @Override
     public void moveStructure() {
-        structurePointer++;
+        structurePointer = nextStructurePointer;
         syncStructureState();
+        nextStructurePointer = findNextStructure(structurePointer + 1);
     }
 
     @Override
@@ -147,6 +178,7 @@ public class ArrayBucket implements Bucket {
     @Override
     public void reset() {
         structurePointer = -1;
+        nextStructurePointer = findNextStructure(0);
     }
 
     @Override
@@ -0,0 +1,253 @@
+package org.rcsb.strucmotif.domain.bucket;
+
+import org.rcsb.strucmotif.domain.motif.ResiduePairIdentifier;
+
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.InputMismatchException;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+/**
+ * A bucket that operates directly on colfer-encoded data (e.g., a memory-mapped region of the inverted index). Nothing
+ * is materialized upfront: structure indices, offsets, and residue indices are decoded on demand while iterating and
+ * occurrences of structures that are skipped over are never decoded. Instances are not thread-safe, use one bucket per
+ * thread.
+ */
+public class ColferBucket implements Bucket {
+    private final ByteBuffer byteBuffer;
+    private final IntPredicate structureFilter;
+    private final int structureCount;
+    private final int identifierCount;
+    // byte positions where the first value of each section is located
+    private final int structureSection;
+    private final int offsetSection;
+    private final int identifierSection;
+
+    // state of the current structure
+    private int structureIndex;
+    private int startPosition;
+    private int endPosition;
+    private int positionPointer; // number of residue indices consumed so far
+    private int identifierCursor; // byte position of the next residue index
+    private int residueIndex1;
+    private int residueIndex2;
+
+    // look-ahead: next structure that passes the filter
+    private int scanPointer; // the last inspected position in the structure index section
+    private int structureCursor; // byte position of the next structure index
+    private int offsetCursor; // byte position of the next position offset
+    private int scanOffset; // start position of the structure after the last inspected one
+    private boolean hasNext;
+    private int nextStructureIndex;
+    private int nextStartPosition;
+    private int nextEndPosition;
+
+    private int varintEnd;
+
+    /**
+     * Wrap colfer-encoded data. The buffer is accessed by absolute positions starting at its current position, its
+     * state will not be modified.
+     * @param byteBuffer data source
+     */
+    public ColferBucket(ByteBuffer byteBuffer) {
+        this(byteBuffer, null);
+    }
+
+    /**
+     * Wrap colfer-encoded data and only report structures that pass a filter. Data of all other structures is skipped
+     * without decoding it.
+     * @param byteBuffer data source
+     * @param structureFilter determines which structure indices to report, null to report all
+     */
+    public ColferBucket(ByteBuffer byteBuffer, IntPredicate structureFilter) {
+        this.byteBuffer = byteBuffer;
+        this.structureFilter = structureFilter;
+
+        int position = byteBuffer.position();
+        int structureCount = 0;
+        int structureSection = position;
+        int offsetSection = position;
+        int identifierCount = 0;
+        int identifierSection = position;
+
+        byte header = byteBuffer.get(position++);
+        if (header == 0) {
+            structureCount = readVarint(position);
+            position = varintEnd;
+            structureSection = position;
+            position = skipVarints(position, structureCount);
+            header = byteBuffer.get(position++);
+        }
+
+        if (header == 1) {
+            int offsetCount = readVarint(position);
+            position = varintEnd;
+            if (offsetCount != structureCount) {
+                throw new InputMismatchException("colfer: " + structureCount + " structures but " + offsetCount + " offsets");
+            }
+            offsetSection = position;
+            position = skipVarints(position, offsetCount);
+            header = byteBuffer.get(position++);
+        }
+
+        if (header == 2) {
+            identifierCount = readVarint(position);
+            identifierSection = varintEnd;
+            // no need to scan identifier data, this is the last section
+        } else if (header != 0x7f) {
+            throw new InputMismatchException("colfer: unknown header at byte " + (position - 1));
+        }
+
+        this.structureCount = structureCount;
+        this.structureSection = structureSection;
+        this.offsetSection = offsetSection;
+        this.identifierCount = identifierCount;
+        this.identifierSection = identifierSection;
+        reset();
+    }
+
+    // reads the varint at the given position, the position of the subsequent value is stored in 'varintEnd'
+    private int readVarint(int position) {
+        int x = 0;
+        for (int shift = 0; true; shift += 7) {
+            byte b = byteBuffer.get(position++);
+            x |= (b & 0x7f) << shift;
+            if (shift == 28 || b >= 0) break;
+        }
+        varintEnd = position;
+        return x;
+    }
+
+    private int skipVarints(int position, int count) {
+        for (int i = 0; i < count; i++) {
+            for (int shift = 0; true; shift += 7) {
+                byte b = byteBuffer.get(position++);
+                if (shift == 28 || b >= 0) break;
+            }
+        }
+        return position;
+    }
+
+    private void findNextStructure() {
+        while (++scanPointer < structureCount) {
+            int structureIndex = readVarint(structureCursor);
+            structureCursor = varintEnd;
+            int start = scanOffset;
+            if (scanPointer + 1 < structureCount) {
+                scanOffset = readVarint(offsetCursor);
+                offsetCursor = varintEnd;
+            } else {
+                scanOffset = identifierCount;
+            }
+
+            if (structureFilter == null || structureFilter.test(structureIndex)) {
+                hasNext = true;
+                nextStructureIndex = structureIndex;
+                nextStartPosition = start;
+                nextEndPosition = scanOffset;
+                return;
+            }
+        }
+        hasNext = false;
+    }
+
+    @Override
+    public Set<Integer> getStructureIndices() {
+        Set<Integer> out = new HashSet<>();
+        int position = structureSection;
+        for (int i = 0; i < structureCount; i++) {
+            int structureIndex = readVarint(position);
+            position = varintEnd;
+            if (structureFilter == null || structureFilter.test(structureIndex)) {
+                out.add(structureIndex);
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public boolean hasNextStructure() {
+        return hasNext;
+    }
+
+    @Override
+    public boolean hasNextOccurrence() {
+        return positionPointer + 2 <= endPosition;
+    }
+
+    @Override
+    public void moveStructure() {
+        if (!hasNext) {
+            throw new NoSuchElementException("No next structure");
+        }
+
+        // skip over occurrences that were not consumed, this includes all structures rejected by the filter
+        identifierCursor = skipVarints(identifierCursor, nextStartPosition - positionPointer);
+
+        structureIndex = nextStructureIndex;
+        startPosition = nextStartPosition;
+        endPosition = nextEndPosition;
+        positionPointer = startPosition;
+        findNextStructure();
+    }
+
+    @Override
+    public void moveOccurrence() {
+        if (positionPointer + 2 > endPosition) {
+            throw new IllegalStateException("Can't move to occurrence in another structure without calling moveStructure() first");
+        }
+        residueIndex1 = readVarint(identifierCursor);
+        residueIndex2 = readVarint(varintEnd);
+        identifierCursor = varintEnd;
+        positionPointer += 2;
+    }
+
+    @Override
+    public int getStructureCount() {
+        return structureCount;
+    }
+
+    @Override
+    public int getResiduePairCount() {
+        return identifierCount / 2;
+    }
+
+    @Override
+    public int getStructureIndex() {
+        return structureIndex;
+    }
+
+    @Override
+    public long getResiduePairIdentifier() {
+        return ResiduePairIdentifier.encodeIdentifier(residueIndex1, residueIndex2);
+    }
+
+    @Override
+    public void reset() {
+        identifierCursor = identifierSection;
+        startPosition = 0;
+        endPosition = 0;
+        positionPointer = 0;
+
+        scanPointer = -1;
+        structureCursor = structureSection;
+        offsetCursor = offsetSection;
+        if (structureCount > 0) {
+            scanOffset = readVarint(offsetCursor);
+            offsetCursor = varintEnd;
+        }
+        findNextStructure();
+    }
+
+    @Override
+    public int getStartPosition() {
+        return startPosition;
+    }
+
+    @Override
+    public int getEndPosition() {
+        return endPosition;
+    }
+}
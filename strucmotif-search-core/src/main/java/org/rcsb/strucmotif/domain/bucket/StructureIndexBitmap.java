@@ -0,0 +1,404 @@
+package org.rcsb.strucmotif.domain.bucket;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compressed, immutable set of structure indices, organized like a Roaring bitmap. Structure indices are grouped by
+ * their upper 16 bits into containers. Each container stores the lower 16 bits either as sorted array (if sparse) or as
+ * bitset (if dense). This allows to combine the structures referenced by inverted index buckets without decoding them.
+ */
+public class StructureIndexBitmap {
+    /**
+     * A bitmap that contains no structure indices.
+     */
+    public static final StructureIndexBitmap EMPTY = new StructureIndexBitmap(new char[0], new char[0][], new long[0][], new int[0]);
+    // containers with at most this many values are stored as sorted array, larger ones as bitset
+    private static final int ARRAY_LIMIT = 4096;
+    private static final int BITSET_LENGTH = (1 << 16) / Long.SIZE;
+    // upper 16 bits of each container, sorted ascending
+    private final char[] keys;
+    // sorted lower 16 bits, null for dense containers
+    private final char[][] arrays;
+    // lower 16 bits as bitset, null for sparse containers
+    private final long[][] bitsets;
+    private final int[] cardinalities;
+
+    private StructureIndexBitmap(char[] keys, char[][] arrays, long[][] bitsets, int[] cardinalities) {
+        this.keys = keys;
+        this.arrays = arrays;
+        this.bitsets = bitsets;
+        this.cardinalities = cardinalities;
+    }
+
+    /**
+     * Create a bitmap from a collection of structure indices.
+     * @param structureIndices the content, may be unsorted and contain duplicates
+     * @return a bitmap
+     */
+    public static StructureIndexBitmap of(int[] structureIndices) {
+        // sort as unsigned values so that containers are ordered by their key
+        int[] sorted = Arrays.stream(structureIndices)
+                .map(structureIndex -> structureIndex ^ Integer.MIN_VALUE)
+                .sorted()
+                .distinct()
+                .map(structureIndex -> structureIndex ^ Integer.MIN_VALUE)
+                .toArray();
+
+        Builder builder = new Builder();
+        int start = 0;
+        while (start < sorted.length) {
+            char key = key(sorted[start]);
+            int end = start + 1;
+            while (end < sorted.length && key(sorted[end]) == key) {
+                end++;
+            }
+
+            char[] values = new char[end - start];
+            for (int i = start; i < end; i++) {
+                values[i - start] = (char) sorted[i];
+            }
+            builder.add(key, values);
+            start = end;
+        }
+        return builder.build();
+    }
+
+    /**
+     * Read a bitmap from its binary representation.
+     * @param byteBuffer data source, positioned at the start of the bitmap
+     * @return a bitmap
+     */
+    public static StructureIndexBitmap read(ByteBuffer byteBuffer) {
+        int size = byteBuffer.getInt();
+        char[] keys = new char[size];
+        char[][] arrays = new char[size][];
+        long[][] bitsets = new long[size][];
+        int[] cardinalities = new int[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = byteBuffer.getChar();
+            cardinalities[i] = byteBuffer.getInt();
+            if (cardinalities[i] <= ARRAY_LIMIT) {
+                arrays[i] = new char[cardinalities[i]];
+                byteBuffer.asCharBuffer().get(arrays[i]);
+                byteBuffer.position(byteBuffer.position() + cardinalities[i] * Character.BYTES);
+            } else {
+                bitsets[i] = new long[BITSET_LENGTH];
+                byteBuffer.asLongBuffer().get(bitsets[i]);
+                byteBuffer.position(byteBuffer.position() + BITSET_LENGTH * Long.BYTES);
+            }
+        }
+        return new StructureIndexBitmap(keys, arrays, bitsets, cardinalities);
+    }
+
+    /**
+     * Serialize this bitmap.
+     * @return a buffer that contains the binary representation, ready to be read
+     */
+    public ByteBuffer toByteBuffer() {
+        int length = Integer.BYTES;
+        for (int i = 0; i < keys.length; i++) {
+            length += Character.BYTES + Integer.BYTES + (arrays[i] != null ? arrays[i].length * Character.BYTES : BITSET_LENGTH * Long.BYTES);
+        }
+
+        ByteBuffer byteBuffer = ByteBuffer.allocate(length);
+        byteBuffer.putInt(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            byteBuffer.putChar(keys[i]);
+            byteBuffer.putInt(cardinalities[i]);
+            if (arrays[i] != null) {
+                for (char value : arrays[i]) {
+                    byteBuffer.putChar(value);
+                }
+            } else {
+                for (long word : bitsets[i]) {
+                    byteBuffer.putLong(word);
+                }
+            }
+        }
+        return byteBuffer.flip();
+    }
+
+    /**
+     * Check whether a structure index is part of this bitmap.
+     * @param structureIndex the structure index
+     * @return true if present
+     */
+    public boolean contains(int structureIndex) {
+        int i = Arrays.binarySearch(keys, key(structureIndex));
+        if (i < 0) {
+            return false;
+        }
+
+        char value = (char) structureIndex;
+        if (arrays[i] != null) {
+            return Arrays.binarySearch(arrays[i], value) >= 0;
+        }
+        return (bitsets[i][value >>> 6] & (1L << value)) != 0;
+    }
+
+    /**
+     * Number of structure indices in this bitmap.
+     * @return an int
+     */
+    public int getCardinality() {
+        int cardinality = 0;
+        for (int c : cardinalities) {
+            cardinality += c;
+        }
+        return cardinality;
+    }
+
+    /**
+     * True if this bitmap contains no structure indices.
+     * @return a boolean
+     */
+    public boolean isEmpty() {
+        return keys.length == 0;
+    }
+
+    /**
+     * All structure indices in this bitmap, ordered as unsigned values.
+     * @return an array of structure indices
+     */
+    public int[] toArray() {
+        int[] out = new int[getCardinality()];
+        int pos = 0;
+        for (int i = 0; i < keys.length; i++) {
+            int high = keys[i] << 16;
+            if (arrays[i] != null) {
+                for (char value : arrays[i]) {
+                    out[pos++] = high | value;
+                }
+            } else {
+                long[] bitset = bitsets[i];
+                for (int j = 0; j < bitset.length; j++) {
+                    long word = bitset[j];
+                    while (word != 0) {
+                        out[pos++] = high | (j << 6) | Long.numberOfTrailingZeros(word);
+                        word &= word - 1;
+                    }
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Union of two bitmaps.
+     * @param other the other bitmap
+     * @return a bitmap that contains all structure indices present in either bitmap
+     */
+    public StructureIndexBitmap or(StructureIndexBitmap other) {
+        if (isEmpty()) {
+            return other;
+        }
+        if (other.isEmpty()) {
+            return this;
+        }
+
+        Builder builder = new Builder();
+        int i = 0;
+        int j = 0;
+        while (i < keys.length || j < other.keys.length) {
+            if (j == other.keys.length || (i < keys.length && keys[i] < other.keys[j])) {
+                builder.add(keys[i], arrays[i], bitsets[i], cardinalities[i]);
+                i++;
+            } else if (i == keys.length || other.keys[j] < keys[i]) {
+                builder.add(other.keys[j], other.arrays[j], other.bitsets[j], other.cardinalities[j]);
+                j++;
+            } else {
+                orContainers(builder, keys[i], arrays[i], bitsets[i], other.arrays[j], other.bitsets[j]);
+                i++;
+                j++;
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Intersection of two bitmaps.
+     * @param other the other bitmap
+     * @return a bitmap that contains all structure indices present in both bitmaps
+     */
+    public StructureIndexBitmap and(StructureIndexBitmap other) {
+        Builder builder = new Builder();
+        int i = 0;
+        int j = 0;
+        while (i < keys.length && j < other.keys.length) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (other.keys[j] < keys[i]) {
+                j++;
+            } else {
+                andContainers(builder, keys[i], arrays[i], bitsets[i], other.arrays[j], other.bitsets[j]);
+                i++;
+                j++;
+            }
+        }
+        return builder.build();
+    }
+
+    private static void orContainers(Builder builder, char key, char[] array1, long[] bitset1, char[] array2, long[] bitset2) {
+        if (array1 != null && array2 != null) {
+            // merge sorted arrays
+            char[] merged = new char[array1.length + array2.length];
+            int i = 0;
+            int j = 0;
+            int k = 0;
+            while (i < array1.length && j < array2.length) {
+                if (array1[i] < array2[j]) {
+                    merged[k++] = array1[i++];
+                } else if (array2[j] < array1[i]) {
+                    merged[k++] = array2[j++];
+                } else {
+                    merged[k++] = array1[i++];
+                    j++;
+                }
+            }
+            while (i < array1.length) {
+                merged[k++] = array1[i++];
+            }
+            while (j < array2.length) {
+                merged[k++] = array2[j++];
+            }
+            builder.add(key, Arrays.copyOf(merged, k));
+            return;
+        }
+
+        long[] bitset = bitset1 != null ? bitset1.clone() : toBitset(array1);
+        if (bitset2 != null) {
+            for (int i = 0; i < BITSET_LENGTH; i++) {
+                bitset[i] |= bitset2[i];
+            }
+        } else {
+            for (char value : array2) {
+                bitset[value >>> 6] |= 1L << value;
+            }
+        }
+        builder.add(key, bitset);
+    }
+
+    private static void andContainers(Builder builder, char key, char[] array1, long[] bitset1, char[] array2, long[] bitset2) {
+        if (bitset1 != null && bitset2 != null) {
+            long[] bitset = new long[BITSET_LENGTH];
+            for (int i = 0; i < BITSET_LENGTH; i++) {
+                bitset[i] = bitset1[i] & bitset2[i];
+            }
+            builder.add(key, bitset);
+            return;
+        }
+
+        char[] out;
+        int k = 0;
+        if (array1 != null && array2 != null) {
+            // intersect sorted arrays
+            out = new char[Math.min(array1.length, array2.length)];
+            int i = 0;
+            int j = 0;
+            while (i < array1.length && j < array2.length) {
+                if (array1[i] < array2[j]) {
+                    i++;
+                } else if (array2[j] < array1[i]) {
+                    j++;
+                } else {
+                    out[k++] = array1[i++];
+                    j++;
+                }
+            }
+        } else {
+            // probe the bitset with each array value
+            char[] array = array1 != null ? array1 : array2;
+            long[] bitset = bitset1 != null ? bitset1 : bitset2;
+            out = new char[array.length];
+            for (char value : array) {
+                if ((bitset[value >>> 6] & (1L << value)) != 0) {
+                    out[k++] = value;
+                }
+            }
+        }
+        builder.add(key, Arrays.copyOf(out, k));
+    }
+
+    private static long[] toBitset(char[] array) {
+        long[] bitset = new long[BITSET_LENGTH];
+        for (char value : array) {
+            bitset[value >>> 6] |= 1L << value;
+        }
+        return bitset;
+    }
+
+    private static char key(int structureIndex) {
+        return (char) (structureIndex >>> 16);
+    }
+
+    /**
+     * Collects containers in ascending key order and chooses their representation.
+     */
+    private static class Builder {
+        private final List<Character> keys = new ArrayList<>();
+        private final List<char[]> arrays = new ArrayList<>();
+        private final List<long[]> bitsets = new ArrayList<>();
+        private final List<Integer> cardinalities = new ArrayList<>();
+
+        void add(char key, char[] array) {
+            if (array.length > ARRAY_LIMIT) {
+                add(key, null, toBitset(array), array.length);
+            } else {
+                add(key, array, null, array.length);
+            }
+        }
+
+        void add(char key, long[] bitset) {
+            int cardinality = 0;
+            for (long word : bitset) {
+                cardinality += Long.bitCount(word);
+            }
+
+            if (cardinality > ARRAY_LIMIT) {
+                add(key, null, bitset, cardinality);
+                return;
+            }
+
+            char[] array = new char[cardinality];
+            int k = 0;
+            for (int i = 0; i < bitset.length; i++) {
+                long word = bitset[i];
+                while (word != 0) {
+                    array[k++] = (char) ((i << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            add(key, array, null, cardinality);
+        }
+
+        void add(char key, char[] array, long[] bitset, int cardinality) {
+            // empty containers are never stored
+            if (cardinality == 0) {
+                return;
+            }
+
+            keys.add(key);
+            arrays.add(array);
+            bitsets.add(bitset);
+            cardinalities.add(cardinality);
+        }
+
+        StructureIndexBitmap build() {
+            if (keys.isEmpty()) {
+                return EMPTY;
+            }
+
+            char[] keyArray = new char[keys.size()];
+            for (int i = 0; i < keyArray.length; i++) {
+                keyArray[i] = keys.get(i);
+            }
+            return new StructureIndexBitmap(keyArray,
+                    arrays.toArray(new char[0][]),
+                    bitsets.toArray(new long[0][]),
+                    cardinalities.stream().mapToInt(Integer::intValue).toArray());
+        }
+    }
+}
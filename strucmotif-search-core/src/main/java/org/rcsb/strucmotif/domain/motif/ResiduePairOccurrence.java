@@ -9,6 +9,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -51,8 +52,25 @@ public class ResiduePairOccurrence {
      * @return the same list, ordered
      */
     public static List<ResiduePairOccurrence> sort(List<ResiduePairOccurrence> residuePairOccurrences) {
-        return residuePairOccurrences.stream()
-                .sorted(Comparator.comparingInt(o -> getInformativeness(o.getResiduePairDescriptor())))
+        return sort(residuePairOccurrences, STATIC_COST);
+    }
+
+    /**
+     * Sort a list of occurrences by their estimated costs and move the cheapest ones to the front. The order of
+     * occurrences with identical costs is retained.
+     * @param residuePairOccurrences ordered list of occurrences
+     * @param costFunction reports the costs of an occurrence (e.g., the expected number of candidates)
+     * @return the same list, ordered
+     */
+    public static List<ResiduePairOccurrence> sort(List<ResiduePairOccurrence> residuePairOccurrences, ToLongFunction<ResiduePairOccurrence> costFunction) {
+        // estimates can be expensive (e.g., catalog lookups for all compatible descriptors): evaluate each occurrence once
+        long[] costs = residuePairOccurrences.stream()
+                .mapToLong(costFunction)
+                .toArray();
+        return IntStream.range(0, costs.length)
+                .boxed()
+                .sorted(Comparator.comparingLong(i -> costs[i]))
+                .map(residuePairOccurrences::get)
                 .collect(Collectors.toList());
     }
 
@@ -457,6 +475,12 @@ public class ResiduePairOccurrence {
             .mapToObj(i -> new Pair<>(SORTED_RESIDUE_TYPE_COMBINATIONS[i], i))
             .collect(Collectors.toMap(Pair::first, Pair::second));
 
+    /**
+     * Costs of an occurrence based on how frequent its residue type combination is in the PDB. Used when no statistics
+     * on the content of the inverted index are available.
+     */
+    public static final ToLongFunction<ResiduePairOccurrence> STATIC_COST = o -> getInformativeness(o.getResiduePairDescriptor());
+
     private static int getInformativeness(int descriptor) {
         int residueCombination = descriptor >>> 9;
         return INFORMATIVE_LOOKUP.getOrDefault(residueCombination, DEFAULT_INFORMATIVENESS);
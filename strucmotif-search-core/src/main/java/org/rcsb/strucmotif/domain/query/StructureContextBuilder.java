@@ -156,6 +156,8 @@ public class StructureContextBuilder implements ContextBuilder {
         private AtomPairingScheme atomPairingScheme;
         private MotifPruner motifPruner;
         private int limit;
+        private int bestResults;
+        private SymmetryMode symmetryMode;
         private int timeout;
         private Set<PositionSpecificExchange> upstreamExchanges;
 
@@ -172,6 +174,8 @@ public class StructureContextBuilder implements ContextBuilder {
             // defines the 'default' motif pruning strategy
             this.motifPruner = StructureContextBuilder.this.kruskalMotifPruner;
             this.limit = Integer.MAX_VALUE;
+            this.bestResults = Integer.MAX_VALUE;
+            this.symmetryMode = SymmetryMode.OFF;
             this.timeout = strucmotifConfig.getQueryTimeout();
         }
 
@@ -239,6 +243,28 @@ public class StructureContextBuilder implements ContextBuilder {
             return this;
         }
 
+        /**
+         * Only report the hits with the lowest RMSD, ordered by RMSD. Unlike {@link #limitResults(int)}, this doesn't
+         * stop the search early, but the RMSD cutoff is tightened as soon as enough hits are found.
+         * @param bestResults the number of hits to report
+         * @return this builder
+         */
+        public MandatoryBuilderStep bestResults(int bestResults) {
+            this.bestResults = bestResults;
+            return this;
+        }
+
+        /**
+         * Control how hits are handled that are exact symmetry copies of each other, e.g. in virus capsids. By default,
+         * every copy is scored.
+         * @param symmetryMode the {@link SymmetryMode}
+         * @return this builder
+         */
+        public MandatoryBuilderStep symmetryMode(SymmetryMode symmetryMode) {
+            this.symmetryMode = symmetryMode;
+            return this;
+        }
+
         @Override
         public MandatoryBuilderStep timeout(int ms) {
             this.timeout = ms;
@@ -263,6 +289,8 @@ public class StructureContextBuilder implements ContextBuilder {
                     atomPairingScheme,
                     motifPruner,
                     limit,
+                    bestResults,
+                    symmetryMode,
                     timeout);
             return new OptionalBuilderStep(structureIdentifier, structure, labelSelections, residues, parameters, upstreamExchanges);
         }
@@ -368,7 +396,8 @@ public class StructureContextBuilder implements ContextBuilder {
                     allowedStructures,
                     excludedStructures,
                     resultsContentType,
-                    strucmotifConfig);
+                    strucmotifConfig,
+                    invertedIndex.getDescriptorStatistics());
             return new StructureSearchContext(strucmotifRuntime, strucmotifConfig, invertedIndex, structureIndexProvider, structureDataProvider, query);
         }
     }
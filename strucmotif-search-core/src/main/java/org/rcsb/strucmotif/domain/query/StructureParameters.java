@@ -14,6 +14,8 @@ public class StructureParameters implements Parameters {
     private final AtomPairingScheme atomPairingScheme;
     private final MotifPruner motifPruner;
     private final int limit;
+    private final int bestResults;
+    private final SymmetryMode symmetryMode;
     private final int timeout;
 
     /**
@@ -25,9 +27,11 @@ public class StructureParameters implements Parameters {
      * @param atomPairingScheme how to pair atoms
      * @param motifPruner how to prune motifs
      * @param resultLimit stop after this many hits
+     * @param bestResults only report this many hits with the lowest RMSD
+     * @param symmetryMode how to handle symmetry copies of hits
      * @param timeout timeout in ms
      */
-    public StructureParameters(int backboneDistanceTolerance, int sideChainDistanceTolerance, int angleTolerance, float rmsdCutoff, AtomPairingScheme atomPairingScheme, MotifPruner motifPruner, int resultLimit, int timeout) {
+    public StructureParameters(int backboneDistanceTolerance, int sideChainDistanceTolerance, int angleTolerance, float rmsdCutoff, AtomPairingScheme atomPairingScheme, MotifPruner motifPruner, int resultLimit, int bestResults, SymmetryMode symmetryMode, int timeout) {
         this.backboneDistanceTolerance = backboneDistanceTolerance;
         this.sideChainDistanceTolerance = sideChainDistanceTolerance;
         this.angleTolerance = angleTolerance;
@@ -35,6 +39,8 @@ public class StructureParameters implements Parameters {
         this.atomPairingScheme = atomPairingScheme;
         this.motifPruner = motifPruner;
         this.limit = resultLimit;
+        this.bestResults = bestResults;
+        this.symmetryMode = symmetryMode;
         this.timeout = timeout;
     }
 
@@ -110,6 +116,30 @@ public class StructureParameters implements Parameters {
         return limit != Integer.MAX_VALUE;
     }
 
+    /**
+     * Report only this many hits, those with the lowest RMSD, ordered by RMSD.
+     * @return an int
+     */
+    public int getBestResults() {
+        return bestResults;
+    }
+
+    /**
+     * Report if only the hits with the lowest RMSD will be returned.
+     * @return true if hits will be ranked by RMSD
+     */
+    public boolean hasBestResults() {
+        return bestResults != Integer.MAX_VALUE;
+    }
+
+    /**
+     * How hits are handled that are exact symmetry copies of each other.
+     * @return a {@link SymmetryMode}
+     */
+    public SymmetryMode getSymmetryMode() {
+        return symmetryMode;
+    }
+
     @Override
     public int getTimeout() {
         return timeout;
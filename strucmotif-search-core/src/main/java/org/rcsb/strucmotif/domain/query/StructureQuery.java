@@ -8,11 +8,14 @@ import org.rcsb.strucmotif.domain.structure.LabelSelection;
 import org.rcsb.strucmotif.domain.structure.ResidueGraph;
 import org.rcsb.strucmotif.domain.structure.ResidueType;
 import org.rcsb.strucmotif.domain.structure.Structure;
+import org.rcsb.strucmotif.io.DescriptorStatistics;
 
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
 
 /**
  * The immutable container for a structural motif query.
@@ -37,6 +40,7 @@ public class StructureQuery implements SearchQuery<StructureParameters, Structur
      * @param excludedStructures which structures to exclude
      * @param resultsContentType which provenance to allow
      * @param strucmotifConfig the global config
+     * @param descriptorStatistics content of the inverted index, used to plan the query (may be empty)
      */
     public StructureQuery(String structureIdentifier,
                           Structure structure,
@@ -47,7 +51,8 @@ public class StructureQuery implements SearchQuery<StructureParameters, Structur
                           Collection<String> allowedStructures,
                           Collection<String> excludedStructures,
                           Collection<ResultsContentType> resultsContentType,
-                          StrucmotifConfig strucmotifConfig) {
+                          StrucmotifConfig strucmotifConfig,
+                          DescriptorStatistics descriptorStatistics) {
         ResidueGraph.ResidueGraphOptions options = ResidueGraph.ResidueGraphOptions.selection(residues, labelSelections);
         ResidueGraph residueGraph = new ResidueGraph(structure, strucmotifConfig, options);
 
@@ -56,8 +61,10 @@ public class StructureQuery implements SearchQuery<StructureParameters, Structur
             throw new IllegalQueryDefinitionException("Query violates distance threshold");
         }
 
-        List<ResiduePairOccurrence> residuePairOccurrences = parameters.getMotifPruner().prune(residueGraph);
-        this.queryStructure = new StructureQueryStructure(structureIdentifier, structure, labelSelections, residues, residuePairOccurrences);
+        // pick spanning tree and order of residue pairs so that few candidates have to be considered
+        ToLongFunction<ResiduePairOccurrence> costFunction = createCostFunction(structure, parameters, exchanges, descriptorStatistics);
+        List<ResiduePairOccurrence> residuePairOccurrences = parameters.getMotifPruner().prune(residueGraph, costFunction);
+        this.queryStructure = new StructureQueryStructure(structureIdentifier, structure, labelSelections, residues, residuePairOccurrences, costFunction);
         this.parameters = parameters;
         this.exchanges = exchanges;
         this.allowedStructures = allowedStructures;
@@ -65,6 +72,20 @@ public class StructureQuery implements SearchQuery<StructureParameters, Structur
         this.resultsContentType = resultsContentType;
     }
 
+    private static ToLongFunction<ResiduePairOccurrence> createCostFunction(Structure structure, StructureParameters parameters, Map<LabelSelection, Set<ResidueType>> exchanges, DescriptorStatistics descriptorStatistics) {
+        if (descriptorStatistics.isEmpty()) {
+            return ResiduePairOccurrence.STATIC_COST;
+        }
+
+        Map<Integer, Set<ResidueType>> residueIndexExchanges = exchanges.entrySet()
+                .stream()
+                .collect(Collectors.toMap(entry -> structure.getResidueIndex(entry.getKey()), Map.Entry::getValue));
+        return descriptorStatistics.costFunction(parameters.getBackboneDistanceTolerance(),
+                parameters.getSideChainDistanceTolerance(),
+                parameters.getAngleTolerance(),
+                residueIndexExchanges);
+    }
+
     /**
      * The structure used to define this query/motif.
      * @return a dedicated implementation wrapping a structure instance
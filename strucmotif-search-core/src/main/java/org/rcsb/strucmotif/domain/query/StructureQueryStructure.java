@@ -12,6 +12,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.function.ToLongFunction;
 import java.util.stream.Stream;
 
 /**
@@ -36,6 +37,19 @@ public class StructureQueryStructure implements QueryStructure {
      * @param residuePairOccurrences contacts between residues
      */
     public StructureQueryStructure(String structureIdentifier, Structure structure, List<LabelSelection> originalLabelSelections, List<Map<LabelAtomId, float[]>> originalResidues, List<ResiduePairOccurrence> residuePairOccurrences) {
+        this(structureIdentifier, structure, originalLabelSelections, originalResidues, residuePairOccurrences, ResiduePairOccurrence.STATIC_COST);
+    }
+
+    /**
+     * Construct a structure query structure and order residue pairs by their estimated costs.
+     * @param structureIdentifier the identifier
+     * @param structure the structure
+     * @param originalLabelSelections residues to select
+     * @param originalResidues coordinates of residues
+     * @param residuePairOccurrences contacts between residues
+     * @param costFunction reports the costs of a residue pair, cheap pairs are evaluated first
+     */
+    public StructureQueryStructure(String structureIdentifier, Structure structure, List<LabelSelection> originalLabelSelections, List<Map<LabelAtomId, float[]>> originalResidues, List<ResiduePairOccurrence> residuePairOccurrences, ToLongFunction<ResiduePairOccurrence> costFunction) {
         this.structureIdentifier = structureIdentifier;
         this.structure = structure;
         if (residuePairOccurrences.isEmpty()) {
@@ -43,7 +57,7 @@ public class StructureQueryStructure implements QueryStructure {
         }
 
         // sort occurrences to ensure that no dangling words are encountered during path assembly
-        List<ResiduePairOccurrence> connectedResiduePairs = getPathOfConnectedResiduePairs(residuePairOccurrences);
+        List<ResiduePairOccurrence> connectedResiduePairs = getPathOfConnectedResiduePairs(residuePairOccurrences, costFunction);
 
         this.residuePairOccurrences = connectedResiduePairs;
         this.residuePairIdentifiers = connectedResiduePairs.stream()
@@ -94,12 +108,13 @@ public class StructureQueryStructure implements QueryStructure {
      * Determine a unique path through this structure which captures/passes all residue pairs. Each residue must be
      * present at least once.
      * @param residuePairOccurrences the collection of residue pair occurrences to process
+     * @param costFunction reports the costs of a residue pair
      * @return a filtered collection of residue pair occurrences
      */
-    private List<ResiduePairOccurrence> getPathOfConnectedResiduePairs(List<ResiduePairOccurrence> residuePairOccurrences) {
-        List<ResiduePairOccurrence> sorted = ResiduePairOccurrence.sort(residuePairOccurrences);
+    private List<ResiduePairOccurrence> getPathOfConnectedResiduePairs(List<ResiduePairOccurrence> residuePairOccurrences, ToLongFunction<ResiduePairOccurrence> costFunction) {
+        List<ResiduePairOccurrence> sorted = ResiduePairOccurrence.sort(residuePairOccurrences, costFunction);
 
-        // assign 'random' word as start
+        // start with the cheapest word, then always pick the cheapest word that is connected to the path
         List<ResiduePairOccurrence> sparse = new ArrayList<>();
         sparse.add(sorted.remove(0));
 
@@ -0,0 +1,20 @@
+package org.rcsb.strucmotif.domain.query;
+
+/**
+ * Controls how hits are handled that are exact symmetry copies of each other, i.e. the same residues of the same chains
+ * in instances that are related by one of the transformations of a structure (e.g. the subunits of a virus capsid).
+ */
+public enum SymmetryMode {
+    /**
+     * Score every copy separately.
+     */
+    OFF,
+    /**
+     * Score one representative, report copies with the same RMSD and a transformation derived from the representative.
+     */
+    SHARE,
+    /**
+     * Score and report only one representative, copies are dropped.
+     */
+    SUPPRESS
+}
@@ -1,8 +1,9 @@
 package org.rcsb.strucmotif.domain.result;
 
+import org.rcsb.strucmotif.domain.StructureIndexMap;
+
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 /**
  * The results of a structure search run.
@@ -14,7 +15,7 @@ public class StructureSearchResult implements SearchResult<StructureHit> {
      * Keep track of the generation we are currently in, i.e. how many words of the query have been consumed.
      */
     private int pathGeneration;
-    private Map<Integer, TargetStructure> targetStructures;
+    private StructureIndexMap<TargetStructure> targetStructures;
 
     private List<StructureHit> hits;
     private int numberOfPaths;
@@ -42,7 +43,7 @@ public class StructureSearchResult implements SearchResult<StructureHit> {
      * Access to all currently referenced target structures.
      * @return a map with structure identifiers as keys and target structure instances as values
      */
-    public Map<Integer, TargetStructure> getTargetStructures() {
+    public StructureIndexMap<TargetStructure> getTargetStructures() {
         return targetStructures;
     }
 
@@ -50,7 +51,7 @@ public class StructureSearchResult implements SearchResult<StructureHit> {
      * Update the currently referenced target structures.
      * @param targetStructures a map with structure indices as keys and target structure instances as values
      */
-    public void setTargetStructures(Map<Integer, TargetStructure> targetStructures) {
+    public void setTargetStructures(StructureIndexMap<TargetStructure> targetStructures) {
         this.targetStructures = targetStructures;
     }
 
@@ -106,7 +107,10 @@ public class StructureSearchResult implements SearchResult<StructureHit> {
     /**
      * Called internally after a descriptor has been processed.
      * @return the new path generation
+     * @deprecated path generations are tracked by each assembly run, as chunks and shards are assembled independently,
+     * this counter isn't updated during searches anymore
      */
+    @Deprecated
     public int incrementAndGetPathGeneration() {
         pathGeneration++;
         return pathGeneration;
@@ -0,0 +1,155 @@
+package org.rcsb.strucmotif.domain.result;
+
+import org.rcsb.strucmotif.domain.structure.LabelSelection;
+import org.rcsb.strucmotif.domain.structure.Structure;
+import org.rcsb.strucmotif.math.Algebra;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Detects paths of a structure that are exact symmetry copies of each other: the same residues of the same chains, in
+ * chain instances whose transformations relate all residues of one path to those of the other by a single rigid
+ * transformation. For transformations M<sub>i</sub> of the residues of a path, the transformations relative to the
+ * 1st residue, M<sub>0</sub><sup>-1</sup>M<sub>i</sub>, are the same for all copies. Together with chains and sequence
+ * positions they form a key, the first path seen for each key represents all copies. Not thread-safe.
+ */
+class SymmetryEquivalence {
+    private static final float[] IDENTITY = new float[] { 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1 };
+    // transformations that aren't rotations & translations don't preserve the RMSD
+    private static final float[] NOT_RIGID = new float[0];
+    private static final float RIGIDITY_TOLERANCE = 1e-3f;
+    // resolution at which relative transformations are compared, translations are in Å
+    private static final float ROTATION_SCALE = 1e4f;
+    private static final float TRANSLATION_SCALE = 1e2f;
+    private final Structure structure;
+    private final Map<String, float[]> transformations;
+    private final Map<Key, List<LabelSelection>> representatives;
+
+    /**
+     * Construct an empty registry of representatives for a structure.
+     * @param structure the structure
+     */
+    SymmetryEquivalence(Structure structure) {
+        this.structure = structure;
+        this.transformations = new HashMap<>();
+        this.representatives = new HashMap<>();
+    }
+
+    /**
+     * Look up the representative of a path. If there is none yet, the path becomes the representative of its copies.
+     * @param labelSelections the residues of the path
+     * @return the residues of the representative, null if this path represents itself
+     */
+    List<LabelSelection> representative(List<LabelSelection> labelSelections) {
+        Key key = key(labelSelections);
+        if (key == null) {
+            return null;
+        }
+        return representatives.putIfAbsent(key, labelSelections);
+    }
+
+    /**
+     * The transformation that moves the residues of a copy onto those of its representative.
+     * @param copy the residues of the copy
+     * @param representative the residues of the representative
+     * @return a flat 4x4 matrix
+     */
+    float[] toRepresentative(List<LabelSelection> copy, List<LabelSelection> representative) {
+        float[] copyTransformation = transformation(copy.get(0).structOperId());
+        float[] representativeTransformation = transformation(representative.get(0).structOperId());
+        return Algebra.multiply4d(Algebra.invertRigid4d(copyTransformation), representativeTransformation);
+    }
+
+    private Key key(List<LabelSelection> labelSelections) {
+        int residueCount = labelSelections.size();
+        String operator = labelSelections.get(0).structOperId();
+        float[] transformation = transformation(operator);
+        if (transformation == null) {
+            return null;
+        }
+
+        float[] inverse = null;
+        String[] labelAsymIds = new String[residueCount];
+        int[] labelSeqIds = new int[residueCount];
+        int[] relativeTransformations = new int[12 * (residueCount - 1)];
+        for (int i = 0; i < residueCount; i++) {
+            LabelSelection labelSelection = labelSelections.get(i);
+            labelAsymIds[i] = labelSelection.labelAsymId();
+            labelSeqIds[i] = labelSelection.labelSeqId();
+            if (i == 0) {
+                continue;
+            }
+
+            float[] relativeTransformation = IDENTITY;
+            if (!labelSelection.structOperId().equals(operator)) {
+                float[] other = transformation(labelSelection.structOperId());
+                if (other == null) {
+                    return null;
+                }
+                if (inverse == null) {
+                    inverse = Algebra.invertRigid4d(transformation);
+                }
+                relativeTransformation = Algebra.multiply4d(other, inverse);
+            }
+
+            for (int j = 0; j < 12; j++) {
+                float scale = j % 4 == 3 ? TRANSLATION_SCALE : ROTATION_SCALE;
+                relativeTransformations[12 * (i - 1) + j] = Math.round(relativeTransformation[j] * scale);
+            }
+        }
+        return new Key(labelAsymIds, labelSeqIds, relativeTransformations);
+    }
+
+    private float[] transformation(String transformationIdentifier) {
+        float[] transformation = transformations.computeIfAbsent(transformationIdentifier, id -> {
+            float[] m = structure.getTransformation(id);
+            return isRigid(m) ? m : NOT_RIGID;
+        });
+        return transformation == NOT_RIGID ? null : transformation;
+    }
+
+    private static boolean isRigid(float[] m) {
+        if (m[12] != 0 || m[13] != 0 || m[14] != 0 || m[15] != 1) {
+            return false;
+        }
+
+        // rows of the rotation must be orthonormal
+        for (int i = 0; i < 3; i++) {
+            for (int j = i; j < 3; j++) {
+                float dot = m[4 * i] * m[4 * j] + m[4 * i + 1] * m[4 * j + 1] + m[4 * i + 2] * m[4 * j + 2];
+                if (Math.abs(dot - (i == j ? 1 : 0)) > RIGIDITY_TOLERANCE) {
+                    return false;
+                }
+            }
+        }
+
+        // no reflections
+        float determinant = m[0] * (m[5] * m[10] - m[6] * m[9])
+                - m[1] * (m[4] * m[10] - m[6] * m[8])
+                + m[2] * (m[4] * m[9] - m[5] * m[8]);
+        return determinant > 0;
+    }
+
+    private record Key(String[] labelAsymIds, int[] labelSeqIds, int[] relativeTransformations) {
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return Arrays.equals(labelAsymIds, key.labelAsymIds) &&
+                    Arrays.equals(labelSeqIds, key.labelSeqIds) &&
+                    Arrays.equals(relativeTransformations, key.relativeTransformations);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Arrays.hashCode(labelAsymIds);
+            result = 31 * result + Arrays.hashCode(labelSeqIds);
+            result = 31 * result + Arrays.hashCode(relativeTransformations);
+            return result;
+        }
+    }
+}
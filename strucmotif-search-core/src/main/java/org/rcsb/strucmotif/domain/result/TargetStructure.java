@@ -2,19 +2,25 @@ package org.rcsb.strucmotif.domain.result;
 
 import org.rcsb.strucmotif.core.HitScorer;
 import org.rcsb.strucmotif.core.IllegalQueryDefinitionException;
+import org.rcsb.strucmotif.core.QueryMemoryExceededException;
 import org.rcsb.strucmotif.core.TargetAssembler;
+import org.rcsb.strucmotif.domain.QueryMemory;
 import org.rcsb.strucmotif.domain.align.AlignmentResult;
 import org.rcsb.strucmotif.domain.motif.Overlap;
+import org.rcsb.strucmotif.domain.query.SymmetryMode;
 import org.rcsb.strucmotif.domain.structure.LabelAtomId;
 import org.rcsb.strucmotif.domain.structure.LabelSelection;
 import org.rcsb.strucmotif.domain.structure.ResidueType;
 import org.rcsb.strucmotif.domain.structure.Structure;
+import org.rcsb.strucmotif.math.Algebra;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.function.BooleanSupplier;
+import java.util.function.DoubleSupplier;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -33,23 +39,33 @@ import java.util.stream.Stream;
  * until all paths are either ruled out or sufficient resemblance of the query motif is observed.
  */
 public class TargetStructure {
+    // below this number of paths, the cartesian product is cheaper than building a hash table
+    private static final int HASH_JOIN_THRESHOLD = 8;
+    // number of paths whose candidates are aligned together
+    private static final int PATHS_PER_BATCH = 64;
+    // stands in for residues that are known to exceed the RMSD cutoff
+    private static final AlignmentResult REJECTED = new AlignmentResult(null, Float.MAX_VALUE);
+    // approximate heap usage of the instance itself and of an array header
+    private static final int SHALLOW_SIZE = 32;
+    private static final int ARRAY_HEADER_SIZE = 16;
     private final int structureIndex;
     // non-final fields to achieve the lazy behavior - tread lightly
-    private List<int[]> paths;
+    // all paths of the current generation, stored back-to-back as rows of pathLength residue indices
+    private int[] paths;
+    private int pathCount;
+    private int pathLength;
 
     /**
      * Construct a target structure instance.
      * @param structureIndex its identifier
-     * @param residuePairIdentifiers all first-generation residue pairs
+     * @param residuePairIdentifiers all first-generation residue pairs, owned by this instance afterwards
      */
     public TargetStructure(int structureIndex, int[] residuePairIdentifiers) {
         this.structureIndex = structureIndex;
         // each target identifier is the first step of a potential path in this target structure
-        // we use an ArrayList because for subsequent iterations we don't know the size ahead of time
-        this.paths = new ArrayList<>(residuePairIdentifiers.length / 2);
-        for (int i = 0; i < residuePairIdentifiers.length - 1; i = i + 2) {
-            paths.add(new int[] { residuePairIdentifiers[i], residuePairIdentifiers[i + 1] });
-        }
+        this.paths = residuePairIdentifiers;
+        this.pathCount = residuePairIdentifiers.length / 2;
+        this.pathLength = 2;
     }
 
     /**
@@ -57,7 +73,15 @@ public class TargetStructure {
      * @return the number of valid paths in this structure
      */
     public int getNumberOfValidPaths() {
-        return paths.size();
+        return pathCount;
+    }
+
+    /**
+     * Estimates the heap used by this target structure, dominated by the paths of the current generation.
+     * @return the number of bytes
+     */
+    public long getMemoryFootprint() {
+        return SHALLOW_SIZE + ARRAY_HEADER_SIZE + (long) paths.length * Integer.BYTES;
     }
 
     /**
@@ -76,38 +100,199 @@ public class TargetStructure {
      * @return true if this target still contains at least one valid path
      */
     public boolean consume(int[] residuePairIdentifiers, Overlap[] overlapProfile) {
-        List<int[]> extendedPaths = new ArrayList<>();
+        return consume(residuePairIdentifiers, overlapProfile, null);
+    }
+
+    /**
+     * Consumes a new 'generation' of residue pair identifiers and charges the paths of the next generation to the
+     * memory of the query while they are collected. The paths of the previous generation remain accounted for.
+     * @param residuePairIdentifiers all words returned for particular residue pair descriptor
+     * @param overlapProfile query motif overlap profile - needed to ensure compatibility
+     * @param queryMemory charged before the paths of the next generation grow, null to skip accounting
+     * @return true if this target still contains at least one valid path
+     * @throws QueryMemoryExceededException as soon as the paths exceed the memory budget
+     */
+    public boolean consume(int[] residuePairIdentifiers, Overlap[] overlapProfile, QueryMemory queryMemory) {
+        PathArena extendedPaths = new PathArena(pathLength + 2, Math.max(pathCount, residuePairIdentifiers.length / 2), queryMemory);
+        int joinPosition = getJoinPosition(overlapProfile);
+        if (joinPosition == -1 || pathCount < HASH_JOIN_THRESHOLD) {
+            nestedLoopJoin(residuePairIdentifiers, overlapProfile, extendedPaths);
+        } else {
+            hashJoin(residuePairIdentifiers, overlapProfile, joinPosition, extendedPaths);
+        }
+
+        paths = extendedPaths.compact();
+        pathCount = extendedPaths.count;
+        pathLength = extendedPaths.width;
+        // return true when a valid extension for the path was observed
+        return pathCount > 0;
+    }
+
+    /**
+     * Rearrange the residue pairs of all paths, e.g., if residue pairs were consumed in a different order than they
+     * occur in the query.
+     * @param positions the position of each residue pair, which is currently at the i-th position, after rearranging
+     */
+    public void reorderResiduePairs(int[] positions) {
+        int[] path = new int[pathLength];
+        for (int offset = 0; offset < pathCount * pathLength; offset += pathLength) {
+            System.arraycopy(paths, offset, path, 0, pathLength);
+            for (int i = 0; i < positions.length; i++) {
+                paths[offset + 2 * positions[i]] = path[2 * i];
+                paths[offset + 2 * positions[i] + 1] = path[2 * i + 1];
+            }
+        }
+    }
+
+    /**
+     * Find a previous residue pair that shares exactly one residue with the new one. This residue must be identical
+     * for a path and a candidate that extends it.
+     * @param overlapProfile query motif overlap profile
+     * @return the position of that residue pair in a path, -1 if there's none
+     */
+    private static int getJoinPosition(Overlap[] overlapProfile) {
+        for (int k = 0; k < overlapProfile.length; k++) {
+            Overlap overlap = overlapProfile[k];
+            if (overlap != Overlap.NONE && overlap != Overlap.BOTH) {
+                return k;
+            }
+        }
+        return -1;
+    }
 
+    private void nestedLoopJoin(int[] residuePairIdentifiers, Overlap[] overlapProfile, PathArena extendedPaths) {
         // for each possibly extending candidate:
         for (int i = 0; i < residuePairIdentifiers.length - 1; i = i + 2) {
             int candidateResidueIndex1 = residuePairIdentifiers[i];
             int candidateResidueIndex2 = residuePairIdentifiers[i + 1];
             // form cartesian product with each possible path to extend:
-            p:
-            for (int[] path : paths) {
-                // this path must allow for the same overlap profile as query
-                for (int k = 0; k < overlapProfile.length; k++) {
-                    int previousResidueIndex1 = path[2 * k];
-                    int previousResidueIndex2 = path[2 * k + 1];
-
-                    Overlap queryOverlap = overlapProfile[k];
-                    Overlap candidateOverlap = Overlap.ofResiduePairIdentifiers(previousResidueIndex1, previousResidueIndex2, candidateResidueIndex1, candidateResidueIndex2);
-                    if (queryOverlap != candidateOverlap) {
-                        continue p;
-                    }
+            for (int offset = 0; offset < pathCount * pathLength; offset += pathLength) {
+                if (isCompatible(offset, candidateResidueIndex1, candidateResidueIndex2, overlapProfile)) {
+                    extendedPaths.add(paths, offset, candidateResidueIndex1, candidateResidueIndex2);
+                }
+            }
+        }
+    }
+
+    /**
+     * Only visits pairs of paths and candidates that share the residue required by the overlap profile at the join
+     * position. Paths are hashed by this residue (chained in their original order), so the result is identical to the
+     * one of {@link #nestedLoopJoin(int[], Overlap[], PathArena)}.
+     */
+    private void hashJoin(int[] residuePairIdentifiers, Overlap[] overlapProfile, int joinPosition, PathArena extendedPaths) {
+        Overlap joinOverlap = overlapProfile[joinPosition];
+        // which residue of the path and the candidate are shared
+        int pathOffset = 2 * joinPosition + (joinOverlap == Overlap.RIGHT_LEFT || joinOverlap == Overlap.RIGHT_RIGHT ? 1 : 0);
+        boolean candidateLeft = joinOverlap == Overlap.LEFT_LEFT || joinOverlap == Overlap.RIGHT_LEFT;
+
+        int mask = (Integer.highestOneBit(2 * pathCount - 1) << 1) - 1;
+        int[] heads = new int[mask + 1];
+        Arrays.fill(heads, -1);
+        int[] next = new int[pathCount];
+        // insert in reverse so that each chain is traversed in ascending order
+        for (int p = pathCount - 1; p >= 0; p--) {
+            int slot = hash(paths[p * pathLength + pathOffset]) & mask;
+            next[p] = heads[slot];
+            heads[slot] = p;
+        }
+
+        for (int i = 0; i < residuePairIdentifiers.length - 1; i = i + 2) {
+            int candidateResidueIndex1 = residuePairIdentifiers[i];
+            int candidateResidueIndex2 = residuePairIdentifiers[i + 1];
+            int key = candidateLeft ? candidateResidueIndex1 : candidateResidueIndex2;
+            for (int p = heads[hash(key) & mask]; p != -1; p = next[p]) {
+                int offset = p * pathLength;
+                if (paths[offset + pathOffset] == key && isCompatible(offset, candidateResidueIndex1, candidateResidueIndex2, overlapProfile)) {
+                    extendedPaths.add(paths, offset, candidateResidueIndex1, candidateResidueIndex2);
                 }
+            }
+        }
+    }
 
-                // if loop didn't break: indices are valid extension of this path: propagate to next generation
-                int[] extendedPath = Arrays.copyOf(path, path.length + 2);
-                extendedPath[path.length] = candidateResidueIndex1;
-                extendedPath[path.length + 1] = candidateResidueIndex2;
-                extendedPaths.add(extendedPath);
+    private static int hash(int residueIndex) {
+        int h = residueIndex * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private boolean isCompatible(int offset, int candidateResidueIndex1, int candidateResidueIndex2, Overlap[] overlapProfile) {
+        // this path must allow for the same overlap profile as query
+        for (int k = 0; k < overlapProfile.length; k++) {
+            int previousResidueIndex1 = paths[offset + 2 * k];
+            int previousResidueIndex2 = paths[offset + 2 * k + 1];
+
+            Overlap queryOverlap = overlapProfile[k];
+            Overlap candidateOverlap = Overlap.ofResiduePairIdentifiers(previousResidueIndex1, previousResidueIndex2, candidateResidueIndex1, candidateResidueIndex2);
+            if (queryOverlap != candidateOverlap) {
+                return false;
             }
         }
+        return true;
+    }
+
+    /**
+     * Collects the paths of the next generation as fixed-width rows of a single array. Each allocation is charged to the
+     * memory of the query before it happens, replaced arrays are released afterwards.
+     */
+    private static class PathArena {
+        private final int width;
+        private final QueryMemory queryMemory;
+        private int[] data;
+        private int count;
+
+        PathArena(int width, int expectedCount, QueryMemory queryMemory) {
+            this.width = width;
+            this.queryMemory = queryMemory;
+            this.data = allocate(width * Math.max(1, expectedCount));
+        }
 
-        paths = extendedPaths;
-        // return true when a valid extension for the path was observed
-        return !paths.isEmpty();
+        private int[] allocate(int length) {
+            if (queryMemory != null) {
+                queryMemory.reserve(sizeOf(length));
+            }
+            return new int[length];
+        }
+
+        private void release(int length) {
+            if (queryMemory != null) {
+                queryMemory.release(sizeOf(length));
+            }
+        }
+
+        private static long sizeOf(int length) {
+            return ARRAY_HEADER_SIZE + (long) length * Integer.BYTES;
+        }
+
+        /**
+         * Append a path of the previous generation, extended by a residue pair.
+         */
+        void add(int[] paths, int offset, int residueIndex1, int residueIndex2) {
+            int end = count * width;
+            if (end + width > data.length) {
+                int[] grown = allocate(Math.max(end + width, 2 * data.length));
+                System.arraycopy(data, 0, grown, 0, end);
+                release(data.length);
+                data = grown;
+            }
+            System.arraycopy(paths, offset, data, end, width - 2);
+            data[end + width - 2] = residueIndex1;
+            data[end + width - 1] = residueIndex2;
+            count++;
+        }
+
+        /**
+         * Release unused capacity before this arena is kept for the next generation.
+         */
+        int[] compact() {
+            int length = count * width;
+            if (data.length == length) {
+                return data;
+            }
+
+            int[] compacted = allocate(length);
+            System.arraycopy(data, 0, compacted, 0, length);
+            release(data.length);
+            return compacted;
+        }
     }
 
     /**
@@ -123,63 +308,170 @@ public class TargetStructure {
      * @return a stream of lists containing residues (in correspondence with the query)
      */
     public Stream<StructureHit> paths(int[] residueIndexSwaps, Structure structure, String structureIdentifier, HitScorer hitScorer, float rmsdCutoff) {
-        return paths.stream().flatMap(p -> createHits(p, residueIndexSwaps, structure, structureIdentifier, hitScorer, rmsdCutoff));
+        return paths(residueIndexSwaps, structure, structureIdentifier, hitScorer, () -> rmsdCutoff);
     }
 
-    private Stream<StructureHit> createHits(int[] residuePairIdentifiers, int[] residueIndexSwaps, Structure structure, String structureIdentifier, HitScorer hitScorer, float rmsdCutoff) {
-        int[] residueIndices = orderResidueIndices(residuePairIdentifiers, residueIndexSwaps);
-        List<LabelSelection> labelSelections = IntStream.of(residueIndices)
-                .mapToObj(structure::getLabelSelection)
-                .toList();
+    /**
+     * Traverses all paths of this structure with an RMSD cutoff that may change while paths are scored, e.g. because
+     * better hits have been found elsewhere. The cutoff is read whenever a path is aligned.
+     * @param residueIndexSwaps how residues were rearranged
+     * @param structure the structure data
+     * @param structureIdentifier the structureIdentifier
+     * @param hitScorer the hit scorer
+     * @param rmsdCutoff supplies the current RMSD cutoff, hits at or above it are ignored
+     * @return a stream of lists containing residues (in correspondence with the query)
+     */
+    public Stream<StructureHit> paths(int[] residueIndexSwaps, Structure structure, String structureIdentifier, HitScorer hitScorer, DoubleSupplier rmsdCutoff) {
+        return paths(residueIndexSwaps, structure, structureIdentifier, hitScorer, rmsdCutoff, () -> false);
+    }
 
-        // determine all assembly ids that these selections appears in
-        int residueCount = labelSelections.size();
-        Map<String, Long> assemblyCounts = IntStream.of(residueIndices)
-                .mapToObj(structure::getAssemblyIdentifier)
-                .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+    /**
+     * Traverses paths of this structure until no more hits are needed, e.g. because the result limit of the query is
+     * reached. Checked before each batch of paths and before its residues are manifested and aligned, so that the
+     * remaining paths are neither aligned nor emitted.
+     * @param residueIndexSwaps how residues were rearranged
+     * @param structure the structure data
+     * @param structureIdentifier the structureIdentifier
+     * @param hitScorer the hit scorer
+     * @param rmsdCutoff supplies the current RMSD cutoff, hits at or above it are ignored
+     * @param done reports whether remaining paths can be skipped
+     * @return a stream of lists containing residues (in correspondence with the query)
+     */
+    public Stream<StructureHit> paths(int[] residueIndexSwaps, Structure structure, String structureIdentifier, HitScorer hitScorer, DoubleSupplier rmsdCutoff, BooleanSupplier done) {
+        // symmetry copies of residues can reuse the alignment of a representative
+        SymmetryMode symmetryMode = hitScorer.getSymmetryMode();
+        SymmetryEquivalence symmetryEquivalence = symmetryMode != SymmetryMode.OFF && structure.getTransformationCount() > 1 ? new SymmetryEquivalence(structure) : null;
+        // chains that take part in several assemblies yield the same residues once per assembly: align them only once
+        Map<List<LabelSelection>, AlignmentResult> alignments = structure.getAssemblyCount() > 1 || symmetryEquivalence != null ? new HashMap<>() : null;
+        // batches are only created while more hits are needed
+        return IntStream.range(0, (pathCount + PATHS_PER_BATCH - 1) / PATHS_PER_BATCH)
+                .takeWhile(batch -> !done.getAsBoolean())
+                .mapToObj(batch -> createHits(batch * PATHS_PER_BATCH, Math.min(pathCount, (batch + 1) * PATHS_PER_BATCH), residueIndexSwaps, structure, structureIdentifier, hitScorer, rmsdCutoff, done, alignments == null ? new HashMap<>() : alignments, symmetryMode, symmetryEquivalence))
+                .flatMap(List::stream);
+    }
 
-        return assemblyCounts.entrySet()
-                .stream()
+    private List<StructureHit> createHits(int fromPath, int toPath, int[] residueIndexSwaps, Structure structure, String structureIdentifier, HitScorer hitScorer, DoubleSupplier rmsdCutoff, BooleanSupplier done, Map<List<LabelSelection>, AlignmentResult> alignments, SymmetryMode symmetryMode, SymmetryEquivalence symmetryEquivalence) {
+        List<Candidate> candidates = new ArrayList<>();
+        // residues of the same label selections have the same coordinates, regardless of the assembly
+        List<List<LabelSelection>> alignedSelections = new ArrayList<>();
+        List<List<Map<LabelAtomId, float[]>>> alignedResidues = new ArrayList<>();
+        for (int path = fromPath; path < toPath; path++) {
+            // other structures may have claimed the remaining hits in the meantime
+            if (done.getAsBoolean()) {
+                return List.of();
+            }
+
+            int[] residueIndices = orderResidueIndices(path * pathLength, residueIndexSwaps);
+            List<LabelSelection> labelSelections = IntStream.of(residueIndices)
+                    .mapToObj(structure::getLabelSelection)
+                    .toList();
+
+            // determine all assembly ids that these selections appears in
+            int residueCount = labelSelections.size();
+            Map<String, Long> assemblyCounts = IntStream.of(residueIndices)
+                    .mapToObj(structure::getAssemblyIdentifier)
+                    .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+
+            for (Map.Entry<String, Long> entry : assemblyCounts.entrySet()) {
                 // this assembly must be valid for all residues
-                .filter(entry -> entry.getValue() == residueCount)
-                .map(entry -> {
-                    ResidueType[] residueTypes = new ResidueType[residueCount];
-                    @SuppressWarnings("unchecked")
-                    Map<LabelAtomId, float[]>[] residues = new Map[residueCount];
-
-                    for (int i = 0; i < residueCount; i++) {
-                        int residueIndex = residueIndices[i];
-                        residueTypes[i] = structure.getResidueType(residueIndex);
-                        residues[i] = structure.manifestResidue(residueIndex);
-                    }
+                if (entry.getValue() != residueCount) {
+                    continue;
+                }
+
+                ResidueType[] residueTypes = new ResidueType[residueCount];
+                for (int i = 0; i < residueCount; i++) {
+                    residueTypes[i] = structure.getResidueType(residueIndices[i]);
+                }
+                Candidate candidate = new Candidate(entry.getKey(), labelSelections, Arrays.asList(residueTypes), labelSelections, null);
+                if (alignments.containsKey(labelSelections)) {
+                    // aligned (or about to be aligned) for another assembly
+                    candidates.add(candidate);
+                    continue;
+                }
 
-                    AlignmentResult alignmentResult = hitScorer.alignToReference(Arrays.asList(residues));
-                    // filter away high-RMSD hits
-                    if (alignmentResult.rmsd() >= rmsdCutoff) {
-                        return null;
+                List<LabelSelection> representative = symmetryEquivalence != null ? symmetryEquivalence.representative(labelSelections) : null;
+                if (representative != null) {
+                    // same residues as the representative, moved by a symmetry operation: same RMSD
+                    if (symmetryMode == SymmetryMode.SHARE) {
+                        float[] toRepresentative = symmetryEquivalence.toRepresentative(labelSelections, representative);
+                        candidates.add(new Candidate(entry.getKey(), labelSelections, Arrays.asList(residueTypes), representative, toRepresentative));
                     }
+                    continue;
+                }
+
+                // skip manifesting & aligning residues that can't make the cutoff anyway
+                if (hitScorer.exceedsRmsdCutoff(structure, residueIndices, rmsdCutoff.getAsDouble())) {
+                    alignments.put(labelSelections, REJECTED);
+                    continue;
+                }
+
+                @SuppressWarnings("unchecked")
+                Map<LabelAtomId, float[]>[] residues = new Map[residueCount];
+                for (int i = 0; i < residueCount; i++) {
+                    residues[i] = structure.manifestResidue(residueIndices[i]);
+                }
+                // placeholder until the batch is aligned
+                alignments.put(labelSelections, REJECTED);
+                candidates.add(candidate);
+                alignedSelections.add(labelSelections);
+                alignedResidues.add(Arrays.asList(residues));
+            }
+        }
+
+        if (candidates.isEmpty() || done.getAsBoolean()) {
+            return List.of();
+        }
+
+        AlignmentResult[] alignmentResults = hitScorer.alignAllToReference(alignedResidues);
+        for (int i = 0; i < alignmentResults.length; i++) {
+            alignments.put(alignedSelections.get(i), alignmentResults[i]);
+        }
+
+        List<StructureHit> out = new ArrayList<>();
+        for (Candidate candidate : candidates) {
+            AlignmentResult alignmentResult = alignments.get(candidate.alignedSelections());
+            // filter away high-RMSD hits
+            if (alignmentResult.rmsd() >= rmsdCutoff.getAsDouble()) {
+                continue;
+            }
 
-                    return new StructureHit(structureIdentifier,
-                            entry.getKey(),
-                            labelSelections,
-                            Arrays.asList(residueTypes),
-                            alignmentResult.rmsd(),
-                            alignmentResult.transformation());
-                })
-                .filter(Objects::nonNull);
+            // symmetry copies are first moved onto their representative
+            float[] transformation = candidate.toAligned() == null ? alignmentResult.transformation() : Algebra.multiply4d(candidate.toAligned(), alignmentResult.transformation());
+            out.add(new StructureHit(structureIdentifier,
+                    candidate.assemblyIdentifier(),
+                    candidate.labelSelections(),
+                    candidate.residueTypes(),
+                    alignmentResult.rmsd(),
+                    transformation));
+        }
+        return out;
     }
 
-    private int[] orderResidueIndices(int[] identifiers, int[] residueIndexSwaps) {
-        try {
-            // ensure correct 'human-readable' order of residues
-            int[] shuffledResidueIndices = Arrays.stream(identifiers).distinct().toArray();
+    private record Candidate(String assemblyIdentifier, List<LabelSelection> labelSelections, List<ResidueType> residueTypes, List<LabelSelection> alignedSelections, float[] toAligned) {}
 
-            return IntStream.of(residueIndexSwaps)
-                    .map(i -> shuffledResidueIndices[i])
-                    .toArray();
-        } catch (IndexOutOfBoundsException e) {
-            // this indicates that fewer residues are present in the result than specified by the query
-            throw new IllegalQueryDefinitionException("Query violates distance threshold");
+    private int[] orderResidueIndices(int offset, int[] residueIndexSwaps) {
+        // ensure correct 'human-readable' order of residues
+        int[] shuffledResidueIndices = new int[pathLength];
+        int residueCount = 0;
+        r:
+        for (int i = offset; i < offset + pathLength; i++) {
+            int residueIndex = paths[i];
+            for (int j = 0; j < residueCount; j++) {
+                if (shuffledResidueIndices[j] == residueIndex) {
+                    continue r;
+                }
+            }
+            shuffledResidueIndices[residueCount++] = residueIndex;
+        }
+
+        int[] residueIndices = new int[residueIndexSwaps.length];
+        for (int i = 0; i < residueIndexSwaps.length; i++) {
+            if (residueIndexSwaps[i] >= residueCount) {
+                // this indicates that fewer residues are present in the result than specified by the query
+                throw new IllegalQueryDefinitionException("Query violates distance threshold");
+            }
+            residueIndices[i] = shuffledResidueIndices[residueIndexSwaps[i]];
         }
+        return residueIndices;
     }
 }
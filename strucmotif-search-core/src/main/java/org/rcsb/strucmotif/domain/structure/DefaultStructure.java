@@ -300,6 +300,35 @@ public class DefaultStructure implements Structure {
         return out;
     }
 
+    @Override
+    public boolean manifestAtom(int residueIndex, LabelAtomId labelAtomId, float[] out) {
+        int modelledResidueIndex = residueIndex;
+        int transformIndex = -1;
+        if (assemblyCount != 1 || transformationCount != 1) {
+            int instancedChainIndex = offsetArrayIndexOf(instancedChainOffsets, residueIndex);
+            modelledResidueIndex = residueIndex - instancedChainOffsets[instancedChainIndex] + chainOffsets[instancedChainToLabelAsymIdsIndices[instancedChainIndex]];
+            transformIndex = indexOf(transformationIdentifiers, assemblyReferences[2 * instancedChainIndex + 1]);
+        }
+
+        int offsetStart = residueOffsets[modelledResidueIndex];
+        int offsetEnd = modelledResidueIndex + 1 == residueOffsets.length ? labelAtomIds.length : residueOffsets[modelledResidueIndex + 1];
+        for (int j = offsetStart; j < offsetEnd; j++) {
+            // first occurrence of the name, like manifestResidue
+            if (LabelAtomId.values[labelAtomIds[j]] != labelAtomId) {
+                continue;
+            }
+
+            out[0] = x[j] * 0.1f;
+            out[1] = y[j] * 0.1f;
+            out[2] = z[j] * 0.1f;
+            if (transformIndex != -1) {
+                transform(out, transformations, transformIndex * 16);
+            }
+            return true;
+        }
+        return false;
+    }
+
     @Override
     public String[] getAssemblyIdentifiers() {
         return assemblyIdentifiers;
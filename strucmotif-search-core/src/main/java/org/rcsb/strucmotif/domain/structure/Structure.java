@@ -194,4 +194,14 @@ public interface Structure {
      * @return a map with label_atom_id as key and its position as Vec3
      */
     Map<LabelAtomId, float[]> manifestResidue(int residueIndex); // must use float here to accommodate transformations
+
+    /**
+     * Access coordinates of a single atom of a residue without manifesting the whole residue. Yields the same position
+     * as the corresponding entry of {@link #manifestResidue(int)}.
+     * @param residueIndex residue address
+     * @param labelAtomId the atom name
+     * @param out will hold the position
+     * @return false if the residue has no such atom
+     */
+    boolean manifestAtom(int residueIndex, LabelAtomId labelAtomId, float[] out);
 }
@@ -0,0 +1,352 @@
+package org.rcsb.strucmotif.io;
+
+import org.rcsb.strucmotif.domain.bucket.ArrayBucket;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+
+/**
+ * A size-bounded cache of decoded buckets that is shared by all queries. Entries are weighted by the size of their
+ * arrays. When the cache is full, the least frequently requested of a small random sample of entries is evicted -
+ * unless the new entry is requested less frequently, in which case it isn't admitted at all. Access frequencies are
+ * halved periodically so that the cache adapts to changing traffic. Concurrent requests for the same descriptor result
+ * in a single decode operation.
+ * <p>
+ * Cached buckets are shared, so each access returns a new {@link ArrayBucket} that wraps the same (read-only) arrays.
+ * <p>
+ * Entries belong to a generation of the underlying files. Requests of another generation than the current one bypass
+ * the cache, so that readers of replaced files and readers of files that the cache doesn't know about yet never
+ * exchange buckets.
+ */
+public class BucketCache {
+    // per-entry overhead: 3 arrays, bucket, future, map entry
+    private static final long ENTRY_OVERHEAD = 160;
+    private static final int AGING_INTERVAL = 100_000;
+    // number of entries considered per eviction
+    private static final int SAMPLE_SIZE = 8;
+    private final long maximumWeight;
+    private volatile Generation generation;
+    // guarded by 'this': cached descriptors occupy dense slots, so that eviction candidates can be sampled
+    private final Map<Integer, Integer> slots;
+    private int[] keys;
+    private long[] keyWeights;
+    private long weight;
+    private final ConcurrentMap<Integer, AtomicInteger> frequencies;
+    private final AtomicInteger accesses;
+    private final LongAdder hitCount;
+    private final LongAdder missCount;
+    private final LongAdder evictionCount;
+
+    /**
+     * Construct a bucket cache.
+     * @param maximumWeight maximum size of all cached buckets in bytes
+     */
+    public BucketCache(long maximumWeight) {
+        this.maximumWeight = maximumWeight;
+        this.generation = new Generation(0, new ConcurrentHashMap<>());
+        this.slots = new HashMap<>();
+        this.keys = new int[16];
+        this.keyWeights = new long[16];
+        this.frequencies = new ConcurrentHashMap<>();
+        this.accesses = new AtomicInteger();
+        this.hitCount = new LongAdder();
+        this.missCount = new LongAdder();
+        this.evictionCount = new LongAdder();
+    }
+
+    /**
+     * Retrieve a bucket, the loader is only invoked if this bucket isn't cached yet (or currently loaded by another
+     * thread).
+     * @param residuePairDescriptor the descriptor
+     * @param loader decodes the bucket if needed
+     * @return a bucket, not shared with any other caller
+     */
+    public ArrayBucket get(int residuePairDescriptor, IntFunction<ArrayBucket> loader) {
+        return get(residuePairDescriptor, null, loader);
+    }
+
+    /**
+     * Retrieve a bucket that only reports structures that pass a filter. The cache always holds the complete bucket.
+     * @param residuePairDescriptor the descriptor
+     * @param structureFilter determines which structure indices to report, null to report all
+     * @param loader decodes the complete bucket if needed
+     * @return a bucket, not shared with any other caller
+     */
+    public ArrayBucket get(int residuePairDescriptor, IntPredicate structureFilter, IntFunction<ArrayBucket> loader) {
+        Generation generation = this.generation;
+        return get(generation, generation.id(), residuePairDescriptor, structureFilter, loader);
+    }
+
+    /**
+     * Retrieve a bucket of a specific generation. If that isn't the current generation, the bucket is decoded without
+     * being cached.
+     * @param generation the generation of the files that the loader reads
+     * @param residuePairDescriptor the descriptor
+     * @param structureFilter determines which structure indices to report, null to report all
+     * @param loader decodes the complete bucket if needed
+     * @return a bucket, not shared with any other caller
+     */
+    public ArrayBucket get(long generation, int residuePairDescriptor, IntPredicate structureFilter, IntFunction<ArrayBucket> loader) {
+        return get(this.generation, generation, residuePairDescriptor, structureFilter, loader);
+    }
+
+    private ArrayBucket get(Generation current, long generation, int residuePairDescriptor, IntPredicate structureFilter, IntFunction<ArrayBucket> loader) {
+        if (current.id() != generation) {
+            missCount.increment();
+            return copy(loader.apply(residuePairDescriptor), structureFilter);
+        }
+
+        recordAccess(residuePairDescriptor);
+        ConcurrentMap<Integer, CompletableFuture<ArrayBucket>> entries = current.entries();
+
+        CompletableFuture<ArrayBucket> future = entries.get(residuePairDescriptor);
+        if (future == null) {
+            CompletableFuture<ArrayBucket> created = new CompletableFuture<>();
+            future = entries.putIfAbsent(residuePairDescriptor, created);
+            if (future == null) {
+                missCount.increment();
+                return copy(load(current, residuePairDescriptor, created, loader), structureFilter);
+            }
+        }
+
+        hitCount.increment();
+        return copy(join(future), structureFilter);
+    }
+
+    /**
+     * Retrieve a bucket only if it is cached (or currently loaded by another thread). Misses aren't recorded, a
+     * subsequent call of {@link #get(int, IntPredicate, IntFunction)} is expected.
+     * @param residuePairDescriptor the descriptor
+     * @param structureFilter determines which structure indices to report, null to report all
+     * @return a bucket, not shared with any other caller - null if this bucket isn't cached
+     */
+    public ArrayBucket getIfPresent(int residuePairDescriptor, IntPredicate structureFilter) {
+        return getIfPresent(generation.id(), residuePairDescriptor, structureFilter);
+    }
+
+    /**
+     * Retrieve a bucket of a specific generation only if it is cached (or currently loaded by another thread).
+     * @param generation the generation of the files that the caller reads
+     * @param residuePairDescriptor the descriptor
+     * @param structureFilter determines which structure indices to report, null to report all
+     * @return a bucket, not shared with any other caller - null if this bucket isn't cached or if that isn't the
+     * current generation
+     */
+    public ArrayBucket getIfPresent(long generation, int residuePairDescriptor, IntPredicate structureFilter) {
+        Generation current = this.generation;
+        if (current.id() != generation) {
+            return null;
+        }
+
+        CompletableFuture<ArrayBucket> future = current.entries().get(residuePairDescriptor);
+        if (future == null) {
+            return null;
+        }
+
+        recordAccess(residuePairDescriptor);
+        hitCount.increment();
+        return copy(join(future), structureFilter);
+    }
+
+    private static ArrayBucket join(CompletableFuture<ArrayBucket> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            // failed decode of another thread
+            if (e.getCause() instanceof RuntimeException r) {
+                throw r;
+            }
+            throw e;
+        }
+    }
+
+    private ArrayBucket load(Generation generation, int residuePairDescriptor, CompletableFuture<ArrayBucket> future, IntFunction<ArrayBucket> loader) {
+        ArrayBucket bucket;
+        try {
+            bucket = loader.apply(residuePairDescriptor);
+        } catch (RuntimeException e) {
+            generation.entries().remove(residuePairDescriptor, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+
+        future.complete(bucket);
+        admit(generation, residuePairDescriptor, future, weigh(bucket));
+        return bucket;
+    }
+
+    private synchronized void admit(Generation generation, int residuePairDescriptor, CompletableFuture<ArrayBucket> future, long entryWeight) {
+        // cache was invalidated in the meantime, the bucket is only visible to readers of its own generation
+        if (generation != this.generation) {
+            return;
+        }
+
+        ConcurrentMap<Integer, CompletableFuture<ArrayBucket>> entries = generation.entries();
+        if (entryWeight > maximumWeight) {
+            entries.remove(residuePairDescriptor, future);
+            return;
+        }
+
+        int frequency = frequency(residuePairDescriptor);
+        while (weight + entryWeight > maximumWeight) {
+            int victimSlot = sampleVictim();
+            // nothing to evict or new entry is less popular than the victim: don't keep new entry
+            if (victimSlot < 0 || frequency < frequency(keys[victimSlot])) {
+                entries.remove(residuePairDescriptor, future);
+                return;
+            }
+
+            entries.remove(keys[victimSlot]);
+            removeSlot(victimSlot);
+            evictionCount.increment();
+        }
+
+        addSlot(residuePairDescriptor, entryWeight);
+    }
+
+    /**
+     * Pick the least frequently requested of a few random entries. All entries are considered if there are only a few.
+     * @return the slot of the victim, -1 if the cache is empty
+     */
+    private int sampleVictim() {
+        int size = slots.size();
+        int victimSlot = -1;
+        int victimFrequency = Integer.MAX_VALUE;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < Math.min(size, SAMPLE_SIZE); i++) {
+            int slot = size <= SAMPLE_SIZE ? i : random.nextInt(size);
+            int f = frequency(keys[slot]);
+            if (f < victimFrequency) {
+                victimSlot = slot;
+                victimFrequency = f;
+            }
+        }
+        return victimSlot;
+    }
+
+    private void addSlot(int residuePairDescriptor, long entryWeight) {
+        int slot = slots.size();
+        if (slot == keys.length) {
+            keys = Arrays.copyOf(keys, 2 * slot);
+            keyWeights = Arrays.copyOf(keyWeights, 2 * slot);
+        }
+        keys[slot] = residuePairDescriptor;
+        keyWeights[slot] = entryWeight;
+        slots.put(residuePairDescriptor, slot);
+        weight += entryWeight;
+    }
+
+    private void removeSlot(int slot) {
+        slots.remove(keys[slot]);
+        weight -= keyWeights[slot];
+        // move the last entry into the gap
+        int last = slots.size();
+        if (slot != last) {
+            keys[slot] = keys[last];
+            keyWeights[slot] = keyWeights[last];
+            slots.put(keys[slot], slot);
+        }
+    }
+
+    private void recordAccess(int residuePairDescriptor) {
+        frequencies.computeIfAbsent(residuePairDescriptor, k -> new AtomicInteger()).incrementAndGet();
+        if (accesses.incrementAndGet() % AGING_INTERVAL == 0) {
+            // forget about the distant past
+            frequencies.values().forEach(f -> f.updateAndGet(i -> i >> 1));
+        }
+    }
+
+    private int frequency(int residuePairDescriptor) {
+        AtomicInteger frequency = frequencies.get(residuePairDescriptor);
+        return frequency == null ? 0 : frequency.get();
+    }
+
+    private static long weigh(ArrayBucket bucket) {
+        return ENTRY_OVERHEAD + 4L * (bucket.getStructureIndexArray().length + bucket.getPositionOffsetArray().length + bucket.getIdentifierDataArray().length);
+    }
+
+    private static ArrayBucket copy(ArrayBucket bucket, IntPredicate structureFilter) {
+        if (bucket == ArrayBucket.EMPTY_BUCKET) {
+            return bucket;
+        }
+        return new ArrayBucket(bucket.getStructureIndexArray(), bucket.getPositionOffsetArray(), bucket.getIdentifierDataArray(), structureFilter);
+    }
+
+    /**
+     * Drop all cached buckets. Loads that are currently in progress won't be added to the cache anymore.
+     */
+    public synchronized void invalidate() {
+        invalidate(generation.id() + 1);
+    }
+
+    /**
+     * Drop all cached buckets and only cache buckets of a new generation from now on. Loads that are currently in
+     * progress won't be added to the cache anymore.
+     * @param generation the generation of the current files
+     */
+    public synchronized void invalidate(long generation) {
+        this.generation = new Generation(generation, new ConcurrentHashMap<>());
+        slots.clear();
+        weight = 0;
+    }
+
+    /**
+     * Generation of the cached buckets.
+     * @return a long
+     */
+    public long getGeneration() {
+        return generation.id();
+    }
+
+    /**
+     * Number of requests that were served from the cache (or by waiting on a decode operation of another thread).
+     * @return a long
+     */
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /**
+     * Number of requests that required to decode a bucket.
+     * @return a long
+     */
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * Number of buckets that got evicted to make room for others.
+     * @return a long
+     */
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * Number of cached buckets.
+     * @return an int
+     */
+    public synchronized int getSize() {
+        return slots.size();
+    }
+
+    /**
+     * Current size of all cached buckets.
+     * @return size in bytes
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    private record Generation(long id, ConcurrentMap<Integer, CompletableFuture<ArrayBucket>> entries) {}
+}
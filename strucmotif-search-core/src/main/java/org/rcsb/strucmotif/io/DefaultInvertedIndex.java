@@ -1,5 +1,6 @@
 package org.rcsb.strucmotif.io;
 
+import org.rcsb.ffindex.FileBundle;
 import org.rcsb.ffindex.FileBundleIO;
 import org.rcsb.ffindex.ReadableFileBundle;
 import org.rcsb.ffindex.WritableFileBundle;
@@ -9,62 +10,121 @@ import org.rcsb.strucmotif.config.StrucmotifConfig;
 import org.rcsb.strucmotif.domain.motif.ResiduePairDescriptor;
 import org.rcsb.strucmotif.io.codec.BucketCodec;
 import org.rcsb.strucmotif.domain.bucket.ArrayBucket;
+import org.rcsb.strucmotif.domain.bucket.Bucket;
+import org.rcsb.strucmotif.domain.bucket.StructureIndexBitmap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.stereotype.Service;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.UncheckedIOException;
-import java.lang.reflect.Array;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
+import java.util.function.IntPredicate;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 /**
- * The implementation of the inverted index.
+ * The implementation of the inverted index, all data is stored in a single file bundle. Used by
+ * {@link ShardedInvertedIndex} for each of its shards.
  */
-@Service
 public class DefaultInvertedIndex implements InvertedIndex {
     private static final Logger logger = LoggerFactory.getLogger(DefaultInvertedIndex.class);
-    private static final byte MAGIC = (byte) (1 << 7);
-    private static final int EMPTY_INT = Integer.MAX_VALUE;
+    // files that are at most this far apart are fetched by a single read operation
+    private static final int COALESCE_GAP = 256 * 1024;
+    // upper limit of bytes fetched by a single read operation, unless a single file is larger
+    private static final int COALESCE_LENGTH = 16 * 1024 * 1024;
     private final String extension;
     private final BucketCodec bucketCodec;
     // 'production' data that can be queried
     private final Path rootPath;
     private final Path dataPath;
     private final Path indexPath;
-    private ReadableFileBundle fileBundle;
+    private final Path statisticsPath;
+    // files that are read by queries, replaced as a whole when the index is modified
+    private volatile Snapshot snapshot;
+    // incremented whenever the snapshot is replaced, only accessed by updates & life-cycle operations
+    private long generation;
+    private volatile DescriptorStatistics descriptorStatistics;
+    // structure indices that were deleted but whose data is still present, sorted ascending
+    private final Path tombstonesPath;
+    private volatile int[] tombstones;
+    // optional, structure indices referenced by each descriptor
+    private final Path bitmapsPath;
     // paths for 'temporary' bundle written when 'production' data is getting modified
     private final Path temporaryDataPath;
     private final Path temporaryIndexPath;
     private final ReadErrorStrategy readErrorStrategy;
+    // optional, shared cache of decoded buckets
+    private final BucketCache bucketCache;
+    private final long commitMemoryBudget;
+    private final double compactionThreshold;
 
     /**
      * Construct an inverted index instance.
      * @param strucmotifConfig the config
      */
     public DefaultInvertedIndex(StrucmotifConfig strucmotifConfig) {
+        this(strucmotifConfig, Paths.get(strucmotifConfig.getRootPath()), strucmotifConfig.getBucketCacheSize());
+    }
+
+    /**
+     * Construct an inverted index instance that resides in a specific directory.
+     * @param strucmotifConfig the config
+     * @param rootPath where all files of this index are located
+     * @param bucketCacheSize size of the bucket cache in bytes, 0 to disable
+     */
+    public DefaultInvertedIndex(StrucmotifConfig strucmotifConfig, Path rootPath, long bucketCacheSize) {
         InvertedIndexBackend invertedIndexBackend = strucmotifConfig.getInvertedIndexBackend();
         this.bucketCodec = invertedIndexBackend.getBucketCodec();
         this.extension = invertedIndexBackend.getExtension();
         logger.info("Extension of inverted index files: {}", extension);
-        this.rootPath = Paths.get(strucmotifConfig.getRootPath());
+        this.rootPath = rootPath;
         this.dataPath = rootPath.resolve(StrucmotifConfig.INDEX + StrucmotifConfig.DATA_EXT);
         this.indexPath = rootPath.resolve(StrucmotifConfig.INDEX + StrucmotifConfig.INDEX_EXT);
+        this.statisticsPath = rootPath.resolve(StrucmotifConfig.INDEX + StrucmotifConfig.STATISTICS_EXT);
+        this.descriptorStatistics = DescriptorStatistics.EMPTY;
+        this.tombstonesPath = rootPath.resolve(StrucmotifConfig.INDEX + StrucmotifConfig.TOMBSTONES_EXT);
+        this.tombstones = new int[0];
+        this.bitmapsPath = rootPath.resolve(StrucmotifConfig.INDEX + StrucmotifConfig.BITMAPS_EXT);
         this.temporaryDataPath = dataPath.resolveSibling(dataPath.getFileName() + StrucmotifConfig.TMP_EXT);
         this.temporaryIndexPath = indexPath.resolveSibling(indexPath.getFileName() + StrucmotifConfig.TMP_EXT);
         this.readErrorStrategy = strucmotifConfig.getReadErrorStrategy();
+        this.commitMemoryBudget = strucmotifConfig.getCommitMemoryBudget();
+        this.compactionThreshold = strucmotifConfig.getCompactionThreshold();
+        if (bucketCacheSize > 0) {
+            logger.info("Caching up to {} MB of decoded inverted index buckets", bucketCacheSize / 1024 / 1024);
+            this.bucketCache = new BucketCache(bucketCacheSize);
+        } else {
+            this.bucketCache = null;
+        }
+    }
+
+    /**
+     * Access to the cache of decoded buckets (e.g., to report hit and miss counts).
+     * @return the cache, empty if caching is disabled
+     */
+    public Optional<BucketCache> getBucketCache() {
+        return Optional.ofNullable(bucketCache);
     }
 
     /**
@@ -102,14 +162,264 @@ public class DefaultInvertedIndex implements InvertedIndex {
      */
     @PreDestroy
     public void tearDown() throws IOException {
-        fileBundle.close();
+        Snapshot snapshot = this.snapshot;
+        if (snapshot != null) {
+            this.snapshot = null;
+            snapshot.release();
+        }
         Files.deleteIfExists(temporaryDataPath);
         Files.deleteIfExists(temporaryIndexPath);
     }
 
+    /**
+     * Open the current files and make them visible to queries. Queries that still read the previous files can finish,
+     * those files are closed once the last of them is done.
+     * @throws IOException if opening fails
+     */
     private void initializeFileBundle() throws IOException {
         logger.debug("Opening index file bundle ({}, {})", dataPath, indexPath);
-        this.fileBundle = FileBundleIO.openBundle(dataPath, indexPath).inReadOnlyMode();
+        Snapshot previous = this.snapshot;
+        ReadableFileBundle fileBundle = FileBundleIO.openBundle(dataPath, indexPath).inReadOnlyMode();
+        FileChannel dataChannel = FileChannel.open(dataPath, StandardOpenOption.READ);
+        EntryTable entryTable = EntryTable.of(parseEntries(indexPath));
+        Snapshot snapshot = new Snapshot(++generation, fileBundle, dataChannel, entryTable, openDescriptorBitmaps(entryTable));
+        this.snapshot = snapshot;
+        // readers of the previous snapshot bypass the cache from now on, their loads are never admitted
+        if (bucketCache != null) {
+            bucketCache.invalidate(snapshot.generation);
+        }
+        this.descriptorStatistics = readDescriptorStatistics();
+        this.tombstones = readTombstones();
+        if (previous != null) {
+            previous.release();
+        }
+    }
+
+    /**
+     * Everything that queries read from the files of the index: the file bundle, direct access to the data file and the
+     * location of all files (used for batched reads), and the optional bitmaps. Published as a whole, so that readers
+     * never combine files of different versions, and tagged with a generation that keeps decoded buckets of different
+     * versions apart in the cache. Counts its readers: once it's been replaced, its files are closed when the last
+     * reader is done.
+     */
+    private static class Snapshot {
+        private final long generation;
+        private final ReadableFileBundle fileBundle;
+        private final FileChannel dataChannel;
+        private final EntryTable entryTable;
+        private final DescriptorBitmaps descriptorBitmaps;
+        // readers, plus one as long as this is the current snapshot of the index
+        private final AtomicInteger references;
+
+        Snapshot(long generation, ReadableFileBundle fileBundle, FileChannel dataChannel, EntryTable entryTable, DescriptorBitmaps descriptorBitmaps) {
+            this.generation = generation;
+            this.fileBundle = fileBundle;
+            this.dataChannel = dataChannel;
+            this.entryTable = entryTable;
+            this.descriptorBitmaps = descriptorBitmaps;
+            this.references = new AtomicInteger(1);
+        }
+
+        /**
+         * Register a reader.
+         * @return false if this snapshot is already closed
+         */
+        boolean retain() {
+            int count;
+            do {
+                count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        /**
+         * Unregister a reader, closes all files if this was the last one of a replaced snapshot.
+         */
+        void release() {
+            if (references.decrementAndGet() > 0) {
+                return;
+            }
+
+            try {
+                fileBundle.close();
+                dataChannel.close();
+                if (descriptorBitmaps != null) {
+                    descriptorBitmaps.close();
+                }
+            } catch (IOException e) {
+                logger.warn("Failed to close replaced index files", e);
+            }
+        }
+    }
+
+    /**
+     * Access the current files of the index. Must be released after reading.
+     * @return the current snapshot
+     */
+    private Snapshot acquireSnapshot() {
+        while (true) {
+            Snapshot snapshot = this.snapshot;
+            if (snapshot == null) {
+                throw new IllegalStateException("Inverted index at '" + rootPath + "' isn't open");
+            }
+            if (snapshot.retain()) {
+                return snapshot;
+            }
+            // was replaced in the meantime, retry with the current one
+        }
+    }
+
+    private DescriptorStatistics readDescriptorStatistics() {
+        if (Files.notExists(statisticsPath)) {
+            logger.info("No descriptor statistics at '{}' - queries will be planned using static residue frequencies", statisticsPath);
+            return DescriptorStatistics.EMPTY;
+        }
+
+        try {
+            DescriptorStatistics descriptorStatistics = DescriptorStatistics.read(statisticsPath);
+            logger.debug("Read statistics of {} descriptors from '{}'", descriptorStatistics.size(), statisticsPath);
+            return descriptorStatistics;
+        } catch (IOException e) {
+            logger.warn("Failed to read descriptor statistics from '{}' - queries will be planned using static residue frequencies", statisticsPath, e);
+            return DescriptorStatistics.EMPTY;
+        }
+    }
+
+    private void writeDescriptorStatistics(Map<Integer, DescriptorStatistics.Count> counts) throws IOException {
+        // write to separate file and swap, the statistics file isn't allowed to be in a partial state
+        Path temporaryStatisticsPath = statisticsPath.resolveSibling(statisticsPath.getFileName() + StrucmotifConfig.PARTIAL_EXT);
+        new DescriptorStatistics(counts).write(temporaryStatisticsPath);
+        Files.move(temporaryStatisticsPath, statisticsPath, StandardCopyOption.REPLACE_EXISTING);
+        logger.info("Wrote statistics of {} descriptors to '{}'", counts.size(), statisticsPath);
+    }
+
+    private DescriptorBitmaps openDescriptorBitmaps(EntryTable entryTable) {
+        if (Files.notExists(bitmapsPath)) {
+            logger.info("No descriptor bitmaps at '{}' - structures will only be filtered while decoding", bitmapsPath);
+            return null;
+        }
+
+        try {
+            DescriptorBitmaps descriptorBitmaps = DescriptorBitmaps.open(bitmapsPath);
+            // bitmaps must cover the whole index, otherwise structures would be dropped incorrectly
+            if (descriptorBitmaps.size() != entryTable.residuePairDescriptors().length) {
+                logger.warn("Descriptor bitmaps at '{}' cover {} descriptors but index contains {} - ignoring them", bitmapsPath, descriptorBitmaps.size(), entryTable.residuePairDescriptors().length);
+                descriptorBitmaps.close();
+                return null;
+            }
+            logger.debug("Opened bitmaps of {} descriptors from '{}'", descriptorBitmaps.size(), bitmapsPath);
+            return descriptorBitmaps;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to read descriptor bitmaps from '{}' - structures will only be filtered while decoding", bitmapsPath, e);
+            return null;
+        }
+    }
+
+    private DescriptorBitmaps.Writer initializeDescriptorBitmaps() throws IOException {
+        return new DescriptorBitmaps.Writer(bitmapsPath.resolveSibling(bitmapsPath.getFileName() + StrucmotifConfig.PARTIAL_EXT));
+    }
+
+    private void writeDescriptorBitmaps(DescriptorBitmaps.Writer bitmapWriter) throws IOException {
+        // written to separate file and swapped, bitmaps have to match the index
+        bitmapWriter.close();
+        Files.move(bitmapsPath.resolveSibling(bitmapsPath.getFileName() + StrucmotifConfig.PARTIAL_EXT), bitmapsPath, StandardCopyOption.REPLACE_EXISTING);
+        logger.info("Wrote descriptor bitmaps to '{}'", bitmapsPath);
+    }
+
+    /**
+     * Check if a bucket may contain any of the given structures. Answered by the bitmaps of the index if available, so
+     * that buckets without deleted structures don't need to be read.
+     * @param snapshot the files to consult
+     * @param residuePairDescriptor the descriptor
+     * @param structureIndices structures of interest
+     * @return false if the bucket definitely doesn't contain any of these structures
+     * @throws IOException if reading fails
+     */
+    private static boolean mayContain(Snapshot snapshot, int residuePairDescriptor, StructureIndexBitmap structureIndices) throws IOException {
+        if (snapshot.descriptorBitmaps == null) {
+            return true;
+        }
+
+        StructureIndexBitmap bitmap = snapshot.descriptorBitmaps.get(residuePairDescriptor);
+        return bitmap == null || !bitmap.and(structureIndices).isEmpty();
+    }
+
+    /**
+     * Reuse the bitmap of a descriptor if it's present in the current index.
+     * @param residuePairDescriptor the descriptor
+     * @return the bitmap, null if not available
+     * @throws IOException if reading fails
+     */
+    private StructureIndexBitmap getDescriptorBitmap(int residuePairDescriptor) throws IOException {
+        DescriptorBitmaps descriptorBitmaps = snapshot.descriptorBitmaps;
+        return descriptorBitmaps == null ? null : descriptorBitmaps.get(residuePairDescriptor);
+    }
+
+    private static StructureIndexBitmap bitmapOf(Bucket bucket) {
+        if (bucket instanceof ArrayBucket arrayBucket) {
+            return StructureIndexBitmap.of(arrayBucket.getStructureIndexArray());
+        }
+        return StructureIndexBitmap.of(bucket.getStructureIndices().stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    private int[] readTombstones() throws IOException {
+        if (Files.notExists(tombstonesPath)) {
+            return new int[0];
+        }
+
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(tombstonesPath)))) {
+            int[] tombstones = new int[inputStream.readInt()];
+            for (int i = 0; i < tombstones.length; i++) {
+                tombstones[i] = inputStream.readInt();
+            }
+            logger.info("{} deleted structures will be filtered from inverted index", tombstones.length);
+            return tombstones;
+        }
+    }
+
+    private void writeTombstones(int[] tombstones) throws IOException {
+        if (tombstones.length == 0) {
+            Files.deleteIfExists(tombstonesPath);
+            return;
+        }
+
+        // write to separate file and swap, deleted structures must never reappear
+        Path temporaryTombstonesPath = tombstonesPath.resolveSibling(tombstonesPath.getFileName() + StrucmotifConfig.PARTIAL_EXT);
+        try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryTombstonesPath)))) {
+            outputStream.writeInt(tombstones.length);
+            for (int tombstone : tombstones) {
+                outputStream.writeInt(tombstone);
+            }
+        }
+        Files.move(temporaryTombstonesPath, tombstonesPath, StandardCopyOption.REPLACE_EXISTING);
+        logger.info("Wrote {} deleted structures to '{}'", tombstones.length, tombstonesPath);
+    }
+
+    /**
+     * Combine a structure filter with the deleted structures.
+     * @param structureFilter the original filter, may be null
+     * @return a filter that additionally rejects deleted structures, null if everything should be reported
+     */
+    private IntPredicate withTombstones(IntPredicate structureFilter) {
+        int[] tombstones = this.tombstones;
+        if (tombstones.length == 0) {
+            return structureFilter;
+        }
+
+        IntPredicate alive = structureIndex -> Arrays.binarySearch(tombstones, structureIndex) < 0;
+        return structureFilter == null ? alive : structureFilter.and(alive);
+    }
+
+    private static Set<Integer> toSet(int[] structureIndices) {
+        return Arrays.stream(structureIndices).boxed().collect(Collectors.toSet());
+    }
+
+    @Override
+    public DescriptorStatistics getDescriptorStatistics() {
+        return descriptorStatistics;
     }
 
     private WritableFileBundle initializeTemporaryFileBundle() throws IOException {
@@ -120,8 +430,14 @@ public class DefaultInvertedIndex implements InvertedIndex {
     @Override
     public void commit() {
         logger.info("Committing temporary files to index");
+        // only updates replace the snapshot, so it can be used without registering as reader
+        Snapshot snapshot = this.snapshot;
         try {
             Set<Integer> unchangedDescriptors = Collections.synchronizedSet(reportKnownDescriptors());
+            // all buckets are copied anyway, so deleted structures are purged from the index
+            Set<Integer> removals = toSet(tombstones);
+            // statistics of the updated index, tracked while merging
+            Map<Integer, DescriptorStatistics.Count> counts = new ConcurrentHashMap<>();
 
             // this captures all additional data
             List<Path> partials = partialFilenames().toList();
@@ -129,117 +445,70 @@ public class DefaultInvertedIndex implements InvertedIndex {
 
             logger.info("Merging partial data from {}", partials);
             WritableFileBundle temporaryFileBundle = initializeTemporaryFileBundle();
-            AtomicInteger pathCounter = new AtomicInteger(1);
-            for (List<Path> paths : sortedByPrefix.values()) {
-                progress(pathCounter, 10, "{} / " + sortedByPrefix.size() + " prefixes processed");
-                // outer key: descriptor, inner key: structure index, value: positional data
-                Map<Integer, Map<Integer, int[]>> data = Collections.synchronizedMap(new HashMap<>());
-
-                paths.parallelStream().forEach(p -> {
-                    try {
-                        int currentStructureIndex = EMPTY_INT;
-                        int currentDescriptor = EMPTY_INT;
-                        int[] array = new int[1024];
-                        int arrayPos = 0;
-                        byte[] bytes = Files.readAllBytes(p);
-                        for (int i = 0; i < bytes.length - 7; i = i + 8) {
-                            if ((bytes[i] & MAGIC) != 0) {
-                                // looking at metadata
-                                if (currentDescriptor != EMPTY_INT) {
-                                    int[] actual = Arrays.copyOf(array, arrayPos);
-                                    Map<Integer, int[]> map = data.computeIfAbsent(currentDescriptor, e -> Collections.synchronizedMap(new HashMap<>()));
-                                    map.put(currentStructureIndex, actual);
-                                    // no need to clear out array, will write over old data
-                                    arrayPos = 0;
-                                }
-                                currentStructureIndex = (bytes[i] & ~MAGIC & 0xFF) << 24 | (bytes[i + 1] & 0xFF) << 16 | (bytes[i + 2] & 0xFF) << 8 | (bytes[i + 3] & 0xFF);
-                                currentDescriptor = (bytes[i + 4] & 0xFF) << 24 | (bytes[i + 5] & 0xFF) << 16 | (bytes[i + 6] & 0xFF) << 8 | (bytes[i + 7] & 0xFF);
-                            } else {
-                                // looking at payload
-                                if (arrayPos >= array.length) {
-                                    array = Arrays.copyOf(array, array.length * 2);
-                                }
-                                array[arrayPos++] = (bytes[i] & 0xFF) << 24 | (bytes[i + 1] & 0xFF) << 16 | (bytes[i + 2] & 0xFF) << 8 | (bytes[i + 3] & 0xFF);
-                                array[arrayPos++] = (bytes[i + 4] & 0xFF) << 24 | (bytes[i + 5] & 0xFF) << 16 | (bytes[i + 6] & 0xFF) << 8 | (bytes[i + 7] & 0xFF);
-                            }
-                        }
+            DescriptorBitmaps.Writer bitmapWriter = initializeDescriptorBitmaps();
+            mergePartials(sortedByPrefix, (descriptor, additions) -> {
+                // tracking unchanged descriptors to copy them over from prod data at the very end
+                unchangedDescriptors.remove(descriptor);
 
-                        if (currentDescriptor == Integer.MAX_VALUE) {
-                            // no data
-                            return;
-                        }
-
-                        // capture last datum
-                        int[] actual = Arrays.copyOf(array, arrayPos);
-                        Map<Integer, int[]> map = data.computeIfAbsent(currentDescriptor, e -> Collections.synchronizedMap(new HashMap<>()));
-                        map.put(currentStructureIndex, actual);
-                    } catch (IOException e) {
-                        throw new UncheckedIOException(e);
+                // check if there's data in production files, if so concat that to the start of the arrays
+                ArrayBucket bucket = additions;
+                if (snapshot.fileBundle.containsFile(descriptor + extension)) {
+                    ByteBuffer byteBuffer = snapshot.fileBundle.readFile(descriptor + extension);
+                    ArrayBucket existingBucket = bucketCodec.decode(byteBuffer);
+                    if (!removals.isEmpty()) {
+                        existingBucket = removeByKey(existingBucket, removals);
                     }
-                });
-
-                data.entrySet().parallelStream().forEach(entry -> {
-                    // tracking unchanged descriptors to copy them over from prod data at the very end
-                    unchangedDescriptors.remove(entry.getKey());
+                    if (existingBucket != null) {
+                        bucket = concat(existingBucket, additions);
+                    }
+                }
 
-                    int descriptor = entry.getKey();
-                    Map<Integer, int[]> perStructureData = entry.getValue();
-                    int structureCount = perStructureData.size();
-                    int identifierCount = perStructureData.values().stream().mapToInt(Array::getLength).sum();
+                ByteBuffer out = bucketCodec.encode(bucket);
+                temporaryFileBundle.writeFile(descriptor + extension, out);
+                counts.put(descriptor, new DescriptorStatistics.Count(bucket.getStructureIndexArray().length, bucket.getIdentifierDataArray().length / 2));
+                bitmapWriter.add(descriptor, bitmapOf(bucket));
+            });
 
+            if (!removals.isEmpty()) {
+                logger.info("Purging {} deleted structures from unchanged buckets", removals.size());
+                StructureIndexBitmap removalBitmap = StructureIndexBitmap.of(tombstones);
+                List<Integer> descriptors = new ArrayList<>(unchangedDescriptors);
+                descriptors.parallelStream().forEach(descriptor -> {
                     try {
-                        int[] structureIndices;
-                        int[] positionOffsets;
-                        int[] identifierData;
-                        int outerPos = 0;
-                        int innerPos = 0;
-
-                        // check if there's data in production files, if so concat that to the start of the arrays
-                        if (fileBundle.containsFile(descriptor + extension)) {
-                            ByteBuffer byteBuffer = fileBundle.readFile(descriptor + extension);
-                            ArrayBucket existingBucket = bucketCodec.decode(byteBuffer);
-
-                            int existingStructureCount = existingBucket.getStructureIndexArray().length;
-                            int existingIdentifierCount = existingBucket.getIdentifierDataArray().length;
-                            structureIndices = new int[structureCount + existingStructureCount];
-                            positionOffsets = new int[structureCount + existingStructureCount];
-                            identifierData = new int[identifierCount + existingIdentifierCount];
-
-                            System.arraycopy(existingBucket.getStructureIndexArray(), 0, structureIndices, 0, existingStructureCount);
-                            System.arraycopy(existingBucket.getPositionOffsetArray(), 0, positionOffsets, 0, existingStructureCount);
-                            System.arraycopy(existingBucket.getIdentifierDataArray(), 0, identifierData, 0, existingIdentifierCount);
-
-                            // advance positions accordingly
-                            outerPos += existingStructureCount;
-                            innerPos += existingIdentifierCount;
-                        } else {
-                            structureIndices = new int[structureCount];
-                            positionOffsets = new int[structureCount];
-                            identifierData = new int[identifierCount];
+                        if (!mayContain(snapshot, descriptor, removalBitmap)) {
+                            return;
                         }
 
-                        for (Map.Entry<Integer, int[]> datum : perStructureData.entrySet()) {
-                            int structureIndex = datum.getKey();
-                            structureIndices[outerPos] = structureIndex;
-                            positionOffsets[outerPos] = innerPos;
-
-                            int[] array = datum.getValue();
-                            System.arraycopy(array, 0, identifierData, innerPos, array.length);
-
-                            outerPos++;
-                            innerPos += array.length;
+                        ByteBuffer byteBuffer = readEntry(snapshot, descriptor);
+                        // only touch buckets that contain deleted structures
+                        if (!bucketCodec.view(byteBuffer, removals::contains).hasNextStructure()) {
+                            return;
                         }
 
-                        ArrayBucket bucket = new ArrayBucket(structureIndices, positionOffsets, identifierData);
-                        ByteBuffer out = bucketCodec.encode(bucket);
-                        temporaryFileBundle.writeFile(descriptor + extension, out);
+                        unchangedDescriptors.remove(descriptor);
+                        ArrayBucket bucket = removeByKey(bucketCodec.decode(byteBuffer.rewind()), removals);
+                        if (bucket != null) {
+                            temporaryFileBundle.writeFile(descriptor + extension, bucketCodec.encode(bucket));
+                            counts.put(descriptor, new DescriptorStatistics.Count(bucket.getStructureCount(), bucket.getResiduePairCount()));
+                            bitmapWriter.add(descriptor, bitmapOf(bucket));
+                        }
                     } catch (IOException e) {
                         throw new UncheckedIOException(e);
                     }
                 });
             }
 
-            fileBundle.close();
+            // unchanged descriptors keep their counts & bitmaps, missing ones are determined while copying their data
+            for (int descriptor : unchangedDescriptors) {
+                DescriptorStatistics.Count count = descriptorStatistics.getCount(descriptor);
+                if (count != null) {
+                    counts.put(descriptor, count);
+                }
+                StructureIndexBitmap bitmap = getDescriptorBitmap(descriptor);
+                if (bitmap != null) {
+                    bitmapWriter.add(descriptor, bitmap);
+                }
+            }
             temporaryFileBundle.close();
 
             if (!unchangedDescriptors.isEmpty()) {
@@ -250,7 +519,7 @@ public class DefaultInvertedIndex implements InvertedIndex {
                 Files.createFile(selectDataPath);
                 Files.createFile(selectIndexPath);
 
-                selectFromBundle(dataPath, indexPath, selectDataPath, selectIndexPath, update);
+                selectFromBundle(dataPath, indexPath, selectDataPath, selectIndexPath, update, counts, bitmapWriter);
                 FileBundleIO.mergeBundles(temporaryDataPath, temporaryIndexPath, selectDataPath, selectIndexPath);
 
                 Files.deleteIfExists(selectDataPath);
@@ -260,6 +529,9 @@ public class DefaultInvertedIndex implements InvertedIndex {
             // delete partial file bundle and swap temporary files with real ones
             Files.move(temporaryDataPath, dataPath, StandardCopyOption.REPLACE_EXISTING);
             Files.move(temporaryIndexPath, indexPath, StandardCopyOption.REPLACE_EXISTING);
+            writeDescriptorStatistics(counts);
+            writeDescriptorBitmaps(bitmapWriter);
+            writeTombstones(new int[0]);
             deletePartialFiles();
             initializeFileBundle();
         } catch (IOException e) {
@@ -267,18 +539,131 @@ public class DefaultInvertedIndex implements InvertedIndex {
         }
     }
 
+    /**
+     * Merge the temporary files of each prefix. Prefixes are processed concurrently as long as their estimated memory
+     * consumption fits into the commit memory budget, larger prefixes are merged alone and spill to disk.
+     * @param partialsByPrefix temporary files, grouped by prefix
+     * @param consumer receives each merged bucket, must be thread-safe
+     * @throws IOException if merging fails
+     */
+    private void mergePartials(Map<String, List<Path>> partialsByPrefix, PartialMerger.BucketConsumer consumer) throws IOException {
+        // budget is tracked in KB to stay within int range
+        int budget = (int) Math.max(1, Math.min(Integer.MAX_VALUE, commitMemoryBudget / 1024));
+        Semaphore semaphore = new Semaphore(budget, true);
+        Map<String, Integer> permits = new HashMap<>();
+        for (Map.Entry<String, List<Path>> entry : partialsByPrefix.entrySet()) {
+            permits.put(entry.getKey(), (int) Math.max(1, Math.min(budget, PartialMerger.estimateMemory(entry.getValue()) / 1024)));
+        }
+
+        // largest prefixes first, this keeps the budget saturated towards the end
+        List<String> prefixes = permits.keySet().stream()
+                .sorted(Comparator.comparing(permits::get).reversed())
+                .toList();
+        ExecutorService executorService = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        AtomicInteger prefixCounter = new AtomicInteger(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (String prefix : prefixes) {
+                int requested = permits.get(prefix);
+                futures.add(executorService.submit(() -> {
+                    semaphore.acquire(requested);
+                    try {
+                        new PartialMerger(rootPath, prefix, requested * 1024L).merge(partialsByPrefix.get(prefix), consumer);
+                    } finally {
+                        semaphore.release(requested);
+                    }
+                    progress(prefixCounter, 10, "{} / " + prefixes.size() + " prefixes processed");
+                    return null;
+                }));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while merging partial data", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (cause instanceof UncheckedIOException uncheckedIOException) {
+                throw uncheckedIOException.getCause();
+            }
+            throw new IllegalStateException("Failed to merge partial data", cause);
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Append the data of a bucket to an existing one.
+     * @param existingBucket the original data
+     * @param additions new data
+     * @return a new bucket that contains both
+     */
+    private static ArrayBucket concat(ArrayBucket existingBucket, ArrayBucket additions) {
+        int existingStructureCount = existingBucket.getStructureIndexArray().length;
+        int existingIdentifierCount = existingBucket.getIdentifierDataArray().length;
+        int structureCount = additions.getStructureIndexArray().length;
+        int identifierCount = additions.getIdentifierDataArray().length;
+        int[] structureIndices = new int[existingStructureCount + structureCount];
+        int[] positionOffsets = new int[existingStructureCount + structureCount];
+        int[] identifierData = new int[existingIdentifierCount + identifierCount];
+
+        System.arraycopy(existingBucket.getStructureIndexArray(), 0, structureIndices, 0, existingStructureCount);
+        System.arraycopy(existingBucket.getPositionOffsetArray(), 0, positionOffsets, 0, existingStructureCount);
+        System.arraycopy(existingBucket.getIdentifierDataArray(), 0, identifierData, 0, existingIdentifierCount);
+        System.arraycopy(additions.getStructureIndexArray(), 0, structureIndices, existingStructureCount, structureCount);
+        System.arraycopy(additions.getIdentifierDataArray(), 0, identifierData, existingIdentifierCount, identifierCount);
+        // advance positions accordingly
+        int[] additionalOffsets = additions.getPositionOffsetArray();
+        for (int i = 0; i < structureCount; i++) {
+            positionOffsets[existingStructureCount + i] = existingIdentifierCount + additionalOffsets[i];
+        }
+        return new ArrayBucket(structureIndices, positionOffsets, identifierData);
+    }
+
     // TODO move to ffindex-java at some point
     record Entry(String filename, long offset, int length) {}
 
+    /**
+     * Location of all files in the data file, sorted by descriptor.
+     */
+    private record EntryTable(int[] residuePairDescriptors, long[] offsets, int[] lengths) {
+        static EntryTable of(List<Entry> entries) {
+            List<Entry> sorted = entries.stream()
+                    .sorted(Comparator.comparingInt(e -> descriptorOf(e.filename())))
+                    .toList();
+            int[] residuePairDescriptors = new int[sorted.size()];
+            long[] offsets = new long[sorted.size()];
+            int[] lengths = new int[sorted.size()];
+            for (int i = 0; i < sorted.size(); i++) {
+                Entry entry = sorted.get(i);
+                residuePairDescriptors[i] = descriptorOf(entry.filename());
+                offsets[i] = entry.offset();
+                // without the separator
+                lengths[i] = entry.length() - FileBundle.FILE_END_LENGTH;
+            }
+            return new EntryTable(residuePairDescriptors, offsets, lengths);
+        }
+
+        int indexOf(int residuePairDescriptor) {
+            return Arrays.binarySearch(residuePairDescriptors, residuePairDescriptor);
+        }
+    }
+
     private static List<Entry> parseEntries(Path indexPath) throws IOException {
         try (Stream<String> lines = Files.lines(indexPath)) {
-            return lines.map(line -> line.split("\t"))
+            return lines.filter(line -> !line.isEmpty())
+                    .map(line -> line.split("\t"))
                     .map(split -> new Entry(split[0], Long.parseLong(split[1]), Integer.parseInt(split[2])))
                     .toList();
         }
     }
 
-    private static void selectFromBundle(Path dataPath, Path indexPath, Path outputDataPath, Path outputIndexPath, Set<String> selectedFiles) throws IOException {
+    private void selectFromBundle(Path dataPath, Path indexPath, Path outputDataPath, Path outputIndexPath, Set<String> selectedFiles, Map<Integer, DescriptorStatistics.Count> counts, DescriptorBitmaps.Writer bitmapWriter) throws IOException {
         List<Entry> originalEntries = parseEntries(indexPath);
         Map<String, Entry> selectedEntries = originalEntries.stream().filter(e -> selectedFiles.contains(e.filename())).collect(Collectors.toMap(Entry::filename, Function.identity()));
         if (selectedEntries.size() != selectedFiles.size()) {
@@ -299,20 +684,230 @@ public class DefaultInvertedIndex implements InvertedIndex {
                 additionsData.write(buffer);
                 updatedIndex.add(entry.filename() + "\t" + updatedOffset + "\t" + entry.length());
                 updatedOffset += entry.length();
+
+                // not covered by previous statistics
+                int residuePairDescriptor = createResiduePairDescriptor(filename);
+                if (!counts.containsKey(residuePairDescriptor)) {
+                    buffer.rewind();
+                    Bucket bucket = bucketCodec.view(buffer);
+                    counts.put(residuePairDescriptor, new DescriptorStatistics.Count(bucket.getStructureCount(), bucket.getResiduePairCount()));
+                }
+                // not covered by previous bitmaps
+                if (!bitmapWriter.contains(residuePairDescriptor)) {
+                    buffer.rewind();
+                    bitmapWriter.add(residuePairDescriptor, bitmapOf(bucketCodec.view(buffer)));
+                }
             }
         }
         Files.writeString(outputIndexPath, updatedIndex.toString());
     }
 
     @Override
-    public ArrayBucket select(int residuePairDescriptor) {
+    public Bucket select(int residuePairDescriptor) {
+        if (tombstones.length > 0) {
+            return select(residuePairDescriptor, null);
+        }
+
+        String filename = getFilename(residuePairDescriptor);
+        Snapshot snapshot = acquireSnapshot();
+        try {
+            if (!snapshot.fileBundle.containsFile(filename)) {
+                return ArrayBucket.EMPTY_BUCKET;
+            }
+
+            if (bucketCache != null) {
+                return bucketCache.get(snapshot.generation, residuePairDescriptor, null, d -> bucketCodec.decode(read(snapshot, d, filename)));
+            }
+            // mapped buffers stay valid after the snapshot is closed
+            return bucketCodec.view(read(snapshot, residuePairDescriptor, filename));
+        } finally {
+            snapshot.release();
+        }
+    }
+
+    @Override
+    public Bucket select(int residuePairDescriptor, IntPredicate structureFilter) {
         String filename = getFilename(residuePairDescriptor);
-        if (!fileBundle.containsFile(filename)) {
-            return ArrayBucket.EMPTY_BUCKET;
+        Snapshot snapshot = acquireSnapshot();
+        try {
+            if (!snapshot.fileBundle.containsFile(filename)) {
+                return ArrayBucket.EMPTY_BUCKET;
+            }
+
+            IntPredicate filter = withTombstones(structureFilter);
+            if (bucketCache != null) {
+                return bucketCache.get(snapshot.generation, residuePairDescriptor, filter, d -> bucketCodec.decode(read(snapshot, d, filename)));
+            }
+            return bucketCodec.view(read(snapshot, residuePairDescriptor, filename), filter);
+        } finally {
+            snapshot.release();
+        }
+    }
+
+    @Override
+    public Optional<StructureIndexBitmap> selectStructureIndices(int... residuePairDescriptors) {
+        Snapshot snapshot = acquireSnapshot();
+        try {
+            DescriptorBitmaps descriptorBitmaps = snapshot.descriptorBitmaps;
+            if (descriptorBitmaps == null) {
+                return Optional.empty();
+            }
+
+            StructureIndexBitmap out = StructureIndexBitmap.EMPTY;
+            for (int residuePairDescriptor : Arrays.stream(residuePairDescriptors).distinct().toArray()) {
+                try {
+                    StructureIndexBitmap bitmap = descriptorBitmaps.get(residuePairDescriptor);
+                    if (bitmap != null) {
+                        out = out.or(bitmap);
+                    }
+                } catch (IOException e) {
+                    handleReadError(residuePairDescriptor, getFilename(residuePairDescriptor), e); // should throw or exit
+                }
+            }
+            return Optional.of(out);
+        } finally {
+            snapshot.release();
+        }
+    }
+
+    @Override
+    public StructureIndexBitmap scanStructureIndices(int[] residuePairDescriptors, IntPredicate structureFilter) {
+        Snapshot snapshot = acquireSnapshot();
+        try {
+            EntryTable entryTable = snapshot.entryTable;
+            IntPredicate filter = withTombstones(structureFilter);
+            // bypasses the bucket cache: occurrences are never decoded, so there would be nothing worth keeping
+            int[] structureIndices = Arrays.stream(residuePairDescriptors)
+                    .distinct()
+                    .filter(residuePairDescriptor -> entryTable.indexOf(residuePairDescriptor) >= 0)
+                    .parallel()
+                    .flatMap(residuePairDescriptor -> Arrays.stream(bucketCodec.structureIndices(read(snapshot, residuePairDescriptor, getFilename(residuePairDescriptor)))))
+                    .filter(structureIndex -> filter == null || filter.test(structureIndex))
+                    .toArray();
+            return StructureIndexBitmap.of(structureIndices);
+        } finally {
+            snapshot.release();
+        }
+    }
+
+    @Override
+    public Bucket[] selectAll(int[] residuePairDescriptors, IntPredicate structureFilter) {
+        Snapshot snapshot = acquireSnapshot();
+        try {
+            return selectAll(snapshot, residuePairDescriptors, structureFilter);
+        } finally {
+            snapshot.release();
+        }
+    }
+
+    private Bucket[] selectAll(Snapshot snapshot, int[] residuePairDescriptors, IntPredicate structureFilter) {
+        EntryTable entryTable = snapshot.entryTable;
+        IntPredicate filter = withTombstones(structureFilter);
+        Bucket[] buckets = new Bucket[residuePairDescriptors.length];
+        // location of each requested file in the entry table
+        int[] entryIndices = new int[residuePairDescriptors.length];
+        // all requests that need to be read
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < residuePairDescriptors.length; i++) {
+            int residuePairDescriptor = residuePairDescriptors[i];
+            entryIndices[i] = entryTable.indexOf(residuePairDescriptor);
+            if (entryIndices[i] < 0) {
+                buckets[i] = ArrayBucket.EMPTY_BUCKET;
+                continue;
+            }
+
+            if (bucketCache != null) {
+                buckets[i] = bucketCache.getIfPresent(snapshot.generation, residuePairDescriptor, filter);
+            }
+            if (buckets[i] == null) {
+                pending.add(i);
+            }
+        }
+
+        // visit files in the order of the data file and merge neighbors into runs that are fetched by one sequential read
+        pending.sort(Comparator.comparingLong(i -> entryTable.offsets()[entryIndices[i]]));
+        List<List<Integer>> runs = new ArrayList<>();
+        List<Integer> run = null;
+        long runStart = 0;
+        long runEnd = 0;
+        for (int i : pending) {
+            long start = entryTable.offsets()[entryIndices[i]];
+            long end = start + entryTable.lengths()[entryIndices[i]];
+            if (run == null || start - runEnd > COALESCE_GAP || Math.max(end, runEnd) - runStart > COALESCE_LENGTH) {
+                run = new ArrayList<>();
+                runs.add(run);
+                runStart = start;
+                runEnd = end;
+            }
+            run.add(i);
+            runEnd = Math.max(runEnd, end);
+        }
+
+        // runs are read and decoded in parallel
+        runs.parallelStream().forEach(r -> readRun(snapshot, r, residuePairDescriptors, entryIndices, filter, buckets));
+        return buckets;
+    }
+
+    private void readRun(Snapshot snapshot, List<Integer> run, int[] residuePairDescriptors, int[] entryIndices, IntPredicate structureFilter, Bucket[] buckets) {
+        EntryTable entryTable = snapshot.entryTable;
+        long runStart = entryTable.offsets()[entryIndices[run.get(0)]];
+        long runEnd = run.stream()
+                .mapToLong(i -> entryTable.offsets()[entryIndices[i]] + entryTable.lengths()[entryIndices[i]])
+                .max()
+                .orElseThrow();
+
+        // a single mapping per run, buckets view slices of it just like single files of the bundle
+        ByteBuffer byteBuffer = null;
+        try {
+            byteBuffer = snapshot.dataChannel.map(FileChannel.MapMode.READ_ONLY, runStart, runEnd - runStart);
+        } catch (IOException e) {
+            int residuePairDescriptor = residuePairDescriptors[run.get(0)];
+            handleReadError(residuePairDescriptor, getFilename(residuePairDescriptor), e); // should throw or exit
+        }
+
+        for (int i : run) {
+            int residuePairDescriptor = residuePairDescriptors[i];
+            int entryIndex = entryIndices[i];
+            ByteBuffer slice = byteBuffer.slice(Math.toIntExact(entryTable.offsets()[entryIndex] - runStart), entryTable.lengths()[entryIndex]);
+            if (bucketCache != null) {
+                buckets[i] = bucketCache.get(snapshot.generation, residuePairDescriptor, structureFilter, d -> bucketCodec.decode(slice));
+            } else {
+                buckets[i] = bucketCodec.view(slice, structureFilter);
+            }
+        }
+    }
+
+    private void readFully(FileChannel dataChannel, ByteBuffer byteBuffer, long position) throws IOException {
+        while (byteBuffer.hasRemaining()) {
+            if (dataChannel.read(byteBuffer, position + byteBuffer.position()) < 0) {
+                throw new EOFException("Unexpected end of " + dataPath);
+            }
+        }
+        byteBuffer.flip();
+    }
+
+    /**
+     * Read a file into a heap buffer (rather than mapping it), used when walking large parts of the index.
+     * @param snapshot the files to read from
+     * @param residuePairDescriptor the descriptor
+     * @return the content of this file
+     * @throws IOException if reading fails
+     */
+    private ByteBuffer readEntry(Snapshot snapshot, int residuePairDescriptor) throws IOException {
+        EntryTable entryTable = snapshot.entryTable;
+        int entryIndex = entryTable.indexOf(residuePairDescriptor);
+        if (entryIndex < 0) {
+            throw new NoSuchFileException(getFilename(residuePairDescriptor));
         }
 
+        ByteBuffer byteBuffer = ByteBuffer.allocate(entryTable.lengths()[entryIndex]);
+        readFully(snapshot.dataChannel, byteBuffer, entryTable.offsets()[entryIndex]);
+        return byteBuffer;
+    }
+
+    private ByteBuffer read(Snapshot snapshot, int residuePairDescriptor, String filename) {
         try {
-            return bucketCodec.decode(getByteBuffer(filename));
+            return snapshot.fileBundle.readFile(filename);
         } catch (IOException e) {
             handleReadError(residuePairDescriptor, filename, e); // should throw or exit
             return null; // unreachable
@@ -337,10 +932,6 @@ public class DefaultInvertedIndex implements InvertedIndex {
         }
     }
 
-    private ByteBuffer getByteBuffer(String filename) throws IOException {
-        return fileBundle.readFile(filename);
-    }
-
     private String getFilename(int residuePairDescriptor) {
         return residuePairDescriptor + extension;
     }
@@ -348,42 +939,94 @@ public class DefaultInvertedIndex implements InvertedIndex {
     @Override
     public void delete(Collection<Integer> removals) {
         try {
-            logger.info("Removing {} structures from inverted index", removals.size());
-            int fileCount = fileBundle.fileCount();
+            // structures are only marked as deleted, their data is removed by the next commit or compaction
+            int[] updated = IntStream.concat(Arrays.stream(tombstones), removals.stream().mapToInt(Integer::intValue))
+                    .distinct()
+                    .sorted()
+                    .toArray();
+            logger.info("Marking {} structures as deleted in inverted index ({} in total)", removals.size(), updated.length);
+            writeTombstones(updated);
+            this.tombstones = updated;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
 
-            WritableFileBundle temporaryFileBundle = initializeTemporaryFileBundle();
+    @Override
+    public void compact() {
+        int[] tombstones = this.tombstones;
+        if (tombstones.length == 0) {
+            logger.info("No deleted structures in inverted index - nothing to compact");
+            return;
+        }
+
+        try {
+            logger.info("Compacting inverted index - rewriting buckets where more than {} of residue pairs belong to {} deleted structures", compactionThreshold, tombstones.length);
+            Set<Integer> removals = toSet(tombstones);
+            StructureIndexBitmap removalBitmap = StructureIndexBitmap.of(tombstones);
+            // only updates replace the snapshot, so it can be used without registering as reader
+            Snapshot snapshot = this.snapshot;
+            int fileCount = snapshot.fileBundle.fileCount();
+
+            DescriptorBitmaps.Writer bitmapWriter = initializeDescriptorBitmaps();
+            Map<Integer, DescriptorStatistics.Count> counts = new ConcurrentHashMap<>();
+            // deleted structures that are still referenced by buckets below the threshold
+            Set<Integer> remaining = ConcurrentHashMap.newKeySet();
+            // new location of rewritten buckets & buckets that are empty now
+            Map<Integer, Entry> relocated = new ConcurrentHashMap<>();
+            Set<Integer> emptied = ConcurrentHashMap.newKeySet();
             AtomicInteger counter = new AtomicInteger();
-            // walk whole lookup
-            indexFilenames()
-                    .parallel()
-                    .peek(path -> progress(counter, 10000, "{} / " + fileCount + " bins of inverted index processed"))
-                    .forEach(filename -> {
-                        try {
-                            int residuePairDescriptor = createResiduePairDescriptor(filename);
-                            ByteBuffer byteBuffer = delete(residuePairDescriptor, removals);
-
-                            // result may be empty, don't write anything in that case
-                            if (byteBuffer == null) {
-                                return;
+            // rewritten buckets are appended to the data file, all other data stays in place - current readers never
+            // look beyond the previous end of the file
+            try (FileChannel appendChannel = FileChannel.open(dataPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                Arrays.stream(snapshot.entryTable.residuePairDescriptors())
+                        .parallel()
+                        .peek(descriptor -> progress(counter, 10000, "{} / " + fileCount + " bins of inverted index processed"))
+                        .forEach(descriptor -> {
+                            try {
+                                compact(snapshot, descriptor, removals, removalBitmap, counts, bitmapWriter, remaining, appendChannel, relocated, emptied);
+                            } catch (IOException e) {
+                                throw new UncheckedIOException("can't process " + descriptor + extension, e);
                             }
+                        });
+            }
+            logger.info("Rewrote {} / {} bins, {} deleted structures remain", relocated.size() + emptied.size(), fileCount, remaining.size());
 
-                            temporaryFileBundle.writeFile(filename, byteBuffer);
-                        } catch (IOException e) {
-                            throw new UncheckedIOException("can't process " + filename, e);
-                        }
-                    });
-
-            // swap new and old files
-            fileBundle.close();
-            temporaryFileBundle.close();
-            Files.move(temporaryDataPath, dataPath, StandardCopyOption.REPLACE_EXISTING);
-            Files.move(temporaryIndexPath, indexPath, StandardCopyOption.REPLACE_EXISTING);
+            // point index to new locations
+            writeRelocatedEntries(relocated, emptied);
+            writeDescriptorStatistics(counts);
+            writeDescriptorBitmaps(bitmapWriter);
+            writeTombstones(remaining.stream().mapToInt(Integer::intValue).sorted().toArray());
             initializeFileBundle();
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
+    /**
+     * Replace the index file so that it references relocated buckets and drops empty ones. All other entries keep their
+     * location in the data file.
+     * @param relocated new locations of rewritten buckets
+     * @param emptied descriptors of buckets that are empty now
+     * @throws IOException if writing fails
+     */
+    private void writeRelocatedEntries(Map<Integer, Entry> relocated, Set<Integer> emptied) throws IOException {
+        StringJoiner updatedIndex = new StringJoiner("\n");
+        for (Entry entry : parseEntries(indexPath)) {
+            int residuePairDescriptor = createResiduePairDescriptor(entry.filename());
+            if (emptied.contains(residuePairDescriptor)) {
+                continue;
+            }
+
+            Entry updated = relocated.getOrDefault(residuePairDescriptor, entry);
+            updatedIndex.add(updated.filename() + "\t" + updated.offset() + "\t" + updated.length());
+        }
+
+        // write to separate file and swap, the old index must stay intact until the new one is complete
+        Files.writeString(temporaryIndexPath, updatedIndex.toString());
+        Files.move(temporaryIndexPath, indexPath, StandardCopyOption.REPLACE_EXISTING);
+    }
+
     private void progress(AtomicInteger counter, int interval, String message) {
         int i = counter.incrementAndGet();
         if (i % interval == 0) {
@@ -392,62 +1035,117 @@ public class DefaultInvertedIndex implements InvertedIndex {
     }
 
     private int createResiduePairDescriptor(String filename) {
+        return descriptorOf(filename);
+    }
+
+    private static int descriptorOf(String filename) {
         return Integer.parseInt(filename.split("\\.")[0]);
     }
 
     /**
-     * Remove structures from the bucket, based on their structure identifiers.
+     * Remove deleted structures from the bucket if they make up a significant part of it. Rewritten buckets are
+     * appended to the data file.
+     * @param snapshot the files to read from
      * @param residuePairDescriptor the descriptor to process
-     * @param removals what to remove
-     * @return a {@link ByteBuffer} with a subset of the original bucket or null if this operation resulted in an empty
-     * bucket
-     * @throws IOException when encoding fails
+     * @param removals deleted structures
+     * @param removalBitmap deleted structures, used to skip buckets that don't contain any
+     * @param counts statistics of the updated index, will be updated if the resulting bucket isn't empty
+     * @param bitmapWriter bitmaps of the updated index, will be updated if the resulting bucket isn't empty
+     * @param remaining deleted structures that are kept in the bucket, will be updated
+     * @param appendChannel the data file, opened for appending
+     * @param relocated new locations of rewritten buckets, will be updated
+     * @param emptied descriptors of buckets that became empty, will be updated
+     * @throws IOException when reading, encoding or writing fails
      */
-    private ByteBuffer delete(int residuePairDescriptor, Collection<Integer> removals) throws IOException {
-        ByteBuffer byteBuffer = getByteBuffer(getFilename(residuePairDescriptor));
-        ArrayBucket bucket = bucketCodec.decode(byteBuffer);
-        Set<Integer> structureIndices = bucket.getStructureIndices();
+    private void compact(Snapshot snapshot, int residuePairDescriptor, Set<Integer> removals, StructureIndexBitmap removalBitmap, Map<Integer, DescriptorStatistics.Count> counts, DescriptorBitmaps.Writer bitmapWriter, Set<Integer> remaining, FileChannel appendChannel, Map<Integer, Entry> relocated, Set<Integer> emptied) throws IOException {
+        // nothing to do: keep statistics & bitmap without reading the bucket
+        DescriptorStatistics.Count count = descriptorStatistics.getCount(residuePairDescriptor);
+        StructureIndexBitmap bitmap = getDescriptorBitmap(residuePairDescriptor);
+        if (count != null && bitmap != null && !mayContain(snapshot, residuePairDescriptor, removalBitmap)) {
+            counts.put(residuePairDescriptor, count);
+            bitmapWriter.add(residuePairDescriptor, bitmap);
+            return;
+        }
+
+        ByteBuffer byteBuffer = readEntry(snapshot, residuePairDescriptor);
+        Bucket bucket = bucketCodec.view(byteBuffer);
+        int structureCount = bucket.getStructureCount();
+        int residuePairCount = bucket.getResiduePairCount();
+
+        int deletedResiduePairCount = 0;
+        List<Integer> deleted = new ArrayList<>();
+        Bucket deletedBucket = bucketCodec.view(byteBuffer.rewind(), removals::contains);
+        while (deletedBucket.hasNextStructure()) {
+            deletedBucket.moveStructure();
+            deleted.add(deletedBucket.getStructureIndex());
+            deletedResiduePairCount += (deletedBucket.getEndPosition() - deletedBucket.getStartPosition()) / 2;
+        }
 
-        // if no entry would be removed: don't bother and return
-        if (removals.stream().noneMatch(structureIndices::contains)) {
-            byteBuffer.rewind();
-            return byteBuffer;
+        // if no entry would be removed or the bucket is mostly alive: don't bother and return
+        if (deleted.isEmpty() || deletedResiduePairCount <= compactionThreshold * residuePairCount) {
+            remaining.addAll(deleted);
+            counts.put(residuePairDescriptor, new DescriptorStatistics.Count(structureCount, residuePairCount));
+            bitmapWriter.add(residuePairDescriptor, bitmap != null ? bitmap : bitmapOf(bucketCodec.view(byteBuffer.rewind())));
+            return;
         }
 
         // remove all occurrences of structure identifiers
-        ArrayBucket filteredBucket = removeByKey(bucket, removals);
+        ArrayBucket filteredBucket = removeByKey(bucketCodec.decode(byteBuffer.rewind()), removals);
         if (filteredBucket == null) {
-            return null;
+            emptied.add(residuePairDescriptor);
+            return;
+        }
+        counts.put(residuePairDescriptor, new DescriptorStatistics.Count(filteredBucket.getStructureCount(), filteredBucket.getResiduePairCount()));
+        bitmapWriter.add(residuePairDescriptor, bitmapOf(filteredBucket));
+
+        // serialize message and append it (with separator, like the file bundle does)
+        ByteBuffer out = bucketCodec.encode(filteredBucket);
+        int length = out.limit() + FileBundle.FILE_END_LENGTH;
+        synchronized (appendChannel) {
+            long offset = appendChannel.size();
+            writeFully(appendChannel, out);
+            writeFully(appendChannel, FileBundle.FILE_END_BUFFER.duplicate().rewind());
+            relocated.put(residuePairDescriptor, new Entry(getFilename(residuePairDescriptor), offset, length));
         }
+    }
 
-        // serialize message
-        return bucketCodec.encode(filteredBucket);
+    private static void writeFully(FileChannel channel, ByteBuffer byteBuffer) throws IOException {
+        while (byteBuffer.hasRemaining()) {
+            channel.write(byteBuffer);
+        }
     }
 
     @Override
     public Set<Integer> reportKnownDescriptors() {
-        return indexFilenames()
-                .parallel()
-                .map(this::createResiduePairDescriptor)
-                .collect(Collectors.toSet());
+        Snapshot snapshot = acquireSnapshot();
+        try {
+            return snapshot.fileBundle.filenames()
+                    .parallel()
+                    .map(this::createResiduePairDescriptor)
+                    .collect(Collectors.toSet());
+        } finally {
+            snapshot.release();
+        }
     }
 
     @Override
     public Set<Integer> reportKnownKeys() {
         logger.info("Collecting all known keys in bundle ({}, {})", dataPath, indexPath);
         AtomicInteger counter = new AtomicInteger();
-        return indexFilenames()
-                .parallel()
-                .peek(p -> progress(counter, 10000, "{} bins scanned"))
-                .map(this::createResiduePairDescriptor)
-                .map(this::select)
-                .map(ArrayBucket::getStructureIndices)
-                .flatMap(Collection::stream)
-                .collect(Collectors.toSet());
-    }
-
-    private Stream<String> indexFilenames() {
-        return fileBundle.filenames();
+        int[] tombstones = this.tombstones;
+        Snapshot snapshot = acquireSnapshot();
+        try {
+            return snapshot.fileBundle.filenames()
+                    .parallel()
+                    .peek(p -> progress(counter, 10000, "{} bins scanned"))
+                    .map(filename -> bucketCodec.view(read(snapshot, createResiduePairDescriptor(filename), filename)))
+                    .map(Bucket::getStructureIndices)
+                    .flatMap(Collection::stream)
+                    .filter(structureIndex -> Arrays.binarySearch(tombstones, structureIndex) < 0)
+                    .collect(Collectors.toSet());
+        } finally {
+            snapshot.release();
+        }
     }
 
     private Stream<Path> partialFilenames() throws IOException {
@@ -1,5 +1,6 @@
 package org.rcsb.strucmotif.io;
 
+import org.rcsb.strucmotif.domain.bucket.StructureIndexBitmap;
 import org.rcsb.strucmotif.domain.query.ResultsContentType;
 import org.rcsb.strucmotif.domain.structure.StructureInformation;
 import org.slf4j.Logger;
@@ -11,9 +12,8 @@ import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.Deque;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
+import java.util.stream.IntStream;
 
 /**
  * Map-based impl of a structure index provider.
@@ -25,8 +25,9 @@ public class DefaultStructureIndexProvider implements StructureIndexProvider {
     private int next;
     private final Map<Integer, String> forward;
     private final Map<String, Integer> backward;
-    private final Set<Integer> experimental;
-    private final Set<Integer> computational;
+    private final StructureIndexBitmap all;
+    private final StructureIndexBitmap experimental;
+    private final StructureIndexBitmap computational;
 
     /**
      * Construct a new instance.
@@ -37,8 +38,8 @@ public class DefaultStructureIndexProvider implements StructureIndexProvider {
         this.reuse = new ArrayDeque<>();
         this.forward = new HashMap<>();
         this.backward = new HashMap<>();
-        this.experimental = new HashSet<>();
-        this.computational = new HashSet<>();
+        IntStream.Builder experimental = IntStream.builder();
+        IntStream.Builder computational = IntStream.builder();
 
         // determine the largest known id
         int max = -1; // let's start at 0, negative values are perfectly fine too (and will happen when counter overflows)
@@ -62,6 +63,9 @@ public class DefaultStructureIndexProvider implements StructureIndexProvider {
 
         // next is position after max
         this.next = max + 1;
+        this.all = StructureIndexBitmap.of(forward.keySet().stream().mapToInt(Integer::intValue).toArray());
+        this.experimental = StructureIndexBitmap.of(experimental.build().toArray());
+        this.computational = StructureIndexBitmap.of(computational.build().toArray());
 
         // determine all positions that can be safely reused
         for (int i = 0; i < next; i++) {
@@ -81,8 +85,8 @@ public class DefaultStructureIndexProvider implements StructureIndexProvider {
 
         logger.info("{} mappings ({} PDB entries, {} computed structure models)",
                 forward.size(),
-                experimental.size(),
-                computational.size());
+                this.experimental.getCardinality(),
+                this.computational.getCardinality());
         logger.info("{} keys will be reused, after that the next index will be {}",
                 reuse.size(),
                 next);
@@ -132,9 +136,9 @@ public class DefaultStructureIndexProvider implements StructureIndexProvider {
     }
 
     @Override
-    public Set<Integer> selectByResultsContentType(Collection<ResultsContentType> resultsContentType) {
+    public StructureIndexBitmap selectByResultsContentType(Collection<ResultsContentType> resultsContentType) {
         if (resultsContentType.contains(ResultsContentType.EXPERIMENTAL) && resultsContentType.contains(ResultsContentType.COMPUTATIONAL)) {
-            return forward.keySet();
+            return all;
         }
         if (resultsContentType.contains(ResultsContentType.EXPERIMENTAL)) {
             return experimental;
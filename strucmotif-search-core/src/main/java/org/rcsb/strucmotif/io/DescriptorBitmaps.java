@@ -0,0 +1,168 @@
+package org.rcsb.strucmotif.io;
+
+import org.rcsb.strucmotif.domain.bucket.StructureIndexBitmap;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The structure indices referenced by each residue pair descriptor of the inverted index, stored as
+ * {@link StructureIndexBitmap}. It is written as a sidecar of the inverted index whenever the index is modified and
+ * allows to determine the structures that contain a set of descriptors before any bucket is decoded.
+ * <p>
+ * The file starts with all serialized bitmaps, followed by a table of descriptors, offsets, and lengths. The last 8
+ * bytes point to the start of this table. Bitmaps are read on demand.
+ */
+public class DescriptorBitmaps implements Closeable {
+    private static final int TABLE_ENTRY_LENGTH = Integer.BYTES + Long.BYTES + Integer.BYTES;
+    private final FileChannel fileChannel;
+    // sorted ascending
+    private final int[] descriptors;
+    private final long[] offsets;
+    private final int[] lengths;
+
+    private DescriptorBitmaps(FileChannel fileChannel, int[] descriptors, long[] offsets, int[] lengths) {
+        this.fileChannel = fileChannel;
+        this.descriptors = descriptors;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    /**
+     * Open bitmaps from a file. The file stays open until {@link #close()} is called.
+     * @param path the source
+     * @return bitmaps
+     * @throws IOException if reading fails
+     */
+    public static DescriptorBitmaps open(Path path) throws IOException {
+        FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = fileChannel.size();
+            long tableOffset = read(fileChannel, size - Long.BYTES, Long.BYTES).getLong();
+            ByteBuffer table = read(fileChannel, tableOffset, Math.toIntExact(size - Long.BYTES - tableOffset));
+            int count = table.getInt();
+            int[] descriptors = new int[count];
+            long[] offsets = new long[count];
+            int[] lengths = new int[count];
+            for (int i = 0; i < count; i++) {
+                descriptors[i] = table.getInt();
+                offsets[i] = table.getLong();
+                lengths[i] = table.getInt();
+            }
+            return new DescriptorBitmaps(fileChannel, descriptors, offsets, lengths);
+        } catch (IOException | RuntimeException e) {
+            fileChannel.close();
+            throw e;
+        }
+    }
+
+    private static ByteBuffer read(FileChannel fileChannel, long position, int length) throws IOException {
+        ByteBuffer byteBuffer = ByteBuffer.allocate(length);
+        while (byteBuffer.hasRemaining()) {
+            if (fileChannel.read(byteBuffer, position + byteBuffer.position()) < 0) {
+                throw new EOFException("Unexpected end of descriptor bitmaps");
+            }
+        }
+        return byteBuffer.flip();
+    }
+
+    /**
+     * Number of descriptors with bitmaps.
+     * @return an int
+     */
+    public int size() {
+        return descriptors.length;
+    }
+
+    /**
+     * The structures that contain a descriptor.
+     * @param residuePairDescriptor the descriptor
+     * @return a bitmap, null if this descriptor isn't known
+     * @throws IOException if reading fails
+     */
+    public StructureIndexBitmap get(int residuePairDescriptor) throws IOException {
+        int i = Arrays.binarySearch(descriptors, residuePairDescriptor);
+        return i < 0 ? null : StructureIndexBitmap.read(read(fileChannel, offsets[i], lengths[i]));
+    }
+
+    @Override
+    public void close() throws IOException {
+        fileChannel.close();
+    }
+
+    /**
+     * Creates a bitmap file. Bitmaps can be added concurrently and in any order, they are appended to the file right
+     * away so that only the table is kept in memory.
+     */
+    public static class Writer implements Closeable {
+        private final FileChannel fileChannel;
+        private final Map<Integer, long[]> locations;
+        private long position;
+
+        /**
+         * Start writing bitmaps, replaces any existing file.
+         * @param path the destination
+         * @throws IOException if the file can't be created
+         */
+        public Writer(Path path) throws IOException {
+            this.fileChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.locations = new HashMap<>();
+        }
+
+        /**
+         * Add the bitmap of a descriptor.
+         * @param residuePairDescriptor the descriptor
+         * @param structureIndexBitmap its structures
+         * @throws IOException if writing fails
+         */
+        public synchronized void add(int residuePairDescriptor, StructureIndexBitmap structureIndexBitmap) throws IOException {
+            ByteBuffer byteBuffer = structureIndexBitmap.toByteBuffer();
+            int length = byteBuffer.remaining();
+            write(byteBuffer);
+            locations.put(residuePairDescriptor, new long[] { position, length });
+            position += length;
+        }
+
+        /**
+         * Check whether the bitmap of a descriptor was already added.
+         * @param residuePairDescriptor the descriptor
+         * @return true if present
+         */
+        public synchronized boolean contains(int residuePairDescriptor) {
+            return locations.containsKey(residuePairDescriptor);
+        }
+
+        private void write(ByteBuffer byteBuffer) throws IOException {
+            while (byteBuffer.hasRemaining()) {
+                fileChannel.write(byteBuffer, position + byteBuffer.position());
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            try {
+                int[] descriptors = locations.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+                ByteBuffer table = ByteBuffer.allocate(Integer.BYTES + descriptors.length * TABLE_ENTRY_LENGTH + Long.BYTES);
+                table.putInt(descriptors.length);
+                for (int descriptor : descriptors) {
+                    long[] location = locations.get(descriptor);
+                    table.putInt(descriptor);
+                    table.putLong(location[0]);
+                    table.putInt((int) location[1]);
+                }
+                table.putLong(position);
+                write(table.flip());
+            } finally {
+                fileChannel.close();
+            }
+        }
+    }
+}
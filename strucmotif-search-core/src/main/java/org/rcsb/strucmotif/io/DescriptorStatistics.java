@@ -0,0 +1,183 @@
+package org.rcsb.strucmotif.io;
+
+import org.rcsb.strucmotif.domain.motif.ResiduePairDescriptor;
+import org.rcsb.strucmotif.domain.motif.ResiduePairOccurrence;
+import org.rcsb.strucmotif.domain.structure.ResidueType;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToLongFunction;
+
+/**
+ * A catalog of how often each residue pair descriptor occurs in the inverted index. It is written as a sidecar of the
+ * inverted index whenever the index is modified and allows to estimate the costs of a query before any bucket is read.
+ */
+public class DescriptorStatistics {
+    /**
+     * Statistics of an index that contains no data (or that was created before statistics were tracked).
+     */
+    public static final DescriptorStatistics EMPTY = new DescriptorStatistics(new int[0], new int[0], new int[0]);
+    // sorted ascending
+    private final int[] descriptors;
+    private final int[] structureCounts;
+    private final int[] residuePairCounts;
+
+    /**
+     * Counts associated to a single descriptor.
+     * @param structureCount number of structures that contain this descriptor
+     * @param residuePairCount number of residue pairs that are described by this descriptor
+     */
+    public record Count(int structureCount, int residuePairCount) {}
+
+    /**
+     * Construct statistics.
+     * @param counts key: descriptor, value: its counts
+     */
+    public DescriptorStatistics(Map<Integer, Count> counts) {
+        this.descriptors = counts.keySet().stream().mapToInt(Integer::intValue).sorted().toArray();
+        this.structureCounts = new int[descriptors.length];
+        this.residuePairCounts = new int[descriptors.length];
+        for (int i = 0; i < descriptors.length; i++) {
+            Count count = counts.get(descriptors[i]);
+            structureCounts[i] = count.structureCount();
+            residuePairCounts[i] = count.residuePairCount();
+        }
+    }
+
+    private DescriptorStatistics(int[] descriptors, int[] structureCounts, int[] residuePairCounts) {
+        this.descriptors = descriptors;
+        this.structureCounts = structureCounts;
+        this.residuePairCounts = residuePairCounts;
+    }
+
+    /**
+     * Combine the statistics of several indices that hold disjoint sets of structures (e.g., shards).
+     * @param descriptorStatistics the statistics to combine
+     * @return statistics with the summed up counts of each descriptor
+     */
+    public static DescriptorStatistics sum(Collection<DescriptorStatistics> descriptorStatistics) {
+        Map<Integer, Count> counts = new HashMap<>();
+        for (DescriptorStatistics statistics : descriptorStatistics) {
+            for (int i = 0; i < statistics.descriptors.length; i++) {
+                counts.merge(statistics.descriptors[i],
+                        new Count(statistics.structureCounts[i], statistics.residuePairCounts[i]),
+                        (c1, c2) -> new Count(c1.structureCount() + c2.structureCount(), c1.residuePairCount() + c2.residuePairCount()));
+            }
+        }
+        return counts.isEmpty() ? EMPTY : new DescriptorStatistics(counts);
+    }
+
+    /**
+     * Read statistics from a file.
+     * @param path the source
+     * @return statistics
+     * @throws IOException if reading fails
+     */
+    public static DescriptorStatistics read(Path path) throws IOException {
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            int size = inputStream.readInt();
+            int[] descriptors = new int[size];
+            int[] structureCounts = new int[size];
+            int[] residuePairCounts = new int[size];
+            for (int i = 0; i < size; i++) {
+                descriptors[i] = inputStream.readInt();
+                structureCounts[i] = inputStream.readInt();
+                residuePairCounts[i] = inputStream.readInt();
+            }
+            return new DescriptorStatistics(descriptors, structureCounts, residuePairCounts);
+        }
+    }
+
+    /**
+     * Write these statistics to a file.
+     * @param path the destination
+     * @throws IOException if writing fails
+     */
+    public void write(Path path) throws IOException {
+        try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            outputStream.writeInt(descriptors.length);
+            for (int i = 0; i < descriptors.length; i++) {
+                outputStream.writeInt(descriptors[i]);
+                outputStream.writeInt(structureCounts[i]);
+                outputStream.writeInt(residuePairCounts[i]);
+            }
+        }
+    }
+
+    /**
+     * Number of descriptors with statistics.
+     * @return an int
+     */
+    public int size() {
+        return descriptors.length;
+    }
+
+    /**
+     * True if there are no statistics at all.
+     * @return a boolean
+     */
+    public boolean isEmpty() {
+        return descriptors.length == 0;
+    }
+
+    /**
+     * The counts of a descriptor.
+     * @param residuePairDescriptor the descriptor
+     * @return its counts, null if this descriptor isn't known
+     */
+    public Count getCount(int residuePairDescriptor) {
+        int i = Arrays.binarySearch(descriptors, residuePairDescriptor);
+        return i < 0 ? null : new Count(structureCounts[i], residuePairCounts[i]);
+    }
+
+    /**
+     * Number of structures that contain a descriptor.
+     * @param residuePairDescriptor the descriptor
+     * @return an int, 0 if this descriptor isn't known
+     */
+    public int getStructureCount(int residuePairDescriptor) {
+        int i = Arrays.binarySearch(descriptors, residuePairDescriptor);
+        return i < 0 ? 0 : structureCounts[i];
+    }
+
+    /**
+     * Number of residue pairs described by a descriptor.
+     * @param residuePairDescriptor the descriptor
+     * @return an int, 0 if this descriptor isn't known
+     */
+    public int getResiduePairCount(int residuePairDescriptor) {
+        int i = Arrays.binarySearch(descriptors, residuePairDescriptor);
+        return i < 0 ? 0 : residuePairCounts[i];
+    }
+
+    /**
+     * Creates a function that estimates how many residue pairs will be retrieved from the index for a residue pair of
+     * the query. This considers all descriptors that are compatible due to tolerance values and exchanges. Falls back
+     * to {@link ResiduePairOccurrence#STATIC_COST} if there are no statistics.
+     * @param backboneTolerance tolerance value
+     * @param sideChainTolerance tolerance value
+     * @param angleTolerance tolerance value
+     * @param exchanges map of position-specific exchanges - may be empty
+     * @return a function that reports the expected number of candidates (lower is better)
+     */
+    public ToLongFunction<ResiduePairOccurrence> costFunction(int backboneTolerance, int sideChainTolerance, int angleTolerance, Map<Integer, Set<ResidueType>> exchanges) {
+        if (isEmpty()) {
+            return ResiduePairOccurrence.STATIC_COST;
+        }
+
+        return residuePairOccurrence -> residuePairOccurrence.residuePairDescriptorsByTolerance(backboneTolerance, sideChainTolerance, angleTolerance, exchanges)
+                .map(ResiduePairDescriptor::stripFlipBit)
+                .mapToLong(this::getResiduePairCount)
+                .sum();
+    }
+}
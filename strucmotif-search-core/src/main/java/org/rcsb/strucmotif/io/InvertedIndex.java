@@ -1,10 +1,14 @@
 package org.rcsb.strucmotif.io;
 
-import org.rcsb.strucmotif.domain.bucket.ArrayBucket;
+import org.rcsb.strucmotif.domain.bucket.Bucket;
+import org.rcsb.strucmotif.domain.bucket.StructureIndexBitmap;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Stream;
+import java.util.function.IntPredicate;
 
 /**
  * The specification on how to insert and select residue pair occurrences. Update operate is not directly supported
@@ -14,18 +18,94 @@ import java.util.stream.Stream;
  */
 public interface InvertedIndex extends Committable {
     /**
-     * Perform lookup for a particular bin.
+     * Perform lookup for a particular bin. Implementations may return a lazy view on the underlying data, which is only
+     * decoded while iterating over it.
      * @param residuePairDescriptor the bin for which occurrences should the lookup be performed
-     * @return a {@link Stream} of all occurrences, grouped by their structure identifier
+     * @return a {@link Bucket} of all occurrences, grouped by their structure identifier
      */
-    ArrayBucket select(int residuePairDescriptor);
+    Bucket select(int residuePairDescriptor);
 
     /**
-     * Removes all information on a set of structures from the index.
+     * Perform lookup for a particular bin and only report structures that pass a filter. Implementations should skip
+     * data of rejected structures without decoding it. {@link Bucket#getStructureCount()} and
+     * {@link Bucket#getResiduePairCount()} may still report on the unfiltered bin.
+     * @param residuePairDescriptor the bin for which occurrences should the lookup be performed
+     * @param structureFilter determines which structure indices to report
+     * @return a {@link Bucket} of all occurrences in accepted structures, grouped by their structure identifier
+     */
+    Bucket select(int residuePairDescriptor, IntPredicate structureFilter);
+
+    /**
+     * Perform lookup for several bins at once. Implementations may use this to combine read operations.
+     * @param residuePairDescriptors the bins for which the lookup should be performed, may contain duplicates
+     * @return a {@link Bucket} for each descriptor, in the same order
+     */
+    default Bucket[] selectAll(int[] residuePairDescriptors) {
+        return selectAll(residuePairDescriptors, null);
+    }
+
+    /**
+     * Perform lookup for several bins at once and only report structures that pass a filter. Implementations may use
+     * this to combine read operations.
+     * @param residuePairDescriptors the bins for which the lookup should be performed, may contain duplicates
+     * @param structureFilter determines which structure indices to report, null to report all
+     * @return a {@link Bucket} for each descriptor, in the same order
+     */
+    default Bucket[] selectAll(int[] residuePairDescriptors, IntPredicate structureFilter) {
+        Bucket[] buckets = new Bucket[residuePairDescriptors.length];
+        for (int i = 0; i < residuePairDescriptors.length; i++) {
+            buckets[i] = select(residuePairDescriptors[i], structureFilter);
+        }
+        return buckets;
+    }
+
+    /**
+     * Report the structures that contain any of several bins without decoding these bins. The result is a superset of
+     * the structures reported by {@link #select(int, IntPredicate)}, e.g., it may include deleted structures.
+     * @param residuePairDescriptors the bins of interest
+     * @return a bitmap of all structure indices referenced by these bins, empty if this index doesn't keep track of
+     * them
+     */
+    default Optional<StructureIndexBitmap> selectStructureIndices(int... residuePairDescriptors) {
+        return Optional.empty();
+    }
+
+    /**
+     * Report the structures that occur in any of several bins by reading only their structure indices. Unlike
+     * {@link #selectStructureIndices(int...)}, this doesn't require any additional files and doesn't report deleted
+     * structures, but it has to read these bins. No occurrences are decoded and no buckets are cached.
+     * @param residuePairDescriptors the bins of interest, may contain duplicates
+     * @param structureFilter determines which structure indices to report, null to report all
+     * @return a bitmap of all structure indices referenced by these bins
+     */
+    default StructureIndexBitmap scanStructureIndices(int[] residuePairDescriptors, IntPredicate structureFilter) {
+        return StructureIndexBitmap.of(Arrays.stream(selectAll(residuePairDescriptors, structureFilter))
+                .flatMapToInt(bucket -> bucket.getStructureIndices().stream().mapToInt(Integer::intValue))
+                .toArray());
+    }
+
+    /**
+     * The partitions of this index. Each shard holds all data of a disjoint subset of structures, so queries can be
+     * evaluated for each shard independently and their hits combined.
+     * @return a collection of indices that together cover this index, just this index if it isn't sharded
+     */
+    default List<InvertedIndex> getShards() {
+        return List.of(this);
+    }
+
+    /**
+     * Removes all information on a set of structures from the index. Implementations may only mark these structures as
+     * deleted and exclude them when reading, their data is then physically removed by {@link #commit()} or
+     * {@link #compact()}.
      * @param structureIdentifiers what to remove
      */
     void delete(Collection<Integer> structureIdentifiers);
 
+    /**
+     * Physically removes the data of deleted structures from the index where it is worthwhile.
+     */
+    void compact();
+
     /**
      * Scans the entire index and returns all referenced descriptors.
      * @return a collection of all descriptors
@@ -37,4 +117,11 @@ public interface InvertedIndex extends Committable {
      * @return a collection of all structure indices
      */
     Set<Integer> reportKnownKeys();
+
+    /**
+     * Reports how many structures and residue pairs are associated to each descriptor. Cheap, doesn't access any
+     * bucket.
+     * @return statistics on the content of this index, empty if not available
+     */
+    DescriptorStatistics getDescriptorStatistics();
 }
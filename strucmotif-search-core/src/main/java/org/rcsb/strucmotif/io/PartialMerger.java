@@ -0,0 +1,488 @@
+package org.rcsb.strucmotif.io;
+
+import org.rcsb.strucmotif.config.StrucmotifConfig;
+import org.rcsb.strucmotif.domain.bucket.ArrayBucket;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Merges the temporary files of one prefix, which were written by several update threads, into one sequence of
+ * buckets that is sorted by descriptor. Each temporary file is a sequence of 8-byte records: a header (first bit set)
+ * that holds structure index and descriptor, followed by the residue pair identifiers of this structure and
+ * descriptor. Files are only sorted by descriptor within each structure, so they are sorted in chunks that fit into
+ * the memory budget. Chunks are spilled to disk if necessary and all chunks are then combined by a k-way merge that
+ * holds a single descriptor in memory at a time.
+ */
+class PartialMerger {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // memory per record: the record itself and (at most) one sort key
+    private static final int BYTES_PER_RECORD = 2 * Long.BYTES;
+    private static final int MIN_CAPACITY = 16;
+    private final Path spillDirectory;
+    private final String prefix;
+    private final long memoryBudget;
+
+    /**
+     * Consumes the merged data of a descriptor.
+     */
+    @FunctionalInterface
+    interface BucketConsumer {
+        /**
+         * Called once per descriptor, in ascending order of descriptors.
+         * @param residuePairDescriptor the descriptor
+         * @param bucket all structures and residue pairs that were added for this descriptor
+         * @throws IOException if processing fails
+         */
+        void accept(int residuePairDescriptor, ArrayBucket bucket) throws IOException;
+    }
+
+    /**
+     * Construct a merger.
+     * @param spillDirectory where to write sorted chunks that don't fit into memory
+     * @param prefix the prefix of the merged files, used to name spilled chunks
+     * @param memoryBudget number of bytes that may be used for sorting
+     */
+    PartialMerger(Path spillDirectory, String prefix, long memoryBudget) {
+        this.spillDirectory = spillDirectory;
+        this.prefix = prefix;
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Estimate the memory needed to merge a collection of files without spilling.
+     * @param partials the files
+     * @return number of bytes
+     * @throws IOException if file sizes can't be determined
+     */
+    static long estimateMemory(List<Path> partials) throws IOException {
+        long size = 0;
+        for (Path partial : partials) {
+            size += Files.size(partial);
+        }
+        return size / Long.BYTES * BYTES_PER_RECORD;
+    }
+
+    /**
+     * Merge a collection of temporary files.
+     * @param partials the files
+     * @param consumer receives the merged bucket of each descriptor
+     * @throws IOException if reading or spilling fails
+     */
+    void merge(List<Path> partials, BucketConsumer consumer) throws IOException {
+        List<Path> spills = new ArrayList<>();
+        List<BlockSource> sources = new ArrayList<>();
+        try {
+            Chunk chunk = sort(partials, spills);
+            for (Path spill : spills) {
+                sources.add(new FileSource(spill, sources.size()));
+            }
+            sources.add(new ChunkSource(chunk, sources.size()));
+            mergeSources(sources, consumer);
+        } finally {
+            for (BlockSource source : sources) {
+                source.close();
+            }
+            for (Path spill : spills) {
+                Files.deleteIfExists(spill);
+            }
+        }
+    }
+
+    /**
+     * Read all files into a chunk, sorted chunks that exceed the budget are spilled to disk.
+     * @return the last chunk, still in memory
+     */
+    private Chunk sort(List<Path> partials, List<Path> spills) throws IOException {
+        long recordCount = estimateMemory(partials) / BYTES_PER_RECORD;
+        int capacity = (int) Math.max(MIN_CAPACITY, Math.min(Math.min(recordCount, memoryBudget / BYTES_PER_RECORD), Integer.MAX_VALUE - 8));
+        Chunk chunk = new Chunk(capacity);
+
+        for (Path partial : partials) {
+            long remaining = Files.size(partial) / Long.BYTES;
+            try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(partial), BUFFER_SIZE))) {
+                for (; remaining > 0; remaining--) {
+                    long record = inputStream.readLong();
+                    if (chunk.isFull()) {
+                        if (chunk.hasCompleteBlocks()) {
+                            spills.add(chunk.spill(spillDirectory.resolve(StrucmotifConfig.INDEX + "." + prefix + "-" + spills.size() + StrucmotifConfig.SPILL_EXT)));
+                        } else {
+                            // a single block exceeds the budget
+                            chunk.grow();
+                        }
+                    }
+                    chunk.add(record);
+                }
+            }
+        }
+
+        chunk.sort();
+        return chunk;
+    }
+
+    private void mergeSources(List<BlockSource> sources, BucketConsumer consumer) throws IOException {
+        PriorityQueue<BlockSource> queue = new PriorityQueue<>(Comparator.comparingInt(BlockSource::descriptor).thenComparingInt(BlockSource::order));
+        for (BlockSource source : sources) {
+            if (source.next()) {
+                queue.add(source);
+            }
+        }
+
+        BucketBuilder bucketBuilder = new BucketBuilder();
+        while (!queue.isEmpty()) {
+            int descriptor = queue.peek().descriptor();
+            bucketBuilder.clear();
+            while (!queue.isEmpty() && queue.peek().descriptor() == descriptor) {
+                BlockSource source = queue.poll();
+                boolean hasNext;
+                do {
+                    bucketBuilder.addStructure(source.structureIndex());
+                    source.copyPayload(bucketBuilder);
+                    hasNext = source.next();
+                } while (hasNext && source.descriptor() == descriptor);
+
+                if (hasNext) {
+                    queue.add(source);
+                }
+            }
+            consumer.accept(descriptor, bucketBuilder.build());
+        }
+    }
+
+    static boolean isHeader(long record) {
+        return record < 0;
+    }
+
+    static int structureIndex(long header) {
+        return (int) (header >>> 32) & Integer.MAX_VALUE;
+    }
+
+    private static int descriptor(long header) {
+        return (int) header;
+    }
+
+    /**
+     * Records held in memory. Sort keys are composed of descriptor (upper half) and the position of the header
+     * (lower half), this keeps blocks of a descriptor in file order.
+     */
+    private static class Chunk {
+        private long[] records;
+        private long[] keys;
+        private int recordCount;
+        private int blockCount;
+        // start of the block that is currently read
+        private int blockStart;
+
+        Chunk(int capacity) {
+            this.records = new long[capacity];
+            this.keys = new long[Math.max(MIN_CAPACITY, capacity / 4)];
+            this.blockStart = -1;
+        }
+
+        boolean isFull() {
+            return recordCount == records.length;
+        }
+
+        void add(long record) {
+            if (isHeader(record)) {
+                if (blockCount == keys.length) {
+                    keys = Arrays.copyOf(keys, Math.min(2 * keys.length, records.length));
+                }
+                blockStart = recordCount;
+                keys[blockCount++] = (long) descriptor(record) << 32 | recordCount;
+            } else if (blockStart == -1) {
+                // payload without header
+                return;
+            }
+            records[recordCount++] = record;
+        }
+
+        void sort() {
+            Arrays.sort(keys, 0, blockCount);
+        }
+
+        int blockStart(int block) {
+            return (int) keys[block];
+        }
+
+        int blockEnd(int start) {
+            int end = start + 1;
+            while (end < recordCount && !isHeader(records[end])) {
+                end++;
+            }
+            return end;
+        }
+
+        boolean hasCompleteBlocks() {
+            return blockStart > 0;
+        }
+
+        void grow() {
+            records = Arrays.copyOf(records, 2 * records.length);
+        }
+
+        /**
+         * Write all complete blocks in sorted order, the block that is currently read is kept.
+         */
+        Path spill(Path path) throws IOException {
+            // block that is currently read is always the last one in file order
+            int completeBlockCount = blockCount - 1;
+            long currentKey = keys[completeBlockCount];
+            Arrays.sort(keys, 0, completeBlockCount);
+            try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE))) {
+                for (int i = 0; i < completeBlockCount; i++) {
+                    int start = blockStart(i);
+                    int end = blockEnd(start);
+                    for (int j = start; j < end; j++) {
+                        outputStream.writeLong(records[j]);
+                    }
+                }
+            }
+
+            // move current block to the start
+            int length = recordCount - blockStart;
+            System.arraycopy(records, blockStart, records, 0, length);
+            keys[0] = currentKey & 0xFFFFFFFF00000000L;
+            blockCount = 1;
+            recordCount = length;
+            blockStart = 0;
+            return path;
+        }
+    }
+
+    /**
+     * Sorted blocks, positioned at a header.
+     */
+    private interface BlockSource extends Closeable {
+        /**
+         * Move to the next block.
+         * @return false if there are no more blocks
+         */
+        boolean next() throws IOException;
+
+        int descriptor();
+
+        int structureIndex();
+
+        /**
+         * Tie-breaker for blocks of the same descriptor.
+         */
+        int order();
+
+        /**
+         * Append the residue pair identifiers of the current block.
+         */
+        void copyPayload(BucketBuilder bucketBuilder) throws IOException;
+    }
+
+    private static class ChunkSource implements BlockSource {
+        private final Chunk chunk;
+        private final int order;
+        private int block;
+        private long header;
+
+        ChunkSource(Chunk chunk, int order) {
+            this.chunk = chunk;
+            this.order = order;
+            this.block = -1;
+        }
+
+        @Override
+        public boolean next() {
+            if (++block >= chunk.blockCount) {
+                return false;
+            }
+            header = chunk.records[chunk.blockStart(block)];
+            return true;
+        }
+
+        @Override
+        public int descriptor() {
+            return PartialMerger.descriptor(header);
+        }
+
+        @Override
+        public int structureIndex() {
+            return PartialMerger.structureIndex(header);
+        }
+
+        @Override
+        public int order() {
+            return order;
+        }
+
+        @Override
+        public void copyPayload(BucketBuilder bucketBuilder) {
+            int start = chunk.blockStart(block);
+            int end = chunk.blockEnd(start);
+            for (int i = start + 1; i < end; i++) {
+                bucketBuilder.addIdentifier(chunk.records[i]);
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class FileSource implements BlockSource {
+        private final DataInputStream inputStream;
+        private final int order;
+        private long remaining;
+        private long header;
+        // header of the next block, encountered while reading the payload of the current one
+        private boolean pending;
+
+        FileSource(Path path, int order) throws IOException {
+            this.inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE));
+            this.order = order;
+            this.remaining = Files.size(path) / Long.BYTES;
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            if (pending) {
+                pending = false;
+                return true;
+            }
+            if (remaining == 0) {
+                return false;
+            }
+            remaining--;
+            header = inputStream.readLong();
+            return true;
+        }
+
+        @Override
+        public int descriptor() {
+            return PartialMerger.descriptor(header);
+        }
+
+        @Override
+        public int structureIndex() {
+            return PartialMerger.structureIndex(header);
+        }
+
+        @Override
+        public int order() {
+            return order;
+        }
+
+        @Override
+        public void copyPayload(BucketBuilder bucketBuilder) throws IOException {
+            while (remaining > 0) {
+                remaining--;
+                long record = inputStream.readLong();
+                if (isHeader(record)) {
+                    header = record;
+                    pending = true;
+                    return;
+                }
+                bucketBuilder.addIdentifier(record);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Collects the data of one descriptor, arrays are reused across descriptors.
+     */
+    private static class BucketBuilder {
+        private int[] structureIndices = new int[1024];
+        private int[] positionOffsets = new int[1024];
+        private int[] identifierData = new int[2048];
+        private int structureCount;
+        private int identifierCount;
+
+        void clear() {
+            structureCount = 0;
+            identifierCount = 0;
+        }
+
+        void addStructure(int structureIndex) {
+            if (structureCount == structureIndices.length) {
+                structureIndices = Arrays.copyOf(structureIndices, 2 * structureCount);
+                positionOffsets = Arrays.copyOf(positionOffsets, 2 * structureCount);
+            }
+            structureIndices[structureCount] = structureIndex;
+            positionOffsets[structureCount] = identifierCount;
+            structureCount++;
+        }
+
+        void addIdentifier(long residuePairIdentifier) {
+            if (identifierCount + 2 > identifierData.length) {
+                identifierData = Arrays.copyOf(identifierData, 2 * identifierData.length);
+            }
+            identifierData[identifierCount++] = (int) (residuePairIdentifier >>> 32);
+            identifierData[identifierCount++] = (int) residuePairIdentifier;
+        }
+
+        ArrayBucket build() {
+            int[] structureIndices = Arrays.copyOf(this.structureIndices, structureCount);
+            int[] sorted = structureIndices.clone();
+            Arrays.sort(sorted);
+            for (int i = 1; i < sorted.length; i++) {
+                if (sorted[i] == sorted[i - 1]) {
+                    return buildDistinct();
+                }
+            }
+            return new ArrayBucket(structureIndices, Arrays.copyOf(positionOffsets, structureCount), Arrays.copyOf(identifierData, identifierCount));
+        }
+
+        /**
+         * A structure was written more than once (e.g., by a retried update): keep the last occurrence.
+         */
+        private ArrayBucket buildDistinct() {
+            Set<Integer> seen = new HashSet<>();
+            boolean[] keep = new boolean[structureCount];
+            int keptStructures = 0;
+            int keptIdentifiers = 0;
+            for (int i = structureCount - 1; i >= 0; i--) {
+                if (seen.add(structureIndices[i])) {
+                    keep[i] = true;
+                    keptStructures++;
+                    keptIdentifiers += end(i) - positionOffsets[i];
+                }
+            }
+
+            int[] structureIndices = new int[keptStructures];
+            int[] positionOffsets = new int[keptStructures];
+            int[] identifierData = new int[keptIdentifiers];
+            int outerPos = 0;
+            int innerPos = 0;
+            for (int i = 0; i < structureCount; i++) {
+                if (!keep[i]) {
+                    continue;
+                }
+                int length = end(i) - this.positionOffsets[i];
+                structureIndices[outerPos] = this.structureIndices[i];
+                positionOffsets[outerPos] = innerPos;
+                System.arraycopy(this.identifierData, this.positionOffsets[i], identifierData, innerPos, length);
+                outerPos++;
+                innerPos += length;
+            }
+            return new ArrayBucket(structureIndices, positionOffsets, identifierData);
+        }
+
+        private int end(int structure) {
+            return structure + 1 < structureCount ? positionOffsets[structure + 1] : identifierCount;
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package org.rcsb.strucmotif.io;
+
+import org.rcsb.strucmotif.config.StrucmotifConfig;
+import org.rcsb.strucmotif.domain.bucket.ArrayBucket;
+import org.rcsb.strucmotif.domain.bucket.Bucket;
+import org.rcsb.strucmotif.domain.bucket.StructureIndexBitmap;
+import org.rcsb.strucmotif.domain.motif.ResiduePairIdentifier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.IntPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * The inverted index as accessed by the application. Structure indices are partitioned into shards, each shard is a
+ * {@link DefaultInvertedIndex} with its own file bundle that holds all data of its structures. Queries can evaluate
+ * shards independently via {@link #getShards()}. With a single shard, all data resides directly in the root path.
+ */
+@Service
+public class ShardedInvertedIndex implements InvertedIndex {
+    private static final Logger logger = LoggerFactory.getLogger(ShardedInvertedIndex.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private final Path rootPath;
+    private final List<DefaultInvertedIndex> shards;
+    private volatile DescriptorStatistics descriptorStatistics;
+
+    /**
+     * Construct a sharded inverted index.
+     * @param strucmotifConfig the config
+     */
+    public ShardedInvertedIndex(StrucmotifConfig strucmotifConfig) {
+        int shardCount = strucmotifConfig.getIndexShards();
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Number of index shards must be positive - was " + shardCount);
+        }
+
+        this.rootPath = Paths.get(strucmotifConfig.getRootPath());
+        // the cache budget is shared by all shards
+        long bucketCacheSize = strucmotifConfig.getBucketCacheSize() / shardCount;
+        if (shardCount == 1) {
+            this.shards = List.of(new DefaultInvertedIndex(strucmotifConfig, rootPath, bucketCacheSize));
+        } else {
+            logger.info("Inverted index is partitioned into {} shards", shardCount);
+            this.shards = IntStream.range(0, shardCount)
+                    .mapToObj(i -> new DefaultInvertedIndex(strucmotifConfig, getShardPath(i), bucketCacheSize))
+                    .toList();
+        }
+        this.descriptorStatistics = DescriptorStatistics.EMPTY;
+    }
+
+    private Path getShardPath(int shard) {
+        return rootPath.resolve(StrucmotifConfig.SHARD + shard);
+    }
+
+    /**
+     * Reports the shard that holds the data of a structure.
+     * @param structureIndex the structure index
+     * @return the index of the shard
+     */
+    public int getShard(int structureIndex) {
+        return Math.floorMod(structureIndex, shards.size());
+    }
+
+    /**
+     * Life-cycle operation that runs as part of the initialization.
+     * @throws IOException IO operation failed
+     */
+    @PostConstruct
+    public void setUp() throws IOException {
+        for (int i = 0; i < shards.size(); i++) {
+            if (shards.size() > 1) {
+                Files.createDirectories(getShardPath(i));
+            }
+            shards.get(i).setUp();
+        }
+        updateDescriptorStatistics();
+    }
+
+    /**
+     * Life-cycle operation that runs during cleanup.
+     * @throws IOException IO operation failed
+     */
+    @PreDestroy
+    public void tearDown() throws IOException {
+        for (DefaultInvertedIndex shard : shards) {
+            shard.tearDown();
+        }
+    }
+
+    private void updateDescriptorStatistics() {
+        this.descriptorStatistics = shards.size() == 1 ? shards.get(0).getDescriptorStatistics() : DescriptorStatistics.sum(shards.stream().map(InvertedIndex::getDescriptorStatistics).toList());
+    }
+
+    @Override
+    public List<InvertedIndex> getShards() {
+        return List.copyOf(shards);
+    }
+
+    @Override
+    public Bucket select(int residuePairDescriptor) {
+        if (shards.size() == 1) {
+            return shards.get(0).select(residuePairDescriptor);
+        }
+        return concat(shards.stream().map(shard -> shard.select(residuePairDescriptor)).toArray(Bucket[]::new));
+    }
+
+    @Override
+    public Bucket select(int residuePairDescriptor, IntPredicate structureFilter) {
+        if (shards.size() == 1) {
+            return shards.get(0).select(residuePairDescriptor, structureFilter);
+        }
+        return concat(shards.stream().map(shard -> shard.select(residuePairDescriptor, structureFilter)).toArray(Bucket[]::new));
+    }
+
+    @Override
+    public Bucket[] selectAll(int[] residuePairDescriptors, IntPredicate structureFilter) {
+        if (shards.size() == 1) {
+            return shards.get(0).selectAll(residuePairDescriptors, structureFilter);
+        }
+
+        List<Bucket[]> bucketsByShard = shards.parallelStream()
+                .map(shard -> shard.selectAll(residuePairDescriptors, structureFilter))
+                .toList();
+        Bucket[] buckets = new Bucket[residuePairDescriptors.length];
+        for (int i = 0; i < buckets.length; i++) {
+            int j = i;
+            buckets[i] = concat(bucketsByShard.stream().map(b -> b[j]).toArray(Bucket[]::new));
+        }
+        return buckets;
+    }
+
+    /**
+     * Combine the buckets of several shards into one.
+     * @param buckets the buckets of a descriptor in each shard
+     * @return a bucket with all structures
+     */
+    private static Bucket concat(Bucket[] buckets) {
+        List<Bucket> nonEmpty = Arrays.stream(buckets)
+                .filter(bucket -> bucket != ArrayBucket.EMPTY_BUCKET)
+                .toList();
+        if (nonEmpty.isEmpty()) {
+            return ArrayBucket.EMPTY_BUCKET;
+        }
+        if (nonEmpty.size() == 1) {
+            return nonEmpty.get(0);
+        }
+
+        IntStream.Builder structureIndices = IntStream.builder();
+        IntStream.Builder positionOffsets = IntStream.builder();
+        IntStream.Builder identifierData = IntStream.builder();
+        int position = 0;
+        for (Bucket bucket : nonEmpty) {
+            while (bucket.hasNextStructure()) {
+                bucket.moveStructure();
+                structureIndices.add(bucket.getStructureIndex());
+                positionOffsets.add(position);
+                int n = bucket.getEndPosition() - bucket.getStartPosition();
+                for (int j = 0; j < n - 1; j = j + 2) {
+                    bucket.moveOccurrence();
+                    long residuePairIdentifier = bucket.getResiduePairIdentifier();
+                    identifierData.add(ResiduePairIdentifier.getResidueIndex1(residuePairIdentifier));
+                    identifierData.add(ResiduePairIdentifier.getResidueIndex2(residuePairIdentifier));
+                }
+                position += n;
+            }
+        }
+        return new ArrayBucket(structureIndices.build().toArray(), positionOffsets.build().toArray(), identifierData.build().toArray());
+    }
+
+    @Override
+    public Optional<StructureIndexBitmap> selectStructureIndices(int... residuePairDescriptors) {
+        StructureIndexBitmap out = StructureIndexBitmap.EMPTY;
+        for (DefaultInvertedIndex shard : shards) {
+            Optional<StructureIndexBitmap> structureIndices = shard.selectStructureIndices(residuePairDescriptors);
+            if (structureIndices.isEmpty()) {
+                return Optional.empty();
+            }
+            out = out.or(structureIndices.get());
+        }
+        return Optional.of(out);
+    }
+
+    @Override
+    public StructureIndexBitmap scanStructureIndices(int[] residuePairDescriptors, IntPredicate structureFilter) {
+        if (shards.size() == 1) {
+            return shards.get(0).scanStructureIndices(residuePairDescriptors, structureFilter);
+        }
+        return shards.parallelStream()
+                .map(shard -> shard.scanStructureIndices(residuePairDescriptors, structureFilter))
+                .reduce(StructureIndexBitmap.EMPTY, StructureIndexBitmap::or);
+    }
+
+    @Override
+    public void commit() {
+        if (shards.size() > 1) {
+            distributePartialFiles();
+        }
+
+        // each shard uses the whole commit memory budget, so they are processed one after another
+        for (int i = 0; i < shards.size(); i++) {
+            logger.info("Committing shard {} / {}", i + 1, shards.size());
+            shards.get(i).commit();
+        }
+        updateDescriptorStatistics();
+    }
+
+    /**
+     * Move the temporary files, which were written to the root path by the update, to the shards of their structures.
+     */
+    private void distributePartialFiles() {
+        List<Path> partials;
+        try (Stream<Path> paths = Files.list(rootPath)) {
+            partials = paths.filter(p -> p.getFileName().toString().startsWith(StrucmotifConfig.INDEX) && p.getFileName().toString().endsWith(StrucmotifConfig.TMP_EXT))
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        logger.info("Distributing {} temporary files to {} shards", partials.size(), shards.size());
+        partials.parallelStream().forEach(partial -> {
+            try {
+                distributePartialFile(partial);
+            } catch (IOException e) {
+                throw new UncheckedIOException("can't distribute " + partial, e);
+            }
+        });
+    }
+
+    private void distributePartialFile(Path partial) throws IOException {
+        // each shard receives a file of the same name, created when the first structure of this shard is encountered
+        DataOutputStream[] outputStreams = new DataOutputStream[shards.size()];
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(partial), BUFFER_SIZE))) {
+            DataOutputStream outputStream = null;
+            while (true) {
+                long record;
+                try {
+                    record = inputStream.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+
+                // a header determines where this and all following records go
+                if (PartialMerger.isHeader(record)) {
+                    int shard = getShard(PartialMerger.structureIndex(record));
+                    if (outputStreams[shard] == null) {
+                        outputStreams[shard] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(getShardPath(shard).resolve(partial.getFileName().toString())), BUFFER_SIZE));
+                    }
+                    outputStream = outputStreams[shard];
+                }
+                if (outputStream == null) {
+                    throw new IOException("Temporary file " + partial + " doesn't start with a header");
+                }
+                outputStream.writeLong(record);
+            }
+        } finally {
+            for (DataOutputStream outputStream : outputStreams) {
+                if (outputStream != null) {
+                    outputStream.close();
+                }
+            }
+        }
+        Files.delete(partial);
+    }
+
+    @Override
+    public void delete(Collection<Integer> structureIdentifiers) {
+        Map<Integer, List<Integer>> byShard = structureIdentifiers.stream().collect(Collectors.groupingBy(this::getShard));
+        for (Map.Entry<Integer, List<Integer>> entry : byShard.entrySet()) {
+            shards.get(entry.getKey()).delete(entry.getValue());
+        }
+    }
+
+    @Override
+    public void compact() {
+        for (int i = 0; i < shards.size(); i++) {
+            logger.info("Compacting shard {} / {}", i + 1, shards.size());
+            shards.get(i).compact();
+        }
+        updateDescriptorStatistics();
+    }
+
+    @Override
+    public Set<Integer> reportKnownDescriptors() {
+        if (shards.size() == 1) {
+            return shards.get(0).reportKnownDescriptors();
+        }
+
+        Set<Integer> out = new HashSet<>();
+        for (DefaultInvertedIndex shard : shards) {
+            out.addAll(shard.reportKnownDescriptors());
+        }
+        return out;
+    }
+
+    @Override
+    public Set<Integer> reportKnownKeys() {
+        if (shards.size() == 1) {
+            return shards.get(0).reportKnownKeys();
+        }
+
+        Set<Integer> out = new HashSet<>();
+        for (DefaultInvertedIndex shard : shards) {
+            out.addAll(shard.reportKnownKeys());
+        }
+        return out;
+    }
+
+    @Override
+    public DescriptorStatistics getDescriptorStatistics() {
+        return descriptorStatistics;
+    }
+}
@@ -1,10 +1,10 @@
 package org.rcsb.strucmotif.io;
 
+import org.rcsb.strucmotif.domain.bucket.StructureIndexBitmap;
 import org.rcsb.strucmotif.domain.query.ResultsContentType;
 import org.rcsb.strucmotif.domain.structure.Structure;
 
 import java.util.Collection;
-import java.util.Set;
 
 /**
  * An implementation of a {@link StructureIndexProvider} that only deals with a single structure. Used in the
@@ -54,7 +54,7 @@ public class SingleStructureIndexProvider implements StructureIndexProvider {
     }
 
     @Override
-    public Set<Integer> selectByResultsContentType(Collection<ResultsContentType> resultsContentType) {
-        return Set.of(structureIndex);
+    public StructureIndexBitmap selectByResultsContentType(Collection<ResultsContentType> resultsContentType) {
+        return StructureIndexBitmap.of(new int[] { structureIndex });
     }
 }
@@ -8,6 +8,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.IntPredicate;
 import java.util.stream.Collectors;
 
 /**
@@ -16,6 +17,7 @@ import java.util.stream.Collectors;
  */
 public class SingleStructureInvertedIndex implements InvertedIndex {
     private final Map<Integer, ArrayBucket> index;
+    private final DescriptorStatistics descriptorStatistics;
 
     /**
      * Create an inverted index based on this graph.
@@ -24,6 +26,9 @@ public class SingleStructureInvertedIndex implements InvertedIndex {
     public SingleStructureInvertedIndex(ResidueGraph residueGraph) {
          index = residueGraph.residuePairOccurrencesParallel()
                  .collect(Collectors.groupingBy(ResiduePairOccurrence::getResiduePairDescriptor, Collectors.collectingAndThen(Collectors.toList(), this::toInvertedIndexBucket)));
+         descriptorStatistics = new DescriptorStatistics(index.entrySet()
+                 .stream()
+                 .collect(Collectors.toMap(Map.Entry::getKey, entry -> new DescriptorStatistics.Count(1, entry.getValue().getResiduePairCount()))));
     }
 
     private ArrayBucket toInvertedIndexBucket(List<ResiduePairOccurrence> residuePairOccurrences) {
@@ -50,11 +55,25 @@ public class SingleStructureInvertedIndex implements InvertedIndex {
         return index.getOrDefault(residuePairDescriptor, ArrayBucket.EMPTY_BUCKET);
     }
 
+    @Override
+    public ArrayBucket select(int residuePairDescriptor, IntPredicate structureFilter) {
+        ArrayBucket bucket = index.get(residuePairDescriptor);
+        if (bucket == null) {
+            return ArrayBucket.EMPTY_BUCKET;
+        }
+        return new ArrayBucket(bucket.getStructureIndexArray(), bucket.getPositionOffsetArray(), bucket.getIdentifierDataArray(), structureFilter);
+    }
+
     @Override
     public void delete(Collection<Integer> structureIdentifiers) {
         immutable();
     }
 
+    @Override
+    public void compact() {
+        immutable();
+    }
+
     @Override
     public Set<Integer> reportKnownDescriptors() {
         return index.keySet();
@@ -65,6 +84,11 @@ public class SingleStructureInvertedIndex implements InvertedIndex {
         throw new UnsupportedOperationException("This bin contains a single not registered structure");
     }
 
+    @Override
+    public DescriptorStatistics getDescriptorStatistics() {
+        return descriptorStatistics;
+    }
+
     private void immutable() {
         throw new UnsupportedOperationException("This index is read-only");
     }
@@ -1,9 +1,9 @@
 package org.rcsb.strucmotif.io;
 
+import org.rcsb.strucmotif.domain.bucket.StructureIndexBitmap;
 import org.rcsb.strucmotif.domain.query.ResultsContentType;
 
 import java.util.Collection;
-import java.util.Set;
 
 /**
  * Maps between structure indices (a compact int representation that is e.g. stored in the inverted index) and readable
@@ -54,7 +54,7 @@ public interface StructureIndexProvider {
     /**
      * Get all registered indices of a particular type.
      * @param resultsContentType search space identifier (PDB entries, computed structure models, everything)
-     * @return a collection of all relevant structure indices
+     * @return a bitmap of all relevant structure indices
      */
-    Set<Integer> selectByResultsContentType(Collection<ResultsContentType> resultsContentType);
+    StructureIndexBitmap selectByResultsContentType(Collection<ResultsContentType> resultsContentType);
 }
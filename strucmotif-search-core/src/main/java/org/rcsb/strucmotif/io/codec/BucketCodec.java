@@ -1,9 +1,12 @@
 package org.rcsb.strucmotif.io.codec;
 
 import org.rcsb.strucmotif.domain.bucket.ArrayBucket;
+import org.rcsb.strucmotif.domain.bucket.Bucket;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
 
 /**
  * Persistence of inverted index buckets.
@@ -16,6 +19,43 @@ public interface BucketCodec {
      */
     ArrayBucket decode(ByteBuffer byteBuffer);
 
+    /**
+     * Provide read-only access to a bucket without materializing its content. Codecs that can't operate on the encoded
+     * representation fall back to {@link #decode(ByteBuffer)}.
+     * @param byteBuffer data source
+     * @return a bucket that may decode its content lazily
+     */
+    default Bucket view(ByteBuffer byteBuffer) {
+        return decode(byteBuffer);
+    }
+
+    /**
+     * Provide read-only access to a bucket that only reports structures that pass a filter. Codecs should avoid
+     * decoding occurrences of structures that get rejected.
+     * @param byteBuffer data source
+     * @param structureFilter determines which structure indices to report
+     * @return a bucket that may decode its content lazily
+     */
+    default Bucket view(ByteBuffer byteBuffer, IntPredicate structureFilter) {
+        ArrayBucket bucket = decode(byteBuffer);
+        return new ArrayBucket(bucket.getStructureIndexArray(), bucket.getPositionOffsetArray(), bucket.getIdentifierDataArray(), structureFilter);
+    }
+
+    /**
+     * Read only the structure indices of a bucket. Codecs should skip the occurrences of these structures.
+     * @param byteBuffer data source
+     * @return the structure indices of this bucket, in the order they are stored
+     */
+    default int[] structureIndices(ByteBuffer byteBuffer) {
+        Bucket bucket = view(byteBuffer);
+        IntStream.Builder structureIndices = IntStream.builder();
+        while (bucket.hasNextStructure()) {
+            bucket.moveStructure();
+            structureIndices.add(bucket.getStructureIndex());
+        }
+        return structureIndices.build().toArray();
+    }
+
     /**
      * Serialize a bucket as binary stream.
      * @param bucket data source
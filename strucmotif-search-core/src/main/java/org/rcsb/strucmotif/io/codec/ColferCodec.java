@@ -1,12 +1,15 @@
 package org.rcsb.strucmotif.io.codec;
 
 import org.rcsb.strucmotif.domain.bucket.ArrayBucket;
+import org.rcsb.strucmotif.domain.bucket.Bucket;
+import org.rcsb.strucmotif.domain.bucket.ColferBucket;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.InputMismatchException;
+import java.util.function.IntPredicate;
 
 /**
  * Serializes and deserializes buckets with a custom colfer implementation. See <a href="https://github.com/pascaldekloe/colfer">colfer</a>.
@@ -98,6 +101,16 @@ public class ColferCodec implements BucketCodec {
         return new ArrayBucket(structureIndices, positionOffsets, identifierData);
     }
 
+    @Override
+    public Bucket view(ByteBuffer byteBuffer) {
+        return new ColferBucket(byteBuffer);
+    }
+
+    @Override
+    public Bucket view(ByteBuffer byteBuffer, IntPredicate structureFilter) {
+        return new ColferBucket(byteBuffer, structureFilter);
+    }
+
     private void encodeInternal(ByteArrayOutputStream out, int[] structureIndices, int[] positionOffset, int[] identifierData) throws IOException {
         if (structureIndices.length != 0) {
             out.write(0);
@@ -0,0 +1,272 @@
+package org.rcsb.strucmotif.io.codec;
+
+import org.rcsb.strucmotif.domain.bucket.ArrayBucket;
+import org.rcsb.strucmotif.domain.bucket.Bucket;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.InputMismatchException;
+import java.util.function.IntPredicate;
+
+/**
+ * Serializes and deserializes buckets as bit-packed blocks. Each array is split into blocks of {@link #BLOCK_SIZE}
+ * values which are stored relative to the block's minimum (frame of reference) using the smallest bit width that fits
+ * all values of that block. Structure indices and position offsets are delta-encoded beforehand, so that typical
+ * buckets require only a few bits per value. Unpacking works without branches on the data.
+ * <p>
+ * Layout (little-endian): the number of structures and the number of identifiers (both as int), followed by the blocks
+ * of structure indices (zigzag-encoded deltas), position offsets (deltas), and identifier data (raw), and 7 bytes of
+ * padding. Each block consists of its reference value (int), its bit width (byte), and the bit-packed values.
+ */
+public class PackedCodec implements BucketCodec {
+    /**
+     * Number of values per block.
+     */
+    public static final int BLOCK_SIZE = 128;
+    // allows to read 8 bytes starting at the last value
+    private static final int PADDING = 7;
+    private static final int[] EMPTY_INT_ARRAY = new int[0];
+
+    /**
+     * Default constructor.
+     */
+    public PackedCodec() {}
+
+    @Override
+    public ArrayBucket decode(ByteBuffer byteBuffer) {
+        return decode(byteBuffer, null);
+    }
+
+    @Override
+    public Bucket view(ByteBuffer byteBuffer, IntPredicate structureFilter) {
+        return decode(byteBuffer, structureFilter);
+    }
+
+    @Override
+    public int[] structureIndices(ByteBuffer byteBuffer) {
+        ByteBuffer in = byteBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int[] structureIndices = new int[structureCount(in)];
+        readStructureIndices(in, structureIndices);
+        return structureIndices;
+    }
+
+    private static int structureCount(ByteBuffer in) {
+        int structureCount = in.getInt(in.position());
+        int identifierCount = in.getInt(in.position() + 4);
+        if (structureCount < 0 || identifierCount < 0) {
+            throw new InputMismatchException("packed: invalid header at byte " + in.position());
+        }
+        return structureCount;
+    }
+
+    /**
+     * Unpack the structure indices that follow the header.
+     * @param in the data, positioned at the header
+     * @param structureIndices the output, sized to hold all structures
+     * @return the position of the first block of position offsets
+     */
+    private static int readStructureIndices(ByteBuffer in, int[] structureIndices) {
+        int position = readBlocks(in, in.position() + 8, structureIndices);
+        int previous = 0;
+        for (int i = 0; i < structureIndices.length; i++) {
+            int delta = structureIndices[i];
+            previous += (delta >>> 1) ^ -(delta & 1);
+            structureIndices[i] = previous;
+        }
+        return position;
+    }
+
+    private ArrayBucket decode(ByteBuffer byteBuffer, IntPredicate structureFilter) {
+        ByteBuffer in = byteBuffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int structureCount = structureCount(in);
+        int identifierCount = in.getInt(in.position() + 4);
+
+        int[] structureIndices = structureCount == 0 ? EMPTY_INT_ARRAY : new int[structureCount];
+        int position = readStructureIndices(in, structureIndices);
+
+        int[] positionOffsets = structureCount == 0 ? EMPTY_INT_ARRAY : new int[structureCount];
+        position = readBlocks(in, position, positionOffsets);
+        for (int i = 1; i < structureCount; i++) {
+            positionOffsets[i] += positionOffsets[i - 1];
+        }
+
+        if (structureFilter == null) {
+            int[] identifierData = identifierCount == 0 ? EMPTY_INT_ARRAY : new int[identifierCount];
+            readBlocks(in, position, identifierData);
+            return new ArrayBucket(structureIndices, positionOffsets, identifierData);
+        }
+
+        // only unpack identifier data of structures that pass the filter
+        int[] selectedStructureIndices = new int[structureCount];
+        int[] selectedPositionOffsets = new int[structureCount];
+        int selectedStructureCount = 0;
+        int selectedIdentifierCount = 0;
+        for (int i = 0; i < structureCount; i++) {
+            if (structureFilter.test(structureIndices[i])) {
+                selectedStructureIndices[selectedStructureCount] = i;
+                selectedPositionOffsets[selectedStructureCount] = selectedIdentifierCount;
+                selectedStructureCount++;
+                selectedIdentifierCount += end(positionOffsets, i, identifierCount) - positionOffsets[i];
+            }
+        }
+
+        int[] blockPositions = blockPositions(in, position, identifierCount);
+        int[] identifierData = selectedIdentifierCount == 0 ? EMPTY_INT_ARRAY : new int[selectedIdentifierCount];
+        for (int j = 0; j < selectedStructureCount; j++) {
+            int i = selectedStructureIndices[j];
+            unpackRange(in, blockPositions, positionOffsets[i], end(positionOffsets, i, identifierCount), identifierData, selectedPositionOffsets[j]);
+            selectedStructureIndices[j] = structureIndices[i];
+        }
+
+        return new ArrayBucket(Arrays.copyOf(selectedStructureIndices, selectedStructureCount),
+                Arrays.copyOf(selectedPositionOffsets, selectedStructureCount),
+                identifierData);
+    }
+
+    private static int end(int[] positionOffsets, int index, int identifierCount) {
+        return index + 1 < positionOffsets.length ? positionOffsets[index + 1] : identifierCount;
+    }
+
+    @Override
+    public ByteBuffer encode(ArrayBucket bucket) {
+        int[] structureIndices = bucket.getStructureIndexArray();
+        int[] positionOffsets = bucket.getPositionOffsetArray();
+        int[] identifierData = bucket.getIdentifierDataArray();
+        if (structureIndices.length != positionOffsets.length) {
+            throw new IllegalArgumentException("packed: " + structureIndices.length + " structures but " + positionOffsets.length + " offsets");
+        }
+
+        int n = structureIndices.length;
+        int[] structureDeltas = new int[n];
+        int[] offsetDeltas = new int[n];
+        int previousStructure = 0;
+        int previousOffset = 0;
+        for (int i = 0; i < n; i++) {
+            int delta = structureIndices[i] - previousStructure;
+            structureDeltas[i] = (delta << 1) ^ (delta >> 31);
+            offsetDeltas[i] = positionOffsets[i] - previousOffset;
+            previousStructure = structureIndices[i];
+            previousOffset = positionOffsets[i];
+        }
+
+        int size = 8 + packedSize(structureDeltas) + packedSize(offsetDeltas) + packedSize(identifierData) + PADDING;
+        ByteBuffer out = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(n);
+        out.putInt(identifierData.length);
+        writeBlocks(out, structureDeltas);
+        writeBlocks(out, offsetDeltas);
+        writeBlocks(out, identifierData);
+        out.position(size);
+        return out.flip();
+    }
+
+    private static int packedSize(int[] values) {
+        int size = 0;
+        for (int offset = 0; offset < values.length; offset += BLOCK_SIZE) {
+            int length = Math.min(BLOCK_SIZE, values.length - offset);
+            int bitWidth = bitWidth(values, offset, length, reference(values, offset, length));
+            size += 5 + byteCount(length, bitWidth);
+        }
+        return size;
+    }
+
+    private static int reference(int[] values, int offset, int length) {
+        int min = Integer.MAX_VALUE;
+        for (int i = offset; i < offset + length; i++) {
+            min = Math.min(min, values[i]);
+        }
+        return min;
+    }
+
+    private static int bitWidth(int[] values, int offset, int length, int reference) {
+        long range = 0;
+        for (int i = offset; i < offset + length; i++) {
+            range = Math.max(range, (long) values[i] - reference);
+        }
+        return 64 - Long.numberOfLeadingZeros(range);
+    }
+
+    private static int byteCount(int length, int bitWidth) {
+        return (length * bitWidth + 7) >>> 3;
+    }
+
+    private static void writeBlocks(ByteBuffer out, int[] values) {
+        for (int offset = 0; offset < values.length; offset += BLOCK_SIZE) {
+            int length = Math.min(BLOCK_SIZE, values.length - offset);
+            int reference = reference(values, offset, length);
+            int bitWidth = bitWidth(values, offset, length, reference);
+            out.putInt(reference);
+            out.put((byte) bitWidth);
+
+            byte[] packed = new byte[byteCount(length, bitWidth)];
+            for (int i = 0; i < length; i++) {
+                long value = ((long) values[offset + i] - reference) & 0xFFFFFFFFL;
+                int bit = i * bitWidth;
+                for (int b = bit >>> 3; value != 0; b++) {
+                    packed[b] |= (byte) (value << (bit & 7));
+                    value >>>= 8 - (bit & 7);
+                    bit = (b + 1) << 3;
+                }
+            }
+            out.put(packed);
+        }
+    }
+
+    private static int readBlocks(ByteBuffer in, int position, int[] values) {
+        for (int offset = 0; offset < values.length; offset += BLOCK_SIZE) {
+            int length = Math.min(BLOCK_SIZE, values.length - offset);
+            int reference = in.getInt(position);
+            int bitWidth = in.get(position + 4);
+            if (bitWidth < 0 || bitWidth > 32) {
+                throw new InputMismatchException("packed: invalid bit width " + bitWidth + " at byte " + (position + 4));
+            }
+            position = unpack(in, position + 5, values, offset, length, reference, bitWidth);
+        }
+        return position;
+    }
+
+    private static int unpack(ByteBuffer in, int position, int[] values, int offset, int length, int reference, int bitWidth) {
+        unpack(in, position, 0, length, values, offset, reference, bitWidth);
+        return position + byteCount(length, bitWidth);
+    }
+
+    // unpack values [from, to) of a block
+    private static void unpack(ByteBuffer in, int position, int from, int to, int[] values, int offset, int reference, int bitWidth) {
+        if (bitWidth == 0) {
+            Arrays.fill(values, offset, offset + to - from, reference);
+            return;
+        }
+
+        // a value spans at most 39 bits (32 + 7 bits of misalignment): a single 8-byte read always suffices
+        long mask = (1L << bitWidth) - 1;
+        for (int i = from; i < to; i++) {
+            int bit = i * bitWidth;
+            long word = in.getLong(position + (bit >>> 3));
+            values[offset + i - from] = (int) (reference + ((word >>> (bit & 7)) & mask));
+        }
+    }
+
+    private static int[] blockPositions(ByteBuffer in, int position, int valueCount) {
+        int[] blockPositions = new int[(valueCount + BLOCK_SIZE - 1) / BLOCK_SIZE];
+        for (int block = 0; block < blockPositions.length; block++) {
+            blockPositions[block] = position;
+            int length = Math.min(BLOCK_SIZE, valueCount - block * BLOCK_SIZE);
+            position += 5 + byteCount(length, in.get(position + 4));
+        }
+        return blockPositions;
+    }
+
+    // random access to values [from, to) of a section
+    private static void unpackRange(ByteBuffer in, int[] blockPositions, int from, int to, int[] values, int offset) {
+        while (from < to) {
+            int block = from / BLOCK_SIZE;
+            int blockStart = block * BLOCK_SIZE;
+            int blockEnd = Math.min(to, blockStart + BLOCK_SIZE);
+            int position = blockPositions[block];
+            unpack(in, position + 5, from - blockStart, blockEnd - blockStart, values, offset, in.getInt(position), in.get(position + 4));
+            offset += blockEnd - from;
+            from = blockEnd;
+        }
+    }
+}
@@ -246,6 +246,20 @@ public class Algebra {
         return out;
     }
 
+    /**
+     * Inverts a flat 4x4 matrix that describes a rigid transformation, i.e. a rotation followed by a translation.
+     * @param m the matrix
+     * @return a new, inverted matrix
+     */
+    public static float[] invertRigid4d(float[] m) {
+        return new float[] {
+                m[0], m[4], m[8], -(m[0] * m[3] + m[4] * m[7] + m[8] * m[11]),
+                m[1], m[5], m[9], -(m[1] * m[3] + m[5] * m[7] + m[9] * m[11]),
+                m[2], m[6], m[10], -(m[2] * m[3] + m[6] * m[7] + m[10] * m[11]),
+                0, 0, 0, 1
+        };
+    }
+
     /**
      * Transpose a 3x3 matrix.
      * @param rot the original matrix
@@ -4,7 +4,10 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.rcsb.strucmotif.Helpers;
 import org.rcsb.strucmotif.config.StrucmotifConfig;
+import org.rcsb.strucmotif.domain.Pair;
 import org.rcsb.strucmotif.domain.align.AlignmentResult;
+import org.rcsb.strucmotif.domain.align.AlignmentTemplate;
+import org.rcsb.strucmotif.domain.align.AtomCorrespondence;
 import org.rcsb.strucmotif.domain.align.AtomPairingScheme;
 import org.rcsb.strucmotif.domain.structure.DefaultStructure;
 import org.rcsb.strucmotif.domain.structure.LabelAtomId;
@@ -15,14 +18,17 @@ import org.rcsb.strucmotif.io.DefaultResidueTypeResolver;
 import org.rcsb.strucmotif.io.StructureReader;
 import org.rcsb.strucmotif.io.DefaultStructureReader;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.rcsb.strucmotif.Helpers.getOriginalBcif;
 
 class QuaternionAlignmentServiceTest {
@@ -245,4 +251,141 @@ class QuaternionAlignmentServiceTest {
         AlignmentResult result = alignmentService.align(residues1, residues2, AtomPairingScheme.ALL);
         assertEquals(2.211, result.rmsd(), Helpers.RELAXED_DELTA);
     }
+
+    @Test
+    void whenAligningPackedCoordinates_thenMatchesAtomCorrespondence() {
+        Structure structure1 = structureReader.readFromInputStream(getOriginalBcif("1lap"));
+        List<Map<LabelAtomId, float[]>> residues1 = Stream.of("A-250", "A-255", "A-273", "A-332", "A-334")
+                .map(id -> id.split("-"))
+                .map(split -> structure1.getResidueIndex(split[0], "1", Integer.parseInt(split[1])))
+                .map(structure1::manifestResidue)
+                .toList();
+        Structure structure2 = structureReader.readFromInputStream(getOriginalBcif("3pei"));
+        List<Map<LabelAtomId, float[]>> residues2 = Stream.of("A-251", "A-256", "A-274", "A-333", "A-335")
+                .map(id -> id.split("-"))
+                .map(split -> structure2.getResidueIndex(split[0], "1", Integer.parseInt(split[1])))
+                .map(structure2::manifestResidue)
+                .toList();
+
+        for (AtomPairingScheme atomPairingScheme : AtomPairingScheme.values()) {
+            AtomCorrespondence atomCorrespondence = new AtomCorrespondence(residues1, residues2, atomPairingScheme);
+            Pair<float[], Float> expected = QuaternionAlignmentService.align(atomCorrespondence.getCenteredReferenceVectors(),
+                    atomCorrespondence.getReferenceCentroid(),
+                    atomCorrespondence.getCenteredCandidateVectors(),
+                    atomCorrespondence.getCandidateCentroid());
+
+            AlignmentResult result = alignmentService.align(residues1, residues2, atomPairingScheme);
+            assertEquals(expected.second(), result.rmsd(), atomPairingScheme.name());
+            assertArrayEquals(expected.first(), result.transformation(), atomPairingScheme.name());
+        }
+    }
+
+    @Test
+    void whenAligningToTemplate_thenMatchesAlignmentOfResidues() {
+        Structure structure1 = structureReader.readFromInputStream(getOriginalBcif("1lap"));
+        List<Map<LabelAtomId, float[]>> residues1 = Stream.of("A-250", "A-255", "A-273", "A-332", "A-334")
+                .map(id -> id.split("-"))
+                .map(split -> structure1.getResidueIndex(split[0], "1", Integer.parseInt(split[1])))
+                .map(structure1::manifestResidue)
+                .toList();
+        Structure structure2 = structureReader.readFromInputStream(getOriginalBcif("3pei"));
+        List<Map<LabelAtomId, float[]>> residues2 = Stream.of("A-251", "A-256", "A-274", "A-333", "A-335")
+                .map(id -> id.split("-"))
+                .map(split -> structure2.getResidueIndex(split[0], "1", Integer.parseInt(split[1])))
+                .map(structure2::manifestResidue)
+                .toList();
+        // candidate that lacks some atoms of the reference
+        List<Map<LabelAtomId, float[]>> incomplete = new ArrayList<>(residues2);
+        incomplete.set(0, residues2.get(0).entrySet().stream().filter(entry -> entry.getKey() != LabelAtomId.CB).collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue)));
+
+        for (AtomPairingScheme atomPairingScheme : AtomPairingScheme.values()) {
+            AlignmentTemplate template = new AlignmentTemplate(residues1, atomPairingScheme);
+            for (List<Map<LabelAtomId, float[]>> candidate : List.of(residues2, incomplete)) {
+                AlignmentResult expected = alignmentService.align(residues1, candidate, atomPairingScheme);
+                AlignmentResult result = alignmentService.align(template, candidate);
+                assertEquals(expected.rmsd(), result.rmsd(), atomPairingScheme.name());
+                assertArrayEquals(expected.transformation(), result.transformation(), atomPairingScheme.name());
+            }
+        }
+    }
+
+    @Test
+    void whenAligningBatch_thenMatchesIndividualAlignments() {
+        Structure structure1 = structureReader.readFromInputStream(getOriginalBcif("1lap"));
+        List<Map<LabelAtomId, float[]>> residues1 = Stream.of("A-250", "A-255", "A-273", "A-332", "A-334")
+                .map(id -> id.split("-"))
+                .map(split -> structure1.getResidueIndex(split[0], "1", Integer.parseInt(split[1])))
+                .map(structure1::manifestResidue)
+                .toList();
+        Structure structure2 = structureReader.readFromInputStream(getOriginalBcif("3pei"));
+        // more candidates than fit into a single batch, every 7th lacks an atom and can't be batched
+        List<List<Map<LabelAtomId, float[]>>> candidates = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            int offset = i % 10;
+            List<Map<LabelAtomId, float[]>> candidate = new ArrayList<>(Stream.of("A-251", "A-256", "A-274", "A-333", "A-335")
+                    .map(id -> id.split("-"))
+                    .map(split -> structure2.getResidueIndex(split[0], "1", Integer.parseInt(split[1])))
+                    .map(residueIndex -> structure2.manifestResidue(residueIndex + offset))
+                    .toList());
+            if (i % 7 == 0) {
+                candidate.set(0, candidate.get(0).entrySet().stream().filter(entry -> entry.getKey() != LabelAtomId.CA).collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue)));
+            }
+            candidates.add(candidate);
+        }
+
+        for (AtomPairingScheme atomPairingScheme : AtomPairingScheme.values()) {
+            AlignmentTemplate template = new AlignmentTemplate(residues1, atomPairingScheme);
+            AlignmentResult[] results = alignmentService.alignAll(template, candidates);
+            assertEquals(candidates.size(), results.length);
+            for (int i = 0; i < candidates.size(); i++) {
+                AlignmentResult expected = alignmentService.align(template, candidates.get(i));
+                assertEquals(expected.rmsd(), results[i].rmsd(), atomPairingScheme.name());
+                assertArrayEquals(expected.transformation(), results[i].transformation(), atomPairingScheme.name());
+            }
+        }
+    }
+
+    @Test
+    void whenBoundingRmsd_thenNeverAboveAlignment() {
+        Structure structure1 = structureReader.readFromInputStream(getOriginalBcif("1lap"));
+        List<Map<LabelAtomId, float[]>> residues1 = Stream.of("A-250", "A-255", "A-273", "A-332", "A-334")
+                .map(id -> id.split("-"))
+                .map(split -> structure1.getResidueIndex(split[0], "1", Integer.parseInt(split[1])))
+                .map(structure1::manifestResidue)
+                .toList();
+        Structure structure2 = structureReader.readFromInputStream(getOriginalBcif("3pei"));
+        int[] residueIndices = Stream.of("A-251", "A-256", "A-274", "A-333", "A-335")
+                .map(id -> id.split("-"))
+                .mapToInt(split -> structure2.getResidueIndex(split[0], "1", Integer.parseInt(split[1])))
+                .toArray();
+
+        for (AtomPairingScheme atomPairingScheme : AtomPairingScheme.values()) {
+            AlignmentTemplate template = new AlignmentTemplate(residues1, atomPairingScheme);
+            int[] anchorSlots = template.getAnchorSlots();
+            boolean rejected = false;
+            // the actual motif and many unrelated residues, including such that lack atoms
+            for (int offset = 0; offset < 100; offset++) {
+                int shift = offset;
+                List<Map<LabelAtomId, float[]>> candidate = IntStream.of(residueIndices)
+                        .mapToObj(residueIndex -> structure2.manifestResidue(residueIndex + shift))
+                        .toList();
+                float[] anchorCoordinates = new float[3 * anchorSlots.length];
+                for (int i = 0; i < anchorSlots.length; i++) {
+                    float[] atom = candidate.get(template.getResidueIndices()[anchorSlots[i]]).get(template.getLabelAtomIds()[anchorSlots[i]]);
+                    if (atom != null) {
+                        System.arraycopy(atom, 0, anchorCoordinates, 3 * i, 3);
+                    } else {
+                        anchorCoordinates[3 * i] = Float.NaN;
+                    }
+                }
+
+                double bound = template.getRmsdLowerBound(anchorCoordinates);
+                double rmsd = alignmentService.align(template, candidate).rmsd();
+                assertTrue(bound <= rmsd + 1e-3, atomPairingScheme + ": bound " + bound + " exceeds RMSD " + rmsd);
+                // unrelated residues should be rejected at typical cutoffs without alignment
+                rejected |= bound > 2.0;
+            }
+            assertTrue(rejected, atomPairingScheme + ": no candidate rejected");
+        }
+    }
 }
@@ -0,0 +1,56 @@
+package org.rcsb.strucmotif.core;
+
+import org.junit.jupiter.api.Test;
+import org.rcsb.strucmotif.domain.result.StructureHit;
+
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BestHitsTest {
+    @Test
+    void whenOfferingConcurrently_thenLowestRmsdRetained() {
+        Random random = new Random(42);
+        List<StructureHit> hits = IntStream.range(0, 10000)
+                .mapToObj(i -> hit(random.nextFloat() * 3))
+                .toList();
+        BestHits bestHits = new BestHits(50, 2.0f);
+        hits.parallelStream().forEach(bestHits::offer);
+
+        List<StructureHit> expected = hits.stream()
+                .filter(hit -> hit.rmsd() < 2.0f)
+                .sorted((h1, h2) -> Float.compare(h1.rmsd(), h2.rmsd()))
+                .limit(50)
+                .toList();
+        List<StructureHit> actual = bestHits.toList();
+        assertEquals(50, actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).rmsd(), actual.get(i).rmsd());
+        }
+        // cutoff is the worst retained hit
+        assertEquals(actual.get(49).rmsd(), bestHits.getRmsdCutoff());
+    }
+
+    @Test
+    void whenNotFull_thenQueryCutoffApplies() {
+        BestHits bestHits = new BestHits(3, 1.0f);
+        assertFalse(bestHits.offer(hit(1.0f)));
+        assertTrue(bestHits.offer(hit(0.8f)));
+        assertTrue(bestHits.offer(hit(0.2f)));
+        assertEquals(1.0f, bestHits.getRmsdCutoff());
+
+        assertTrue(bestHits.offer(hit(0.5f)));
+        assertEquals(0.8f, bestHits.getRmsdCutoff());
+        assertFalse(bestHits.offer(hit(0.9f)));
+        assertTrue(bestHits.offer(hit(0.1f)));
+        assertEquals(List.of(0.1f, 0.2f, 0.5f), bestHits.toList().stream().map(StructureHit::rmsd).toList());
+    }
+
+    private StructureHit hit(float rmsd) {
+        return new StructureHit("1abc", "1", List.of(), List.of(), rmsd, new float[0]);
+    }
+}
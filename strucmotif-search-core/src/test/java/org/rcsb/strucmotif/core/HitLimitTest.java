@@ -0,0 +1,32 @@
+package org.rcsb.strucmotif.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HitLimitTest {
+    @Test
+    void whenAcceptingConcurrently_thenExactlyLimitAccepted() {
+        HitLimit hitLimit = new HitLimit(100);
+        assertFalse(hitLimit.isReached());
+
+        long accepted = IntStream.range(0, 10000)
+                .parallel()
+                .filter(i -> hitLimit.tryAccept())
+                .count();
+        assertEquals(100, accepted);
+        assertTrue(hitLimit.isReached());
+        assertFalse(hitLimit.tryAccept());
+    }
+
+    @Test
+    void whenUnlimited_thenNeverReached() {
+        HitLimit hitLimit = new HitLimit(Integer.MAX_VALUE);
+        IntStream.range(0, 1000).forEach(i -> assertTrue(hitLimit.tryAccept()));
+        assertFalse(hitLimit.isReached());
+    }
+}
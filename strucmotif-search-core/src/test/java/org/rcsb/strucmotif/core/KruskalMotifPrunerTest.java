@@ -80,4 +80,29 @@ class KruskalMotifPrunerTest {
                 // maximum alpha carbon distance is 7
                 .allMatch(i -> i < 8));
     }
-}
\ No newline at end of file
+
+    @Test
+    void whenCostsProvided_thenAvoidExpensivePairs() {
+        Structure structure = structureReader.readFromInputStream(getOriginalBcif("1ec6"));
+        List<LabelSelection> labelSelections = List.of(new LabelSelection("D", "1", 11), // E, D14
+                new LabelSelection("D", "1", 37), // Q, D40
+                new LabelSelection("D", "1", 38), // I, D41
+                new LabelSelection("D", "1", 51)); // R, D54
+        List<Map<LabelAtomId, float[]>> residues = labelSelections.stream()
+                .map(structure::getResidueIndex)
+                .map(structure::manifestResidue)
+                .toList();
+        ResidueGraph residueGraph = new ResidueGraph(structure, strucmotifConfig, ResidueGraph.ResidueGraphOptions.selection(residues, labelSelections));
+        // make all pairs that involve E expensive
+        int expensiveResidueIndex = structure.getResidueIndex(labelSelections.get(0));
+
+        List<ResiduePairOccurrence> motifOccurrences = motifPruner.prune(residueGraph, o -> o.getResidueIndex1() == expensiveResidueIndex || o.getResidueIndex2() == expensiveResidueIndex ? 1000 : 0);
+
+        assertEquals(3, motifOccurrences.size());
+        assertEquals(1, motifOccurrences.stream()
+                .filter(o -> o.getResidueIndex1() == expensiveResidueIndex || o.getResidueIndex2() == expensiveResidueIndex)
+                .count());
+        ResiduePairOccurrence last = motifOccurrences.get(2);
+        assertTrue(last.getResidueIndex1() == expensiveResidueIndex || last.getResidueIndex2() == expensiveResidueIndex);
+    }
+}
@@ -38,19 +38,21 @@ import java.util.Set;
 import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.when;
 import static org.rcsb.strucmotif.Helpers.getOriginalBcif;
 
 class MotifIntegrationTest {
+    private StrucmotifConfig strucmotifConfig;
     private StructureReader structureReader;
     private Set<EnrichedMotifDefinition> motifs;
     private MotifContextBuilder contextBuilder;
 
     @BeforeEach
     public void init() {
-        StrucmotifConfig strucmotifConfig = new StrucmotifConfig();
+        this.strucmotifConfig = new StrucmotifConfig();
         NoOperationMotifPruner noOperationMotifPruner = new NoOperationMotifPruner();
         KruskalMotifPruner kruskalMotifPruner = new KruskalMotifPruner();
         ResidueTypeResolver residueTypeResolver = new DefaultResidueTypeResolver(strucmotifConfig);
@@ -103,6 +105,22 @@ class MotifIntegrationTest {
 
     @Test
     void whenScreening2mnr_thenSuperfamilyMotifFound() {
+        assertSuperfamilyMotifFound();
+    }
+
+    @Test
+    void whenScreening2mnrInChunks_thenSuperfamilyMotifFound() {
+        strucmotifConfig.setAssemblyChunkSize(1);
+        assertSuperfamilyMotifFound();
+    }
+
+    @Test
+    void whenExceedingMemoryBudget_thenQueryTerminated() {
+        strucmotifConfig.setQueryMemoryBudget(1);
+        assertThrows(QueryMemoryExceededException.class, this::assertSuperfamilyMotifFound);
+    }
+
+    private void assertSuperfamilyMotifFound() {
         Structure structure = structureReader.readFromInputStream(getOriginalBcif("2mnr"));
         MotifSearchResult result = contextBuilder.defineByStructureAndAssemblyId(structure, "1")
                 // these must be 'enriched' with structure data outside
@@ -11,6 +11,7 @@ import org.rcsb.strucmotif.config.StrucmotifConfig;
 import org.rcsb.strucmotif.domain.align.AlignmentResult;
 import org.rcsb.strucmotif.domain.align.AtomPairingScheme;
 import org.rcsb.strucmotif.domain.bucket.ArrayBucket;
+import org.rcsb.strucmotif.domain.bucket.Bucket;
 import org.rcsb.strucmotif.domain.query.ResultsContentType;
 import org.rcsb.strucmotif.domain.query.StructureQuery;
 import org.rcsb.strucmotif.domain.query.StructureContextBuilder;
@@ -38,10 +39,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UncheckedIOException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.IntPredicate;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -68,18 +71,25 @@ class StructureIntegrationTest {
         ColferCodec bucketCodec = new ColferCodec();
         InvertedIndex invertedIndex = new DefaultInvertedIndex(strucmotifConfig) {
             @Override
-            public ArrayBucket select(int residuePairDescriptor) {
+            public Bucket select(int residuePairDescriptor, IntPredicate structureFilter) {
                 String filename = residuePairDescriptor + ".colf";
                 if (!fileBundle.containsFile(filename)) {
                     return ArrayBucket.EMPTY_BUCKET;
                 }
 
                 try {
-                    return bucketCodec.decode(fileBundle.readFile(filename));
+                    return bucketCodec.view(fileBundle.readFile(filename), structureFilter);
                 } catch (IOException e) {
                     throw new UncheckedIOException(e);
                 }
             }
+
+            @Override
+            public Bucket[] selectAll(int[] residuePairDescriptors, IntPredicate structureFilter) {
+                return Arrays.stream(residuePairDescriptors)
+                        .mapToObj(residuePairDescriptor -> select(residuePairDescriptor, structureFilter))
+                        .toArray(Bucket[]::new);
+            }
         };
 
         StructureDataProvider structureDataProvider = Mockito.mock(StructureDataProvider.class);
@@ -0,0 +1,43 @@
+package org.rcsb.strucmotif.domain;
+
+import org.junit.jupiter.api.Test;
+import org.rcsb.strucmotif.core.QueryMemoryExceededException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class QueryMemoryTest {
+    @Test
+    void whenExceedingBudget_thenReservationRejected() {
+        QueryMemory queryMemory = new QueryMemory(100);
+        queryMemory.reserve(60);
+        assertThrows(QueryMemoryExceededException.class, () -> queryMemory.reserve(50));
+        // failed reservations aren't accounted for
+        assertEquals(60, queryMemory.getUsed());
+
+        queryMemory.release(60);
+        queryMemory.reserve(100);
+        assertEquals(100, queryMemory.getUsed());
+    }
+
+    @Test
+    void whenReservingInScope_thenChargedToQuery() {
+        QueryMemory queryMemory = new QueryMemory(100);
+        queryMemory.reserve(30);
+        QueryMemory scope = queryMemory.scope();
+        scope.reserve(50);
+        assertThrows(QueryMemoryExceededException.class, () -> scope.reserve(30));
+        assertEquals(50, scope.getUsed());
+        assertEquals(80, queryMemory.getUsed());
+
+        scope.release(scope.getUsed());
+        assertEquals(30, queryMemory.getUsed());
+    }
+
+    @Test
+    void whenBudgetDisabled_thenAnythingReserved() {
+        QueryMemory queryMemory = new QueryMemory(0);
+        queryMemory.reserve(Long.MAX_VALUE / 2);
+        assertEquals(Long.MAX_VALUE / 2, queryMemory.getUsed());
+    }
+}
@@ -0,0 +1,61 @@
+package org.rcsb.strucmotif.domain;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StructureIndexMapTest {
+    @Test
+    void whenMergingRandomKeys_thenContentMatchesHashMap() {
+        Random random = new Random(42);
+        StructureIndexMap<Integer> map = new StructureIndexMap<>();
+        Map<Integer, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 10000; i++) {
+            // includes negative indices and plenty of collisions
+            int key = random.nextInt(4000) - 100;
+            map.merge(key, 1, Integer::sum);
+            expected.merge(key, 1, Integer::sum);
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        assertNull(map.get(5000));
+        assertFalse(map.containsKey(-101));
+
+        // keys & values are aligned
+        int[] keys = map.keys();
+        List<Integer> values = map.values();
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(expected.get(keys[i]), values.get(i));
+        }
+    }
+
+    @Test
+    void whenMergingMaps_thenValuesCombined() {
+        StructureIndexMap<String> map1 = new StructureIndexMap<>();
+        StructureIndexMap<String> map2 = new StructureIndexMap<>(100);
+        IntStream.range(0, 50).forEach(i -> map1.put(i, "a"));
+        IntStream.range(25, 100).forEach(i -> map2.put(i, "b"));
+
+        map1.mergeAll(map2, String::concat);
+        assertEquals(100, map1.size());
+        assertEquals("a", map1.get(0));
+        assertEquals("ab", map1.get(30));
+        assertEquals("b", map1.get(99));
+
+        map1.clear();
+        assertTrue(map1.isEmpty());
+        assertEquals(0, map1.keys().length);
+    }
+}
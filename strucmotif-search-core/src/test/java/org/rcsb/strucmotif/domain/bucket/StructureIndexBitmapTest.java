@@ -0,0 +1,81 @@
+package org.rcsb.strucmotif.domain.bucket;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StructureIndexBitmapTest {
+    @Test
+    void whenCreated_thenContentMatches() {
+        StructureIndexBitmap bitmap = StructureIndexBitmap.of(new int[] { 70000, 3, 3, -1, 1 });
+
+        assertEquals(4, bitmap.getCardinality());
+        assertTrue(bitmap.contains(1));
+        assertTrue(bitmap.contains(70000));
+        assertTrue(bitmap.contains(-1));
+        assertFalse(bitmap.contains(2));
+        assertFalse(bitmap.contains(65536 + 3));
+        // ordered as unsigned values
+        assertEquals(Arrays.toString(new int[] { 1, 3, 70000, -1 }), Arrays.toString(bitmap.toArray()));
+        assertSame(StructureIndexBitmap.EMPTY, StructureIndexBitmap.of(new int[0]));
+    }
+
+    @Test
+    void whenCombiningSparseAndDense_thenResultsMatchSets() {
+        Random random = new Random(42);
+        // dense containers (> 4096 values in 65536) as well as sparse ones
+        int[] dense1 = random.ints(20000, 0, 100000).toArray();
+        int[] dense2 = random.ints(20000, 0, 100000).toArray();
+        int[] sparse = random.ints(500, 0, 300000).toArray();
+
+        assertCombinations(dense1, dense2);
+        assertCombinations(dense1, sparse);
+        assertCombinations(sparse, dense2);
+        assertCombinations(sparse, random.ints(500, 0, 300000).toArray());
+    }
+
+    @Test
+    void whenRoundTripping_thenContentMatches() {
+        int[] structureIndices = new Random(42).ints(10000, 0, 200000).toArray();
+        StructureIndexBitmap bitmap = StructureIndexBitmap.of(structureIndices);
+        StructureIndexBitmap read = StructureIndexBitmap.read(bitmap.toByteBuffer());
+
+        assertEquals(toSet(structureIndices), toSet(read.toArray()));
+        assertTrue(StructureIndexBitmap.read(StructureIndexBitmap.EMPTY.toByteBuffer()).isEmpty());
+    }
+
+    private void assertCombinations(int[] structureIndices1, int[] structureIndices2) {
+        StructureIndexBitmap bitmap1 = StructureIndexBitmap.of(structureIndices1);
+        StructureIndexBitmap bitmap2 = StructureIndexBitmap.of(structureIndices2);
+        Set<Integer> set1 = toSet(structureIndices1);
+        Set<Integer> set2 = toSet(structureIndices2);
+
+        Set<Integer> union = new HashSet<>(set1);
+        union.addAll(set2);
+        StructureIndexBitmap or = bitmap1.or(bitmap2);
+        assertEquals(union, toSet(or.toArray()));
+        assertEquals(union.size(), or.getCardinality());
+
+        Set<Integer> intersection = new HashSet<>(set1);
+        intersection.retainAll(set2);
+        StructureIndexBitmap and = bitmap1.and(bitmap2);
+        assertEquals(intersection, toSet(and.toArray()));
+        assertEquals(intersection.size(), and.getCardinality());
+        for (int structureIndex : structureIndices1) {
+            assertEquals(set2.contains(structureIndex), and.contains(structureIndex));
+        }
+    }
+
+    private Set<Integer> toSet(int[] structureIndices) {
+        return Arrays.stream(structureIndices).boxed().collect(Collectors.toSet());
+    }
+}
@@ -6,6 +6,7 @@ import org.rcsb.strucmotif.domain.structure.ResidueType;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -23,4 +24,21 @@ class ResiduePairOccurrenceTest {
         assertEquals(out.stream().distinct().count(), out.size(), "There are duplicates");
         assertEquals(2, out.stream().map(ResiduePairDescriptor::getResidueType2).distinct().count(), "Didn't observe exchange");
     }
-}
\ No newline at end of file
+
+    @Test
+    void whenSortingByCosts_thenEachCostEvaluatedOnce() {
+        List<ResiduePairOccurrence> occurrences = List.of(new ResiduePairOccurrence(1L, 3),
+                new ResiduePairOccurrence(2L, 1),
+                new ResiduePairOccurrence(3L, 2),
+                new ResiduePairOccurrence(4L, 1));
+        AtomicInteger evaluations = new AtomicInteger();
+
+        List<ResiduePairOccurrence> sorted = ResiduePairOccurrence.sort(occurrences, occurrence -> {
+            evaluations.incrementAndGet();
+            return occurrence.getResiduePairDescriptor();
+        });
+
+        assertEquals(List.of(2L, 4L, 3L, 1L), sorted.stream().map(ResiduePairOccurrence::getResiduePairIdentifier).toList());
+        assertEquals(occurrences.size(), evaluations.get());
+    }
+}
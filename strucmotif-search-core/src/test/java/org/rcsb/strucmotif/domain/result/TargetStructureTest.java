@@ -0,0 +1,239 @@
+package org.rcsb.strucmotif.domain.result;
+
+import org.junit.jupiter.api.Test;
+import org.rcsb.strucmotif.align.AlignmentService;
+import org.rcsb.strucmotif.align.QuaternionAlignmentService;
+import org.rcsb.strucmotif.config.StrucmotifConfig;
+import org.rcsb.strucmotif.core.HitLimit;
+import org.rcsb.strucmotif.core.HitScorer;
+import org.rcsb.strucmotif.core.QueryMemoryExceededException;
+import org.rcsb.strucmotif.domain.QueryMemory;
+import org.rcsb.strucmotif.domain.align.AlignmentResult;
+import org.rcsb.strucmotif.domain.align.AlignmentTemplate;
+import org.rcsb.strucmotif.domain.align.AtomPairingScheme;
+import org.rcsb.strucmotif.domain.motif.Overlap;
+import org.rcsb.strucmotif.domain.query.SymmetryMode;
+import org.rcsb.strucmotif.domain.structure.LabelAtomId;
+import org.rcsb.strucmotif.domain.structure.LabelSelection;
+import org.rcsb.strucmotif.domain.structure.Structure;
+import org.rcsb.strucmotif.io.DefaultResidueTypeResolver;
+import org.rcsb.strucmotif.io.DefaultStructureReader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.rcsb.strucmotif.Helpers.getOriginalBcif;
+
+class TargetStructureTest {
+    @Test
+    void whenSharingResidue_thenOnlyCompatiblePathsExtended() {
+        // paths: 1-2, 3-4, ... - enough to exceed the threshold of the hash join
+        int[] firstGeneration = new int[40];
+        for (int i = 0; i < firstGeneration.length; i++) {
+            firstGeneration[i] = i + 1;
+        }
+        TargetStructure targetStructure = new TargetStructure(0, firstGeneration);
+
+        // 2nd residue of the path must be the 1st residue of the candidate: 1-2-2-100, 3-4-4-101, 3-4-4-2
+        assertTrue(targetStructure.consume(new int[] { 2, 100, 4, 101, 4, 2, 7, 7 }, new Overlap[] { Overlap.RIGHT_LEFT }));
+        assertEquals(3, targetStructure.getNumberOfValidPaths());
+
+        // must share the 1st residue with the 1st pair and have no overlap with the 2nd pair
+        assertTrue(targetStructure.consume(new int[] { 200, 1, 201, 3, 202, 1 }, new Overlap[] { Overlap.LEFT_RIGHT, Overlap.NONE }));
+        assertEquals(4, targetStructure.getNumberOfValidPaths());
+
+        assertFalse(targetStructure.consume(new int[] { 300, 301 }, new Overlap[] { Overlap.LEFT_RIGHT, Overlap.NONE, Overlap.NONE }));
+    }
+
+    @Test
+    void whenReordering_thenResiduePairsMoved() {
+        TargetStructure targetStructure = new TargetStructure(0, new int[] { 1, 2, 3, 4 });
+        targetStructure.consume(new int[] { 2, 5 }, new Overlap[] { Overlap.RIGHT_LEFT });
+        targetStructure.consume(new int[] { 5, 6 }, new Overlap[] { Overlap.NONE, Overlap.RIGHT_LEFT });
+        assertEquals(1, targetStructure.getNumberOfValidPaths());
+
+        // 1-2 moves to the end, the new residue pair has to match that order
+        targetStructure.reorderResiduePairs(new int[] { 2, 0, 1 });
+        assertTrue(targetStructure.consume(new int[] { 6, 1 }, new Overlap[] { Overlap.NONE, Overlap.RIGHT_LEFT, Overlap.LEFT_RIGHT }));
+        assertEquals(1, targetStructure.getNumberOfValidPaths());
+    }
+
+    @Test
+    void whenJoiningRandomCandidates_thenMatchesCartesianProduct() {
+        Random random = new Random(42);
+        Overlap[] overlaps = { Overlap.NONE, Overlap.LEFT_LEFT, Overlap.LEFT_RIGHT, Overlap.RIGHT_LEFT, Overlap.RIGHT_RIGHT };
+        for (int run = 0; run < 50; run++) {
+            int[] firstGeneration = random.ints(2 * (1 + random.nextInt(200)), 0, 30).toArray();
+            TargetStructure targetStructure = new TargetStructure(0, firstGeneration);
+            List<int[]> expected = new ArrayList<>();
+            for (int i = 0; i < firstGeneration.length; i = i + 2) {
+                expected.add(new int[] { firstGeneration[i], firstGeneration[i + 1] });
+            }
+
+            for (int generation = 1; generation < 4; generation++) {
+                Overlap[] overlapProfile = new Overlap[generation];
+                for (int k = 0; k < generation; k++) {
+                    overlapProfile[k] = overlaps[random.nextInt(overlaps.length)];
+                }
+                int[] candidates = random.ints(2 * (1 + random.nextInt(200)), 0, 30).toArray();
+
+                expected = cartesianProduct(expected, candidates, overlapProfile);
+                targetStructure.consume(candidates, overlapProfile);
+                assertEquals(expected.size(), targetStructure.getNumberOfValidPaths(), "Path count doesn't match for " + Arrays.toString(overlapProfile));
+            }
+        }
+    }
+
+    @Test
+    void whenPathsExceedBudget_thenConsumptionStops() {
+        // 10 paths & 100 candidates without shared residues: 1000 paths of the next generation
+        int[] firstGeneration = IntStream.range(0, 20).toArray();
+        int[] candidates = IntStream.range(100, 300).toArray();
+        Overlap[] overlapProfile = new Overlap[] { Overlap.NONE };
+
+        QueryMemory queryMemory = new QueryMemory(4096);
+        assertThrows(QueryMemoryExceededException.class, () -> new TargetStructure(0, firstGeneration).consume(candidates, overlapProfile, queryMemory));
+        // growth was rejected before it happened
+        assertTrue(queryMemory.getUsed() <= 4096);
+
+        // only the compacted paths remain accounted for: header & 1000 * 4 residue indices
+        QueryMemory unbounded = new QueryMemory(0);
+        assertTrue(new TargetStructure(0, firstGeneration).consume(candidates, overlapProfile, unbounded));
+        assertEquals(16 + 1000 * 4 * Integer.BYTES, unbounded.getUsed());
+    }
+
+    @Test
+    void whenResiduesInSeveralAssemblies_thenAlignedOnce() {
+        Structure structure = new DefaultStructureReader(new DefaultResidueTypeResolver(new StrucmotifConfig()))
+                .readFromInputStream(getOriginalBcif("1qd6"));
+        // chain A with operator 1 takes part in assemblies 1 & 3
+        LabelSelection selection1 = structure.getLabelSelection(0);
+        LabelSelection selection2 = structure.getLabelSelection(1);
+        int[] residuePairs = new int[] {
+                structure.getResidueIndex("1", selection1), structure.getResidueIndex("1", selection2),
+                structure.getResidueIndex("3", selection1), structure.getResidueIndex("3", selection2)
+        };
+        assertEquals("1", structure.getAssemblyIdentifier(residuePairs[0]));
+        assertEquals("3", structure.getAssemblyIdentifier(residuePairs[2]));
+
+        AtomicInteger alignedCandidates = new AtomicInteger();
+        AlignmentService alignmentService = countingAlignmentService(alignedCandidates);
+        List<Map<LabelAtomId, float[]>> queryResidues = List.of(structure.manifestResidue(residuePairs[0]), structure.manifestResidue(residuePairs[1]));
+        HitScorer hitScorer = new HitScorer(queryResidues, AtomPairingScheme.ALL, alignmentService);
+
+        TargetStructure targetStructure = new TargetStructure(0, residuePairs);
+        List<StructureHit> hits = targetStructure.paths(new int[] { 0, 1 }, structure, "1qd6", hitScorer, Float.MAX_VALUE).toList();
+
+        assertEquals(List.of("1", "3"), hits.stream().map(StructureHit::assemblyIdentifier).sorted().toList());
+        assertEquals(hits.get(0).rmsd(), hits.get(1).rmsd());
+        assertEquals(1, alignedCandidates.get());
+    }
+
+    @Test
+    void whenSymmetryCopies_thenRepresentativeAlignedOnce() {
+        Structure structure = new DefaultStructureReader(new DefaultResidueTypeResolver(new StrucmotifConfig()))
+                .readFromInputStream(getOriginalBcif("1lap"));
+        // the same 2 residues in every instance of their chain in assembly 1
+        LabelSelection selection1 = structure.getLabelSelection(0);
+        LabelSelection selection2 = structure.getLabelSelection(1);
+        String[] chainInstances = structure.getReferencedChainInstances("1");
+        List<Integer> residuePairs = new ArrayList<>();
+        for (int i = 0; i < chainInstances.length; i = i + 2) {
+            if (!chainInstances[i].equals(selection1.labelAsymId())) {
+                continue;
+            }
+            residuePairs.add(structure.getResidueIndex("1", selection1.labelAsymId(), chainInstances[i + 1], selection1.labelSeqId()));
+            residuePairs.add(structure.getResidueIndex("1", selection2.labelAsymId(), chainInstances[i + 1], selection2.labelSeqId()));
+        }
+        int copies = residuePairs.size() / 2;
+        assertTrue(copies > 1);
+
+        List<Map<LabelAtomId, float[]>> queryResidues = List.of(structure.manifestResidue(residuePairs.get(0)), structure.manifestResidue(residuePairs.get(1)));
+        AtomicInteger alignedCandidates = new AtomicInteger();
+        AlignmentService alignmentService = countingAlignmentService(alignedCandidates);
+        int[] paths = residuePairs.stream().mapToInt(Integer::intValue).toArray();
+
+        List<StructureHit> expected = new TargetStructure(0, paths).paths(new int[] { 0, 1 }, structure, "1lap", new HitScorer(queryResidues, AtomPairingScheme.ALL, SymmetryMode.OFF, alignmentService), Float.MAX_VALUE).toList();
+        assertEquals(copies, expected.size());
+        assertEquals(copies, alignedCandidates.getAndSet(0));
+
+        List<StructureHit> shared = new TargetStructure(0, paths).paths(new int[] { 0, 1 }, structure, "1lap", new HitScorer(queryResidues, AtomPairingScheme.ALL, SymmetryMode.SHARE, alignmentService), Float.MAX_VALUE).toList();
+        assertEquals(1, alignedCandidates.getAndSet(0));
+        assertEquals(copies, shared.size());
+        for (int i = 0; i < copies; i++) {
+            assertEquals(expected.get(i).labelSelections(), shared.get(i).labelSelections());
+            assertEquals(expected.get(i).rmsd(), shared.get(i).rmsd(), 1e-3);
+            float[] transformation = shared.get(i).transformation();
+            for (int j = 0; j < 16; j++) {
+                assertEquals(expected.get(i).transformation()[j], transformation[j], 1e-2, "Transformation of copy " + i + " differs");
+            }
+        }
+
+        List<StructureHit> suppressed = new TargetStructure(0, paths).paths(new int[] { 0, 1 }, structure, "1lap", new HitScorer(queryResidues, AtomPairingScheme.ALL, SymmetryMode.SUPPRESS, alignmentService), Float.MAX_VALUE).toList();
+        assertEquals(1, alignedCandidates.get());
+        assertEquals(List.of(expected.get(0).labelSelections()), suppressed.stream().map(StructureHit::labelSelections).toList());
+    }
+
+    @Test
+    void whenHitLimitReached_thenNoFurtherAlignments() {
+        Structure structure = new DefaultStructureReader(new DefaultResidueTypeResolver(new StrucmotifConfig()))
+                .readFromInputStream(getOriginalBcif("1lap"));
+        // several batches of paths
+        int[] residuePairs = IntStream.range(0, 400).toArray();
+        List<Map<LabelAtomId, float[]>> queryResidues = List.of(structure.manifestResidue(0), structure.manifestResidue(1));
+        AtomicInteger alignedCandidates = new AtomicInteger();
+        HitScorer hitScorer = new HitScorer(queryResidues, AtomPairingScheme.ALL, countingAlignmentService(alignedCandidates));
+
+        HitLimit hitLimit = new HitLimit(1);
+        AtomicInteger alignedAtLimit = new AtomicInteger(-1);
+        List<StructureHit> hits = new TargetStructure(0, residuePairs).paths(new int[] { 0, 1 }, structure, "1lap", hitScorer, () -> Float.MAX_VALUE, hitLimit::isReached)
+                .filter(hit -> {
+                    boolean accepted = hitLimit.tryAccept();
+                    alignedAtLimit.compareAndSet(-1, alignedCandidates.get());
+                    return accepted;
+                })
+                .toList();
+
+        assertEquals(1, hits.size());
+        assertTrue(alignedAtLimit.get() < residuePairs.length / 2);
+        assertEquals(alignedAtLimit.get(), alignedCandidates.get(), "Paths were aligned after the limit was reached");
+    }
+
+    private static AlignmentService countingAlignmentService(AtomicInteger alignedCandidates) {
+        return new QuaternionAlignmentService() {
+            @Override
+            public AlignmentResult[] alignAll(AlignmentTemplate template, List<List<Map<LabelAtomId, float[]>>> candidates) {
+                alignedCandidates.addAndGet(candidates.size());
+                return super.alignAll(template, candidates);
+            }
+        };
+    }
+
+    private List<int[]> cartesianProduct(List<int[]> paths, int[] candidates, Overlap[] overlapProfile) {
+        List<int[]> out = new ArrayList<>();
+        for (int i = 0; i < candidates.length; i = i + 2) {
+            p:
+            for (int[] path : paths) {
+                for (int k = 0; k < overlapProfile.length; k++) {
+                    if (Overlap.ofResiduePairIdentifiers(path[2 * k], path[2 * k + 1], candidates[i], candidates[i + 1]) != overlapProfile[k]) {
+                        continue p;
+                    }
+                }
+                int[] extended = Arrays.copyOf(path, path.length + 2);
+                extended[path.length] = candidates[i];
+                extended[path.length + 1] = candidates[i + 1];
+                out.add(extended);
+            }
+        }
+        return out;
+    }
+}
@@ -6,6 +6,7 @@ import org.rcsb.strucmotif.config.StrucmotifConfig;
 import org.rcsb.strucmotif.io.DefaultStructureReader;
 import org.rcsb.strucmotif.io.DefaultResidueTypeResolver;
 
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -258,4 +259,23 @@ public class TransformationInformationTest {
         assertTrue(transformation[0] == 1.0f && transformation[5] == 1.0f && transformation[10] == 1.0f, "Expected identity matrix");
         assertArrayEquals(new float[] { 6.8f, 0.4f, -3.4f }, structure.manifestResidue(16).get(LabelAtomId.CA));
     }
+
+    @Test
+    void when1m4x_thenAtomsMatchManifestedResidues() {
+        Structure structure = structureReader.readFromInputStream(getRenumberedBcif("1m4x"));
+        float[] v = new float[3];
+        // residues of the identity and of a non-trivial transformation
+        for (int residueIndex : new int[] { 0, 412, 1239, 1651 }) {
+            Map<LabelAtomId, float[]> residue = structure.manifestResidue(residueIndex);
+            for (LabelAtomId labelAtomId : LabelAtomId.values) {
+                if (labelAtomId == LabelAtomId.UNKNOWN_ATOM) {
+                    continue;
+                }
+                assertEquals(residue.containsKey(labelAtomId), structure.manifestAtom(residueIndex, labelAtomId, v));
+                if (residue.containsKey(labelAtomId)) {
+                    assertArrayEquals(residue.get(labelAtomId), v);
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,175 @@
+package org.rcsb.strucmotif.io;
+
+import org.junit.jupiter.api.Test;
+import org.rcsb.strucmotif.domain.bucket.ArrayBucket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BucketCacheTest {
+    // 160 bytes overhead + 4 * 40 ints
+    private static final long BUCKET_WEIGHT = 320;
+    private final AtomicInteger decodeCount = new AtomicInteger();
+    private final IntFunction<ArrayBucket> loader = descriptor -> {
+        decodeCount.incrementAndGet();
+        return new ArrayBucket(new int[] { descriptor }, new int[] { 0 }, new int[38]);
+    };
+
+    @Test
+    void whenRequestingTwice_thenDecodedOnce() {
+        BucketCache bucketCache = new BucketCache(10 * BUCKET_WEIGHT);
+        ArrayBucket first = bucketCache.get(1, loader);
+        ArrayBucket second = bucketCache.get(1, loader);
+
+        assertEquals(1, decodeCount.get());
+        assertEquals(1, bucketCache.getMissCount());
+        assertEquals(1, bucketCache.getHitCount());
+        // buckets have iteration state and must not be shared, their data is
+        assertNotSame(first, second);
+        assertSame(first.getIdentifierDataArray(), second.getIdentifierDataArray());
+        assertEquals(BUCKET_WEIGHT, bucketCache.getWeight());
+    }
+
+    @Test
+    void whenFull_thenEvictLeastFrequentlyUsed() {
+        BucketCache bucketCache = new BucketCache(2 * BUCKET_WEIGHT);
+        for (int i = 0; i < 3; i++) {
+            bucketCache.get(1, loader);
+        }
+        bucketCache.get(2, loader);
+        bucketCache.get(2, loader);
+        // more popular than 2 after the 2nd access
+        bucketCache.get(3, loader);
+        bucketCache.get(3, loader);
+        bucketCache.get(3, loader);
+
+        assertEquals(2, bucketCache.getSize());
+        assertEquals(1, bucketCache.getEvictionCount());
+        decodeCount.set(0);
+        bucketCache.get(1, loader);
+        bucketCache.get(3, loader);
+        assertEquals(0, decodeCount.get());
+    }
+
+    @Test
+    void whenFilledWithManyEntries_thenBoundedAndFrequentEntriesKept() {
+        int capacity = 1_000;
+        BucketCache bucketCache = new BucketCache(capacity * BUCKET_WEIGHT);
+        int hotCount = 10;
+        for (int i = 0; i < 20; i++) {
+            for (int descriptor = 0; descriptor < hotCount; descriptor++) {
+                bucketCache.get(descriptor, loader);
+            }
+        }
+        // requested once each, far more than fit
+        for (int descriptor = hotCount; descriptor < 50 * capacity; descriptor++) {
+            bucketCache.get(descriptor, loader);
+        }
+
+        assertEquals(capacity, bucketCache.getSize());
+        assertEquals(capacity * BUCKET_WEIGHT, bucketCache.getWeight());
+        assertEquals(50 * capacity - capacity, bucketCache.getEvictionCount());
+        decodeCount.set(0);
+        for (int descriptor = 0; descriptor < hotCount; descriptor++) {
+            bucketCache.get(descriptor, loader);
+        }
+        assertEquals(0, decodeCount.get());
+    }
+
+    @Test
+    void whenRareEntry_thenNotAdmitted() {
+        BucketCache bucketCache = new BucketCache(BUCKET_WEIGHT);
+        bucketCache.get(1, loader);
+        bucketCache.get(1, loader);
+        bucketCache.get(2, loader);
+
+        assertEquals(1, bucketCache.getSize());
+        assertEquals(0, bucketCache.getEvictionCount());
+        decodeCount.set(0);
+        bucketCache.get(1, loader);
+        assertEquals(0, decodeCount.get());
+    }
+
+    @Test
+    void whenConcurrentRequests_thenSingleDecode() throws Exception {
+        BucketCache bucketCache = new BucketCache(10 * BUCKET_WEIGHT);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        IntFunction<ArrayBucket> slowLoader = descriptor -> {
+            started.countDown();
+            try {
+                assertTrue(release.await(10, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return loader.apply(descriptor);
+        };
+
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<ArrayBucket>> futures = new ArrayList<>();
+            futures.add(executorService.submit(() -> bucketCache.get(1, slowLoader)));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < 3; i++) {
+                futures.add(executorService.submit(() -> bucketCache.get(1, slowLoader)));
+            }
+            release.countDown();
+            for (Future<ArrayBucket> future : futures) {
+                assertEquals(1, future.get().getStructureIndexArray()[0]);
+            }
+        } finally {
+            executorService.shutdown();
+        }
+
+        assertEquals(1, decodeCount.get());
+        assertEquals(1, bucketCache.getMissCount());
+        assertEquals(3, bucketCache.getHitCount());
+    }
+
+    @Test
+    void whenInvalidated_thenDecodedAgain() {
+        BucketCache bucketCache = new BucketCache(10 * BUCKET_WEIGHT);
+        bucketCache.get(1, loader);
+        bucketCache.invalidate();
+        assertEquals(0, bucketCache.getSize());
+        assertEquals(0, bucketCache.getWeight());
+
+        bucketCache.get(1, loader);
+        assertEquals(2, decodeCount.get());
+    }
+
+    @Test
+    void whenLoadFinishesAfterInvalidation_thenNotAdmitted() {
+        BucketCache bucketCache = new BucketCache(10 * BUCKET_WEIGHT);
+        long generation = bucketCache.getGeneration();
+        // files are replaced while the bucket is decoded
+        bucketCache.get(generation, 1, null, descriptor -> {
+            bucketCache.invalidate(generation + 1);
+            return loader.apply(descriptor);
+        });
+        assertEquals(0, bucketCache.getSize());
+
+        // readers of the replaced files neither see nor populate the cache of the new ones
+        bucketCache.get(generation + 1, 1, null, loader);
+        assertNull(bucketCache.getIfPresent(generation, 1, null));
+        bucketCache.get(generation, 1, null, loader);
+        assertEquals(1, bucketCache.getSize());
+        assertEquals(3, decodeCount.get());
+
+        bucketCache.get(generation + 1, 1, null, loader);
+        assertEquals(3, decodeCount.get());
+    }
+}
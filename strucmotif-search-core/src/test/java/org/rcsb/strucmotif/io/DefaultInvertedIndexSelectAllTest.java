@@ -0,0 +1,128 @@
+package org.rcsb.strucmotif.io;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.rcsb.ffindex.FileBundleIO;
+import org.rcsb.ffindex.WritableFileBundle;
+import org.rcsb.strucmotif.config.InvertedIndexBackend;
+import org.rcsb.strucmotif.config.StrucmotifConfig;
+import org.rcsb.strucmotif.domain.bucket.ArrayBucket;
+import org.rcsb.strucmotif.domain.bucket.Bucket;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.function.IntPredicate;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DefaultInvertedIndexSelectAllTest {
+    private static final int DESCRIPTOR_COUNT = 50;
+    private Path path;
+    private DefaultInvertedIndex invertedIndex;
+
+    @BeforeEach
+    public void init() throws IOException {
+        this.path = Files.createTempDirectory("strucmotif-index-tests-");
+    }
+
+    @AfterEach
+    public void teardown() throws IOException {
+        if (invertedIndex != null) {
+            invertedIndex.tearDown();
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            paths.sorted(Comparator.reverseOrder())
+                    .map(Path::toFile)
+                    .forEach(File::delete);
+        }
+    }
+
+    private DefaultInvertedIndex createIndex(InvertedIndexBackend backend, long bucketCacheSize) throws IOException {
+        StrucmotifConfig strucmotifConfig = new StrucmotifConfig();
+        strucmotifConfig.setRootPath(path.toString());
+        strucmotifConfig.setInvertedIndexBackend(backend);
+        strucmotifConfig.setBucketCacheSize(bucketCacheSize);
+
+        Random random = new Random(42);
+        try (WritableFileBundle fileBundle = FileBundleIO.openBundle(path.resolve(StrucmotifConfig.INDEX + StrucmotifConfig.DATA_EXT), path.resolve(StrucmotifConfig.INDEX + StrucmotifConfig.INDEX_EXT)).inWriteOnlyMode()) {
+            // write in reverse order so that descriptor order and file order differ
+            for (int descriptor = DESCRIPTOR_COUNT - 1; descriptor >= 0; descriptor--) {
+                int structureCount = 1 + random.nextInt(20);
+                int[] structureIndices = new int[structureCount];
+                int[] positionOffsets = new int[structureCount];
+                int offset = 0;
+                for (int i = 0; i < structureCount; i++) {
+                    structureIndices[i] = 3 * i + descriptor;
+                    positionOffsets[i] = offset;
+                    offset += 2 * (1 + random.nextInt(4));
+                }
+                int[] identifierData = random.ints(offset, 0, 500).toArray();
+                fileBundle.writeFile(descriptor + backend.getExtension(), backend.getBucketCodec().encode(new ArrayBucket(structureIndices, positionOffsets, identifierData)));
+            }
+        }
+
+        this.invertedIndex = new DefaultInvertedIndex(strucmotifConfig);
+        invertedIndex.setUp();
+        return invertedIndex;
+    }
+
+    @Test
+    void whenSelectingAll_thenContentMatchesIndividualSelects() throws IOException {
+        assertSelectAllMatches(createIndex(InvertedIndexBackend.COLFER, 0));
+    }
+
+    @Test
+    void whenSelectingAllWithPackedBackend_thenContentMatchesIndividualSelects() throws IOException {
+        assertSelectAllMatches(createIndex(InvertedIndexBackend.PACKED, 0));
+    }
+
+    @Test
+    void whenSelectingAllWithCache_thenContentMatchesIndividualSelects() throws IOException {
+        DefaultInvertedIndex invertedIndex = createIndex(InvertedIndexBackend.COLFER, 1024 * 1024);
+        assertSelectAllMatches(invertedIndex);
+        // second pass is served from the cache
+        assertSelectAllMatches(invertedIndex);
+        assertTrue(invertedIndex.getBucketCache().orElseThrow().getHitCount() > 0);
+    }
+
+    private void assertSelectAllMatches(DefaultInvertedIndex invertedIndex) {
+        // unknown and duplicated descriptors, arbitrary order
+        int[] descriptors = new int[] { 7, 3, DESCRIPTOR_COUNT + 1, 42, 0, 7, 19, DESCRIPTOR_COUNT - 1, 20, 21 };
+        IntPredicate structureFilter = structureIndex -> structureIndex % 2 == 0;
+        Bucket[] buckets = invertedIndex.selectAll(descriptors, structureFilter);
+        assertEquals(descriptors.length, buckets.length);
+        assertSame(ArrayBucket.EMPTY_BUCKET, buckets[2]);
+        for (int i = 0; i < descriptors.length; i++) {
+            assertContentEquals(invertedIndex.select(descriptors[i], structureFilter), buckets[i]);
+        }
+
+        Bucket[] unfiltered = invertedIndex.selectAll(descriptors);
+        for (int i = 0; i < descriptors.length; i++) {
+            assertContentEquals(invertedIndex.select(descriptors[i]), unfiltered[i]);
+        }
+    }
+
+    private void assertContentEquals(Bucket expected, Bucket actual) {
+        while (expected.hasNextStructure()) {
+            expected.moveStructure();
+            actual.moveStructure();
+            assertEquals(expected.getStructureIndex(), actual.getStructureIndex());
+            while (expected.hasNextOccurrence()) {
+                expected.moveOccurrence();
+                actual.moveOccurrence();
+                assertEquals(expected.getResiduePairIdentifier(), actual.getResiduePairIdentifier());
+            }
+            assertFalse(actual.hasNextOccurrence());
+        }
+        assertFalse(actual.hasNextStructure());
+    }
+}
@@ -7,6 +7,7 @@ import org.rcsb.ffindex.ReadableFileBundle;
 import org.rcsb.strucmotif.Helpers;
 import org.rcsb.strucmotif.config.StrucmotifConfig;
 import org.rcsb.strucmotif.domain.bucket.ArrayBucket;
+import org.rcsb.strucmotif.domain.bucket.Bucket;
 import org.rcsb.strucmotif.domain.motif.AngleType;
 import org.rcsb.strucmotif.domain.motif.DistanceType;
 import org.rcsb.strucmotif.domain.motif.ResiduePairDescriptor;
@@ -16,7 +17,6 @@ import org.rcsb.strucmotif.io.codec.ColferCodec;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 
-import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 class DefaultInvertedIndexTest {
@@ -29,14 +29,14 @@ class DefaultInvertedIndexTest {
         ColferCodec bucketCodec = new ColferCodec();
         invertedIndex = new DefaultInvertedIndex(strucmotifConfig) {
             @Override
-            public ArrayBucket select(int residuePairDescriptor) {
+            public Bucket select(int residuePairDescriptor) {
                 String filename = residuePairDescriptor + ".colf";
                 if (!fileBundle.containsFile(filename)) {
                     return ArrayBucket.EMPTY_BUCKET;
                 }
 
                 try {
-                    return bucketCodec.decode(fileBundle.readFile(filename));
+                    return bucketCodec.view(fileBundle.readFile(filename));
                 } catch (IOException e) {
                     throw new UncheckedIOException(e);
                 }
@@ -51,7 +51,7 @@ class DefaultInvertedIndexTest {
             AngleType.A80);
     @Test
     void whenAccessingSpecificBin_thenObserveAssemblies() {
-        ArrayBucket bucket = invertedIndex.select(BIN_WITH_ASSEMBLY);
+        Bucket bucket = invertedIndex.select(BIN_WITH_ASSEMBLY);
         int structures = 0;
         int occurrences = 0;
         while (bucket.hasNextStructure()) {
@@ -68,10 +68,21 @@ class DefaultInvertedIndexTest {
 
     @Test
     void whenSelectingByFlippedDescriptor_thenContentMatchesOriginal() {
-        ArrayBucket original = invertedIndex.select(BIN_WITH_ASSEMBLY);
-        ArrayBucket flipped = invertedIndex.select(BIN_WITH_ASSEMBLY & ~(1 << 28));
-        assertArrayEquals(original.getStructureIndexArray(), flipped.getStructureIndexArray());
-        assertArrayEquals(original.getPositionOffsetArray(), flipped.getPositionOffsetArray());
-        assertArrayEquals(original.getIdentifierDataArray(), flipped.getIdentifierDataArray());
+        Bucket original = invertedIndex.select(BIN_WITH_ASSEMBLY);
+        Bucket flipped = invertedIndex.select(BIN_WITH_ASSEMBLY & ~(1 << 28));
+        assertEquals(original.getStructureCount(), flipped.getStructureCount());
+        assertEquals(original.getResiduePairCount(), flipped.getResiduePairCount());
+        while (original.hasNextStructure()) {
+            original.moveStructure();
+            flipped.moveStructure();
+            assertEquals(original.getStructureIndex(), flipped.getStructureIndex());
+            assertEquals(original.getStartPosition(), flipped.getStartPosition());
+            assertEquals(original.getEndPosition(), flipped.getEndPosition());
+            while (original.hasNextOccurrence()) {
+                original.moveOccurrence();
+                flipped.moveOccurrence();
+                assertEquals(original.getResiduePairIdentifier(), flipped.getResiduePairIdentifier());
+            }
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,167 @@
+package org.rcsb.strucmotif.io;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.rcsb.ffindex.FileBundleIO;
+import org.rcsb.ffindex.WritableFileBundle;
+import org.rcsb.strucmotif.config.InvertedIndexBackend;
+import org.rcsb.strucmotif.config.StrucmotifConfig;
+import org.rcsb.strucmotif.domain.bucket.ArrayBucket;
+import org.rcsb.strucmotif.domain.bucket.Bucket;
+import org.rcsb.strucmotif.domain.bucket.StructureIndexBitmap;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DefaultInvertedIndexTombstoneTest {
+    private Path path;
+    private StrucmotifConfig strucmotifConfig;
+    private DefaultInvertedIndex invertedIndex;
+
+    @BeforeEach
+    public void init() throws IOException {
+        this.path = Files.createTempDirectory("strucmotif-index-tests-");
+        this.strucmotifConfig = new StrucmotifConfig();
+        strucmotifConfig.setRootPath(path.toString());
+        strucmotifConfig.setInvertedIndexBackend(InvertedIndexBackend.PACKED);
+
+        try (WritableFileBundle fileBundle = FileBundleIO.openBundle(path.resolve(StrucmotifConfig.INDEX + StrucmotifConfig.DATA_EXT), path.resolve(StrucmotifConfig.INDEX + StrucmotifConfig.INDEX_EXT)).inWriteOnlyMode()) {
+            // descriptor 1: structure 7 is a small part
+            fileBundle.writeFile(1 + InvertedIndexBackend.PACKED.getExtension(), InvertedIndexBackend.PACKED.getBucketCodec().encode(new ArrayBucket(new int[] { 3, 5, 7 },
+                    new int[] { 0, 8, 16 },
+                    new int[] { 1, 2, 3, 4, 5, 6, 7, 8, 1, 2, 3, 4, 5, 6, 7, 8, 1, 2 })));
+            // descriptor 2: structure 7 dominates
+            fileBundle.writeFile(2 + InvertedIndexBackend.PACKED.getExtension(), InvertedIndexBackend.PACKED.getBucketCodec().encode(new ArrayBucket(new int[] { 5, 7 },
+                    new int[] { 0, 4 },
+                    new int[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 })));
+            // descriptor 3: only structure 7
+            fileBundle.writeFile(3 + InvertedIndexBackend.PACKED.getExtension(), InvertedIndexBackend.PACKED.getBucketCodec().encode(new ArrayBucket(new int[] { 7 },
+                    new int[] { 0 },
+                    new int[] { 1, 2 })));
+        }
+
+        this.invertedIndex = new DefaultInvertedIndex(strucmotifConfig);
+        invertedIndex.setUp();
+    }
+
+    @AfterEach
+    public void teardown() throws IOException {
+        invertedIndex.tearDown();
+        try (Stream<Path> paths = Files.walk(path)) {
+            paths.sorted(Comparator.reverseOrder())
+                    .map(Path::toFile)
+                    .forEach(File::delete);
+        }
+    }
+
+    @Test
+    void whenDeleting_thenStructureNotReported() throws IOException {
+        long size = Files.size(path.resolve(StrucmotifConfig.INDEX + StrucmotifConfig.DATA_EXT));
+        // written by hand, so there are no bitmaps
+        assertTrue(invertedIndex.selectStructureIndices(1).isEmpty());
+        invertedIndex.delete(List.of(7));
+
+        // no rewrite
+        assertEquals(size, Files.size(path.resolve(StrucmotifConfig.INDEX + StrucmotifConfig.DATA_EXT)));
+        assertEquals(Set.of(3, 5), structureIndices(invertedIndex.select(1)));
+        assertEquals(Set.of(5), structureIndices(invertedIndex.select(2, structureIndex -> true)));
+        assertEquals(Set.of(), structureIndices(invertedIndex.selectAll(new int[] { 3 })[0]));
+        assertEquals(Set.of(3, 5), invertedIndex.reportKnownKeys());
+
+        // tombstones survive reinitialization
+        invertedIndex.tearDown();
+        this.invertedIndex = new DefaultInvertedIndex(strucmotifConfig);
+        invertedIndex.setUp();
+        assertEquals(Set.of(3, 5), structureIndices(invertedIndex.select(1)));
+    }
+
+    @Test
+    void whenCompacting_thenOnlyBucketsAboveThresholdRewritten() {
+        invertedIndex.delete(List.of(7));
+        invertedIndex.compact();
+
+        // below threshold: data still present but filtered
+        assertEquals(Set.of(3, 5), structureIndices(invertedIndex.select(1)));
+        assertEquals(3, invertedIndex.getDescriptorStatistics().getStructureCount(1));
+        // above threshold: rewritten
+        assertEquals(Set.of(5), structureIndices(invertedIndex.select(2)));
+        assertEquals(1, invertedIndex.getDescriptorStatistics().getStructureCount(2));
+        // empty: removed
+        assertFalse(invertedIndex.reportKnownDescriptors().contains(3));
+        assertTrue(Files.exists(path.resolve(StrucmotifConfig.INDEX + StrucmotifConfig.TOMBSTONES_EXT)));
+        // bitmaps reflect the rewritten index
+        assertEquals(Set.of(3, 5, 7), structureIndices(invertedIndex.selectStructureIndices(1).orElseThrow()));
+        assertEquals(Set.of(5), structureIndices(invertedIndex.selectStructureIndices(2, 3).orElseThrow()));
+    }
+
+    @Test
+    void whenNoDeletedDataRemains_thenTombstonesDropped() {
+        invertedIndex.delete(List.of(5, 9));
+        invertedIndex.compact();
+
+        // structure 9 never was part of the index, structure 5 is purged from all buckets
+        assertEquals(Set.of(3, 7), structureIndices(invertedIndex.select(1)));
+        assertEquals(Set.of(7), structureIndices(invertedIndex.select(2)));
+        assertFalse(Files.exists(path.resolve(StrucmotifConfig.INDEX + StrucmotifConfig.TOMBSTONES_EXT)));
+    }
+
+    @Test
+    void whenCompacting_thenUnaffectedDataStaysInPlace() throws IOException {
+        Path dataPath = path.resolve(StrucmotifConfig.INDEX + StrucmotifConfig.DATA_EXT);
+        byte[] before = Files.readAllBytes(dataPath);
+        invertedIndex.delete(List.of(7));
+        invertedIndex.compact();
+
+        // rewritten bucket is appended, nothing else is touched
+        byte[] after = Files.readAllBytes(dataPath);
+        assertTrue(after.length > before.length);
+        assertArrayEquals(before, Arrays.copyOf(after, before.length));
+
+        // relocation survives reinitialization
+        invertedIndex.tearDown();
+        this.invertedIndex = new DefaultInvertedIndex(strucmotifConfig);
+        invertedIndex.setUp();
+        assertEquals(Set.of(1, 2), invertedIndex.reportKnownDescriptors());
+        assertEquals(Set.of(3, 5), structureIndices(invertedIndex.select(1)));
+        assertEquals(Set.of(5), structureIndices(invertedIndex.selectAll(new int[] { 2 })[0]));
+    }
+
+    @Test
+    void whenCompactingWhileReading_thenPreviousViewsRemainValid() {
+        Bucket before = invertedIndex.selectAll(new int[] { 2 })[0];
+        invertedIndex.delete(List.of(7));
+        invertedIndex.compact();
+
+        // the replaced files are closed, views of them are still intact
+        assertEquals(Set.of(5, 7), structureIndices(before));
+        assertEquals(Set.of(5), structureIndices(invertedIndex.selectAll(new int[] { 2 })[0]));
+    }
+
+    private Set<Integer> structureIndices(StructureIndexBitmap bitmap) {
+        return Arrays.stream(bitmap.toArray()).boxed().collect(Collectors.toSet());
+    }
+
+    private Set<Integer> structureIndices(Bucket bucket) {
+        Set<Integer> out = new HashSet<>();
+        while (bucket.hasNextStructure()) {
+            bucket.moveStructure();
+            out.add(bucket.getStructureIndex());
+        }
+        return out;
+    }
+}
@@ -0,0 +1,38 @@
+package org.rcsb.strucmotif.io;
+
+import org.junit.jupiter.api.Test;
+import org.rcsb.strucmotif.domain.bucket.StructureIndexBitmap;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DescriptorBitmapsTest {
+    @Test
+    void whenRoundTripping_thenBitmapsMatch() throws IOException {
+        Path path = Files.createTempFile("strucmotif-bitmaps-", ".bitmaps");
+        try {
+            try (DescriptorBitmaps.Writer writer = new DescriptorBitmaps.Writer(path)) {
+                writer.add(42, StructureIndexBitmap.of(new int[] { 1, 5, 100000 }));
+                writer.add(7, StructureIndexBitmap.of(new int[] { 5 }));
+                writer.add(8, StructureIndexBitmap.EMPTY);
+                assertTrue(writer.contains(7));
+            }
+
+            try (DescriptorBitmaps descriptorBitmaps = DescriptorBitmaps.open(path)) {
+                assertEquals(3, descriptorBitmaps.size());
+                assertArrayEquals(new int[] { 1, 5, 100000 }, descriptorBitmaps.get(42).toArray());
+                assertArrayEquals(new int[] { 5 }, descriptorBitmaps.get(7).toArray());
+                assertTrue(descriptorBitmaps.get(8).isEmpty());
+                assertNull(descriptorBitmaps.get(9));
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+}
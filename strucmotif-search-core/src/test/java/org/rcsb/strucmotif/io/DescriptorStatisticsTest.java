@@ -0,0 +1,69 @@
+package org.rcsb.strucmotif.io;
+
+import org.junit.jupiter.api.Test;
+import org.rcsb.strucmotif.domain.motif.AngleType;
+import org.rcsb.strucmotif.domain.motif.DistanceType;
+import org.rcsb.strucmotif.domain.motif.ResiduePairDescriptor;
+import org.rcsb.strucmotif.domain.motif.ResiduePairOccurrence;
+import org.rcsb.strucmotif.domain.structure.ResidueType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToLongFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DescriptorStatisticsTest {
+    private static final ResiduePairOccurrence ASP_HIS = new ResiduePairOccurrence(0, 1, ResidueType.ASPARTIC_ACID, ResidueType.HISTIDINE, DistanceType.D7, DistanceType.D6, AngleType.A40);
+
+    @Test
+    void whenRoundTripping_thenCountsMatch() throws IOException {
+        DescriptorStatistics descriptorStatistics = new DescriptorStatistics(Map.of(42, new DescriptorStatistics.Count(3, 10),
+                7, new DescriptorStatistics.Count(1, 1)));
+        Path path = Files.createTempFile("strucmotif-statistics-", ".stats");
+        try {
+            descriptorStatistics.write(path);
+            DescriptorStatistics read = DescriptorStatistics.read(path);
+
+            assertEquals(2, read.size());
+            assertEquals(new DescriptorStatistics.Count(3, 10), read.getCount(42));
+            assertEquals(1, read.getStructureCount(7));
+            assertEquals(1, read.getResiduePairCount(7));
+            assertNull(read.getCount(8));
+            assertEquals(0, read.getResiduePairCount(8));
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    void whenEmpty_thenStaticCosts() {
+        assertTrue(DescriptorStatistics.EMPTY.isEmpty());
+        assertSame(ResiduePairOccurrence.STATIC_COST, DescriptorStatistics.EMPTY.costFunction(1, 1, 1, Map.of()));
+    }
+
+    @Test
+    void whenTolerant_thenCostsOfAllCompatibleDescriptorsSummedUp() {
+        int exact = ASP_HIS.getResiduePairDescriptor();
+        int shorter = ResiduePairDescriptor.encodeDescriptor(ResidueType.ASPARTIC_ACID.ordinal(), ResidueType.HISTIDINE.ordinal(), DistanceType.D6.ordinal(), DistanceType.D6.ordinal(), AngleType.A40.ordinal());
+        int exchanged = ResiduePairDescriptor.encodeDescriptor(ResidueType.ASPARTIC_ACID.ordinal(), ResidueType.LYSINE.ordinal(), DistanceType.D7.ordinal(), DistanceType.D6.ordinal(), AngleType.A40.ordinal());
+        DescriptorStatistics descriptorStatistics = new DescriptorStatistics(Map.of(exact, new DescriptorStatistics.Count(2, 100),
+                shorter, new DescriptorStatistics.Count(2, 20),
+                exchanged, new DescriptorStatistics.Count(2, 3)));
+
+        ToLongFunction<ResiduePairOccurrence> exactCosts = descriptorStatistics.costFunction(0, 0, 0, Map.of());
+        assertEquals(100, exactCosts.applyAsLong(ASP_HIS));
+
+        ToLongFunction<ResiduePairOccurrence> tolerantCosts = descriptorStatistics.costFunction(1, 0, 0, Map.of());
+        assertEquals(120, tolerantCosts.applyAsLong(ASP_HIS));
+
+        ToLongFunction<ResiduePairOccurrence> exchangeCosts = descriptorStatistics.costFunction(0, 0, 0, Map.of(1, Set.of(ResidueType.HISTIDINE, ResidueType.LYSINE)));
+        assertEquals(103, exchangeCosts.applyAsLong(ASP_HIS));
+    }
+}
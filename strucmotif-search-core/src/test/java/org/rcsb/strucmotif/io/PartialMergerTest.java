@@ -0,0 +1,133 @@
+package org.rcsb.strucmotif.io;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.rcsb.strucmotif.domain.bucket.ArrayBucket;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PartialMergerTest {
+    private static final int THREAD_COUNT = 3;
+    private Path path;
+    private List<Path> partials;
+    // key: descriptor, value: expected content (structure index & identifiers)
+    private Map<Integer, Map<Integer, List<Long>>> expected;
+
+    @BeforeEach
+    public void init() throws IOException {
+        this.path = Files.createTempDirectory("strucmotif-merge-tests-");
+        this.partials = new ArrayList<>();
+        this.expected = new TreeMap<>();
+
+        Random random = new Random(42);
+        int structureIndex = 0;
+        for (int thread = 0; thread < THREAD_COUNT; thread++) {
+            Path partial = path.resolve("index." + thread + "-AB.wip");
+            try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(partial)))) {
+                for (int structure = 0; structure < 40; structure++) {
+                    // each structure writes its descriptors in ascending order
+                    int[] descriptors = random.ints(1 + random.nextInt(10), 0, 30).distinct().sorted().toArray();
+                    for (int descriptor : descriptors) {
+                        outputStream.writeInt(structureIndex | 1 << 31);
+                        outputStream.writeInt(descriptor);
+                        List<Long> identifiers = new ArrayList<>();
+                        for (int i = 0; i < 1 + random.nextInt(4); i++) {
+                            long identifier = (long) random.nextInt(1000) << 32 | random.nextInt(1000);
+                            outputStream.writeLong(identifier);
+                            identifiers.add(identifier);
+                        }
+                        expected.computeIfAbsent(descriptor, d -> new TreeMap<>()).put(structureIndex, identifiers);
+                    }
+                    structureIndex++;
+                }
+            }
+            partials.add(partial);
+        }
+    }
+
+    @AfterEach
+    public void teardown() throws IOException {
+        try (Stream<Path> paths = Files.walk(path)) {
+            paths.sorted(Comparator.reverseOrder())
+                    .map(Path::toFile)
+                    .forEach(File::delete);
+        }
+    }
+
+    @Test
+    void whenFittingIntoMemory_thenAllDescriptorsMergedInOrder() throws IOException {
+        assertMerged(Long.MAX_VALUE);
+    }
+
+    @Test
+    void whenExceedingMemory_thenSpilledChunksMergedInOrder() throws IOException {
+        assertMerged(256);
+        // spilled chunks are removed
+        try (Stream<Path> paths = Files.list(path)) {
+            assertEquals(THREAD_COUNT, paths.count());
+        }
+    }
+
+    @Test
+    void whenStructureWrittenTwice_thenLastOccurrenceKept() throws IOException {
+        Path partial = path.resolve("index.3-AB.wip");
+        try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(partial)))) {
+            outputStream.writeInt(1000 | 1 << 31);
+            outputStream.writeInt(7);
+            outputStream.writeLong(1L << 32 | 2);
+            // retry of the same structure
+            outputStream.writeInt(1000 | 1 << 31);
+            outputStream.writeInt(7);
+            outputStream.writeLong(3L << 32 | 4);
+            outputStream.writeLong(5L << 32 | 6);
+        }
+
+        List<ArrayBucket> buckets = new ArrayList<>();
+        new PartialMerger(path, "AB", Long.MAX_VALUE).merge(List.of(partial), (descriptor, bucket) -> buckets.add(bucket));
+        assertEquals(1, buckets.size());
+        assertArrayEquals(new int[] { 1000 }, buckets.get(0).getStructureIndexArray());
+        assertArrayEquals(new int[] { 0 }, buckets.get(0).getPositionOffsetArray());
+        assertArrayEquals(new int[] { 3, 4, 5, 6 }, buckets.get(0).getIdentifierDataArray());
+    }
+
+    private void assertMerged(long memoryBudget) throws IOException {
+        List<Integer> descriptors = new ArrayList<>();
+        Map<Integer, Map<Integer, List<Long>>> actual = new TreeMap<>();
+        new PartialMerger(path, "AB", memoryBudget).merge(partials, (descriptor, bucket) -> {
+            descriptors.add(descriptor);
+            Map<Integer, List<Long>> content = new TreeMap<>();
+            while (bucket.hasNextStructure()) {
+                bucket.moveStructure();
+                List<Long> identifiers = new ArrayList<>();
+                while (bucket.hasNextOccurrence()) {
+                    bucket.moveOccurrence();
+                    identifiers.add(bucket.getResiduePairIdentifier());
+                }
+                content.put(bucket.getStructureIndex(), identifiers);
+            }
+            actual.put(descriptor, content);
+        });
+
+        for (int i = 1; i < descriptors.size(); i++) {
+            assertTrue(descriptors.get(i - 1) < descriptors.get(i), "descriptors must be reported once, in ascending order");
+        }
+        assertEquals(expected, actual);
+    }
+}
@@ -0,0 +1,119 @@
+package org.rcsb.strucmotif.io;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.rcsb.strucmotif.config.InvertedIndexBackend;
+import org.rcsb.strucmotif.config.StrucmotifConfig;
+import org.rcsb.strucmotif.domain.bucket.Bucket;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardedInvertedIndexTest {
+    private Path path;
+    private StrucmotifConfig strucmotifConfig;
+    private ShardedInvertedIndex invertedIndex;
+
+    @BeforeEach
+    public void init() throws IOException {
+        this.path = Files.createTempDirectory("strucmotif-shard-tests-");
+        this.strucmotifConfig = new StrucmotifConfig();
+        strucmotifConfig.setRootPath(path.toString());
+        strucmotifConfig.setInvertedIndexBackend(InvertedIndexBackend.PACKED);
+        strucmotifConfig.setIndexShards(2);
+
+        this.invertedIndex = new ShardedInvertedIndex(strucmotifConfig);
+        invertedIndex.setUp();
+
+        // structures 0-5, descriptor 1 occurs in all, descriptor 2 in odd ones, descriptor 3 only in structure 4
+        try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path.resolve("index.0-AB.wip"))))) {
+            for (int structureIndex = 0; structureIndex < 6; structureIndex++) {
+                write(outputStream, structureIndex, 1);
+                if (structureIndex % 2 == 1) {
+                    write(outputStream, structureIndex, 2);
+                }
+                if (structureIndex == 4) {
+                    write(outputStream, structureIndex, 3);
+                }
+            }
+        }
+        invertedIndex.commit();
+    }
+
+    private void write(DataOutputStream outputStream, int structureIndex, int descriptor) throws IOException {
+        outputStream.writeInt(structureIndex | 1 << 31);
+        outputStream.writeInt(descriptor);
+        outputStream.writeLong((long) structureIndex << 32 | descriptor);
+    }
+
+    @AfterEach
+    public void teardown() throws IOException {
+        invertedIndex.tearDown();
+        try (Stream<Path> paths = Files.walk(path)) {
+            paths.sorted(Comparator.reverseOrder())
+                    .map(Path::toFile)
+                    .forEach(File::delete);
+        }
+    }
+
+    @Test
+    void whenCommitting_thenStructuresDistributedToShards() {
+        List<InvertedIndex> shards = invertedIndex.getShards();
+        assertEquals(2, shards.size());
+        assertEquals(Set.of(0, 2, 4), shards.get(0).reportKnownKeys());
+        assertEquals(Set.of(1, 3, 5), shards.get(1).reportKnownKeys());
+        // no temporary files remain
+        assertTrue(Files.exists(path.resolve(StrucmotifConfig.SHARD + 0).resolve(StrucmotifConfig.INDEX + StrucmotifConfig.DATA_EXT)));
+        assertFalse(Files.exists(path.resolve("index.0-AB.wip")));
+        assertFalse(Files.exists(path.resolve(StrucmotifConfig.SHARD + 1).resolve("index.0-AB.wip")));
+    }
+
+    @Test
+    void whenSelecting_thenShardsCombined() {
+        assertEquals(Set.of(0, 1, 2, 3, 4, 5), structureIndices(invertedIndex.select(1)));
+        assertEquals(Set.of(1, 3, 5), structureIndices(invertedIndex.select(2)));
+        assertEquals(Set.of(3), structureIndices(invertedIndex.select(2, structureIndex -> structureIndex == 3)));
+        Bucket[] buckets = invertedIndex.selectAll(new int[] { 3, 1 });
+        assertEquals(Set.of(4), structureIndices(buckets[0]));
+        assertEquals(Set.of(0, 1, 2, 3, 4, 5), structureIndices(buckets[1]));
+        assertEquals(Set.of(1, 3, 5), Arrays.stream(invertedIndex.selectStructureIndices(2).orElseThrow().toArray()).boxed().collect(Collectors.toSet()));
+
+        assertEquals(Set.of(1, 2, 3), invertedIndex.reportKnownDescriptors());
+        assertEquals(6, invertedIndex.getDescriptorStatistics().getStructureCount(1));
+        assertEquals(3, invertedIndex.getDescriptorStatistics().getStructureCount(2));
+    }
+
+    @Test
+    void whenDeleting_thenRoutedToShard() {
+        invertedIndex.delete(List.of(3, 4));
+
+        assertEquals(Set.of(0, 1, 2, 5), structureIndices(invertedIndex.select(1)));
+        assertEquals(Set.of(0, 2), invertedIndex.getShards().get(0).reportKnownKeys());
+        assertEquals(Set.of(1, 5), invertedIndex.getShards().get(1).reportKnownKeys());
+    }
+
+    private Set<Integer> structureIndices(Bucket bucket) {
+        Set<Integer> out = new HashSet<>();
+        while (bucket.hasNextStructure()) {
+            bucket.moveStructure();
+            out.add(bucket.getStructureIndex());
+        }
+        return out;
+    }
+}
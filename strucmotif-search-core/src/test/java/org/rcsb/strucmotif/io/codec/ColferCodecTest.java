@@ -0,0 +1,92 @@
+package org.rcsb.strucmotif.io.codec;
+
+import org.junit.jupiter.api.Test;
+import org.rcsb.strucmotif.domain.bucket.ArrayBucket;
+import org.rcsb.strucmotif.domain.bucket.Bucket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class ColferCodecTest {
+    private static final ArrayBucket BUCKET = new ArrayBucket(new int[] { 3, 200, 70000 },
+            new int[] { 0, 4, 6 },
+            new int[] { 1, 2, 300, 4, 5, 6, 1 << 20, 1 << 30, 9, 10 });
+    private final ColferCodec codec = new ColferCodec();
+
+    @Test
+    void whenRoundTripping_thenArraysMatch() throws IOException {
+        ArrayBucket decoded = codec.decode(codec.encode(BUCKET));
+        assertArrayEquals(BUCKET.getStructureIndexArray(), decoded.getStructureIndexArray());
+        assertArrayEquals(BUCKET.getPositionOffsetArray(), decoded.getPositionOffsetArray());
+        assertArrayEquals(BUCKET.getIdentifierDataArray(), decoded.getIdentifierDataArray());
+    }
+
+    @Test
+    void whenViewing_thenContentMatchesDecodedBucket() throws IOException {
+        Bucket view = codec.view(codec.encode(BUCKET));
+        assertEquals(BUCKET.getStructureCount(), view.getStructureCount());
+        assertEquals(BUCKET.getResiduePairCount(), view.getResiduePairCount());
+        assertEquals(Set.of(3, 200, 70000), view.getStructureIndices());
+
+        BUCKET.reset();
+        assertContentEquals(BUCKET, view);
+        // iterators must be reusable
+        BUCKET.reset();
+        view.reset();
+        assertContentEquals(BUCKET, view);
+    }
+
+    @Test
+    void whenSkippingOccurrences_thenNextStructureIsAligned() throws IOException {
+        Bucket view = codec.view(codec.encode(BUCKET));
+        view.moveStructure();
+        view.moveStructure();
+        assertEquals(200, view.getStructureIndex());
+        view.moveOccurrence();
+        assertEquals(5, (int) (view.getResiduePairIdentifier() >>> 32));
+        view.moveStructure();
+        assertEquals(70000, view.getStructureIndex());
+        view.moveOccurrence();
+        assertEquals(1 << 20, (int) (view.getResiduePairIdentifier() >>> 32));
+        assertEquals(1 << 30, (int) view.getResiduePairIdentifier());
+    }
+
+    @Test
+    void whenFiltering_thenOnlyAcceptedStructuresReported() throws IOException {
+        Bucket view = codec.view(codec.encode(BUCKET), structureIndex -> structureIndex != 200);
+        assertEquals(Set.of(3, 70000), view.getStructureIndices());
+        assertContentEquals(new ArrayBucket(BUCKET.getStructureIndexArray(), BUCKET.getPositionOffsetArray(), BUCKET.getIdentifierDataArray(), structureIndex -> structureIndex != 200), view);
+
+        Bucket none = codec.view(codec.encode(BUCKET), structureIndex -> false);
+        assertFalse(none.hasNextStructure());
+    }
+
+    @Test
+    void whenViewingEmptyBucket_thenNoStructures() throws IOException {
+        Bucket view = codec.view(codec.encode(ArrayBucket.EMPTY_BUCKET));
+        assertEquals(0, view.getStructureCount());
+        assertFalse(view.hasNextStructure());
+    }
+
+    private void assertContentEquals(Bucket expected, Bucket actual) {
+        while (expected.hasNextStructure()) {
+            expected.moveStructure();
+            actual.moveStructure();
+            assertEquals(expected.getStructureIndex(), actual.getStructureIndex());
+            assertEquals(expected.getStartPosition(), actual.getStartPosition());
+            assertEquals(expected.getEndPosition(), actual.getEndPosition());
+            while (expected.hasNextOccurrence()) {
+                expected.moveOccurrence();
+                actual.moveOccurrence();
+                assertEquals(expected.getResiduePairIdentifier(), actual.getResiduePairIdentifier());
+            }
+            assertFalse(actual.hasNextOccurrence());
+        }
+        assertFalse(actual.hasNextStructure());
+    }
+}
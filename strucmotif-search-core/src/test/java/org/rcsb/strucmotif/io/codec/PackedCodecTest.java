@@ -0,0 +1,118 @@
+package org.rcsb.strucmotif.io.codec;
+
+import org.junit.jupiter.api.Test;
+import org.rcsb.strucmotif.domain.bucket.ArrayBucket;
+import org.rcsb.strucmotif.domain.bucket.Bucket;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PackedCodecTest {
+    private final PackedCodec codec = new PackedCodec();
+
+    @Test
+    void whenRoundTrippingSmallBucket_thenArraysMatch() {
+        assertRoundTrip(new ArrayBucket(new int[] { 3, 200, 70000 },
+                new int[] { 0, 4, 6 },
+                new int[] { 1, 2, 300, 4, 5, 6, 1 << 20, Integer.MAX_VALUE, 9, 10 }));
+    }
+
+    @Test
+    void whenRoundTrippingEmptyBucket_thenArraysMatch() {
+        assertRoundTrip(ArrayBucket.EMPTY_BUCKET);
+    }
+
+    @Test
+    void whenRoundTrippingMultipleBlocks_thenArraysMatch() {
+        Random random = new Random(42);
+        int structureCount = 3 * PackedCodec.BLOCK_SIZE + 17;
+        int[] structureIndices = new int[structureCount];
+        int[] positionOffsets = new int[structureCount];
+        int offset = 0;
+        int structureIndex = 0;
+        for (int i = 0; i < structureCount; i++) {
+            // not strictly sorted: deltas may be negative
+            structureIndex = Math.max(0, structureIndex + random.nextInt(1000) - 100);
+            structureIndices[i] = structureIndex;
+            positionOffsets[i] = offset;
+            offset += 2 * (1 + random.nextInt(5));
+        }
+        int[] identifierData = new int[offset];
+        for (int i = 0; i < offset; i++) {
+            identifierData[i] = random.nextInt(i % 7 == 0 ? 50000 : 500);
+        }
+        // constant block
+        for (int i = 0; i < PackedCodec.BLOCK_SIZE && i < offset; i++) {
+            identifierData[i] = 42;
+        }
+
+        assertRoundTrip(new ArrayBucket(structureIndices, positionOffsets, identifierData));
+    }
+
+    @Test
+    void whenFiltering_thenOnlyAcceptedDataDecoded() {
+        Random random = new Random(7);
+        int structureCount = 2 * PackedCodec.BLOCK_SIZE;
+        int[] structureIndices = new int[structureCount];
+        int[] positionOffsets = new int[structureCount];
+        int offset = 0;
+        for (int i = 0; i < structureCount; i++) {
+            structureIndices[i] = 5 * i;
+            positionOffsets[i] = offset;
+            offset += 2 * (1 + random.nextInt(3));
+        }
+        int[] identifierData = random.ints(offset, 0, 2000).toArray();
+        ArrayBucket bucket = new ArrayBucket(structureIndices, positionOffsets, identifierData);
+
+        Bucket filtered = codec.view(codec.encode(bucket), structureIndex -> structureIndex % 3 == 0);
+        ArrayBucket expected = new ArrayBucket(structureIndices, positionOffsets, identifierData, structureIndex -> structureIndex % 3 == 0);
+        while (expected.hasNextStructure()) {
+            expected.moveStructure();
+            filtered.moveStructure();
+            assertEquals(expected.getStructureIndex(), filtered.getStructureIndex());
+            assertEquals(expected.getEndPosition() - expected.getStartPosition(), filtered.getEndPosition() - filtered.getStartPosition());
+            while (expected.hasNextOccurrence()) {
+                expected.moveOccurrence();
+                filtered.moveOccurrence();
+                assertEquals(expected.getResiduePairIdentifier(), filtered.getResiduePairIdentifier());
+            }
+        }
+        assertFalse(filtered.hasNextStructure());
+    }
+
+    @Test
+    void whenEncoding_thenSmallerThanColfer() throws Exception {
+        int n = 1000;
+        int[] structureIndices = new int[n];
+        int[] positionOffsets = new int[n];
+        int[] identifierData = new int[4 * n];
+        for (int i = 0; i < n; i++) {
+            structureIndices[i] = 100000 + 3 * i;
+            positionOffsets[i] = 4 * i;
+            identifierData[4 * i] = i % 300;
+            identifierData[4 * i + 1] = i % 300 + 5;
+            identifierData[4 * i + 2] = i % 300 + 11;
+            identifierData[4 * i + 3] = i % 300 + 2;
+        }
+        ArrayBucket bucket = new ArrayBucket(structureIndices, positionOffsets, identifierData);
+
+        int packed = codec.encode(bucket).remaining();
+        int colfer = new ColferCodec().encode(bucket).remaining();
+        assertTrue(packed < colfer, "packed: " + packed + " colfer: " + colfer);
+    }
+
+    private void assertRoundTrip(ArrayBucket bucket) {
+        ByteBuffer encoded = codec.encode(bucket);
+        ArrayBucket decoded = codec.decode(encoded);
+        assertArrayEquals(bucket.getStructureIndexArray(), decoded.getStructureIndexArray());
+        assertArrayEquals(bucket.getPositionOffsetArray(), decoded.getPositionOffsetArray());
+        assertArrayEquals(bucket.getIdentifierDataArray(), decoded.getIdentifierDataArray());
+        assertArrayEquals(bucket.getStructureIndexArray(), codec.structureIndices(encoded));
+        assertEquals(0, encoded.position());
+    }
+}
@@ -4,7 +4,8 @@ import java.util.Arrays;
 import java.util.NoSuchElementException;
 
 /**
- * The possible operations during a strucmotif update ('ADD' structures, 'REMOVE' structures, 'RECOVER').
+ * The possible operations during a strucmotif update ('ADD' structures, 'REMOVE' structures, 'RECOVER',
+ * 'COMPACT').
  */
 public enum Operation {
     /**
@@ -18,7 +19,11 @@ public enum Operation {
     /**
      * Try to recover - this is used when the JVM dies while manipulating the inverted index.
      */
-    RECOVER;
+    RECOVER,
+    /**
+     * Physically remove data of deleted structures from the inverted index.
+     */
+    COMPACT;
 
     /**
      * Map from string to Operation enum.
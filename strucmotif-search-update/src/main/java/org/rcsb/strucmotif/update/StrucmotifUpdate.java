@@ -158,6 +158,7 @@ public class StrucmotifUpdate implements CommandLineRunner {
             case ADD -> add(new Context(strucmotifConfig, getDeltaPlusIdentifiers(requested)));
             case REMOVE -> remove(getDeltaMinusIdentifiers(requested));
             case RECOVER -> recover(stateRepository.selectDirty());
+            case COMPACT -> compact();
         }
 
         // ensure no partial files files
@@ -434,6 +435,15 @@ public class StrucmotifUpdate implements CommandLineRunner {
         logger.info("Finished removal operation");
     }
 
+    /**
+     * 'COMPACT' operation.
+     */
+    public void compact() {
+        logger.info("Compacting inverted index");
+        invertedIndex.compact();
+        logger.info("Finished compaction operation");
+    }
+
     /**
      * Reports all structures currently present in the PDB archive.
      * @param mode what data (pdb/csm) to include
@@ -608,8 +618,24 @@ public class StrucmotifUpdate implements CommandLineRunner {
     }
 
     private void deletePartialFiles() throws IOException {
-        try (Stream<Path> paths = Files.list(Paths.get(strucmotifConfig.getRootPath()))) {
-            paths.filter(p -> p.getFileName().toString().startsWith(StrucmotifConfig.INDEX) && p.getFileName().endsWith(StrucmotifConfig.TMP_EXT))
+        Path rootPath = Paths.get(strucmotifConfig.getRootPath());
+        deletePartialFiles(rootPath);
+
+        // partial files are moved to shards during commit, a failed commit may leave them there
+        int indexShards = strucmotifConfig.getIndexShards();
+        if (indexShards > 1) {
+            for (int shard = 0; shard < indexShards; shard++) {
+                Path shardPath = rootPath.resolve(StrucmotifConfig.SHARD + shard);
+                if (Files.isDirectory(shardPath)) {
+                    deletePartialFiles(shardPath);
+                }
+            }
+        }
+    }
+
+    private void deletePartialFiles(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            paths.filter(p -> p.getFileName().toString().startsWith(StrucmotifConfig.INDEX) && p.getFileName().toString().endsWith(StrucmotifConfig.TMP_EXT))
                 .map(Path::toFile)
                 .forEach(File::delete);
         }
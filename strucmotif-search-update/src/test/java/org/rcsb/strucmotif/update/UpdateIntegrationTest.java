@@ -3,9 +3,23 @@ package org.rcsb.strucmotif.update;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.rcsb.strucmotif.align.QuaternionAlignmentService;
 import org.rcsb.strucmotif.config.InvertedIndexBackend;
 import org.rcsb.strucmotif.config.StrucmotifConfig;
+import org.rcsb.strucmotif.core.DefaultStrucmotifRuntime;
+import org.rcsb.strucmotif.core.DefaultTargetAssembler;
+import org.rcsb.strucmotif.core.KruskalMotifPruner;
+import org.rcsb.strucmotif.core.NoOperationMotifPruner;
+import org.rcsb.strucmotif.core.QueryMemoryExceededException;
+import org.rcsb.strucmotif.core.StrucmotifRuntime;
+import org.rcsb.strucmotif.domain.bucket.Bucket;
+import org.rcsb.strucmotif.domain.bucket.StructureIndexBitmap;
+import org.rcsb.strucmotif.domain.query.StructureContextBuilder;
+import org.rcsb.strucmotif.domain.structure.LabelSelection;
+import org.rcsb.strucmotif.domain.structure.Structure;
 import org.rcsb.strucmotif.io.DefaultInvertedIndex;
+import org.rcsb.strucmotif.io.InvertedIndex;
+import org.rcsb.strucmotif.io.ShardedInvertedIndex;
 import org.rcsb.strucmotif.io.DefaultStructureReader;
 import org.rcsb.strucmotif.io.ResidueTypeResolver;
 import org.rcsb.strucmotif.io.DefaultResidueTypeResolver;
@@ -20,16 +34,28 @@ import org.rcsb.strucmotif.io.DefaultStructureWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.IntPredicate;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class UpdateIntegrationTest {
     private static final Logger logger = LoggerFactory.getLogger(UpdateIntegrationTest.class);
@@ -41,7 +67,7 @@ class UpdateIntegrationTest {
     private Path path;
     private StateRepository state;
     private DefaultStructureDataProvider data;
-    private DefaultInvertedIndex index;
+    private ShardedInvertedIndex index;
     private StrucmotifUpdate update;
 
     @BeforeEach
@@ -50,6 +76,10 @@ class UpdateIntegrationTest {
         // ensure merging and side-by-side temporary files happen
         strucmotifConfig.setCommitInterval(1);
         strucmotifConfig.setInvertedIndexBackend(InvertedIndexBackend.COLFER);
+        createRoot();
+    }
+
+    private void createRoot() throws IOException {
         this.path = Files.createTempDirectory("strucmotif-update-tests-");
         Files.createFile(path.resolve(StrucmotifConfig.INDEX + StrucmotifConfig.DATA_EXT));
         Files.createFile(path.resolve(StrucmotifConfig.INDEX + StrucmotifConfig.INDEX_EXT));
@@ -62,7 +92,7 @@ class UpdateIntegrationTest {
         StructureReader reader = new DefaultStructureReader(residueTypeResolver);
         StructureWriter writer = new DefaultStructureWriter(residueTypeResolver, strucmotifConfig);
         this.data = new DefaultStructureDataProvider(reader, writer, strucmotifConfig);
-        this.index = new DefaultInvertedIndex(strucmotifConfig);
+        this.index = new ShardedInvertedIndex(strucmotifConfig);
 
         init();
     }
@@ -84,6 +114,10 @@ class UpdateIntegrationTest {
 
     @AfterEach
     public void teardown() throws IOException {
+        deleteRoot();
+    }
+
+    private void deleteRoot() throws IOException {
         logger.info("Deleting tmp dir at {}", path);
         try (Stream<Path> paths = Files.walk(path)) {
             paths.sorted(Comparator.reverseOrder())
@@ -126,6 +160,12 @@ class UpdateIntegrationTest {
         assertEquals(stateCount, state.reportKnownKeys().size(), stateCount == 0 ? "State should be empty" : "State counts don't match");
         assertEquals(structureCount, data.reportKnownFiles().size(), structureCount == 0 ? "Structure data dir should be empty" : "Structure counts don't match");
         assertEquals(indexCount, index.reportKnownKeys().size(), indexCount == 0 ? "Index should be empty" : "Index counts don't match");
+        assertEquals(index.reportKnownDescriptors().size(), index.getDescriptorStatistics().size(), "Statistics don't cover all descriptors");
+        if (indexCount > 0) {
+            int[] descriptors = index.reportKnownDescriptors().stream().mapToInt(Integer::intValue).toArray();
+            StructureIndexBitmap bitmap = index.selectStructureIndices(descriptors).orElseThrow();
+            assertTrue(index.reportKnownKeys().stream().allMatch(bitmap::contains), "Bitmaps don't cover all structures");
+        }
     }
 
     @Test
@@ -169,4 +209,192 @@ class UpdateIntegrationTest {
         init();
         assertStateCounts(6, 6, 6);
     }
+
+    @Test
+    void whenCompacting_thenCountsRemain() throws Exception {
+        update.run(toArgs(Operation.ADD, UPDATE_1));
+        init();
+        assertStateCounts(3, 3, 3);
+
+        update.run(toArgs(Operation.REMOVE, UPDATE_OVERLAP));
+        init();
+        assertStateCounts(2, 2, 2);
+
+        update.run(toArgs(Operation.COMPACT, List.of()));
+        init();
+        assertStateCounts(2, 2, 2);
+
+        update.run(toArgs(Operation.ADD, UPDATE_OVERLAP));
+        init();
+        assertStateCounts(4, 4, 4);
+    }
+
+    @Test
+    void whenUpdatingShardedIndex_thenCountsMatch() throws Exception {
+        strucmotifConfig.setIndexShards(2);
+        this.index = new ShardedInvertedIndex(strucmotifConfig);
+        init();
+        assertStateCounts(0, 0, 0);
+
+        update.run(toArgs(Operation.ADD, UPDATE_1));
+        init();
+        assertStateCounts(3, 3, 3);
+        assertTrue(index.getShards().stream().noneMatch(shard -> shard.reportKnownKeys().isEmpty()), "Structures should be spread across shards");
+
+        update.run(toArgs(Operation.REMOVE, UPDATE_OVERLAP));
+        init();
+        assertStateCounts(2, 2, 2);
+
+        update.run(toArgs(Operation.ADD, UPDATE_2));
+        init();
+        assertStateCounts(5, 5, 5);
+    }
+
+    @Test
+    void whenPartialFilesInShards_thenDeletedBeforeUpdate() throws Exception {
+        strucmotifConfig.setIndexShards(2);
+        this.index = new ShardedInvertedIndex(strucmotifConfig);
+        init();
+
+        // left behind by a failed commit: must not be merged into the shard
+        Path partial = path.resolve(StrucmotifConfig.SHARD + 0).resolve(StrucmotifConfig.INDEX + ".0-AB" + StrucmotifConfig.TMP_EXT);
+        try (DataOutputStream outputStream = new DataOutputStream(Files.newOutputStream(partial))) {
+            outputStream.writeInt(42 | 1 << 31);
+            outputStream.writeInt(1);
+            outputStream.writeLong((long) 42 << 32 | 1);
+        }
+
+        update.run(toArgs(Operation.ADD, UPDATE_1));
+        init();
+        assertStateCounts(3, 3, 3);
+        assertFalse(Files.exists(partial));
+    }
+
+    @Test
+    void whenQueryingShardedIndex_thenHitsMatchSingleIndex() throws Exception {
+        update.run(toArgs(Operation.ADD, UPDATE_1));
+        init();
+        Set<String> expected = query(index);
+        assertFalse(expected.isEmpty());
+
+        deleteRoot();
+        strucmotifConfig.setIndexShards(2);
+        createRoot();
+        update.run(toArgs(Operation.ADD, UPDATE_1));
+        init();
+        assertTrue(index.getShards().stream().noneMatch(shard -> shard.reportKnownKeys().isEmpty()), "Structures should be spread across shards");
+
+        assertEquals(expected, query(index));
+    }
+
+    @Test
+    void whenQueryingIndexWithoutBitmaps_thenHitsMatchAndBucketsReadOnce() throws Exception {
+        update.run(toArgs(Operation.ADD, UPDATE_1));
+        init();
+        Set<String> expected = query(index);
+
+        List<String> selections = Collections.synchronizedList(new ArrayList<>());
+        DefaultInvertedIndex withoutBitmaps = new DefaultInvertedIndex(strucmotifConfig) {
+            @Override
+            public Optional<StructureIndexBitmap> selectStructureIndices(int... residuePairDescriptors) {
+                return Optional.empty();
+            }
+
+            @Override
+            public Bucket[] selectAll(int[] residuePairDescriptors, IntPredicate structureFilter) {
+                selections.add(Arrays.toString(residuePairDescriptors));
+                return super.selectAll(residuePairDescriptors, structureFilter);
+            }
+        };
+        withoutBitmaps.setUp();
+        try {
+            assertEquals(expected, query(withoutBitmaps));
+            // the semi-join only reads structure indices: buckets of each step are requested once
+            assertFalse(selections.isEmpty());
+            assertEquals(selections.size(), new HashSet<>(selections).size());
+
+            strucmotifConfig.setAssemblyChunkSize(1);
+            assertEquals(expected, query(withoutBitmaps));
+        } finally {
+            withoutBitmaps.tearDown();
+        }
+    }
+
+    @Test
+    void whenStructureMissesLaterStepWithoutBitmaps_thenNoTargetStructure() throws Exception {
+        update.run(toArgs(Operation.ADD, UPDATE_1));
+        init();
+        String structureIdentifier = TestCases.PDB_3ULN.getKey().toUpperCase();
+        int hidden = new DefaultStructureIndexProvider(state).selectStructureIndex(structureIdentifier);
+
+        // the structure only has residue pairs for whichever step is read first
+        Set<String> firstStep = Collections.synchronizedSet(new HashSet<>());
+        Set<Integer> reported = Collections.synchronizedSet(new HashSet<>());
+        DefaultInvertedIndex withoutBitmaps = new DefaultInvertedIndex(strucmotifConfig) {
+            @Override
+            public Optional<StructureIndexBitmap> selectStructureIndices(int... residuePairDescriptors) {
+                return Optional.empty();
+            }
+
+            @Override
+            public StructureIndexBitmap scanStructureIndices(int[] residuePairDescriptors, IntPredicate structureFilter) {
+                return super.scanStructureIndices(residuePairDescriptors, hide(residuePairDescriptors, structureFilter));
+            }
+
+            @Override
+            public Bucket[] selectAll(int[] residuePairDescriptors, IntPredicate structureFilter) {
+                IntPredicate filter = hide(residuePairDescriptors, structureFilter);
+                return super.selectAll(residuePairDescriptors, structureIndex -> {
+                    boolean accepted = filter.test(structureIndex);
+                    if (accepted) {
+                        reported.add(structureIndex);
+                    }
+                    return accepted;
+                });
+            }
+
+            private IntPredicate hide(int[] residuePairDescriptors, IntPredicate structureFilter) {
+                IntPredicate filter = structureFilter == null ? structureIndex -> true : structureFilter;
+                if (firstStep.isEmpty()) {
+                    firstStep.add(Arrays.toString(residuePairDescriptors));
+                }
+                return firstStep.contains(Arrays.toString(residuePairDescriptors)) ? filter : filter.and(structureIndex -> structureIndex != hidden);
+            }
+        };
+        withoutBitmaps.setUp();
+        try {
+            Set<String> hits = query(withoutBitmaps);
+            assertFalse(reported.isEmpty());
+            assertFalse(reported.contains(hidden), "residue pairs of a structure without all steps were decoded");
+            assertTrue(hits.stream().noneMatch(hit -> hit.startsWith(structureIdentifier)));
+        } finally {
+            withoutBitmaps.tearDown();
+        }
+    }
+
+    @Test
+    void whenExceedingMemoryBudget_thenQueryTerminated() throws Exception {
+        update.run(toArgs(Operation.ADD, UPDATE_1));
+        init();
+
+        // exceeded while the residue pairs of the first step are decoded
+        strucmotifConfig.setQueryMemoryBudget(1);
+        assertThrows(QueryMemoryExceededException.class, () -> query(index));
+    }
+
+    private Set<String> query(InvertedIndex invertedIndex) {
+        StructureIndexProvider keys = new DefaultStructureIndexProvider(state);
+        StrucmotifRuntime runtime = new DefaultStrucmotifRuntime(new DefaultTargetAssembler(keys), strucmotifConfig, new QuaternionAlignmentService());
+        StructureContextBuilder contextBuilder = new StructureContextBuilder(keys, data, new KruskalMotifPruner(), new NoOperationMotifPruner(), runtime, strucmotifConfig, invertedIndex);
+        Structure structure = data.readRenumbered(TestCases.PDB_3ULN.getKey().toUpperCase());
+        List<LabelSelection> labelSelections = List.of(structure.getLabelSelection(0), structure.getLabelSelection(1), structure.getLabelSelection(2));
+        return contextBuilder.defineByStructureAndSelection(structure, labelSelections)
+                .buildParameters()
+                .buildContext()
+                .run()
+                .getHits()
+                .stream()
+                .map(hit -> hit.structureIdentifier() + "-" + hit.assemblyIdentifier() + ":" + hit.labelSelections() + String.format(" %.3f", hit.rmsd()))
+                .collect(Collectors.toSet());
+    }
 }